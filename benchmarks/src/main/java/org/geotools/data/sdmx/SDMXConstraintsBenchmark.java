@@ -0,0 +1,115 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.data.Query;
+import org.geotools.filter.text.ecql.ECQL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Translation of query filters into SDMX constraints, for filters of
+ * different shapes
+ *
+ * @author lmorandini
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SDMXConstraintsBenchmark {
+
+  @Param({ "all", "equals", "in", "partial", "time", "large-in" })
+  public String shape;
+
+  protected File directory;
+  protected SDMXDataStore dataStore;
+  protected SDMXDataflowFeatureSource dfSource;
+  protected Query query;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+
+    this.directory = Files.createTempDirectory("sdmx-benchmark").toFile();
+    this.dataStore = SDMXSyntheticData.createOfflineDataStore(this.directory,
+        SDMXSyntheticData.structure(1000));
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+
+    switch (this.shape) {
+    case "all":
+      this.query = Query.ALL;
+      break;
+    case "equals":
+      this.query = new Query("", ECQL.toFilter("MEASURE='3' and MSTP='TOT'"
+          + " and AGE='TOT' and STATE='0' and REGIONTYPE='AUS'"
+          + " and REGION='0' and FREQUENCY='A'"));
+      break;
+    case "in":
+      this.query = new Query("",
+          ECQL.toFilter("MEASURE in ('1', '2', '3') and MSTP='TOT'"
+              + " and AGE='TOT' and STATE='1' and REGIONTYPE='STE'"
+              + " and REGION in ('1','2','3','4') and FREQUENCY='A'"));
+      break;
+    case "partial":
+      this.query = new Query("", ECQL.toFilter(
+          "MEASURE in ('1', '2', '3') and MSTP='TOT' and AGE='TOT'"));
+      break;
+    case "time":
+      this.query = new Query("", ECQL.toFilter(
+          "MEASURE='3' and TIME >= '2011' and TIME < '2016'"));
+      break;
+    default:
+      StringBuilder regions = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+        regions.append(i == 0 ? "'" : ",'").append(i).append("'");
+      }
+      this.query = new Query("", ECQL.toFilter(
+          "MEASURE='1' and REGION in (" + regions + ")"));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.dataStore.dispose();
+    SDMXSyntheticData.delete(this.directory);
+  }
+
+  @Benchmark
+  public String buildConstraints() throws Exception {
+    return this.dfSource.buildConstraints(this.query);
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.filter.text.ecql.ECQL;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading of the codes of a large codelist through the dimensions feature
+ * type, either all of them or the ones matching a description
+ *
+ * @author lmorandini
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SDMXDimensionReaderBenchmark {
+
+  @Param({ "1000", "10000", "100000" })
+  public int codes;
+
+  @Param({ "CODE = 'REGION'",
+      "CODE = 'REGION' and DESCRIPTION ILIKE '%north 5%'" })
+  public String filter;
+
+  protected File directory;
+  protected SDMXDataStore dataStore;
+  protected ContentFeatureSource dimSource;
+  protected Query query;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+
+    this.directory = Files.createTempDirectory("sdmx-benchmark").toFile();
+    this.dataStore = SDMXSyntheticData.createOfflineDataStore(this.directory,
+        SDMXSyntheticData.structure(this.codes));
+    this.dimSource = this.dataStore.getFeatureSource(Helper.T04_DIMENSIONS);
+    this.query = new Query(Helper.T04_DIMENSIONS, ECQL.toFilter(this.filter));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.dataStore.dispose();
+    SDMXSyntheticData.delete(this.directory);
+  }
+
+  @Benchmark
+  public int readCodes(Blackhole blackhole) throws Exception {
+    int n = 0;
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> reader = this.dimSource
+        .getReader(this.query)) {
+      while (reader.hasNext()) {
+        blackhole.consume(reader.next());
+        n++;
+      }
+    }
+    return n;
+  }
+
+}
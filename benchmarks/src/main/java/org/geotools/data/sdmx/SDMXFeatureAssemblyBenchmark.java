@@ -0,0 +1,201 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.Point;
+
+import it.bancaditalia.oss.sdmx.api.PortableTimeSeries;
+
+/**
+ * Building of dataflow features from series already parsed, comparing
+ * SDMXDataflowFeatureReader with the assembly it replaced: PortableTimeSeries
+ * whose dimensions are "NAME=VALUE" strings split twice per feature, and a new
+ * builder per feature with attributes set by name.
+ *
+ * The series are those of the query-t04*.xml test messages. An operation is a
+ * feature, hence with "-prof gc" gc.alloc.rate.norm is the number of bytes
+ * allocated per feature.
+ *
+ * @author lmorandini
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SDMXFeatureAssemblyBenchmark {
+
+  // Data messages of the tests, and their number of observations
+  protected static final String[] MESSAGES = { "test-data/query-t04.xml",
+      "test-data/query-t04-1.xml", "test-data/query-t04-2.xml",
+      "test-data/query-t04-321.xml" };
+  protected static final int FEATURES = 21;
+
+  protected static final Logger LOGGER = Logging
+      .getLogger(SDMXFeatureAssemblyBenchmark.class);
+
+  /**
+   * A dimension of a PortableTimeSeries, as parsed by the previous reader
+   */
+  protected static class DimensionValue {
+
+    public String name;
+    public String value;
+
+    DimensionValue(String s) {
+      this.name = s.split(SDMXDataStore.SEPARATOR_DIM)[0];
+      this.value = s.split(SDMXDataStore.SEPARATOR_DIM)[1];
+    }
+
+    public boolean isMeasure() {
+      return this.name.equals(SDMXDataStore.MEASURE_KEY);
+    }
+  }
+
+  protected SimpleFeatureType featureType;
+  protected List<SDMXSeries> series;
+  protected List<PortableTimeSeries> timeSeries;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName(Helper.T04);
+    builder.add(SDMXDataStore.GEOMETRY_ATTR, Point.class);
+    builder.setDefaultGeometry(SDMXDataStore.GEOMETRY_ATTR);
+    builder.add(SDMXDataStore.TIME_KEY, String.class);
+    builder.add(SDMXDataStore.MEASURE_KEY, Double.class);
+    for (String dim : SDMXDataParserTest.T04_DIMENSIONS) {
+      if (!SDMXDataStore.MEASURE_KEY.equals(dim)) {
+        builder.add(dim, String.class);
+      }
+    }
+    this.featureType = builder.buildFeatureType();
+
+    this.series = new ArrayList<SDMXSeries>();
+    for (String message : MESSAGES) {
+      try (SDMXDataParser parser = new SDMXDataParser(
+          Helper.readXMLAsStream(message), SDMXDataParserTest.T04_DIMENSIONS,
+          SDMXDataStore.TIME_KEY)) {
+        while (parser.hasNext()) {
+          this.series.add(parser.next());
+        }
+      }
+    }
+
+    // The same series, as returned by the SDMX client to the previous reader
+    this.timeSeries = new ArrayList<PortableTimeSeries>();
+    for (SDMXSeries s : this.series) {
+      PortableTimeSeries ts = new PortableTimeSeries();
+      String[] dimIds = s.getDimensionIds();
+      for (int i = 0; i < dimIds.length; i++) {
+        ts.getDimensions()
+            .add(dimIds[i] + SDMXDataStore.SEPARATOR_DIM + s.getKeyValue(i));
+      }
+      for (int i = 0; i < s.size(); i++) {
+        ts.getTimeSlots().add(s.getTimeSlot(i));
+        ts.getObservations().add(s.getObservationValue(i));
+      }
+      this.timeSeries.add(ts);
+    }
+
+    int features = 0;
+    for (SDMXSeries s : this.series) {
+      features += s.size();
+    }
+    if (features != FEATURES) {
+      throw new IllegalStateException(
+          "Expected " + FEATURES + " features, got " + features);
+    }
+  }
+
+  /**
+   * The previous assembly of features
+   */
+  @Benchmark
+  @OperationsPerInvocation(FEATURES)
+  public void portableTimeSeries(Blackhole blackhole) {
+
+    for (PortableTimeSeries ts : this.timeSeries) {
+      Iterator<String> timeIter = ts.getTimeSlots().iterator();
+      Iterator<Double> obsIter = ts.getObservations().iterator();
+      while (timeIter.hasNext()) {
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(
+            this.featureType);
+        builder.set(SDMXDataStore.GEOMETRY_ATTR, null);
+        builder.set(SDMXDataStore.TIME_KEY, timeIter.next());
+
+        ts.getDimensions().forEach((dimIn) -> {
+          DimensionValue dimValue = new DimensionValue(dimIn);
+
+          if (dimValue.isMeasure()) {
+            builder.set(SDMXDataStore.MEASURE_KEY, obsIter.next());
+          } else {
+            builder.set(dimValue.name, dimValue.value);
+          }
+        });
+
+        blackhole.consume(builder.buildFeature(
+            (new FeatureIdImpl(String.valueOf(ts.hashCode()))).toString()));
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FEATURES)
+  public void dataflowFeatureReader(Blackhole blackhole) throws Exception {
+
+    SDMXDataflowFeatureReader reader = new SDMXDataflowFeatureReader(null,
+        this.featureType, null, null, SDMXSeriesIterator.of(this.series),
+        null, LOGGER);
+    try {
+      while (reader.hasNext()) {
+        blackhole.consume(reader.next());
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of feature type names, done for every feature source lookup
+ *
+ * @author lmorandini
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SDMXTypeNameBenchmark {
+
+  @Param({ "ABS_CENSUS2011_T04__SDMX",
+      "ABS_CENSUS2011_T04__SDMX__DIMENSIONS", "ABS_CENSUS2011_T04" })
+  public String typeName;
+
+  @Benchmark
+  public boolean isDataflowName() {
+    return SDMXDataStore.isDataflowName(this.typeName);
+  }
+
+  @Benchmark
+  public boolean isDimensionName() {
+    return SDMXDataStore.isDimensionName(this.typeName);
+  }
+
+  @Benchmark
+  public String extractDataflowName() {
+    return SDMXDataStore.extractDataflowName(this.typeName);
+  }
+
+}
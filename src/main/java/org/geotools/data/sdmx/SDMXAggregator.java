@@ -0,0 +1,447 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.feature.visitor.AverageVisitor;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.GroupByVisitor;
+import org.geotools.feature.visitor.GroupByVisitor.GroupByRawResult;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * Computes the result of an aggregation visitor (count, sum, average, min,
+ * max, unique values, optionally grouped by attributes) directly on the
+ * observation arrays of the series, without building features.
+ *
+ * Sums, averages, minima and maxima are computed on MEASURE only, and skip
+ * missing values as the GeoTools visitors do; visitors that cannot be
+ * computed on the series are left to the features.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXAggregator {
+
+  // Aggregation operations
+  public static final int OP_COUNT = 0;
+  public static final int OP_SUM = 1;
+  public static final int OP_AVERAGE = 2;
+  public static final int OP_MIN = 3;
+  public static final int OP_MAX = 4;
+  public static final int OP_UNIQUE = 5;
+
+  /**
+   * Values accumulated for a group of observations
+   */
+  protected static final class Accumulator {
+
+    protected long count = 0;
+    protected long valueCount = 0;
+    protected double sum = 0;
+    protected double min = Double.POSITIVE_INFINITY;
+    protected double max = Double.NEGATIVE_INFINITY;
+    protected Set<Object> unique;
+
+    protected void add(double value) {
+      this.valueCount++;
+      this.sum += value;
+      if (value < this.min) {
+        this.min = value;
+      }
+      if (value > this.max) {
+        this.max = value;
+      }
+    }
+
+    protected void addUnique(Object value) {
+      if (value != null) {
+        if (this.unique == null) {
+          this.unique = new HashSet<Object>();
+        }
+        this.unique.add(value);
+      }
+    }
+
+    /**
+     * Returns the result of an operation (null if there are no values)
+     */
+    protected Object getResult(int operation) {
+      switch (operation) {
+      case OP_COUNT:
+        return Integer.valueOf((int) Math.min(Integer.MAX_VALUE, this.count));
+      case OP_UNIQUE:
+        return this.unique == null ? new HashSet<Object>() : this.unique;
+      default:
+        break;
+      }
+      if (this.valueCount == 0) {
+        return null;
+      }
+      switch (operation) {
+      case OP_SUM:
+        return Double.valueOf(this.sum);
+      case OP_AVERAGE:
+        return Double.valueOf(this.sum / this.valueCount);
+      case OP_MIN:
+        return Double.valueOf(this.min);
+      default:
+        return Double.valueOf(this.max);
+      }
+    }
+  }
+
+  protected final SimpleFeatureType featureType;
+  protected final int operation;
+  protected final String attribute;
+  protected final String[] groupBy;
+
+  // Sources of the aggregated and grouping attributes for the dimensions of
+  // the current series (see SDMXSeriesFeature.mapAttributes())
+  protected String[] dimensionIds;
+  protected int attributeSource = SDMXSeriesFeature.SOURCE_NONE;
+  protected int[] groupSources;
+  protected boolean groupByTime = false;
+
+  protected Accumulator total = new Accumulator();
+  protected Map<List<Object>, Accumulator> groups;
+
+  /**
+   * Constructor
+   *
+   * @param featureTypeIn
+   *          Feature type of the features aggregated
+   * @param operationIn
+   *          Aggregation operation (one of the OP_* constants)
+   * @param attributeIn
+   *          Attribute aggregated (null for counts)
+   * @param groupByIn
+   *          Attributes the observations are grouped by (null for no
+   *          grouping)
+   */
+  public SDMXAggregator(SimpleFeatureType featureTypeIn, int operationIn,
+      String attributeIn, String[] groupByIn) {
+    this.featureType = featureTypeIn;
+    this.operation = operationIn;
+    this.attribute = attributeIn;
+    this.groupBy = groupByIn;
+    if (this.groupBy != null) {
+      this.groups = new LinkedHashMap<List<Object>, Accumulator>();
+      this.groupByTime = Arrays.asList(this.groupBy)
+          .contains(SDMXDataStore.TIME_KEY);
+    }
+  }
+
+  /**
+   * Creates the aggregator of a visitor
+   *
+   * @param visitor
+   *          Feature visitor
+   * @param featureType
+   *          Feature type of the features visited
+   * @return The aggregator, or null if the visitor cannot be computed on the
+   *         series
+   */
+  public static SDMXAggregator create(FeatureVisitor visitor,
+      SimpleFeatureType featureType) {
+
+    if (visitor instanceof GroupByVisitor) {
+      GroupByVisitor groupVisitor = (GroupByVisitor) visitor;
+      List<Expression> exprs = groupVisitor.getGroupByAttributes();
+      String[] groupBy = new String[exprs.size()];
+      for (int i = 0; i < groupBy.length; i++) {
+        groupBy[i] = SDMXAggregator.getAttribute(exprs.get(i), featureType);
+        if (groupBy[i] == null
+            || SDMXDataStore.MEASURE_KEY.equals(groupBy[i])) {
+          return null;
+        }
+      }
+
+      int op;
+      switch (groupVisitor.getAggregateVisitor()) {
+      case COUNT:
+        op = OP_COUNT;
+        break;
+      case SUM:
+        op = OP_SUM;
+        break;
+      case AVERAGE:
+        op = OP_AVERAGE;
+        break;
+      case MIN:
+        op = OP_MIN;
+        break;
+      case MAX:
+        op = OP_MAX;
+        break;
+      default:
+        return null;
+      }
+      return SDMXAggregator.create(featureType, op,
+          groupVisitor.getExpression(), groupBy);
+    }
+
+    if (visitor instanceof CountVisitor) {
+      return new SDMXAggregator(featureType, OP_COUNT, null, null);
+    }
+    if (visitor instanceof SumVisitor) {
+      return SDMXAggregator.create(featureType, OP_SUM,
+          ((SumVisitor) visitor).getExpression(), null);
+    }
+    if (visitor instanceof AverageVisitor) {
+      return SDMXAggregator.create(featureType, OP_AVERAGE,
+          ((AverageVisitor) visitor).getExpression(), null);
+    }
+    if (visitor instanceof MinVisitor) {
+      return SDMXAggregator.create(featureType, OP_MIN,
+          ((MinVisitor) visitor).getExpression(), null);
+    }
+    if (visitor instanceof MaxVisitor) {
+      return SDMXAggregator.create(featureType, OP_MAX,
+          ((MaxVisitor) visitor).getExpression(), null);
+    }
+    if (visitor instanceof UniqueVisitor) {
+      String attr = SDMXAggregator
+          .getAttribute(((UniqueVisitor) visitor).getExpression(), featureType);
+      return attr == null ? null
+          : new SDMXAggregator(featureType, OP_UNIQUE, attr, null);
+    }
+
+    return null;
+  }
+
+  /**
+   * Creates an aggregator of numeric values, which are computed on MEASURE
+   * only
+   */
+  protected static SDMXAggregator create(SimpleFeatureType featureType,
+      int operation, Expression expr, String[] groupBy) {
+    if (operation != OP_COUNT && !SDMXDataStore.MEASURE_KEY
+        .equals(SDMXAggregator.getAttribute(expr, featureType))) {
+      return null;
+    }
+    return new SDMXAggregator(featureType, operation,
+        operation == OP_COUNT ? null : SDMXDataStore.MEASURE_KEY, groupBy);
+  }
+
+  /**
+   * Returns the attribute an expression refers to, or null if the expression
+   * is not a non-geometric attribute of the feature type
+   */
+  protected static String getAttribute(Expression expr,
+      SimpleFeatureType featureType) {
+    if (!(expr instanceof PropertyName)) {
+      return null;
+    }
+    String name = ((PropertyName) expr).getPropertyName();
+    return featureType.getDescriptor(name) == null
+        || SDMXDataStore.GEOMETRY_ATTR.equals(name) ? null : name;
+  }
+
+  /**
+   * Returns true if the aggregation needs the observations, rather than the
+   * series keys only (which is the case of all but the unique values of a
+   * dimension)
+   */
+  public boolean needsObservations() {
+    return this.operation != OP_UNIQUE
+        || SDMXDataStore.TIME_KEY.equals(this.attribute)
+        || SDMXDataStore.MEASURE_KEY.equals(this.attribute);
+  }
+
+  /**
+   * Adds the observations of a series
+   *
+   * @param series
+   *          Series
+   * @param timeRange
+   *          Time range observations are checked against (null if unbound)
+   * @param seriesOnly
+   *          True if only the series key is aggregated (see
+   *          needsObservations())
+   */
+  public void add(SDMXSeries series, SDMXTimeRange timeRange,
+      boolean seriesOnly) {
+
+    if (!Arrays.equals(series.getDimensionIds(), this.dimensionIds)) {
+      this.mapSources(series.getDimensionIds());
+    }
+
+    if (seriesOnly) {
+      this.total.addUnique(
+          SDMXAggregator.getValue(series, -1, this.attributeSource));
+      return;
+    }
+
+    // Values of the series key count once per series
+    if (this.operation == OP_UNIQUE && this.attributeSource >= 0) {
+      for (int i = 0; i < series.size(); i++) {
+        if (timeRange == null || timeRange.contains(series.getTimeSlot(i))) {
+          this.total.count++;
+          this.total.addUnique(series.getKeyValue(this.attributeSource));
+          break;
+        }
+      }
+      return;
+    }
+
+    // Groups not depending on time are looked up once per series
+    Accumulator seriesAcc = this.groupByTime ? null
+        : this.getAccumulator(series, -1);
+
+    for (int i = 0; i < series.size(); i++) {
+      if (timeRange != null && !timeRange.contains(series.getTimeSlot(i))) {
+        continue;
+      }
+
+      Accumulator acc = seriesAcc != null ? seriesAcc
+          : this.getAccumulator(series, i);
+      acc.count++;
+      if (this.operation == OP_UNIQUE) {
+        acc.addUnique(SDMXAggregator.getValue(series, i, this.attributeSource));
+      } else if (this.operation != OP_COUNT) {
+        double value = series.getObservation(i);
+        if (!Double.isNaN(value)) {
+          acc.add(value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps the aggregated and grouping attributes to their sources
+   */
+  protected void mapSources(String[] dimensionIdsIn) {
+    this.dimensionIds = dimensionIdsIn;
+    int[] sources = SDMXSeriesFeature.mapAttributes(this.featureType,
+        dimensionIdsIn);
+    this.attributeSource = this.attribute == null
+        ? SDMXSeriesFeature.SOURCE_NONE
+        : sources[this.featureType.indexOf(this.attribute)];
+    if (this.groupBy != null) {
+      this.groupSources = new int[this.groupBy.length];
+      for (int i = 0; i < this.groupBy.length; i++) {
+        this.groupSources[i] = sources[this.featureType
+            .indexOf(this.groupBy[i])];
+      }
+    }
+  }
+
+  /**
+   * Returns the accumulator of the group of an observation, creating it if
+   * needed
+   */
+  protected Accumulator getAccumulator(SDMXSeries series, int obsIndex) {
+    if (this.groups == null) {
+      return this.total;
+    }
+    List<Object> key = new ArrayList<Object>(this.groupSources.length);
+    for (int source : this.groupSources) {
+      key.add(SDMXAggregator.getValue(series, obsIndex, source));
+    }
+    Accumulator acc = this.groups.get(key);
+    if (acc == null) {
+      acc = new Accumulator();
+      this.groups.put(key, acc);
+    }
+    return acc;
+  }
+
+  /**
+   * Returns the value of an attribute of an observation (obsIndex is -1 for
+   * values of the series key)
+   */
+  protected static Object getValue(SDMXSeries series, int obsIndex,
+      int source) {
+    switch (source) {
+    case SDMXSeriesFeature.SOURCE_NONE:
+    case SDMXSeriesFeature.SOURCE_GEOMETRY:
+      return null;
+    case SDMXSeriesFeature.SOURCE_TIME:
+      return obsIndex < 0 ? null : series.getTimeSlot(obsIndex);
+    case SDMXSeriesFeature.SOURCE_MEASURE:
+      return obsIndex < 0 ? null : series.getObservationValue(obsIndex);
+    default:
+      return series.getKeyValue(source);
+    }
+  }
+
+  /**
+   * Sets the result of the aggregation on the visitor it was created from
+   * (results with no values are not set, so that the visitor returns its
+   * empty result)
+   *
+   * @param visitor
+   *          Feature visitor
+   */
+  public void setResult(FeatureVisitor visitor) {
+
+    if (this.groups != null) {
+      List<GroupByRawResult> results = new ArrayList<GroupByRawResult>(
+          this.groups.size());
+      this.groups.forEach((key, acc) -> {
+        Object value = acc.count == 0 ? null : acc.getResult(this.operation);
+        if (value != null) {
+          results.add(new GroupByRawResult(key, value));
+        }
+      });
+      ((GroupByVisitor) visitor).setValue(results);
+      return;
+    }
+
+    Object value = this.total.getResult(this.operation);
+    if (value == null) {
+      return;
+    }
+    switch (this.operation) {
+    case OP_COUNT:
+      ((CountVisitor) visitor).setValue(((Integer) value).intValue());
+      break;
+    case OP_SUM:
+      ((SumVisitor) visitor).setValue(value);
+      break;
+    case OP_AVERAGE:
+      ((AverageVisitor) visitor).setValue(value);
+      break;
+    case OP_MIN:
+      ((MinVisitor) visitor).setValue(value);
+      break;
+    case OP_MAX:
+      ((MaxVisitor) visitor).setValue(value);
+      break;
+    default:
+      ((UniqueVisitor) visitor).setValue(value);
+    }
+  }
+
+}
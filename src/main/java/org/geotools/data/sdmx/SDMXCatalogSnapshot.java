@@ -0,0 +1,350 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import it.bancaditalia.oss.sdmx.api.Codelist;
+import it.bancaditalia.oss.sdmx.api.DSDIdentifier;
+import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
+import it.bancaditalia.oss.sdmx.api.Dataflow;
+import it.bancaditalia.oss.sdmx.api.Dimension;
+
+/**
+ * On-disk snapshot of the catalog of an SDMX endpoint (dataflows, DSDs and
+ * their codelists), used to start a data store without querying the SDMX
+ * server.
+ *
+ * Feature types are not stored: they are derived from the DSDs without any
+ * further request, and building them costs far less than reading the DSDs.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXCatalogSnapshot {
+
+  // Format identifiers of the snapshot file
+  protected static final int MAGIC = 0x53444d58;
+  protected static final int FORMAT_VERSION = 3;
+  protected static final String FILE_SUFFIX = ".catalog";
+
+  protected File file;
+  protected String endpoint;
+  protected long ttl;
+  protected Logger LOGGER;
+
+  protected long timestamp;
+  protected Map<String, Dataflow> dataflows = new HashMap<String, Dataflow>();
+  protected Map<String, DataFlowStructure> dataflowStructures = new HashMap<String, DataFlowStructure>();
+
+  /**
+   * Constructor
+   *
+   * @param directory
+   *          Directory where the snapshot is kept
+   * @param provider
+   *          Name of the SDMX provider
+   * @param endpoint
+   *          Endpoint of the SDMX API (used to tell snapshots apart)
+   * @param ttl
+   *          Time-to-live of the snapshot in milliseconds
+   * @param logger
+   */
+  public SDMXCatalogSnapshot(File directory, String provider, String endpoint,
+      long ttl, Logger logger) {
+    this.file = new File(directory, provider.replaceAll("[^A-Za-z0-9_-]", "_")
+        + "-" + Integer.toHexString(endpoint.hashCode()) + FILE_SUFFIX);
+    this.endpoint = endpoint;
+    this.ttl = ttl;
+    this.LOGGER = logger;
+  }
+
+  public File getFile() {
+    return this.file;
+  }
+
+  public Map<String, Dataflow> getDataflows() {
+    return this.dataflows;
+  }
+
+  public Map<String, DataFlowStructure> getDataflowStructures() {
+    return this.dataflowStructures;
+  }
+
+  /**
+   * Returns true if the snapshot is older than its time-to-live
+   */
+  public boolean isExpired() {
+    return System.currentTimeMillis() - this.timestamp > this.ttl;
+  }
+
+  /**
+   * Loads the snapshot from disk
+   *
+   * @return true if a valid snapshot was found and loaded
+   */
+  public boolean load() {
+
+    if (!this.file.canRead()) {
+      return false;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(new FileInputStream(this.file))))) {
+
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        LOGGER.log(Level.WARNING, "Ignoring SDMX catalog snapshot "
+            + this.file + " written in an unknown format");
+        return false;
+      }
+
+      long timestampIn = in.readLong();
+      String endpointIn = readString(in);
+      if (!endpointIn.equals(this.endpoint)) {
+        LOGGER.log(Level.WARNING, "Ignoring SDMX catalog snapshot "
+            + this.file + " of another endpoint (" + endpointIn + ")");
+        return false;
+      }
+      Map<String, Dataflow> dataflowsIn = new LinkedHashMap<String, Dataflow>();
+      Map<String, DataFlowStructure> structuresIn = new HashMap<String, DataFlowStructure>();
+
+      int nDataflows = in.readInt();
+      for (int i = 0; i < nDataflows; i++) {
+        String key = readString(in);
+        dataflowsIn.put(key, readDataflow(in));
+      }
+
+      int nStructures = in.readInt();
+      for (int i = 0; i < nStructures; i++) {
+        String key = readString(in);
+        structuresIn.put(key, readStructure(in));
+      }
+
+      this.timestamp = timestampIn;
+      this.dataflows = dataflowsIn;
+      this.dataflowStructures = structuresIn;
+      LOGGER.log(Level.FINE,
+          "Loaded SDMX catalog snapshot " + this.file + " with "
+              + nDataflows + " dataflows and " + nStructures + " DSDs");
+      return true;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING,
+          "Cannot read SDMX catalog snapshot " + this.file, e);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the snapshot to disk (the file is replaced atomically, hence
+   * concurrent readers never see a partial snapshot)
+   *
+   * @param dataflowsIn
+   *          Dataflows of the endpoint
+   * @param structuresIn
+   *          DSDs retrieved so far, keyed by dataflow name
+   */
+  public synchronized void save(Map<String, Dataflow> dataflowsIn,
+      Map<String, DataFlowStructure> structuresIn) {
+
+    File dir = this.file.getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      LOGGER.log(Level.WARNING,
+          "Cannot create SDMX catalog directory " + dir);
+      return;
+    }
+
+    File tmpFile = new File(dir, this.file.getName() + ".tmp");
+    long timestampOut = System.currentTimeMillis();
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(
+              new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(timestampOut);
+        writeString(out, this.endpoint);
+
+        out.writeInt(dataflowsIn.size());
+        for (Map.Entry<String, Dataflow> e : dataflowsIn.entrySet()) {
+          writeString(out, e.getKey());
+          writeDataflow(out, e.getValue());
+        }
+
+        out.writeInt(structuresIn.size());
+        for (Map.Entry<String, DataFlowStructure> e : structuresIn
+            .entrySet()) {
+          writeString(out, e.getKey());
+          writeStructure(out, e.getValue());
+        }
+      }
+      Files.move(tmpFile.toPath(), this.file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      this.timestamp = timestampOut;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING,
+          "Cannot write SDMX catalog snapshot " + this.file, e);
+      tmpFile.delete();
+    }
+  }
+
+  protected static void writeDataflow(DataOutputStream out, Dataflow df)
+      throws IOException {
+    writeString(out, df.getId());
+    writeString(out, df.getAgency());
+    writeString(out, df.getVersion());
+    writeString(out, df.getName());
+    writeString(out, df.getDescription());
+    DSDIdentifier dsdId = df.getDsdIdentifier();
+    out.writeBoolean(dsdId != null);
+    if (dsdId != null) {
+      writeString(out, dsdId.getId());
+      writeString(out, dsdId.getAgency());
+      writeString(out, dsdId.getVersion());
+    }
+  }
+
+  protected static Dataflow readDataflow(DataInputStream in)
+      throws IOException {
+    Dataflow df = new Dataflow();
+    df.setId(readString(in));
+    df.setAgency(readString(in));
+    df.setVersion(readString(in));
+    df.setName(readString(in));
+    df.setDescription(readString(in));
+    if (in.readBoolean()) {
+      df.setDsdIdentifier(
+          new DSDIdentifier(readString(in), readString(in), readString(in)));
+    }
+    return df;
+  }
+
+  protected static void writeStructure(DataOutputStream out,
+      DataFlowStructure dfs) throws IOException {
+    writeString(out, dfs.getId());
+    writeString(out, dfs.getAgency());
+    writeString(out, dfs.getVersion());
+    writeString(out, dfs.getName());
+    writeString(out, dfs.getTimeDimension());
+    writeString(out, dfs.getMeasure());
+
+    List<Dimension> dims = dfs.getDimensions();
+    out.writeInt(dims.size());
+    for (Dimension dim : dims) {
+      writeString(out, dim.getId());
+      writeString(out, dim.getName());
+      out.writeInt(dim.getPosition());
+
+      Codelist codelist = dim.getCodeList();
+      out.writeBoolean(codelist != null);
+      if (codelist != null) {
+        writeString(out, codelist.getId());
+        writeString(out, codelist.getAgency());
+        writeString(out, codelist.getVersion());
+        Map<String, String> codes = codelist.getCodes();
+        out.writeInt(codes == null ? 0 : codes.size());
+        if (codes != null) {
+          for (Map.Entry<String, String> code : codes.entrySet()) {
+            writeString(out, code.getKey());
+            writeString(out, code.getValue());
+          }
+        }
+      }
+    }
+  }
+
+  protected static DataFlowStructure readStructure(DataInputStream in)
+      throws IOException {
+    DataFlowStructure dfs = new DataFlowStructure();
+    dfs.setId(readString(in));
+    dfs.setAgency(readString(in));
+    dfs.setVersion(readString(in));
+    dfs.setName(readString(in));
+    dfs.setTimeDimension(readString(in));
+    dfs.setMeasure(readString(in));
+
+    int nDims = in.readInt();
+    for (int i = 0; i < nDims; i++) {
+      Dimension dim = new Dimension();
+      dim.setId(readString(in));
+      dim.setName(readString(in));
+      dim.setPosition(in.readInt());
+
+      if (in.readBoolean()) {
+        Codelist codelist = new Codelist(readString(in), readString(in),
+            readString(in));
+        int nCodes = in.readInt();
+        // Keeps the order of the codes as returned by the server
+        Map<String, String> codes = new LinkedHashMap<String, String>(
+            nCodes * 4 / 3 + 1);
+        for (int j = 0; j < nCodes; j++) {
+          codes.put(readString(in), readString(in));
+        }
+        codelist.setCodes(codes);
+        dim.setCodeList(codelist);
+      }
+      dfs.setDimension(dim);
+    }
+    return dfs;
+  }
+
+  /**
+   * Writes a string as its length in bytes (-1 for null) followed by its UTF-8
+   * encoding (writeUTF is limited to 64 KB, which descriptions can exceed)
+   */
+  protected static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  protected static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker of the requests sent to an SDMX endpoint.
+ *
+ * After a given number of consecutive failures the circuit opens, and
+ * requests are refused without being sent. Once the circuit has been open for
+ * a given time, a single trial request is let through: the circuit closes if
+ * it succeeds and opens again if it fails.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXCircuitBreaker {
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  protected int failureThreshold;
+  protected long openTime;
+
+  protected State state = State.CLOSED;
+  protected int failures = 0;
+  protected long opened;
+  protected boolean trialRunning = false;
+
+  protected AtomicLong openings = new AtomicLong();
+  protected AtomicLong refusals = new AtomicLong();
+
+  /**
+   * Constructor
+   *
+   * @param failureThresholdIn
+   *          Number of consecutive failures that open the circuit (0 to never
+   *          open it)
+   * @param openTimeIn
+   *          Time the circuit stays open before a trial request (ms)
+   */
+  public SDMXCircuitBreaker(int failureThresholdIn, long openTimeIn) {
+    this.failureThreshold = failureThresholdIn;
+    this.openTime = openTimeIn;
+  }
+
+  /**
+   * Returns true if a request can be sent (the request must then report
+   * whether it succeeded, failed or was released)
+   */
+  public synchronized boolean allowRequest() {
+
+    if (this.state == State.OPEN
+        && System.currentTimeMillis() - this.opened >= this.openTime) {
+      this.state = State.HALF_OPEN;
+      this.trialRunning = false;
+    }
+
+    if (this.state == State.CLOSED) {
+      return true;
+    }
+    if (this.state == State.HALF_OPEN && !this.trialRunning) {
+      this.trialRunning = true;
+      return true;
+    }
+
+    this.refusals.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Reports that a request succeeded (the circuit closes)
+   */
+  public synchronized void succeeded() {
+    this.failures = 0;
+    this.state = State.CLOSED;
+    this.trialRunning = false;
+  }
+
+  /**
+   * Reports that a request failed (the circuit opens if the failures are too
+   * many, or if the request was the trial one)
+   */
+  public synchronized void failed() {
+    this.failures++;
+    if (this.state == State.HALF_OPEN || (this.failureThreshold > 0
+        && this.state == State.CLOSED
+        && this.failures >= this.failureThreshold)) {
+      this.state = State.OPEN;
+      this.opened = System.currentTimeMillis();
+      this.trialRunning = false;
+      this.openings.incrementAndGet();
+    }
+  }
+
+  /**
+   * Reports that a request ended without telling whether the endpoint works
+   * (e.g. the server refused a wrong request): the failures are unchanged,
+   * and another trial request can be let through
+   */
+  public synchronized void released() {
+    this.trialRunning = false;
+  }
+
+  public synchronized State getState() {
+    return this.state;
+  }
+
+  /**
+   * Returns true if requests are refused (until the next trial request)
+   */
+  public synchronized boolean isOpen() {
+    return this.state == State.OPEN
+        && System.currentTimeMillis() - this.opened < this.openTime;
+  }
+
+  /**
+   * Returns the number of times the circuit opened
+   */
+  public long getOpenCount() {
+    return this.openings.get();
+  }
+
+  /**
+   * Returns the number of requests refused
+   */
+  public long getRefusalCount() {
+    return this.refusals.get();
+  }
+
+}
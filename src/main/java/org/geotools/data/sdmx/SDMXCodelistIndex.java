@@ -0,0 +1,339 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the codes of a codelist (or of the dimensions of a DSD),
+ * used to search codes by value and by description without walking the
+ * codelist.
+ *
+ * Codes are identified by their position in the codelist; searches return
+ * positions in codelist order, which can then be sorted by code or by
+ * description.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXCodelistIndex {
+
+  protected String[] codes;
+  protected String[] descriptions;
+
+  // Descriptions in lower case, used for case-insensitive searches
+  protected String[] keys;
+
+  // Positions sorted by code and by description (as features are sorted),
+  // and the inverse arrays
+  protected int[] byCode;
+  protected int[] byDescription;
+  protected int[] codeRank;
+  protected int[] descriptionRank;
+
+  // Positions sorted by lower-case description, for prefix searches
+  protected int[] byKey;
+
+  protected Map<String, Integer> positions;
+
+  /**
+   * Constructor
+   *
+   * @param codesIn
+   *          Descriptions keyed by code, in codelist order
+   */
+  public SDMXCodelistIndex(Map<String, String> codesIn) {
+
+    int n = codesIn.size();
+    this.codes = new String[n];
+    this.descriptions = new String[n];
+    this.keys = new String[n];
+    this.positions = new HashMap<String, Integer>(n * 2);
+
+    int i = 0;
+    for (Map.Entry<String, String> entry : codesIn.entrySet()) {
+      this.codes[i] = entry.getKey();
+      this.descriptions[i] = entry.getValue() == null ? ""
+          : entry.getValue();
+      this.keys[i] = this.descriptions[i].toLowerCase(Locale.ROOT);
+      this.positions.put(entry.getKey(), i);
+      i++;
+    }
+
+    this.byCode = SDMXCodelistIndex.order(this.codes);
+    this.byDescription = SDMXCodelistIndex.order(this.descriptions);
+    this.byKey = SDMXCodelistIndex.order(this.keys);
+    this.codeRank = SDMXCodelistIndex.invert(this.byCode);
+    this.descriptionRank = SDMXCodelistIndex.invert(this.byDescription);
+  }
+
+  /**
+   * Returns the positions of some values sorted by value
+   */
+  protected static int[] order(String[] values) {
+    Integer[] order = new Integer[values.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparing((Integer i) -> values[i])
+        .thenComparing(i -> i));
+    return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+  }
+
+  protected static int[] invert(int[] order) {
+    int[] rank = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      rank[order[i]] = i;
+    }
+    return rank;
+  }
+
+  public int size() {
+    return this.codes.length;
+  }
+
+  public String getCode(int position) {
+    return this.codes[position];
+  }
+
+  public String getDescription(int position) {
+    return this.descriptions[position];
+  }
+
+  /**
+   * Returns the positions of all the codes
+   */
+  public int[] findAll() {
+    int[] all = new int[this.codes.length];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = i;
+    }
+    return all;
+  }
+
+  /**
+   * Returns the positions of the given codes (codes not in the codelist are
+   * ignored)
+   */
+  public int[] findCodes(Collection<String> codesIn) {
+    return codesIn.stream().map(this.positions::get)
+        .filter(pos -> pos != null).mapToInt(Integer::intValue).distinct()
+        .sorted().toArray();
+  }
+
+  /**
+   * Returns the positions of the codes whose description starts with a
+   * prefix, found by binary search on the lower-case descriptions
+   *
+   * @param prefix
+   *          Prefix of the descriptions
+   * @param matchCase
+   *          False for a case-insensitive search
+   * @return The positions, in codelist order
+   */
+  public int[] findPrefix(String prefix, boolean matchCase) {
+
+    String key = prefix.toLowerCase(Locale.ROOT);
+    int from = this.lowerBound(key);
+    int to = from;
+    while (to < this.byKey.length
+        && this.keys[this.byKey[to]].startsWith(key)) {
+      to++;
+    }
+
+    return Arrays.stream(this.byKey, from, to)
+        .filter(pos -> !matchCase || this.descriptions[pos].startsWith(prefix))
+        .sorted().toArray();
+  }
+
+  /**
+   * Returns the first position in the lower-case description order whose
+   * description is not less than a key
+   */
+  protected int lowerBound(String key) {
+    int low = 0;
+    int high = this.byKey.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (this.keys[this.byKey[mid]].compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the positions of the codes whose description contains a string
+   *
+   * @param part
+   *          String to find in the descriptions
+   * @param matchCase
+   *          False for a case-insensitive search
+   * @return The positions, in codelist order
+   */
+  public int[] findSubstring(String part, boolean matchCase) {
+    String key = matchCase ? part : part.toLowerCase(Locale.ROOT);
+    String[] values = matchCase ? this.descriptions : this.keys;
+    int[] found = new int[values.length];
+    int n = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i].contains(key)) {
+        found[n++] = i;
+      }
+    }
+    return Arrays.copyOf(found, n);
+  }
+
+  /**
+   * Returns the positions of the codes whose description matches a LIKE
+   * pattern. Patterns of the form "abc*" and "*abc*" use the prefix and
+   * substring searches, the others are matched as regular expressions
+   *
+   * @param pattern
+   *          LIKE pattern
+   * @param wildcard
+   *          Wildcard of any number of characters
+   * @param singleChar
+   *          Wildcard of a single character
+   * @param escape
+   *          Escape character
+   * @param matchCase
+   *          False for a case-insensitive search
+   * @return The positions, in codelist order
+   */
+  public int[] findLike(String pattern, String wildcard, String singleChar,
+      String escape, boolean matchCase) {
+
+    // Splits the pattern into literals and wildcards, recording its shape
+    // (L for literal characters, * and ? for wildcards)
+    StringBuilder literal = new StringBuilder();
+    StringBuilder regex = new StringBuilder();
+    StringBuilder shape = new StringBuilder();
+    for (int i = 0; i < pattern.length(); i++) {
+      String c = pattern.substring(i, i + 1);
+      if (c.equals(escape) && i + 1 < pattern.length()) {
+        c = pattern.substring(++i, i + 1);
+      } else if (c.equals(wildcard)) {
+        regex.append(".*");
+        shape.append('*');
+        continue;
+      } else if (c.equals(singleChar)) {
+        regex.append('.');
+        shape.append('?');
+        continue;
+      }
+      literal.append(c);
+      regex.append(Pattern.quote(c));
+      shape.append('L');
+    }
+
+    if (shape.toString().matches("L+\\*+")) {
+      return this.findPrefix(literal.toString(), matchCase);
+    }
+    if (shape.toString().matches("\\*+L+\\*+")) {
+      return this.findSubstring(literal.toString(), matchCase);
+    }
+    if (shape.toString().matches("\\*+")) {
+      return this.findAll();
+    }
+
+    Pattern compiled = Pattern.compile(regex.toString(),
+        matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    int[] found = new int[this.descriptions.length];
+    int n = 0;
+    for (int i = 0; i < this.descriptions.length; i++) {
+      if (compiled.matcher(this.descriptions[i]).matches()) {
+        found[n++] = i;
+      }
+    }
+    return Arrays.copyOf(found, n);
+  }
+
+  /**
+   * Returns the positions found by both searches
+   *
+   * @param a
+   *          Positions in codelist order
+   * @param b
+   *          Positions in codelist order
+   * @return The common positions, in codelist order
+   */
+  public static int[] intersect(int[] a, int[] b) {
+    int[] common = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length;) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        common[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(common, n);
+  }
+
+  /**
+   * Sorts positions by code or by description, using the ranks computed
+   * when the index was built
+   *
+   * @param found
+   *          Positions (sorted in place)
+   * @param byDescriptionIn
+   *          True to sort by description, false to sort by code
+   * @param ascending
+   *          False for descending order
+   * @return The sorted positions
+   */
+  public int[] sort(int[] found, boolean byDescriptionIn, boolean ascending) {
+    int[] rank = byDescriptionIn ? this.descriptionRank : this.codeRank;
+    int[] order = byDescriptionIn ? this.byDescription : this.byCode;
+    for (int i = 0; i < found.length; i++) {
+      found[i] = rank[found[i]];
+    }
+    Arrays.sort(found);
+    for (int i = 0; i < found.length; i++) {
+      found[i] = order[found[i]];
+    }
+    return ascending ? found : SDMXCodelistIndex.reverse(found);
+  }
+
+  /**
+   * Reverses the order of positions (in place)
+   */
+  public static int[] reverse(int[] found) {
+    for (int i = 0, j = found.length - 1; i < j; i++, j--) {
+      int tmp = found[i];
+      found[i] = found[j];
+      found[j] = tmp;
+    }
+    return found;
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Codes actually present in a dataflow, as returned by the availableconstraint
+ * resource of SDMX 2.1 ReST endpoints (the cube regions of a content
+ * constraint). Dimensions not listed in the constraint are not restricted.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXContentConstraints {
+
+  // SDMX-ML element and attribute names
+  protected static final String CUBEREGION_ELEM = "CubeRegion";
+  protected static final String KEYVALUE_ELEM = "KeyValue";
+  protected static final String VALUE_ELEM = "Value";
+  protected static final String ID_ATTR = "id";
+  protected static final String INCLUDE_ATTR = "include";
+
+  // Constraints that do not restrict any dimension (e.g. when the endpoint
+  // does not support availableconstraint)
+  public static final SDMXContentConstraints NONE = new SDMXContentConstraints(
+      Collections.<String, Set<String>> emptyMap());
+
+  protected Map<String, Set<String>> codes;
+
+  /**
+   * Constructor
+   *
+   * @param codesIn
+   *          Codes present in the dataflow, keyed by dimension identifier
+   */
+  public SDMXContentConstraints(Map<String, Set<String>> codesIn) {
+    this.codes = codesIn;
+  }
+
+  /**
+   * Parses an SDMX-ML structure message holding content constraints: the
+   * values of the included cube regions are merged by dimension, excluded
+   * regions are ignored
+   *
+   * @param in
+   *          SDMX-ML structure message (closed when parsed)
+   * @return The content constraints
+   * @throws IOException
+   */
+  public static SDMXContentConstraints parse(InputStream in)
+      throws IOException {
+
+    Map<String, Set<String>> codesIn = new HashMap<String, Set<String>>();
+    XMLStreamReader xml = null;
+    try {
+      xml = SDMXDataParser.XML_FACTORY.createXMLStreamReader(in);
+      boolean included = true;
+      Set<String> values = null;
+
+      while (xml.hasNext()) {
+        int event = xml.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          String name = xml.getLocalName();
+          if (CUBEREGION_ELEM.equals(name)) {
+            included = !"false"
+                .equalsIgnoreCase(xml.getAttributeValue(null, INCLUDE_ATTR));
+          } else if (KEYVALUE_ELEM.equals(name) && included) {
+            values = codesIn.computeIfAbsent(
+                xml.getAttributeValue(null, ID_ATTR),
+                k -> new LinkedHashSet<String>());
+          } else if (VALUE_ELEM.equals(name) && values != null) {
+            values.add(xml.getElementText().trim());
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT
+            && KEYVALUE_ELEM.equals(xml.getLocalName())) {
+          values = null;
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    } finally {
+      if (xml != null) {
+        try {
+          xml.close();
+        } catch (XMLStreamException e) {
+          // Nothing to do, the stream is closed below
+        }
+      }
+      in.close();
+    }
+
+    return new SDMXContentConstraints(codesIn);
+  }
+
+  /**
+   * Returns the codes of a dimension present in the dataflow (null if the
+   * dimension is not restricted)
+   */
+  public Set<String> getCodes(String dimensionId) {
+    return this.codes.get(dimensionId);
+  }
+
+  /**
+   * Retains the codes present in the dataflow
+   *
+   * @param dimensionId
+   *          Identifier of the dimension
+   * @param codesIn
+   *          Codes of the dimension (modified in place)
+   */
+  public void retainCodes(String dimensionId, Collection<String> codesIn) {
+    Set<String> present = this.codes.get(dimensionId);
+    if (present != null) {
+      codesIn.retainAll(present);
+    }
+  }
+
+  public boolean isEmpty() {
+    return this.codes.isEmpty();
+  }
+
+}
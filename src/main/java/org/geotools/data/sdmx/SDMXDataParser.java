@@ -0,0 +1,391 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
+import it.bancaditalia.oss.sdmx.api.Dimension;
+
+/**
+ * Streaming parser of SDMX-ML data messages: series are parsed one at a time
+ * from the input stream, hence memory does not depend on the size of the
+ * message.
+ *
+ * Both the compact/structure-specific (dimension values as attributes of the
+ * Series element) and the generic (SeriesKey and ObsValue elements) formats
+ * of SDMX 2.0 and 2.1 are understood.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXDataParser implements SDMXSeriesIterator {
+
+  // SDMX-ML element and attribute names
+  protected static final String SERIES_ELEM = "Series";
+  protected static final String SERIESKEY_ELEM = "SeriesKey";
+  protected static final String ATTRIBUTES_ELEM = "Attributes";
+  protected static final String OBS_ELEM = "Obs";
+  protected static final String TIME_ELEM = "Time";
+  protected static final String OBSDIMENSION_ELEM = "ObsDimension";
+  protected static final String OBSVALUE_ELEM = "ObsValue";
+  protected static final String ERROR_ELEM = "ErrorMessage";
+  protected static final String VALUE_ATTR = "value";
+  protected static final String ID_ATTR = "id";
+  protected static final String CONCEPT_ATTR = "concept";
+  protected static final String CODE_ATTR = "code";
+  protected static final String OBSVALUE_ATTR = "OBS_VALUE";
+  protected static final String TIME_ATTR = "TIME";
+  protected static final String TIMEPERIOD_ATTR = "TIME_PERIOD";
+
+  protected static final XMLInputFactory XML_FACTORY;
+
+  static {
+    XML_FACTORY = XMLInputFactory.newInstance();
+    XML_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_FACTORY.setProperty(
+        XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  protected InputStream in;
+  protected XMLStreamReader xml;
+  protected String[] dimensionIds;
+  protected Map<String, Integer> dimensionIndex;
+  protected String timeDimension;
+  protected SDMXSeries nextSeries;
+  protected boolean finished;
+
+  // Whether series attributes are parsed (see setDetail())
+  protected boolean parseAttributes = true;
+
+  /**
+   * Constructor
+   *
+   * @param inputStream
+   *          SDMX-ML data message
+   * @param dfStructure
+   *          DSD of the dataflow the message refers to
+   * @throws IOException
+   */
+  public SDMXDataParser(InputStream inputStream, DataFlowStructure dfStructure)
+      throws IOException {
+    this(inputStream, SDMXDataParser.getDimensionIds(dfStructure),
+        dfStructure.getTimeDimension());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param inputStream
+   *          SDMX-ML data message
+   * @param dimensionIdsIn
+   *          Identifiers of the dimensions in the order of the DSD
+   * @param timeDimensionIn
+   *          Identifier of the time dimension (can be null)
+   * @throws IOException
+   */
+  public SDMXDataParser(InputStream inputStream, String[] dimensionIdsIn,
+      String timeDimensionIn) throws IOException {
+
+    this.in = inputStream;
+    this.dimensionIds = dimensionIdsIn;
+    this.timeDimension = timeDimensionIn;
+    this.dimensionIndex = new HashMap<String, Integer>();
+    for (int i = 0; i < this.dimensionIds.length; i++) {
+      this.dimensionIndex.put(this.dimensionIds[i], i);
+    }
+
+    try {
+      this.xml = XML_FACTORY.createXMLStreamReader(this.in);
+    } catch (XMLStreamException e) {
+      this.close();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Sets the parts of the series that are parsed: data-only series skip
+   * attributes, even if the server sends them because it does not support
+   * the detail parameter (the observations of series-keys-only messages are
+   * parsed, since they are returned by such servers and make counts exact)
+   *
+   * @param detail
+   *          One of the SDMXDataQuery.DETAIL_* constants
+   */
+  public void setDetail(String detail) {
+    this.parseAttributes = !SDMXDataQuery.DETAIL_DATAONLY.equals(detail);
+  }
+
+  /**
+   * Returns the identifiers of the dimensions of a DSD, in the DSD order
+   */
+  public static String[] getDimensionIds(DataFlowStructure dfStructure) {
+    List<Dimension> dims = dfStructure.getDimensions();
+    String[] ids = new String[dims.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = dims.get(i).getId();
+    }
+    return ids;
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    if (this.nextSeries == null && !this.finished) {
+      try {
+        this.nextSeries = this.parseNextSeries();
+      } catch (XMLStreamException e) {
+        this.close();
+        throw new IOException(e);
+      }
+    }
+    return this.nextSeries != null;
+  }
+
+  @Override
+  public SDMXSeries next() throws IOException, NoSuchElementException {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SDMXSeries series = this.nextSeries;
+    this.nextSeries = null;
+    return series;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.finished = true;
+    this.nextSeries = null;
+    try {
+      if (this.xml != null) {
+        this.xml.close();
+      }
+    } catch (XMLStreamException e) {
+      // Nothing to do, the stream is closed anyway
+    } finally {
+      this.in.close();
+    }
+  }
+
+  /**
+   * Advances the XML stream to the next series and parses it
+   *
+   * @return The series, or null if the message has no more series
+   * @throws XMLStreamException
+   * @throws IOException
+   */
+  protected SDMXSeries parseNextSeries()
+      throws XMLStreamException, IOException {
+
+    while (this.xml.hasNext()) {
+      if (this.xml.next() == XMLStreamConstants.START_ELEMENT) {
+        String name = this.xml.getLocalName();
+        if (SERIES_ELEM.equals(name)) {
+          return this.parseSeries();
+        }
+        if (ERROR_ELEM.equals(name)) {
+          this.parseError();
+          break;
+        }
+      }
+    }
+
+    this.close();
+    return null;
+  }
+
+  /**
+   * Parses a Series element (the stream is positioned on its start)
+   */
+  protected SDMXSeries parseSeries() throws XMLStreamException {
+
+    String[] keyValues = new String[this.dimensionIds.length];
+    Map<String, String> attributes = new HashMap<String, String>();
+
+    // Compact and structure-specific formats
+    for (int i = 0; i < this.xml.getAttributeCount(); i++) {
+      this.setSeriesValue(this.xml.getAttributeLocalName(i),
+          this.xml.getAttributeValue(i), keyValues, attributes);
+    }
+
+    SDMXSeries series = new SDMXSeries(this.dimensionIds, keyValues,
+        attributes);
+
+    int depth = 1;
+    while (depth > 0) {
+      int event = this.xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = this.xml.getLocalName();
+        if (SERIESKEY_ELEM.equals(name) || (ATTRIBUTES_ELEM.equals(name)
+            && this.parseAttributes)) {
+          this.parseGenericValues(keyValues, attributes);
+        } else if (OBS_ELEM.equals(name)) {
+          this.parseObservation(series);
+        } else {
+          depth++;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+
+    series.trim();
+    return series;
+  }
+
+  /**
+   * Parses the Value elements of a generic SeriesKey or Attributes element
+   * (the stream is positioned on its start and left on its end)
+   */
+  protected void parseGenericValues(String[] keyValues,
+      Map<String, String> attributes) throws XMLStreamException {
+
+    int depth = 1;
+    while (depth > 0) {
+      int event = this.xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        String id = this.xml.getAttributeValue(null, ID_ATTR);
+        if (id == null) {
+          id = this.xml.getAttributeValue(null, CONCEPT_ATTR);
+        }
+        String value = this.xml.getAttributeValue(null, VALUE_ATTR);
+        if (id != null) {
+          this.setSeriesValue(id, value, keyValues, attributes);
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * Parses an Obs element (the stream is positioned on its start and left on
+   * its end)
+   */
+  protected void parseObservation(SDMXSeries series)
+      throws XMLStreamException {
+
+    String time = null;
+    String value = null;
+
+    // Compact and structure-specific formats
+    for (int i = 0; i < this.xml.getAttributeCount(); i++) {
+      String name = this.xml.getAttributeLocalName(i);
+      if (OBSVALUE_ATTR.equals(name)) {
+        value = this.xml.getAttributeValue(i);
+      } else if (this.isTimeDimension(name)) {
+        time = this.xml.getAttributeValue(i);
+      }
+    }
+
+    // Generic format
+    int depth = 1;
+    while (depth > 0) {
+      int event = this.xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = this.xml.getLocalName();
+        if (TIME_ELEM.equals(name)) {
+          // Reading the text consumes the end of the element
+          time = this.xml.getElementText().trim();
+        } else {
+          if (OBSDIMENSION_ELEM.equals(name)) {
+            time = this.xml.getAttributeValue(null, VALUE_ATTR);
+          } else if (OBSVALUE_ELEM.equals(name)) {
+            value = this.xml.getAttributeValue(null, VALUE_ATTR);
+          }
+          depth++;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+
+    series.addObservation(time, SDMXDataParser.parseValue(value));
+  }
+
+  /**
+   * Parses an SDMX 2.1 error message, throwing an exception unless it just
+   * reports that there are no results
+   */
+  protected void parseError() throws XMLStreamException, IOException {
+    String code = this.xml.getAttributeValue(null, CODE_ATTR);
+    if (String.valueOf(SDMXDataStore.ERROR_NORESULTS).equals(code)) {
+      return;
+    }
+
+    StringBuilder text = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      int event = this.xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if (event == XMLStreamConstants.CHARACTERS) {
+        text.append(this.xml.getText().trim());
+      }
+    }
+    throw new IOException(
+        "SDMX server returned error " + code + ": " + text.toString());
+  }
+
+  /**
+   * Sets either a key value or an attribute of a series
+   */
+  protected void setSeriesValue(String name, String value, String[] keyValues,
+      Map<String, String> attributes) {
+    Integer index = this.dimensionIndex.get(name);
+    if (index != null) {
+      keyValues[index] = value;
+    } else if (this.parseAttributes) {
+      attributes.put(name, value);
+    }
+  }
+
+  protected boolean isTimeDimension(String name) {
+    return TIME_ATTR.equals(name) || TIMEPERIOD_ATTR.equals(name)
+        || name.equals(this.timeDimension);
+  }
+
+  /**
+   * Parses an observation value (missing and non-numeric values are NaN)
+   */
+  protected static double parseValue(String value) {
+    if (value == null || value.isEmpty()) {
+      return Double.NaN;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+}
@@ -0,0 +1,208 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.util.Objects;
+
+import it.bancaditalia.oss.sdmx.api.Dataflow;
+
+/**
+ * SDMX data query sent to an endpoint. Queries are immutable and are used as
+ * keys of the observation cache.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXDataQuery {
+
+  // Details of the series returned by the query (the SDMX 2.1 detail
+  // parameter)
+  public static final String DETAIL_FULL = "full";
+  public static final String DETAIL_SERIESKEYSONLY = "serieskeysonly";
+  public static final String DETAIL_DATAONLY = "dataonly";
+
+  protected final String endpoint;
+  protected final Dataflow dataflow;
+  protected final String constraints;
+  protected final String startPeriod;
+  protected final String endPeriod;
+  protected final String detail;
+  protected final int firstNObservations;
+
+  /**
+   * Constructor
+   *
+   * @param endpointIn
+   *          Endpoint of the SDMX API
+   * @param dataflowIn
+   *          Dataflow to query
+   * @param constraintsIn
+   *          SDMX constraints (dimension values separated by dots)
+   * @param startPeriodIn
+   *          Start of the time period (null if not bound)
+   * @param endPeriodIn
+   *          End of the time period (null if not bound)
+   */
+  public SDMXDataQuery(String endpointIn, Dataflow dataflowIn,
+      String constraintsIn, String startPeriodIn, String endPeriodIn) {
+    this(endpointIn, dataflowIn, constraintsIn, startPeriodIn, endPeriodIn,
+        DETAIL_FULL, 0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param endpointIn
+   *          Endpoint of the SDMX API
+   * @param dataflowIn
+   *          Dataflow to query
+   * @param constraintsIn
+   *          SDMX constraints (dimension values separated by dots)
+   * @param startPeriodIn
+   *          Start of the time period (null if not bound)
+   * @param endPeriodIn
+   *          End of the time period (null if not bound)
+   * @param detailIn
+   *          Details of the series returned (one of the DETAIL_* constants)
+   */
+  public SDMXDataQuery(String endpointIn, Dataflow dataflowIn,
+      String constraintsIn, String startPeriodIn, String endPeriodIn,
+      String detailIn) {
+    this(endpointIn, dataflowIn, constraintsIn, startPeriodIn, endPeriodIn,
+        detailIn, 0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param endpointIn
+   *          Endpoint of the SDMX API
+   * @param dataflowIn
+   *          Dataflow to query
+   * @param constraintsIn
+   *          SDMX constraints (dimension values separated by dots)
+   * @param startPeriodIn
+   *          Start of the time period (null if not bound)
+   * @param endPeriodIn
+   *          End of the time period (null if not bound)
+   * @param detailIn
+   *          Details of the series returned (one of the DETAIL_* constants)
+   * @param firstNObservationsIn
+   *          Maximum number of observations returned per series, starting
+   *          from the oldest (0 for no limit)
+   */
+  public SDMXDataQuery(String endpointIn, Dataflow dataflowIn,
+      String constraintsIn, String startPeriodIn, String endPeriodIn,
+      String detailIn, int firstNObservationsIn) {
+    this.endpoint = endpointIn;
+    this.dataflow = dataflowIn;
+    this.constraints = constraintsIn;
+    this.startPeriod = startPeriodIn;
+    this.endPeriod = endPeriodIn;
+    this.detail = detailIn;
+    this.firstNObservations = Math.max(0, firstNObservationsIn);
+  }
+
+  /**
+   * Returns the same query with different details of the series
+   *
+   * @param detailIn
+   *          Details of the series returned (one of the DETAIL_* constants)
+   */
+  public SDMXDataQuery withDetail(String detailIn) {
+    return new SDMXDataQuery(this.endpoint, this.dataflow, this.constraints,
+        this.startPeriod, this.endPeriod, detailIn, this.firstNObservations);
+  }
+
+  /**
+   * Returns the same query with a different limit of observations per series
+   *
+   * @param firstNObservationsIn
+   *          Maximum number of observations returned per series, starting
+   *          from the oldest (0 for no limit)
+   */
+  public SDMXDataQuery withFirstNObservations(int firstNObservationsIn) {
+    return new SDMXDataQuery(this.endpoint, this.dataflow, this.constraints,
+        this.startPeriod, this.endPeriod, this.detail, firstNObservationsIn);
+  }
+
+  public String getEndpoint() {
+    return this.endpoint;
+  }
+
+  public Dataflow getDataflow() {
+    return this.dataflow;
+  }
+
+  public String getConstraints() {
+    return this.constraints;
+  }
+
+  public String getStartPeriod() {
+    return this.startPeriod;
+  }
+
+  public String getEndPeriod() {
+    return this.endPeriod;
+  }
+
+  public String getDetail() {
+    return this.detail;
+  }
+
+  public int getFirstNObservations() {
+    return this.firstNObservations;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof SDMXDataQuery)) {
+      return false;
+    }
+    SDMXDataQuery other = (SDMXDataQuery) obj;
+    return Objects.equals(this.endpoint, other.endpoint)
+        && Objects.equals(this.dataflow.getId(), other.dataflow.getId())
+        && Objects.equals(this.constraints, other.constraints)
+        && Objects.equals(this.startPeriod, other.startPeriod)
+        && Objects.equals(this.endPeriod, other.endPeriod)
+        && Objects.equals(this.detail, other.detail)
+        && this.firstNObservations == other.firstNObservations;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.endpoint, this.dataflow.getId(),
+        this.constraints, this.startPeriod, this.endPeriod, this.detail,
+        this.firstNObservations);
+  }
+
+  @Override
+  public String toString() {
+    return this.dataflow.getId() + "/" + this.constraints
+        + (this.startPeriod == null ? "" : " from " + this.startPeriod)
+        + (this.endPeriod == null ? "" : " to " + this.endPeriod)
+        + (DETAIL_FULL.equals(this.detail) ? "" : " (" + this.detail + ")")
+        + (this.firstNObservations == 0 ? ""
+            : " first " + this.firstNObservations);
+  }
+
+}
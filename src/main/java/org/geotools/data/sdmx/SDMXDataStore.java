@@ -18,13 +18,38 @@
 
 package org.geotools.data.sdmx;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.geotools.data.Query;
@@ -39,6 +64,7 @@ import it.bancaditalia.oss.sdmx.api.Dataflow;
 import it.bancaditalia.oss.sdmx.client.SDMXClientFactory;
 import it.bancaditalia.oss.sdmx.api.GenericSDMXClient;
 import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
+import it.bancaditalia.oss.sdmx.exceptions.SdmxResponseException;
 
 import org.geotools.feature.NameImpl;
 
@@ -66,20 +92,112 @@ public class SDMXDataStore extends ContentDataStore {
   public static String FEATURETYPE_SUFFIX = "SDMX";
   public static String DIMENSIONS_EXPR = "CODE";
   public static String DIMENSIONS_EXPR_ALL = "ALL";
+  public static String PREFETCH_ALL = "*";
+  public static String COUNT_EXACT = "exact";
+  public static String COUNT_ESTIMATE = "estimate";
 
   // SDMX error codes
   public static int ERROR_NORESULTS = 100;
 
-  // Cache of feature sources
-  protected Map<Name, ContentFeatureSource> featureSources = new HashMap<Name, ContentFeatureSource>();
+  // Maximum number of series parsed ahead when merging requests
+  protected static int MERGE_BUFFER_SIZE = 64;
+
+  // Maximum number of threads reading requests ahead of the queries (shared
+  // by all of them, queries read their requests when none is available)
+  protected static int REQUEST_THREADS = 16;
+
+  // Maximum number of expired requests re-fetched at the same time (the
+  // others are served from the stale cache)
+  protected static int REVALIDATION_THREADS = 4;
+
+  // Maximum time (ms) a request waits for the request limiter
+  protected static int DEFAULT_QUEUE_TIMEOUT = 60000;
+
+  // Consecutive failures that open the circuit, and how long (ms) it stays
+  // open
+  protected static int DEFAULT_FAILURE_THRESHOLD = 5;
+  protected static int DEFAULT_CIRCUIT_OPEN_TIME = 30000;
+
+  // Maximum time (ms) expired cached series are revalidated before being
+  // served anyway
+  protected static int DEFAULT_LATENCY_BUDGET = 10000;
+
+  // Time (ms) idle background threads are kept
+  protected static int BACKGROUND_KEEP_ALIVE = 60000;
+
+  // Maximum number of series a reader of a coalesced request can be ahead of
+  // the others
+  protected static int COALESCE_BUFFER_SIZE = 1000;
 
   protected URL namespace;
   protected URL apiUrl;
   protected String user;
   protected String password;
   protected GenericSDMXClient sdmxClient;
-  protected Map<String, Dataflow> dataflows = new HashMap<String, Dataflow>();
-  protected Map<String, DataFlowStructure> dataflowStructures = new HashMap<String, DataFlowStructure>();
+  protected SDMXTransport transport;
+
+  // Limits the requests sent to the server by all the feature sources
+  protected SDMXRequestLimiter requestLimiter = new SDMXRequestLimiter(
+      SDMXURLConnectionTransport.DEFAULT_MAX_CONNECTIONS, 0,
+      DEFAULT_QUEUE_TIMEOUT);
+
+  // Refuses the requests to the endpoint while it keeps failing
+  protected SDMXCircuitBreaker circuitBreaker = new SDMXCircuitBreaker(
+      DEFAULT_FAILURE_THRESHOLD, DEFAULT_CIRCUIT_OPEN_TIME);
+
+  // Dataflows, DSDs and feature sources (shared by all request threads)
+  protected SDMXMetadataRegistry registry = new SDMXMetadataRegistry();
+  protected volatile boolean catalogLoaded = false;
+
+  // Persistent catalog and the threads that refresh and save it (and
+  // prefetch DSDs)
+  protected SDMXCatalogSnapshot catalogSnapshot;
+  protected ExecutorService backgroundExecutor;
+  protected AtomicBoolean catalogSaveScheduled = new AtomicBoolean(false);
+
+  // Series returned by recent data queries (null if not cached)
+  protected SDMXObservationCache observationCache;
+
+  // Identical data queries sent at the same time share a single request
+  protected SDMXRequestCoalescer requestCoalescer = new SDMXRequestCoalescer(
+      COALESCE_BUFFER_SIZE);
+
+  // Expired cached series are served while they are re-fetched in the
+  // background, if the endpoint is not available or slower than the budget
+  protected long latencyBudget = DEFAULT_LATENCY_BUDGET;
+  protected ExecutorService revalidationExecutor;
+  protected ConcurrentHashMap<SDMXDataQuery, Future<List<SDMXSeries>>> revalidations = new ConcurrentHashMap<SDMXDataQuery, Future<List<SDMXSeries>>>();
+  protected AtomicLong staleResponses = new AtomicLong();
+
+  // Metrics of the requests, per dataflow and in total
+  protected SDMXMetrics metrics = new SDMXMetrics(this);
+
+  // Whether counts are computed from the observations (otherwise they are
+  // estimated from the series keys and the time range when possible)
+  protected boolean exactCounts = false;
+
+  // Whether the endpoint supports the firstNObservations parameter (SDMX 2.1
+  // ReST), which limits the observations returned for paged queries
+  protected boolean observationLimits = false;
+
+  // Whether the codes of dimensions are restricted to the ones present in
+  // the dataflows (the availableconstraint resource of SDMX 2.1 ReST)
+  protected boolean contentConstraints = false;
+
+  // Geometries of the codes of a dimension (null if features have none)
+  protected SDMXGeometryProvider geometryProvider;
+
+  // Splits queries too large for a single request
+  protected SDMXQueryPlanner queryPlanner = new SDMXQueryPlanner(1000, 0, 4);
+  protected ExecutorService requestExecutor;
+
+  // Maximum number of series parsed ahead by a background thread while
+  // features are read (0 to parse series when features are read)
+  protected int prefetchSeries = 0;
+
+  // Dataflows whose DSDs are fetched when type names are created
+  protected Collection<String> prefetchDataflows;
+  protected int prefetchConcurrency = 4;
 
   public SDMXDataStore(String name, String namespaceIn, String provider,
       String apiEndpoint, String user, String password)
@@ -104,17 +222,24 @@ public class SDMXDataStore extends ContentDataStore {
     this.user = user;
     this.password = password;
 
-    // FIXME: it seems ot work only with a pre-defined client
+    // The client of the provider is pointed to the configured endpoint, so
+    // that structures and data come from the same server
     try {
       this.sdmxClient = SDMXClientFactory.createClient(provider);
+      this.sdmxClient.setEndpoint(this.apiUrl);
+      if (user != null && !user.isEmpty()) {
+        this.sdmxClient.setCredentials(user, password);
+      }
     } catch (SdmxException e) {
       LOGGER.log(Level.SEVERE, "Cannot create client", e);
       throw (e);
     }
 
-    // TODO: add credentials support
-    // this.sdmxClient = new RestSdmxClient(name, new URL(apiEndpoint), false,
-    // false, false);
+    // Data messages are streamed by the data store, not parsed by the client
+    this.transport = new SDMXURLConnectionTransport(this.apiUrl, user,
+        password, SDMXURLConnectionTransport.DEFAULT_CONNECT_TIMEOUT,
+        SDMXURLConnectionTransport.DEFAULT_READ_TIMEOUT,
+        SDMXURLConnectionTransport.DEFAULT_MAX_CONNECTIONS);
   }
 
   /**
@@ -193,72 +318,290 @@ public class SDMXDataStore extends ContentDataStore {
 
     // This is to avoid pining the SDMX server every time type names habe to be
     // created
-    if (this.entries.isEmpty() == false) {
+    if (this.catalogLoaded && this.entries.isEmpty() == false) {
       return new ArrayList<Name>(this.entries.keySet());
     }
 
-    try {
-      dataflows = this.sdmxClient.getDataflows();
-    } catch (SdmxException e) {
-      e.printStackTrace(); // TODO
-      return new ArrayList<Name>();
+    // Only one thread loads the catalog, the others wait for it
+    synchronized (this.registry) {
+      if (this.catalogLoaded && this.entries.isEmpty() == false) {
+        return new ArrayList<Name>(this.entries.keySet());
+      }
+
+      // If a catalog snapshot is available, the SDMX server is not queried
+      // (but the snapshot is refreshed in the background if it has expired)
+      if (this.catalogSnapshot != null && this.catalogSnapshot.load()) {
+        this.registry.setDataflows(this.catalogSnapshot.getDataflows());
+        this.registry.clearDataFlowStructures();
+        this.registry.putDataFlowStructures(
+            this.catalogSnapshot.getDataflowStructures());
+        if (this.catalogSnapshot.isExpired()) {
+          this.getBackgroundExecutor().submit(() -> this.refreshCatalog());
+        }
+      } else {
+        try {
+          this.registry.setDataflows(
+              this.callClient(null, SDMXMetricsListener.DATAFLOWS,
+                  () -> this.sdmxClient.getDataflows()));
+        } catch (SdmxException | IOException e) {
+          LOGGER.log(Level.SEVERE, "Cannot get the SDMX dataflows", e);
+          return new ArrayList<Name>();
+        }
+
+        // DSDs are not fetched here, but only when a feature source needs
+        // them (see getDataFlowStructure())
+        this.registry.clearDataFlowStructures();
+        this.scheduleCatalogSave();
+      }
+
+      this.registry.getDataflows().keySet()
+          .forEach(s -> this.addTypeNames(s));
+      this.catalogLoaded = true;
     }
 
-    this.dataflowStructures.clear();
-    dataflows.forEach((s, d) -> {
-      DataFlowStructure dfs = new DataFlowStructure();
+    if (this.prefetchDataflows != null && !this.prefetchDataflows.isEmpty()) {
+      this.prefetchDataFlowStructures(
+          this.prefetchDataflows.contains(SDMXDataStore.PREFETCH_ALL)
+              ? new ArrayList<String>(this.registry.getDataflows().keySet())
+              : this.prefetchDataflows,
+          this.prefetchConcurrency);
+    }
+
+    return new ArrayList<Name>(this.entries.keySet());
+  }
+
+  /**
+   * Fetches in parallel the DSDs of the given dataflows that are not cached
+   * yet. Failures are logged per dataflow and do not stop the others.
+   * 
+   * The DSDs are fetched by the calling thread and by the background threads
+   * of the data store, hence no more than maxConcurrency DSDs (and no more
+   * than the background threads plus one) are fetched at the same time.
+   * 
+   * @param dfNames
+   *          Names of the dataflows
+   * @param maxConcurrency
+   *          Maximum number of DSDs fetched at the same time
+   */
+  public void prefetchDataFlowStructures(Collection<String> dfNames,
+      int maxConcurrency) {
+
+    Queue<String> pending = new ConcurrentLinkedQueue<String>();
+    dfNames.stream()
+        .filter(dfName -> this.registry.getDataFlowStructure(dfName) == null)
+        .distinct().forEach(dfName -> pending.add(dfName));
+    int nPending = pending.size();
+
+    Runnable worker = () -> {
+      String dfName;
+      while ((dfName = pending.poll()) != null) {
+        try {
+          this.loadDataFlowStructure(dfName);
+        } catch (IOException | RuntimeException e) {
+          LOGGER.log(Level.WARNING, "Cannot prefetch SDMX DSD of " + dfName,
+              e);
+        }
+      }
+    };
+
+    // The caller is one of the workers, hence the prefetch completes even if
+    // the background threads are busy
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int i = 1; i < Math.min(maxConcurrency, nPending); i++) {
+      futures.add(this.getBackgroundExecutor().submit(worker));
+    }
+    worker.run();
+
+    futures.forEach(future -> {
       try {
-        dfs = this.sdmxClient.getDataFlowStructure(d.getDsdIdentifier(), true);
-        this.dataflowStructures.put(s, dfs);
-      } catch (SdmxException e) {
-        LOGGER.log(Level.SEVERE, "Error getting SDMX DSD", e);
+        future.get();
+      } catch (ExecutionException e) {
+        LOGGER.log(Level.WARNING, "Cannot prefetch SDMX DSDs", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    LOGGER.log(Level.FINE,
+        "Prefetched " + nPending + " SDMX DSDs of " + this.namespace);
+  }
+
+  /**
+   * Adds the dataflow and dimension type names of a dataflow
+   * 
+   * @param dfName
+   *          Name of the dataflow
+   */
+  protected void addTypeNames(String dfName) {
+
+    // Adds the dataflow typename
+    Name name = new NameImpl(namespace.toExternalForm(),
+        SDMXDataStore.composeDataflowTypeName(dfName));
+    if (!this.entries.containsKey(name)) {
+      this.entries.put(name, new ContentEntry(this, name));
+    }
+
+    // Adds the dimension typename
+    Name dimName = new NameImpl(namespace.toExternalForm(),
+        SDMXDataStore.composeDimensionTypeName(dfName));
+    if (!this.entries.containsKey(dimName)) {
+      this.entries.put(dimName, new ContentEntry(this, dimName));
+    }
+  }
+
+  /**
+   * Removes the type names of the dataflows that are not in a set
+   * 
+   * @param dfNames
+   *          Names of the dataflows to keep
+   */
+  protected void removeTypeNames(Set<String> dfNames) {
+    this.entries.entrySet().removeIf(entry -> {
+      if (dfNames.contains(SDMXDataStore
+          .extractDataflowName(entry.getKey().getLocalPart()))) {
+        return false;
       }
+      entry.getValue().dispose();
+      return true;
+    });
+  }
 
-      // Adds the dataflow typename
-      Name name = new NameImpl(namespace.toExternalForm(),
-          SDMXDataStore.composeDataflowTypeName(s));
-      ContentEntry entry = new ContentEntry(this, name);
-      this.entries.put(name, entry);
-
-      // Adds the dimension typename
-      String dimName = SDMXDataStore.composeDimensionTypeName(s);
-      ContentEntry dimEntry = new ContentEntry(this,
-          new NameImpl(namespace.toExternalForm(), dimName));
-      this.entries.put(new NameImpl(namespace.toExternalForm(), dimName),
-          dimEntry);
+  /**
+   * Re-loads from the SDMX server the dataflows and the DSDs held in the
+   * catalog (dropping the dataflows no longer there), then saves the catalog
+   * snapshot
+   */
+  protected void refreshCatalog() {
+
+    Map<String, Dataflow> dataflowsIn;
+    try {
+      dataflowsIn = this.callClient(null, SDMXMetricsListener.DATAFLOWS,
+          () -> this.sdmxClient.getDataflows());
+    } catch (SdmxException | IOException e) {
+      LOGGER.log(Level.WARNING, "Cannot refresh the SDMX catalog", e);
+      return;
+    }
+
+    Map<String, DataFlowStructure> structuresIn = new HashMap<String, DataFlowStructure>();
+    this.registry.getDataFlowStructures().keySet().forEach(dfName -> {
+      Dataflow df = dataflowsIn.get(dfName);
+      if (df != null) {
+        try {
+          structuresIn.put(dfName,
+              this.callClient(dfName, SDMXMetricsListener.STRUCTURE,
+                  () -> this.sdmxClient
+                      .getDataFlowStructure(df.getDsdIdentifier(), true)));
+        } catch (SdmxException | IOException e) {
+          LOGGER.log(Level.WARNING, "Cannot refresh SDMX DSD of " + dfName,
+              e);
+        }
+      }
     });
 
-    return new ArrayList<Name>(this.entries.keySet());
+    // The dataflows removed from the server are removed from the catalog
+    synchronized (this.registry) {
+      this.registry.setDataflows(dataflowsIn);
+      this.registry.retainDataflows(dataflowsIn.keySet());
+      this.registry.putDataFlowStructures(structuresIn);
+      this.registry.clearContentConstraints();
+      this.removeTypeNames(dataflowsIn.keySet());
+      dataflowsIn.keySet().forEach(s -> this.addTypeNames(s));
+    }
+
+    this.scheduleCatalogSave();
+  }
+
+  /**
+   * Saves the catalog snapshot in the background (requests made while a save
+   * is pending are served by the pending one)
+   */
+  protected void scheduleCatalogSave() {
+
+    if (this.catalogSnapshot == null
+        || !this.catalogSaveScheduled.compareAndSet(false, true)) {
+      return;
+    }
+
+    this.getBackgroundExecutor().submit(() -> {
+      this.catalogSaveScheduled.set(false);
+      this.catalogSnapshot.save(this.registry.getDataflows(),
+          this.registry.getDataFlowStructures());
+    });
+  }
+
+  /**
+   * Returns the executor of catalog refreshes and saves, and of DSD
+   * prefetches. Its threads are as many as the DSDs prefetched at the same
+   * time, and expire when idle.
+   */
+  protected synchronized ExecutorService getBackgroundExecutor() {
+    if (this.backgroundExecutor == null) {
+      int nThreads = Math.max(1, this.prefetchConcurrency);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads,
+          BACKGROUND_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "SDMX catalog " + this.namespace);
+            t.setDaemon(true);
+            return t;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      this.backgroundExecutor = executor;
+    }
+    return this.backgroundExecutor;
   }
 
   @Override
   protected ContentFeatureSource createFeatureSource(ContentEntry entry)
       throws IOException {
 
-    ContentFeatureSource featureSource = this.featureSources
-        .get(entry.getName());
-    if (featureSource == null) {
+    return this.registry.getFeatureSource(entry.getName(), name -> {
       try {
-        Dataflow df = this.dataflows.get(
-            SDMXDataStore.extractDataflowName(entry.getName().getLocalPart()));
+        Dataflow df = this.registry.getDataflow(
+            SDMXDataStore.extractDataflowName(name.getLocalPart()));
 
         // Returns different feature sources depending on the the entry
         // referring to a datflow or a dimension
-        if (SDMXDataStore.isDataflowName(entry.getName().getLocalPart())) {
-          featureSource = new SDMXDataflowFeatureSource(entry, df, new Query());
+        if (SDMXDataStore.isDataflowName(name.getLocalPart())) {
+          return new SDMXDataflowFeatureSource(entry, df, new Query());
         } else {
-          featureSource = new SDMXDimensionFeatureSource(entry, df,
-              new Query());
+          return new SDMXDimensionFeatureSource(entry, df, new Query());
         }
 
       } catch (FactoryException e) {
         LOGGER.log(Level.SEVERE, "Cannot create CRS", e);
         throw (new IOException(e));
       }
-      this.featureSources.put(entry.getName(), featureSource);
-    }
+    });
+  }
 
-    return featureSource;
+  public SDMXCatalogSnapshot getCatalogSnapshot() {
+    return this.catalogSnapshot;
+  }
+
+  /**
+   * Sets the on-disk catalog used to start the data store without querying
+   * the SDMX server (it must be set before type names are created)
+   * 
+   * @param snapshot
+   *          Catalog snapshot
+   */
+  public void setCatalogSnapshot(SDMXCatalogSnapshot snapshot) {
+    this.catalogSnapshot = snapshot;
+  }
+
+  /**
+   * Sets the dataflows whose DSDs are fetched in parallel when type names are
+   * created
+   * 
+   * @param dfNames
+   *          Names of the dataflows (PREFETCH_ALL for all dataflows)
+   * @param maxConcurrency
+   *          Maximum number of DSDs fetched at the same time
+   */
+  public void setPrefetchDataflows(Collection<String> dfNames,
+      int maxConcurrency) {
+    this.prefetchDataflows = dfNames;
+    this.prefetchConcurrency = maxConcurrency;
   }
 
   public URL getNamespace() {
@@ -269,13 +612,971 @@ public class SDMXDataStore extends ContentDataStore {
     return this.sdmxClient;
   }
 
-  public DataFlowStructure getDataFlowStructure(String name) {
-    return this.dataflowStructures.get(SDMXDataStore.extractDataflowName(name));
+  public SDMXTransport getTransport() {
+    return this.transport;
+  }
+
+  /**
+   * Sets the transport data messages are requested with (the previous one is
+   * disposed)
+   * 
+   * @param transportIn
+   *          HTTP transport
+   */
+  public void setTransport(SDMXTransport transportIn) {
+    SDMXTransport previous = this.transport;
+    this.transport = transportIn;
+    if (previous != null && previous != transportIn) {
+      previous.dispose();
+    }
+  }
+
+  /**
+   * Returns the DSD of a dataflow, fetching it from the SDMX server the first
+   * time it is requested and caching it afterwards
+   * 
+   * @param name
+   *          Type name (either of the dataflow or of its dimensions)
+   * @return The DSD of the dataflow
+   * @throws IOException
+   */
+  public DataFlowStructure getDataFlowStructure(String name)
+      throws IOException {
+    return this.loadDataFlowStructure(SDMXDataStore.extractDataflowName(name));
+  }
+
+  /**
+   * Returns the DSD of a dataflow, fetching it if not cached (concurrent
+   * requests of the same DSD share a single fetch)
+   * 
+   * @param dfName
+   *          Name of the dataflow
+   * @return The DSD of the dataflow
+   * @throws IOException
+   */
+  protected DataFlowStructure loadDataFlowStructure(String dfName)
+      throws IOException {
+
+    AtomicBoolean fetched = new AtomicBoolean(false);
+    DataFlowStructure dfs = this.registry.getDataFlowStructure(dfName,
+        key -> {
+          Dataflow df = this.registry.getDataflow(key);
+          if (df == null) {
+            throw new IOException("Dataflow \"" + key + "\" not found");
+          }
+
+          try {
+            DataFlowStructure fetchedDfs = this.callClient(key,
+                SDMXMetricsListener.STRUCTURE, () -> this.sdmxClient
+                    .getDataFlowStructure(df.getDsdIdentifier(), true));
+            fetched.set(true);
+            return fetchedDfs;
+          } catch (SdmxException e) {
+            LOGGER.log(Level.SEVERE, "Error getting SDMX DSD", e);
+            throw new IOException(e);
+          }
+        });
+
+    // The catalog is saved once the registry holds the new DSD
+    if (fetched.get()) {
+      this.scheduleCatalogSave();
+    }
+
+    return dfs;
+  }
+
+  /**
+   * Returns the codes present in a dataflow, fetching them from the endpoint
+   * the first time. Failures are cached too (as constraints that do not
+   * restrict any dimension), since endpoints that do not support
+   * availableconstraint would fail every time
+   * 
+   * @param dfName
+   *          Name of the dataflow
+   * @return The content constraints (SDMXContentConstraints.NONE if they are
+   *         disabled or not available)
+   * @throws IOException
+   */
+  public SDMXContentConstraints getContentConstraints(String dfName)
+      throws IOException {
+
+    if (!this.contentConstraints) {
+      return SDMXContentConstraints.NONE;
+    }
+
+    return this.registry.getContentConstraints(dfName, key -> {
+      Dataflow df = this.registry.getDataflow(key);
+      if (df == null) {
+        throw new IOException("Dataflow \"" + key + "\" not found");
+      }
+
+      String url = this.apiUrl.toExternalForm().replaceAll("/+$", "")
+          + "/availableconstraint/" + df.getAgency() + "," + df.getId() + ","
+          + df.getVersion() + "/all/all/all";
+      try {
+        InputStream in = this.openRequest(url, key,
+            SDMXMetricsListener.CONSTRAINT);
+        return in == null ? SDMXContentConstraints.NONE
+            : SDMXContentConstraints.parse(in);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING,
+            "Cannot get the content constraints of " + key, e);
+        return SDMXContentConstraints.NONE;
+      }
+    });
+  }
+
+  /**
+   * Returns the series of a data query. Queries too large for a single request
+   * are split into requests that are sent concurrently. When series are
+   * prefetched, the requests are read and parsed by background threads ahead
+   * of the caller (until the prefetched series are as many as allowed)
+   * 
+   * @param query
+   *          Data query
+   * @param dfStructure
+   *          DSD of the queried dataflow
+   * @return The series returned by the query
+   * @throws IOException
+   */
+  public SDMXSeriesIterator getSeries(SDMXDataQuery query,
+      DataFlowStructure dfStructure) throws IOException {
+
+    List<SDMXDataQuery> queries = this.queryPlanner.plan(query, dfStructure);
+    if (queries.size() == 1 && this.prefetchSeries <= 0) {
+      return this.getRequestSeries(queries.get(0), dfStructure);
+    }
+
+    if (queries.size() > 1) {
+      LOGGER.log(Level.FINE, "SDMX query " + query + " split into "
+          + queries.size() + " requests");
+    }
+
+    List<Callable<SDMXSeriesIterator>> sources = new ArrayList<Callable<SDMXSeriesIterator>>(
+        queries.size());
+    queries.forEach(
+        q -> sources.add(() -> this.getRequestSeries(q, dfStructure)));
+    return new SDMXMergedSeriesIterator(sources, this.getRequestExecutor(),
+        this.queryPlanner.getParallelism(),
+        this.prefetchSeries > 0 ? this.prefetchSeries : MERGE_BUFFER_SIZE);
+  }
+
+  /**
+   * Returns the series of a single request, either from the observation cache
+   * or streamed from the SDMX server (in which case they are cached once read).
+   * Identical requests sent at the same time are coalesced into one. Expired
+   * cached series are re-fetched, but served anyway if the endpoint is not
+   * available or does not answer within the latency budget.
+   * 
+   * @param query
+   *          Data query
+   * @param dfStructure
+   *          DSD of the queried dataflow
+   * @return The series returned by the request
+   * @throws IOException
+   */
+  protected SDMXSeriesIterator getRequestSeries(SDMXDataQuery query,
+      DataFlowStructure dfStructure) throws IOException {
+    return this.getRequestSeries(query, dfStructure,
+        this.getCachedSeries(query));
+  }
+
+  /**
+   * Returns the series of a single request (see above) once looked up in the
+   * observation cache
+   * 
+   * @param query
+   *          Data query
+   * @param dfStructure
+   *          DSD of the queried dataflow
+   * @param cached
+   *          Series of the request found in the observation cache (null if
+   *          not found)
+   * @return The series returned by the request
+   * @throws IOException
+   */
+  protected SDMXSeriesIterator getRequestSeries(SDMXDataQuery query,
+      DataFlowStructure dfStructure, List<SDMXSeries> cached)
+      throws IOException {
+
+    SDMXObservationCache cache = this.observationCache;
+    if (cache == null) {
+      return this.requestCoalescer.get(query,
+          () -> this.fetchSeries(query, dfStructure));
+    }
+
+    if (cached != null) {
+      LOGGER.log(Level.FINE, "SDMX query " + query + " served from cache");
+      return SDMXSeriesIterator.of(cached);
+    }
+
+    List<SDMXSeries> stale = cache.getStale(query);
+    if (stale != null) {
+      return this.getStaleSeries(query, dfStructure, cache, stale);
+    }
+
+    return this.requestCoalescer.get(query,
+        () -> cache.record(query, this.fetchSeries(query, dfStructure)));
+  }
+
+  /**
+   * Looks up the series of a request in the observation cache
+   * 
+   * @param query
+   *          Data query
+   * @return The cached series, or null if not cached (or if there is no
+   *         observation cache)
+   */
+  protected List<SDMXSeries> getCachedSeries(SDMXDataQuery query) {
+
+    SDMXObservationCache cache = this.observationCache;
+    if (cache == null) {
+      return null;
+    }
+
+    List<SDMXSeries> cached = cache.get(query);
+    this.metrics.cacheLookup(query.getDataflow().getId(), cached != null);
+    return cached;
+  }
+
+  /**
+   * Returns the series of a request whose cached series have expired: they
+   * are re-fetched in the background, and the expired series are returned if
+   * the circuit is open, if too many requests are being re-fetched, or if the
+   * request fails or exceeds the latency budget
+   * 
+   * @param query
+   *          Data query
+   * @param dfStructure
+   *          DSD of the queried dataflow
+   * @param cache
+   *          Observation cache
+   * @param stale
+   *          Expired series of the request
+   * @return The series of the request
+   * @throws IOException
+   */
+  protected SDMXSeriesIterator getStaleSeries(SDMXDataQuery query,
+      DataFlowStructure dfStructure, SDMXObservationCache cache,
+      List<SDMXSeries> stale) throws IOException {
+
+    Future<List<SDMXSeries>> revalidation = this.revalidate(query,
+        dfStructure, cache);
+    if (revalidation != null && !this.circuitBreaker.isOpen()) {
+      try {
+        return SDMXSeriesIterator.of(this.latencyBudget > 0
+            ? revalidation.get(this.latencyBudget, TimeUnit.MILLISECONDS)
+            : revalidation.get());
+      } catch (TimeoutException e) {
+        // The revalidation goes on in the background
+      } catch (ExecutionException e) {
+        LOGGER.log(Level.FINE,
+            "Cannot revalidate SDMX query " + query, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    this.staleResponses.incrementAndGet();
+    LOGGER.log(Level.INFO, "SDMX query " + query + " served from stale cache ("
+        + cache.getAge(query) / 1000 + " s old)");
+    return SDMXSeriesIterator.of(stale);
+  }
+
+  /**
+   * Re-fetches in the background the series of a request and caches them (a
+   * single revalidation runs per request)
+   *
+   * @return The revalidation of the request, or null if all the revalidation
+   *         threads are busy
+   */
+  protected Future<List<SDMXSeries>> revalidate(SDMXDataQuery query,
+      DataFlowStructure dfStructure, SDMXObservationCache cache) {
+
+    try {
+      return this.revalidations.computeIfAbsent(query,
+          q -> this.getRevalidationExecutor().submit(() -> {
+            try {
+              List<SDMXSeries> series = new ArrayList<SDMXSeries>();
+              SDMXSeriesIterator iter = this.fetchSeries(q, dfStructure);
+              try {
+                while (iter.hasNext()) {
+                  series.add(iter.next());
+                }
+              } finally {
+                iter.close();
+              }
+              cache.put(q, series);
+              return series;
+            } finally {
+              this.revalidations.remove(q);
+            }
+          }));
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the executor of the threads that read requests ahead of the
+   * queries. It rejects tasks when all its threads are busy.
+   */
+  protected synchronized ExecutorService getRequestExecutor() {
+    if (this.requestExecutor == null) {
+      this.requestExecutor = new ThreadPoolExecutor(0, REQUEST_THREADS,
+          BACKGROUND_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+          new SynchronousQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "SDMX request " + this.namespace);
+            t.setDaemon(true);
+            return t;
+          });
+    }
+    return this.requestExecutor;
+  }
+
+  /**
+   * Returns the executor of the revalidations of expired requests. It rejects
+   * tasks when all its threads are busy.
+   */
+  protected synchronized ExecutorService getRevalidationExecutor() {
+    if (this.revalidationExecutor == null) {
+      this.revalidationExecutor = new ThreadPoolExecutor(0,
+          REVALIDATION_THREADS, BACKGROUND_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+          new SynchronousQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "SDMX revalidation " + this.namespace);
+            t.setDaemon(true);
+            return t;
+          });
+    }
+    return this.revalidationExecutor;
+  }
+
+  /**
+   * Counts the observations returned by a data query. Queries in the
+   * observation cache are counted exactly; otherwise, unless counts are exact,
+   * the number of observations is estimated as the number of series (got from
+   * a series-keys-only request) times the number of periods in the time range.
+   * Queries that cannot be estimated are counted on their observations
+   * (which are cached for the query that usually follows).
+   * 
+   * @param query
+   *          Data query
+   * @param dfStructure
+   *          DSD of the queried dataflow
+   * @param timeRange
+   *          Time range observations are checked against (null if unbound)
+   * @return The number of observations
+   * @throws IOException
+   */
+  public long countObservations(SDMXDataQuery query,
+      DataFlowStructure dfStructure, SDMXTimeRange timeRange)
+      throws IOException {
+
+    long count = 0;
+    for (SDMXDataQuery q : this.queryPlanner.plan(query, dfStructure)) {
+      List<SDMXSeries> cached = this.getCachedSeries(q);
+      if (cached != null) {
+        count += SDMXDataStore.countObservations(SDMXSeriesIterator.of(cached),
+            timeRange);
+        continue;
+      }
+
+      long estimate = -1;
+      if (!this.exactCounts && timeRange != null) {
+        estimate = SDMXDataStore.estimateObservations(this.getRequestSeries(
+            q.withDetail(SDMXDataQuery.DETAIL_SERIESKEYSONLY), dfStructure),
+            timeRange);
+      }
+      // The request has been looked up in the cache already
+      count += estimate >= 0 ? estimate
+          : SDMXDataStore.countObservations(
+              this.getRequestSeries(q, dfStructure, null), timeRange);
+    }
+
+    return count;
+  }
+
+  /**
+   * Counts the observations of series within a time range, closing the
+   * series afterwards
+   */
+  protected static long countObservations(SDMXSeriesIterator seriesIter,
+      SDMXTimeRange timeRange) throws IOException {
+
+    long count = 0;
+    try {
+      while (seriesIter.hasNext()) {
+        SDMXSeries series = seriesIter.next();
+        if (timeRange == null) {
+          count += series.size();
+        } else {
+          for (int i = 0; i < series.size(); i++) {
+            count += timeRange.contains(series.getTimeSlot(i)) ? 1 : 0;
+          }
+        }
+      }
+    } finally {
+      seriesIter.close();
+    }
+    return count;
+  }
+
+  /**
+   * Estimates the observations of series within a time range from their
+   * frequency (series that have observations are counted exactly), closing
+   * the series afterwards
+   * 
+   * @return The estimate, or -1 if the periods of a series cannot be counted
+   */
+  protected static long estimateObservations(SDMXSeriesIterator seriesIter,
+      SDMXTimeRange timeRange) throws IOException {
+
+    long count = 0;
+    try {
+      while (seriesIter.hasNext()) {
+        SDMXSeries series = seriesIter.next();
+        if (series.size() > 0) {
+          count += SDMXDataStore.countObservations(
+              SDMXSeriesIterator.of(Collections.singletonList(series)),
+              timeRange);
+        } else {
+          long periods = timeRange.countPeriods(series.getFrequency());
+          if (periods < 0) {
+            return -1;
+          }
+          count += periods;
+        }
+      }
+    } finally {
+      seriesIter.close();
+    }
+    return count;
+  }
+
+  /**
+   * Sends a data query to the SDMX server and returns a parser of the response
+   * 
+   * @param query
+   *          Data query
+   * @param dfStructure
+   *          DSD of the queried dataflow
+   * @return The series returned by the server
+   * @throws IOException
+   */
+  protected SDMXSeriesIterator fetchSeries(SDMXDataQuery query,
+      DataFlowStructure dfStructure) throws IOException {
+
+    LOGGER.log(Level.FINE, "SDMX Server " + query.getEndpoint()
+        + " is about to be queried with: " + query);
+
+    String url;
+    try {
+      url = this.sdmxClient.buildDataURL(query.getDataflow(),
+          query.getConstraints(), query.getStartPeriod(),
+          query.getEndPeriod(),
+          SDMXDataQuery.DETAIL_SERIESKEYSONLY.equals(query.getDetail()), null,
+          false);
+    } catch (SdmxException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      throw new IOException(e);
+    }
+
+    // Parameters the client does not set
+    if (SDMXDataQuery.DETAIL_DATAONLY.equals(query.getDetail())) {
+      url += (url.indexOf('?') < 0 ? "?" : "&") + "detail="
+          + SDMXDataQuery.DETAIL_DATAONLY;
+    }
+    if (query.getFirstNObservations() > 0) {
+      url += (url.indexOf('?') < 0 ? "?" : "&") + "firstNObservations="
+          + query.getFirstNObservations();
+    }
+
+    String dfName = query.getDataflow().getId();
+    RequestStream in = this.openRequest(url, dfName,
+        SDMXMetricsListener.DATA);
+    if (in == null) {
+      return SDMXSeriesIterator.empty();
+    }
+
+    long start = System.nanoTime();
+    try {
+      SDMXDataParser parser = new SDMXDataParser(in, dfStructure);
+      parser.setDetail(query.getDetail());
+      return new MeteredSeriesIterator(parser, in, dfName,
+          System.nanoTime() - start);
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Series of a data response, which reports to the metrics how many series
+   * and observations were parsed, and how long parsing took, once closed
+   */
+  protected class MeteredSeriesIterator implements SDMXSeriesIterator {
+
+    protected SDMXSeriesIterator parser;
+    protected RequestStream in;
+    protected String dfName;
+    protected long busyTime;
+    protected long series = 0;
+    protected long observations = 0;
+    protected boolean closed = false;
+
+    protected MeteredSeriesIterator(SDMXSeriesIterator parserIn,
+        RequestStream inIn, String dfNameIn, long busyTimeIn) {
+      this.parser = parserIn;
+      this.in = inIn;
+      this.dfName = dfNameIn;
+      this.busyTime = busyTimeIn;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      long start = System.nanoTime();
+      try {
+        return this.parser.hasNext();
+      } finally {
+        this.busyTime += System.nanoTime() - start;
+      }
+    }
+
+    @Override
+    public SDMXSeries next() throws IOException, NoSuchElementException {
+      long start = System.nanoTime();
+      try {
+        SDMXSeries s = this.parser.next();
+        this.series++;
+        this.observations += s.size();
+        return s;
+      } finally {
+        this.busyTime += System.nanoTime() - start;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // The parser closes the response
+      try {
+        this.parser.close();
+      } finally {
+        if (!this.closed) {
+          this.closed = true;
+          SDMXDataStore.this.metrics.seriesParsed(this.dfName, this.series,
+              this.observations,
+              Math.max(0, this.busyTime - this.in.getReadTime()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Call of the SDMX client
+   */
+  @FunctionalInterface
+  protected interface ClientCall<T> {
+    T call() throws SdmxException;
+  }
+
+  /**
+   * Calls the SDMX client when the request limiter allows it
+   * 
+   * @param dfName
+   *          Name of the dataflow requested (null for the whole catalog)
+   * @param kind
+   *          Kind of request (see SDMXMetricsListener)
+   * @param call
+   *          Call of the client
+   * @return The result of the call
+   * @throws SdmxException
+   * @throws IOException
+   *           if the request limiter does not allow the call in time
+   */
+  protected <T> T callClient(String dfName, String kind, ClientCall<T> call)
+      throws SdmxException, IOException {
+
+    SDMXRequestLimiter.Permit permit = this.acquirePermit();
+    this.metrics.requestStarted(dfName, kind);
+    long start = System.nanoTime();
+    try {
+      T result = call.call();
+      permit.succeeded();
+      this.circuitBreaker.succeeded();
+      this.metrics.requestCompleted(dfName, kind, System.nanoTime() - start,
+          false);
+      return result;
+    } catch (SdmxException | RuntimeException e) {
+      this.requestFailed(permit, e);
+      this.metrics.requestCompleted(dfName, kind, System.nanoTime() - start,
+          true);
+      throw e;
+    } finally {
+      permit.close();
+    }
+  }
+
+  /**
+   * Reports a failed request to the request limiter and the circuit breaker
+   * when the endpoint is failing or overloaded. Requests refused by the
+   * server as wrong (4xx other than 429), and requests that did not reach the
+   * server, release their slot without changing the limit or the circuit
+   */
+  protected void requestFailed(SDMXRequestLimiter.Permit permit,
+      Throwable e) {
+    if (SDMXDataStore.isEndpointFailure(e)) {
+      permit.failed();
+      this.circuitBreaker.failed();
+    } else {
+      this.circuitBreaker.released();
+    }
+  }
+
+  /**
+   * Returns true if an error means the endpoint is failing or overloaded: HTTP
+   * 429 and 5xx, connection failures and timeouts
+   */
+  protected static boolean isEndpointFailure(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SDMXHttpException) {
+        return ((SDMXHttpException) cause).isServerFailure();
+      }
+      if (cause instanceof SdmxResponseException) {
+        return SDMXHttpException.isServerFailure(
+            ((SdmxResponseException) cause).getResponseCode());
+      }
+      if (cause instanceof SocketTimeoutException
+          || cause instanceof SocketException
+          || cause instanceof UnknownHostException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Waits until the request limiter and the circuit breaker allow a request
+   * 
+   * @return The permit of the request
+   * @throws IOException
+   *           if the circuit is open, or if the request limiter does not allow
+   *           the request in time
+   */
+  protected SDMXRequestLimiter.Permit acquirePermit() throws IOException {
+
+    // Requests are refused before queueing while the circuit is open, and
+    // after queueing if another request is the trial one
+    if (!this.circuitBreaker.isOpen()) {
+      SDMXRequestLimiter.Permit permit = this.requestLimiter.acquire();
+      if (this.circuitBreaker.allowRequest()) {
+        return permit;
+      }
+      permit.close();
+    }
+    throw new IOException("SDMX endpoint " + this.getEndpoint()
+        + " is not available (circuit open after repeated failures)");
+  }
+
+  /**
+   * Sends a request through the transport when the request limiter allows
+   * it. The request holds its slot until the server answers (the transport
+   * limits the connections used to read the responses)
+   * 
+   * @param url
+   *          URL of the request
+   * @param dfName
+   *          Name of the dataflow requested
+   * @param kind
+   *          Kind of request (see SDMXMetricsListener)
+   * @return The body of the response, or null if there are no results
+   * @throws IOException
+   */
+  protected RequestStream openRequest(String url, String dfName, String kind)
+      throws IOException {
+
+    SDMXRequestLimiter.Permit permit = this.acquirePermit();
+    this.metrics.requestStarted(dfName, kind);
+    long start = System.nanoTime();
+    InputStream in;
+    try {
+      in = this.transport.open(url);
+      permit.succeeded();
+      this.circuitBreaker.succeeded();
+      this.metrics.requestCompleted(dfName, kind, System.nanoTime() - start,
+          false);
+    } catch (IOException | RuntimeException e) {
+      this.requestFailed(permit, e);
+      this.metrics.requestCompleted(dfName, kind, System.nanoTime() - start,
+          true);
+      throw e;
+    } finally {
+      permit.close();
+    }
+
+    return in == null ? null : new RequestStream(in, dfName, kind);
+  }
+
+  /**
+   * Body of a response, which counts the bytes read and the time spent
+   * reading them
+   */
+  protected class RequestStream extends FilterInputStream {
+
+    protected String dfName;
+    protected String kind;
+    protected long bytes = 0;
+    protected long readTime = 0;
+    protected boolean closed = false;
+
+    protected RequestStream(InputStream in, String dfNameIn, String kindIn) {
+      super(in);
+      this.dfName = dfNameIn;
+      this.kind = kindIn;
+    }
+
+    @Override
+    public int read() throws IOException {
+      long start = System.nanoTime();
+      try {
+        int b = super.read();
+        this.bytes += b < 0 ? 0 : 1;
+        return b;
+      } finally {
+        this.readTime += System.nanoTime() - start;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      try {
+        int n = super.read(b, off, len);
+        this.bytes += Math.max(0, n);
+        return n;
+      } finally {
+        this.readTime += System.nanoTime() - start;
+      }
+    }
+
+    /**
+     * Returns the time spent reading the body (ns)
+     */
+    public long getReadTime() {
+      return this.readTime;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!this.closed) {
+          this.closed = true;
+          SDMXDataStore.this.metrics.responseRead(this.dfName, this.kind,
+              this.bytes, this.readTime);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the endpoint used to tell apart the queries of different data
+   * stores in shared caches
+   */
+  public String getEndpoint() {
+    return this.apiUrl.toExternalForm();
+  }
+
+  /**
+   * Returns the coalescer of identical data queries (whose counters tell how
+   * many requests were sent and how many queries joined them)
+   */
+  public SDMXRequestCoalescer getRequestCoalescer() {
+    return this.requestCoalescer;
+  }
+
+  public SDMXRequestLimiter getRequestLimiter() {
+    return this.requestLimiter;
+  }
+
+  /**
+   * Sets the limiter of the requests sent to the SDMX server
+   * 
+   * @param limiter
+   *          Request limiter
+   */
+  public void setRequestLimiter(SDMXRequestLimiter limiter) {
+    this.requestLimiter = limiter;
+  }
+
+  public SDMXCircuitBreaker getCircuitBreaker() {
+    return this.circuitBreaker;
+  }
+
+  /**
+   * Sets the circuit breaker of the requests to the endpoint
+   * 
+   * @param breaker
+   *          Circuit breaker
+   */
+  public void setCircuitBreaker(SDMXCircuitBreaker breaker) {
+    this.circuitBreaker = breaker;
+  }
+
+  public long getLatencyBudget() {
+    return this.latencyBudget;
+  }
+
+  /**
+   * Sets how long requests whose cached series have expired wait for the
+   * endpoint before the expired series are served
+   * 
+   * @param budget
+   *          Latency budget (ms, 0 to wait for the endpoint)
+   */
+  public void setLatencyBudget(long budget) {
+    this.latencyBudget = budget;
+  }
+
+  /**
+   * Returns the number of requests served with expired cached series
+   */
+  public long getStaleResponseCount() {
+    return this.staleResponses.get();
+  }
+
+  /**
+   * Returns the metrics of the requests (to which listeners can be added, and
+   * which can be exposed as JMX MBeans)
+   */
+  public SDMXMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  public SDMXObservationCache getObservationCache() {
+    return this.observationCache;
+  }
+
+  /**
+   * Sets the cache of the series returned by data queries
+   * 
+   * @param cache
+   *          Observation cache (null to disable caching)
+   */
+  public void setObservationCache(SDMXObservationCache cache) {
+    this.observationCache = cache;
+  }
+
+  public boolean isExactCounts() {
+    return this.exactCounts;
+  }
+
+  /**
+   * Sets whether counts are computed from the observations rather than
+   * estimated (see countObservations())
+   * 
+   * @param exact
+   *          True for exact counts
+   */
+  public void setExactCounts(boolean exact) {
+    this.exactCounts = exact;
+  }
+
+  public boolean isObservationLimits() {
+    return this.observationLimits;
+  }
+
+  /**
+   * Sets whether paged queries ask the endpoint for the first observations of
+   * every series only (the firstNObservations parameter of SDMX 2.1)
+   * 
+   * @param limits
+   *          True if the endpoint supports firstNObservations
+   */
+  public void setObservationLimits(boolean limits) {
+    this.observationLimits = limits;
+  }
+
+  public boolean isContentConstraints() {
+    return this.contentConstraints;
+  }
+
+  /**
+   * Sets whether the codes of dimensions are restricted to the ones present
+   * in the dataflows (see getContentConstraints())
+   * 
+   * @param constraints
+   *          True if the endpoint supports availableconstraint
+   */
+  public void setContentConstraints(boolean constraints) {
+    this.contentConstraints = constraints;
+  }
+
+  public int getPrefetchSeries() {
+    return this.prefetchSeries;
+  }
+
+  /**
+   * Sets how many series are parsed ahead by background threads while
+   * features are read (see getSeries())
+   * 
+   * @param series
+   *          Maximum number of prefetched series (0 to disable prefetching)
+   */
+  public void setPrefetchSeries(int series) {
+    this.prefetchSeries = series;
+  }
+
+  public SDMXGeometryProvider getGeometryProvider() {
+    return this.geometryProvider;
+  }
+
+  /**
+   * Sets the geometries of the features of the dataflows that have the
+   * dimension of the provider
+   * 
+   * @param provider
+   *          Geometry provider (null for features without geometries)
+   */
+  public void setGeometryProvider(SDMXGeometryProvider provider) {
+    this.geometryProvider = provider;
+  }
+
+  public SDMXQueryPlanner getQueryPlanner() {
+    return this.queryPlanner;
+  }
+
+  /**
+   * Sets the planner that splits queries too large for a single request
+   * 
+   * @param planner
+   *          Query planner
+   */
+  public void setQueryPlanner(SDMXQueryPlanner planner) {
+    this.queryPlanner = planner;
+  }
+
+  public SDMXMetadataRegistry getRegistry() {
+    return this.registry;
   }
 
-  // TODO: ?
   @Override
   public void dispose() {
+    synchronized (this) {
+      if (this.backgroundExecutor != null) {
+        this.backgroundExecutor.shutdown();
+      }
+      if (this.revalidationExecutor != null) {
+        this.revalidationExecutor.shutdownNow();
+      }
+      if (this.requestExecutor != null) {
+        this.requestExecutor.shutdownNow();
+      }
+    }
+    this.transport.dispose();
+    this.metrics.unregister();
     super.dispose();
   }
 
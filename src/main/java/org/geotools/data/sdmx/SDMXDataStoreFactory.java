@@ -19,11 +19,13 @@
 package org.geotools.data.sdmx;
 
 import java.awt.RenderingHints.Key;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -67,6 +69,87 @@ public class SDMXDataStoreFactory implements DataStoreFactorySpi {
   public static final Param PASSWORD_PARAM = new Param(
       "Password associated with the username", String.class, "Password", false, null,
       Collections.singletonMap(Parameter.IS_PASSWORD, Boolean.TRUE));
+  public static final Param CONNECT_TIMEOUT_PARAM = new Param(
+      "Timeout to connect to the endpoint (and to wait for a free connection) in seconds",
+      Integer.class, "ConnectTimeout", false, 30);
+  public static final Param READ_TIMEOUT_PARAM = new Param(
+      "Timeout to read data from the endpoint in seconds", Integer.class,
+      "ReadTimeout", false, 120);
+  public static final Param MAX_CONNECTIONS_PARAM = new Param(
+      "Maximum number of connections open to the endpoint at the same time",
+      Integer.class, "MaxConnections", false, 10);
+  public static final Param REQUEST_RATE_PARAM = new Param(
+      "Maximum number of requests sent to the endpoint per second (0 for no limit)",
+      Integer.class, "RequestRate", false, 0);
+  public static final Param QUEUE_TIMEOUT_PARAM = new Param(
+      "Maximum time in seconds a request waits to be sent to the endpoint",
+      Integer.class, "QueueTimeout", false, 60);
+  public static final Param FAILURE_THRESHOLD_PARAM = new Param(
+      "Number of consecutive failed requests after which requests to the endpoint are refused (0 to never refuse them)",
+      Integer.class, "FailureThreshold", false, 5);
+  public static final Param CIRCUIT_OPEN_TIME_PARAM = new Param(
+      "Time in seconds requests are refused before a trial request is sent",
+      Integer.class, "CircuitOpenTime", false, 30);
+  public static final Param LATENCY_BUDGET_PARAM = new Param(
+      "Maximum time in seconds expired cached observations are re-fetched before being served anyway (0 to wait for the endpoint)",
+      Integer.class, "LatencyBudget", false, 10);
+  public static final Param CATALOG_DIR_PARAM = new Param(
+      "Directory where the catalog of the endpoint is cached", String.class,
+      "CatalogDirectory", false, null);
+  public static final Param CATALOG_TTL_PARAM = new Param(
+      "Time-to-live of the cached catalog in seconds", Integer.class,
+      "CatalogTTL", false, 86400);
+  public static final Param PREFETCH_PARAM = new Param(
+      "Comma-separated list of dataflows whose structure is fetched at startup ("
+          + SDMXDataStore.PREFETCH_ALL + " for all)",
+      String.class, "PrefetchDataflows", false, null);
+  public static final Param PREFETCH_THREADS_PARAM = new Param(
+      "Maximum number of dataflow structures fetched concurrently",
+      Integer.class, "PrefetchThreads", false, 4);
+  public static final Param OBS_CACHE_SIZE_PARAM = new Param(
+      "Maximum size in MB of the cached observations (0 to disable caching)",
+      Integer.class, "ObservationCacheSize", false, 32);
+  public static final Param OBS_CACHE_TTL_PARAM = new Param(
+      "Time-to-live of the cached observations in seconds", Integer.class,
+      "ObservationCacheTTL", false, 600);
+  public static final Param SPLIT_LENGTH_PARAM = new Param(
+      "Maximum length of the constraints of a data request (longer ones are split)",
+      Integer.class, "SplitConstraintLength", false, 1000);
+  public static final Param SPLIT_SERIES_PARAM = new Param(
+      "Maximum estimated number of series of a data request (0 for no limit)",
+      Integer.class, "SplitSeriesCount", false, 0);
+  public static final Param SPLIT_THREADS_PARAM = new Param(
+      "Maximum number of requests of a split query sent concurrently",
+      Integer.class, "SplitThreads", false, 4);
+  public static final Param PREFETCH_SERIES_PARAM = new Param(
+      "Maximum number of series parsed ahead while features are read (0 to disable prefetching)",
+      Integer.class, "PrefetchSeries", false, 0);
+  public static final Param COUNT_MODE_PARAM = new Param(
+      "How features are counted: " + SDMXDataStore.COUNT_ESTIMATE
+          + " (from series keys and time range) or "
+          + SDMXDataStore.COUNT_EXACT + " (from observations)",
+      String.class, "CountMode", false, SDMXDataStore.COUNT_ESTIMATE);
+  public static final Param OBS_LIMITS_PARAM = new Param(
+      "Whether the endpoint supports the firstNObservations parameter (used by paged queries)",
+      Boolean.class, "FirstNObservations", false, Boolean.FALSE);
+  public static final Param CONTENT_CONSTRAINTS_PARAM = new Param(
+      "Whether the endpoint supports availableconstraint (used to list the codes present in dataflows)",
+      Boolean.class, "ContentConstraints", false, Boolean.FALSE);
+  public static final Param JMX_PARAM = new Param(
+      "Whether the metrics of the data store are exposed as JMX MBeans",
+      Boolean.class, "JMX", false, Boolean.FALSE);
+  public static final Param GEOMETRY_FILE_PARAM = new Param(
+      "Shapefile or GeoPackage holding the geometries of the codes of a dimension",
+      String.class, "GeometryFile", false, null);
+  public static final Param GEOMETRY_LAYER_PARAM = new Param(
+      "Feature type of the geometry file (the first one if not set)",
+      String.class, "GeometryLayer", false, null);
+  public static final Param GEOMETRY_DIMENSION_PARAM = new Param(
+      "Dimension whose codes have geometries", String.class,
+      "GeometryDimension", false, "REGION");
+  public static final Param GEOMETRY_CODE_PARAM = new Param(
+      "Attribute of the geometry file holding the dimension codes",
+      String.class, "GeometryCodeAttribute", false, "CODE");
 
   static {
     paramMetadata.add(NAMESPACE_PARAM);
@@ -74,6 +157,32 @@ public class SDMXDataStoreFactory implements DataStoreFactorySpi {
     paramMetadata.add(URL_PARAM);
     paramMetadata.add(USER_PARAM);
     paramMetadata.add(PASSWORD_PARAM);
+    paramMetadata.add(CONNECT_TIMEOUT_PARAM);
+    paramMetadata.add(READ_TIMEOUT_PARAM);
+    paramMetadata.add(MAX_CONNECTIONS_PARAM);
+    paramMetadata.add(REQUEST_RATE_PARAM);
+    paramMetadata.add(QUEUE_TIMEOUT_PARAM);
+    paramMetadata.add(FAILURE_THRESHOLD_PARAM);
+    paramMetadata.add(CIRCUIT_OPEN_TIME_PARAM);
+    paramMetadata.add(CATALOG_DIR_PARAM);
+    paramMetadata.add(CATALOG_TTL_PARAM);
+    paramMetadata.add(PREFETCH_PARAM);
+    paramMetadata.add(PREFETCH_THREADS_PARAM);
+    paramMetadata.add(OBS_CACHE_SIZE_PARAM);
+    paramMetadata.add(OBS_CACHE_TTL_PARAM);
+    paramMetadata.add(LATENCY_BUDGET_PARAM);
+    paramMetadata.add(SPLIT_LENGTH_PARAM);
+    paramMetadata.add(SPLIT_SERIES_PARAM);
+    paramMetadata.add(SPLIT_THREADS_PARAM);
+    paramMetadata.add(PREFETCH_SERIES_PARAM);
+    paramMetadata.add(COUNT_MODE_PARAM);
+    paramMetadata.add(OBS_LIMITS_PARAM);
+    paramMetadata.add(CONTENT_CONSTRAINTS_PARAM);
+    paramMetadata.add(JMX_PARAM);
+    paramMetadata.add(GEOMETRY_FILE_PARAM);
+    paramMetadata.add(GEOMETRY_LAYER_PARAM);
+    paramMetadata.add(GEOMETRY_DIMENSION_PARAM);
+    paramMetadata.add(GEOMETRY_CODE_PARAM);
   }
 
   @Override
@@ -85,8 +194,9 @@ public class SDMXDataStoreFactory implements DataStoreFactorySpi {
   @Override
   public DataStore createDataStore(Map<String, Serializable> params)
       throws IOException {
+    SDMXDataStore dataStore;
     try {
-      return new SDMXDataStore((String) params.get(NAME_PARAM.key),
+      dataStore = new SDMXDataStore((String) params.get(NAME_PARAM.key),
           (String) params.get(NAMESPACE_PARAM.key),
           (String) params.get(PROVIDER_PARAM.key),
           (String) params.get(URL_PARAM.key),
@@ -96,6 +206,102 @@ public class SDMXDataStoreFactory implements DataStoreFactorySpi {
       // FIXME: re-packing an exception is not nice...
       throw new IOException(e);
     }
+
+    dataStore.setTransport(new SDMXURLConnectionTransport(
+        new URL((String) params.get(URL_PARAM.key)),
+        (String) params.get(USER_PARAM.key),
+        (String) params.get(PASSWORD_PARAM.key),
+        1000 * lookUpInt(CONNECT_TIMEOUT_PARAM, params),
+        1000 * lookUpInt(READ_TIMEOUT_PARAM, params),
+        lookUpInt(MAX_CONNECTIONS_PARAM, params)));
+    dataStore.setRequestLimiter(
+        new SDMXRequestLimiter(lookUpInt(MAX_CONNECTIONS_PARAM, params),
+            lookUpInt(REQUEST_RATE_PARAM, params),
+            1000L * lookUpInt(QUEUE_TIMEOUT_PARAM, params)));
+    dataStore.setCircuitBreaker(
+        new SDMXCircuitBreaker(lookUpInt(FAILURE_THRESHOLD_PARAM, params),
+            1000L * lookUpInt(CIRCUIT_OPEN_TIME_PARAM, params)));
+
+    String catalogDir = (String) CATALOG_DIR_PARAM.lookUp(params);
+    if (catalogDir != null && !catalogDir.trim().isEmpty()) {
+      dataStore.setCatalogSnapshot(new SDMXCatalogSnapshot(
+          new File(catalogDir.trim()), (String) params.get(PROVIDER_PARAM.key),
+          (String) params.get(URL_PARAM.key),
+          1000L * lookUpInt(CATALOG_TTL_PARAM, params),
+          dataStore.getLogger()));
+    }
+
+    String prefetch = (String) PREFETCH_PARAM.lookUp(params);
+    if (prefetch != null && !prefetch.trim().isEmpty()) {
+      List<String> dfNames = new ArrayList<String>();
+      Arrays.asList(prefetch.split(",")).forEach(dfName -> {
+        if (!dfName.trim().isEmpty()) {
+          dfNames.add(dfName.trim());
+        }
+      });
+      dataStore.setPrefetchDataflows(dfNames,
+          lookUpInt(PREFETCH_THREADS_PARAM, params));
+    }
+
+    int cacheSize = lookUpInt(OBS_CACHE_SIZE_PARAM, params);
+    if (cacheSize > 0) {
+      dataStore.setObservationCache(new SDMXObservationCache(
+          1024L * 1024L * cacheSize,
+          1000L * lookUpInt(OBS_CACHE_TTL_PARAM, params)));
+      dataStore
+          .setLatencyBudget(1000L * lookUpInt(LATENCY_BUDGET_PARAM, params));
+    }
+
+    dataStore.setQueryPlanner(new SDMXQueryPlanner(
+        lookUpInt(SPLIT_LENGTH_PARAM, params),
+        lookUpInt(SPLIT_SERIES_PARAM, params),
+        lookUpInt(SPLIT_THREADS_PARAM, params)));
+    dataStore.setPrefetchSeries(lookUpInt(PREFETCH_SERIES_PARAM, params));
+
+    dataStore.setExactCounts(
+        SDMXDataStore.COUNT_EXACT.equalsIgnoreCase(
+            (String) COUNT_MODE_PARAM.lookUp(params)));
+
+    dataStore.setObservationLimits(
+        Boolean.TRUE.equals(OBS_LIMITS_PARAM.lookUp(params)));
+    dataStore.setContentConstraints(
+        Boolean.TRUE.equals(CONTENT_CONSTRAINTS_PARAM.lookUp(params)));
+
+    String geometryFile = (String) GEOMETRY_FILE_PARAM.lookUp(params);
+    if (geometryFile != null && !geometryFile.trim().isEmpty()) {
+      dataStore.setGeometryProvider(SDMXGeometryProvider.load(
+          new File(geometryFile.trim()),
+          (String) GEOMETRY_LAYER_PARAM.lookUp(params),
+          lookUpString(GEOMETRY_DIMENSION_PARAM, params),
+          lookUpString(GEOMETRY_CODE_PARAM, params)));
+    }
+
+    if (Boolean.TRUE.equals(JMX_PARAM.lookUp(params))) {
+      String name = (String) params.get(NAME_PARAM.key);
+      dataStore.getMetrics().register(
+          name != null ? name : dataStore.getEndpoint());
+    }
+
+    return dataStore;
+  }
+
+  /**
+   * Returns the value of an integer parameter, or its default value if not
+   * set
+   */
+  protected static int lookUpInt(Param param, Map<String, Serializable> params)
+      throws IOException {
+    Object value = param.lookUp(params);
+    return ((Integer) (value == null ? param.sample : value)).intValue();
+  }
+
+  /**
+   * Returns the value of a string parameter, or its default value if not set
+   */
+  protected static String lookUpString(Param param,
+      Map<String, Serializable> params) throws IOException {
+    Object value = param.lookUp(params);
+    return (String) (value == null ? param.sample : value);
   }
 
   @Override
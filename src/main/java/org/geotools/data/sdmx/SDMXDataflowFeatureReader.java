@@ -19,13 +19,11 @@
 package org.geotools.data.sdmx;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.FeatureReader;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.filter.identity.FeatureIdImpl;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -33,7 +31,6 @@ import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
 import it.bancaditalia.oss.sdmx.api.Dataflow;
 import it.bancaditalia.oss.sdmx.api.GenericSDMXClient;
 import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
-import it.bancaditalia.oss.sdmx.exceptions.SdmxResponseException;
 
 /**
  * Feature reader of SDMX tuples
@@ -43,44 +40,96 @@ import it.bancaditalia.oss.sdmx.exceptions.SdmxResponseException;
  */
 public class SDMXDataflowFeatureReader extends SDMXFeatureReader {
 
-  protected class DimensionValue {
+  protected SDMXTimeRange timeRange;
 
-    public String name;
-    public String value;
+  // Sources of the attribute values of the features (see
+  // SDMXSeriesFeature), and the dimensions they have been computed for
+  protected int[] attributeSources;
+  protected String[] keyDimensionIds;
 
-    DimensionValue(String s) {
-      this.name = s.split(SDMXDataStore.SEPARATOR_DIM)[0];
-      this.value = s.split(SDMXDataStore.SEPARATOR_DIM)[1];
-    }
+  // Feature identifier prefix of the current series
+  protected String fidPrefix;
 
-    public boolean isMeasure() {
-      return this.name.equals(SDMXDataStore.MEASURE_KEY);
-    }
-  }
+  // Features still to skip and to return (see setPaging())
+  protected long toSkip = 0;
+  protected long remaining = Long.MAX_VALUE;
 
+  // Whether a feature is returned per series rather than per observation
+  protected boolean seriesOnly = false;
+
+  // Geometries of the codes of a dimension (null if features have none),
+  // the position of the dimension in the series key and the geometry of the
+  // current series
+  protected SDMXGeometryProvider geometryProvider;
+  protected int geometryKeyIndex = -1;
+  protected Object seriesGeometry;
+
+  /**
+   * Constructor
+   *
+   * @param clientIn
+   *          SDMX client
+   * @param featureTypeIn
+   *          Feature type of the features to return
+   * @param dataflowIn
+   *          SDMX Dataflow the query works on
+   * @param dfStructureIn
+   *          DSD of the dataflow
+   * @param seriesIn
+   *          Series to return as features (either streamed from the server
+   *          or cached)
+   * @param timeRangeIn
+   *          Time range observations are checked against (null if unbound)
+   * @param logger
+   * @throws IOException
+   * @throws SdmxException
+   */
   public SDMXDataflowFeatureReader(GenericSDMXClient clientIn,
       SimpleFeatureType featureTypeIn, Dataflow dataflowIn,
-      DataFlowStructure dfStructureIn, String sdmxConstraints, Logger logger)
+      DataFlowStructure dfStructureIn, SDMXSeriesIterator seriesIn,
+      SDMXTimeRange timeRangeIn, Logger logger)
       throws IOException, SdmxException {
 
     super(clientIn, featureTypeIn, dataflowIn, dfStructureIn, logger);
+    this.seriesIter = seriesIn;
+    this.timeRange = timeRangeIn;
+  }
 
-    logger.log(Level.FINE,
-        "SDMX Server " + clientIn.getEndpoint().toExternalForm()
-            + " is about to be queried with: " + sdmxConstraints);
-
-    try {
-      this.tsIter = this.client.getTimeSeries(dataflowIn, dfStructureIn,
-          sdmxConstraints, null, null, false, null, false).iterator();
-    } catch (SdmxException e) {
-      if (e instanceof SdmxResponseException && ((SdmxResponseException) e)
-          .getResponseCode() == SDMXDataStore.ERROR_NORESULTS) {
-        this.empty = true;
-      } else {
-        logger.log(Level.SEVERE, e.getMessage(), e);
-        throw new IOException(e);
-      }
-    }
+  /**
+   * Returns only a page of the features: once the last feature of the page is
+   * returned the series are closed, hence the rest of the data message is
+   * neither downloaded nor parsed
+   *
+   * @param startIndex
+   *          Number of features to skip
+   * @param maxFeatures
+   *          Maximum number of features to return
+   */
+  public void setPaging(int startIndex, int maxFeatures) {
+    this.toSkip = Math.max(0, startIndex);
+    this.remaining = maxFeatures < 0 ? Long.MAX_VALUE : maxFeatures;
+  }
+
+  /**
+   * Returns a feature per series, without time and value, rather than a
+   * feature per observation (used when only dimensions are requested)
+   *
+   * @param seriesOnlyIn
+   *          True to return a feature per series
+   */
+  public void setSeriesOnly(boolean seriesOnlyIn) {
+    this.seriesOnly = seriesOnlyIn;
+  }
+
+  /**
+   * Sets the geometries of the features
+   *
+   * @param provider
+   *          Geometries of the codes of a dimension (null for no geometries)
+   */
+  public void setGeometryProvider(SDMXGeometryProvider provider) {
+    this.geometryProvider = provider;
+    this.keyDimensionIds = null;
   }
 
   /**
@@ -99,24 +148,71 @@ public class SDMXDataflowFeatureReader extends SDMXFeatureReader {
    * @see FeatureReader#hasNext()
    */
   @Override
-  public boolean hasNext() {
+  public boolean hasNext() throws IOException {
 
-    if (this.empty == true || (this.ts == null && this.tsIter.hasNext() == false)
-        || (this.ts != null && this.timeIter.hasNext() == false
-            && this.tsIter.hasNext() == false)) {
+    if (this.remaining <= 0) {
       return false;
     }
 
-    if (this.ts == null) {
-      this.ts = this.tsIter.next();
-      this.timeIter = this.ts.getTimeSlots().iterator();
-      this.obsIter = this.ts.getObservations().iterator();
+    if (this.seriesOnly) {
+      return this.hasNextSeries();
     }
 
-    if (this.timeIter.hasNext() == false && this.tsIter.hasNext() == false) {
-      return false;
+    while (true) {
+
+      // Whole series are skipped without looking at their observations, if
+      // possible
+      if (this.series != null && this.timeRange == null
+          && this.toSkip >= this.series.size() - this.obsIndex) {
+        this.toSkip -= this.series.size() - this.obsIndex;
+        this.obsIndex = this.series.size();
+      }
+
+      // Skips the observations outside the time range (the SDMX server
+      // filters by period only) and the ones before the page
+      if (this.series != null) {
+        while (this.obsIndex < this.series.size()) {
+          if (this.timeRange == null || this.timeRange
+              .contains(this.series.getTimeSlot(this.obsIndex))) {
+            if (this.toSkip == 0) {
+              return true;
+            }
+            this.toSkip--;
+          }
+          this.obsIndex++;
+        }
+      }
+
+      // Moves to the next series
+      if (!this.seriesIter.hasNext()) {
+        return false;
+      }
+      this.series = this.seriesIter.next();
+      this.obsIndex = 0;
+      this.fidPrefix = null;
     }
+  }
 
+  /**
+   * Moves to the next series not returned yet, skipping the ones before the
+   * page (obsIndex is set past the observations of returned series)
+   */
+  protected boolean hasNextSeries() throws IOException {
+
+    while (this.series == null
+        || this.obsIndex != SDMXSeriesFeature.SERIES_ONLY) {
+      if (!this.seriesIter.hasNext()) {
+        return false;
+      }
+      this.series = this.seriesIter.next();
+      this.fidPrefix = null;
+      if (this.toSkip > 0) {
+        this.toSkip--;
+        this.obsIndex = 0;
+      } else {
+        this.obsIndex = SDMXSeriesFeature.SERIES_ONLY;
+      }
+    }
     return true;
   }
 
@@ -131,37 +227,37 @@ public class SDMXDataflowFeatureReader extends SDMXFeatureReader {
       return null;
     }
 
-    if (this.timeIter.hasNext() == false && this.tsIter.hasNext() == true) {
-      this.ts = this.tsIter.next();
-      this.timeIter = this.ts.getTimeSlots().iterator();
-      this.obsIter = this.ts.getObservations().iterator();
+    // Series keys are converted once per series
+    if (this.fidPrefix == null) {
+      if (!Arrays.equals(this.series.getDimensionIds(),
+          this.keyDimensionIds)) {
+        this.keyDimensionIds = this.series.getDimensionIds();
+        this.attributeSources = SDMXSeriesFeature
+            .mapAttributes(this.featureType, this.keyDimensionIds);
+        this.geometryKeyIndex = this.geometryProvider == null ? -1
+            : Arrays.asList(this.keyDimensionIds)
+                .indexOf(this.geometryProvider.getDimension());
+      }
+      this.fidPrefix = this.series.getKey() + SDMXDataStore.SEPARATOR_EXP;
+      this.seriesGeometry = this.geometryKeyIndex < 0 ? null
+          : this.geometryProvider
+              .getGeometry(this.series.getKeyValue(this.geometryKeyIndex));
     }
 
-    if (this.timeIter.hasNext() == false) {
-      return null;
+    // Features are views over the series, hence they share its key values
+    SimpleFeature feature = new SDMXSeriesFeature(this.featureType,
+        this.series, this.obsIndex++, this.attributeSources, this.fidPrefix,
+        this.seriesGeometry);
+    if (this.seriesOnly) {
+      this.obsIndex = 0;
     }
 
-    SimpleFeatureBuilder builder = new SimpleFeatureBuilder(this.featureType);
-    builder.set(SDMXDataStore.GEOMETRY_ATTR, null);
-    builder.set(SDMXDataStore.TIME_KEY, this.timeIter.next());
-
-    ts.getDimensions().forEach((dimIn) -> {
-      DimensionValue dimValue = new DimensionValue(dimIn);
-
-      if (dimValue.isMeasure()) {
-        builder.set(SDMXDataStore.MEASURE_KEY, this.obsIter.next());
-      } else {
-        builder.set(dimValue.name, dimValue.value);
-      }
-    });
-
-    return builder.buildFeature(
-        (new FeatureIdImpl(String.valueOf(this.ts.hashCode()))).toString());
-  }
+    // Stops the download as soon as the page is complete
+    if (--this.remaining == 0) {
+      this.seriesIter.close();
+    }
 
-  @Override
-  public void close() {
-    // TODO
+    return feature;
   }
 
 }
@@ -19,26 +19,71 @@
 package org.geotools.data.sdmx;
 
 import java.io.IOException;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureReader;
+import org.geotools.data.FilteringFeatureReader;
+import org.geotools.data.MaxFeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.QueryCapabilities;
+import org.geotools.data.sort.SortedFeatureReader;
 import org.geotools.data.store.ContentEntry;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.filter.spatial.ReprojectingFilterVisitor;
 import org.geotools.filter.visitor.DefaultFilterVisitor;
 
+import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.Not;
 import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsBetween;
 import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.temporal.After;
+import org.opengis.filter.temporal.Before;
+import org.opengis.filter.temporal.BinaryTemporalOperator;
+import org.opengis.filter.temporal.During;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
+import org.opengis.temporal.Instant;
+import org.opengis.temporal.Period;
+
+import com.vividsolutions.jts.geom.Geometry;
 
 import it.bancaditalia.oss.sdmx.api.Dataflow;
+import it.bancaditalia.oss.sdmx.api.Dimension;
 import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
 
 /**
@@ -49,18 +94,48 @@ import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
  */
 public class SDMXDataflowFeatureSource extends SDMXFeatureSource {
 
+  protected static final FilterFactory2 FF = CommonFactoryFinder
+      .getFilterFactory2(null);
+
   // FIXME:
   protected CoordinateReferenceSystem crs;
 
   /**
-   * Inner class used to build the SDMX query expression
+   * Inner class used to build the SDMX query expression. Only the conditions
+   * of the top-level conjunction narrow the query: the ones under Not or Or
+   * (except lists of codes of a dimension) are evaluated on the features
+   * instead (see buildLocalFilter()), and so are spatial conditions, since
+   * they select codes by the envelopes of their geometries
    * 
    * @author lmorandini
    *
    */
   protected final class VisitFilter extends DefaultFilterVisitor {
 
+    // Bounds of the TIME dimension found in the filter
+    protected SDMXTimeRange timeRange = new SDMXTimeRange();
+
+    // Codes whose geometries match the spatial conditions of the filter
+    // (null if there are none)
+    protected Set<String> spatialCodes;
+
+    public SDMXTimeRange getTimeRange() {
+      return this.timeRange;
+    }
+
+    public Set<String> getSpatialCodes() {
+      return this.spatialCodes;
+    }
+
+    public Object visit(Not expr, Object data) {
+      return data;
+    }
+
     public Object visit(Or expr, Object data) {
+      if (!SDMXDataflowFeatureSource.this.isCodeList(expr)) {
+        return data;
+      }
+
       Map<String, String> map = (Map<String, String>) data;
       List<String> ids = new ArrayList<String>();
       List<String> property = new ArrayList<String>();
@@ -77,13 +152,191 @@ public class SDMXDataflowFeatureSource extends SDMXFeatureSource {
     }
 
     public Object visit(PropertyIsEqualTo expr, Object data) {
+      if (!SDMXDataflowFeatureSource.this.isTranslated(expr)) {
+        return data;
+      }
+
       Map<String, String> map = (Map<String, String>) data;
 
       map.put(expr.getExpression1().toString(),
           expr.getExpression2().toString());
+
+      if (this.isTime(expr.getExpression1())) {
+        String period = this.toPeriod(expr.getExpression2().evaluate(null));
+        this.timeRange.setStart(period, true);
+        this.timeRange.setEnd(period, true);
+      }
       return map;
     }
 
+    public Object visit(PropertyIsGreaterThanOrEqualTo expr, Object data) {
+      if (this.isTime(expr.getExpression1())) {
+        this.timeRange.setStart(
+            this.toPeriod(expr.getExpression2().evaluate(null)), true);
+      }
+      return data;
+    }
+
+    public Object visit(PropertyIsGreaterThan expr, Object data) {
+      if (this.isTime(expr.getExpression1())) {
+        this.timeRange.setStart(
+            this.toPeriod(expr.getExpression2().evaluate(null)), false);
+      }
+      return data;
+    }
+
+    public Object visit(PropertyIsLessThanOrEqualTo expr, Object data) {
+      if (this.isTime(expr.getExpression1())) {
+        this.timeRange.setEnd(
+            this.toPeriod(expr.getExpression2().evaluate(null)), true);
+      }
+      return data;
+    }
+
+    public Object visit(PropertyIsLessThan expr, Object data) {
+      if (this.isTime(expr.getExpression1())) {
+        this.timeRange.setEnd(
+            this.toPeriod(expr.getExpression2().evaluate(null)), false);
+      }
+      return data;
+    }
+
+    public Object visit(PropertyIsBetween expr, Object data) {
+      if (this.isTime(expr.getExpression())) {
+        this.timeRange.setStart(
+            this.toPeriod(expr.getLowerBoundary().evaluate(null)), true);
+        this.timeRange.setEnd(
+            this.toPeriod(expr.getUpperBoundary().evaluate(null)), true);
+      }
+      return data;
+    }
+
+    public Object visit(After expr, Object data) {
+      if (this.isTime(expr.getExpression1())) {
+        this.timeRange.setStart(
+            this.toPeriod(expr.getExpression2().evaluate(null)), false);
+      }
+      return data;
+    }
+
+    public Object visit(Before expr, Object data) {
+      if (this.isTime(expr.getExpression1())) {
+        this.timeRange.setEnd(
+            this.toPeriod(expr.getExpression2().evaluate(null)), false);
+      }
+      return data;
+    }
+
+    // The bounds of the period are included, since observations are
+    // identified by their start
+    public Object visit(During expr, Object data) {
+      Object value = expr.getExpression2().evaluate(null);
+      if (this.isTime(expr.getExpression1()) && value instanceof Period) {
+        this.timeRange.setStart(
+            this.toPeriod(((Period) value).getBeginning()), true);
+        this.timeRange.setEnd(this.toPeriod(((Period) value).getEnding()),
+            true);
+      }
+      return data;
+    }
+
+    public Object visit(BBOX expr, Object data) {
+      SDMXGeometryProvider geometries = SDMXDataflowFeatureSource.this
+          .getGeometryProvider();
+      if (geometries != null) {
+        try {
+          ReferencedEnvelope bounds = ReferencedEnvelope
+              .reference(expr.getBounds());
+          if (bounds.getCoordinateReferenceSystem() != null
+              && geometries.getCRS() != null && !CRS.equalsIgnoreMetadata(
+                  bounds.getCoordinateReferenceSystem(), geometries.getCRS())) {
+            bounds = bounds.transform(geometries.getCRS(), true);
+          }
+          this.addSpatialCodes(geometries.getCodes(bounds));
+        } catch (TransformException | FactoryException e) {
+          SDMXDataflowFeatureSource.this.dataStore.getLogger().log(
+              Level.WARNING, "BBOX not applied to " + geometries.getDimension(),
+              e);
+        }
+      }
+      return data;
+    }
+
+    public Object visit(Intersects expr, Object data) {
+      SDMXGeometryProvider geometries = SDMXDataflowFeatureSource.this
+          .getGeometryProvider();
+
+      // The geometry is the literal, whichever operand it is
+      Expression literal = expr.getExpression1() instanceof Literal
+          ? expr.getExpression1() : expr.getExpression2();
+      Geometry geom = literal.evaluate(null, Geometry.class);
+      if (geometries != null && geom != null) {
+        try {
+          this.addSpatialCodes(
+              geometries.getCodes(this.transform(geom, geometries.getCRS())));
+        } catch (TransformException | FactoryException e) {
+          SDMXDataflowFeatureSource.this.dataStore.getLogger().log(
+              Level.WARNING,
+              "Intersects not applied to " + geometries.getDimension(), e);
+        }
+      }
+      return data;
+    }
+
+    /**
+     * Reprojects a geometry whose CRS is known (as user data or SRID) to the
+     * CRS of the geometries of the codes
+     */
+    protected Geometry transform(Geometry geom,
+        CoordinateReferenceSystem targetCrs)
+        throws TransformException, FactoryException {
+
+      CoordinateReferenceSystem geomCrs = null;
+      if (geom.getUserData() instanceof CoordinateReferenceSystem) {
+        geomCrs = (CoordinateReferenceSystem) geom.getUserData();
+      } else if (geom.getSRID() > 0) {
+        geomCrs = CRS.decode("EPSG:" + geom.getSRID(), true);
+      }
+
+      if (geomCrs == null || targetCrs == null
+          || CRS.equalsIgnoreMetadata(geomCrs, targetCrs)) {
+        return geom;
+      }
+      return JTS.transform(geom,
+          CRS.findMathTransform(geomCrs, targetCrs, true));
+    }
+
+    /**
+     * Intersects the codes matching the spatial conditions with the codes
+     * matching a further condition
+     */
+    protected void addSpatialCodes(List<String> codes) {
+      if (this.spatialCodes == null) {
+        this.spatialCodes = new LinkedHashSet<String>(codes);
+      } else {
+        this.spatialCodes.retainAll(codes);
+      }
+    }
+
+    protected boolean isTime(Expression expr) {
+      return SDMXDataStore.TIME_KEY.equals(expr.toString());
+    }
+
+    /**
+     * Converts the value of a temporal expression into an SDMX period (dates
+     * are converted to days)
+     */
+    protected String toPeriod(Object value) {
+      if (value instanceof Instant) {
+        value = ((Instant) value).getPosition().getDate();
+      }
+      if (value instanceof Date) {
+        return ((Date) value).toInstant().atZone(ZoneOffset.UTC).toLocalDate()
+            .toString();
+      }
+      return value == null ? null : value.toString();
+    }
+
   }
 
   /**
@@ -131,9 +384,68 @@ public class SDMXDataflowFeatureSource extends SDMXFeatureSource {
     }
 
     try {
-      return new SDMXDataflowFeatureReader(this.dataStore.getSDMXClient(),
-          this.schema, this.dataflow, this.dataflowStructure,
-          this.buildConstraints(query), this.dataStore.getLogger());
+      SDMXTimeRange timeRange = this.buildTimeRange(query);
+      String constraints = this.buildConstraints(query);
+      Filter localFilter = this.buildLocalFilter(query);
+      if (constraints == null) {
+        return new SDMXDataflowFeatureReader(this.dataStore.getSDMXClient(),
+            this.schema, this.dataflow, this.dataflowStructure,
+            SDMXSeriesIterator.empty(), null, this.dataStore.getLogger());
+      }
+      SDMXDataQuery dataQuery = new SDMXDataQuery(
+          this.dataStore.getEndpoint(), this.dataflow, constraints,
+          timeRange.getStartPeriod(), timeRange.getEndPeriod(),
+          this.buildDetail(query));
+      boolean seriesOnly = SDMXDataQuery.DETAIL_SERIESKEYSONLY
+          .equals(dataQuery.getDetail());
+
+      int startIndex = query.getStartIndex() == null ? 0
+          : query.getStartIndex().intValue();
+      int maxFeatures = query.isMaxFeaturesUnlimited() ? -1
+          : query.getMaxFeatures();
+      boolean natural = SDMXDataflowFeatureSource.isNaturalOrder(query);
+
+      // When features are returned in the order of the data messages (of the
+      // requests the query is split into, one after the other), every
+      // series contributes at most startIndex + maxFeatures observations
+      // (unless some are discarded by the local time check or filter)
+      if (natural && maxFeatures >= 0 && !timeRange.isBounded()
+          && localFilter == null && !seriesOnly
+          && this.dataStore.isObservationLimits()) {
+        dataQuery = dataQuery.withFirstNObservations(
+            (int) Math.min(Integer.MAX_VALUE, (long) startIndex + maxFeatures));
+      }
+
+      SDMXDataflowFeatureReader reader = new SDMXDataflowFeatureReader(
+          this.dataStore.getSDMXClient(), this.schema, this.dataflow,
+          this.dataflowStructure,
+          this.dataStore.getSeries(dataQuery, this.dataflowStructure),
+          timeRange.isBounded() ? timeRange : null,
+          this.dataStore.getLogger());
+      reader.setSeriesOnly(seriesOnly);
+      reader.setGeometryProvider(this.getGeometryProvider());
+      if (natural && localFilter == null) {
+        reader.setPaging(startIndex, maxFeatures);
+        return reader;
+      }
+
+      // Sorted and locally filtered queries are paged afterwards
+      FeatureReader<SimpleFeatureType, SimpleFeature> features = reader;
+      if (localFilter != null) {
+        features = new FilteringFeatureReader<SimpleFeatureType, SimpleFeature>(
+            features, (Filter) localFilter.accept(
+                new ReprojectingFilterVisitor(FF, this.schema), null));
+      }
+      if (!natural) {
+        features = new SortedFeatureReader(DataUtilities.simple(features),
+            query);
+      }
+      for (int i = 0; i < startIndex && features.hasNext(); i++) {
+        features.next();
+      }
+      return maxFeatures < 0 ? features
+          : new MaxFeatureReader<SimpleFeatureType, SimpleFeature>(features,
+              maxFeatures);
     } catch (SdmxException e) {
       // FIXME: re-hash the exception into an IOEXception
       this.dataStore.getLogger().log(Level.SEVERE, e.getMessage(), e);
@@ -141,12 +453,338 @@ public class SDMXDataflowFeatureSource extends SDMXFeatureSource {
     }
   }
 
+  /**
+   * Returns true if the query asks for the features in the order of the data
+   * message
+   */
+  protected static boolean isNaturalOrder(Query query) {
+    if (query.getSortBy() == null) {
+      return true;
+    }
+    for (SortBy sortBy : query.getSortBy()) {
+      if (sortBy != SortBy.NATURAL_ORDER) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the geometry provider of the data store if the dataflow has its
+   * dimension
+   */
+  @Override
+  protected SDMXGeometryProvider getGeometryProvider() {
+    SDMXGeometryProvider geometries = this.dataStore.getGeometryProvider();
+    if (geometries == null || this.dataflowStructure == null) {
+      return null;
+    }
+    return this.dataflowStructure.getDimensions().stream()
+        .anyMatch(dim -> dim.getId().equals(geometries.getDimension()))
+            ? geometries : null;
+  }
+
+  /**
+   * Returns the extent of the geometries of the codes selected by the query
+   * (the world if features have no geometries)
+   */
+  @Override
+  protected ReferencedEnvelope getBoundsInternal(Query query)
+      throws IOException {
+
+    if (this.schema == null) {
+      this.buildFeatureType();
+    }
+
+    SDMXGeometryProvider geometries = this.getGeometryProvider();
+    if (geometries == null) {
+      return super.getBoundsInternal(query);
+    }
+
+    String constraints;
+    try {
+      constraints = this.buildConstraints(query);
+    } catch (SdmxException e) {
+      throw new IOException(e);
+    }
+    if (constraints == null) {
+      return new ReferencedEnvelope(geometries.getCRS());
+    }
+
+    String[][] codes = SDMXQueryPlanner.parse(constraints);
+    List<String> dimIds = Arrays
+        .asList(SDMXDataParser.getDimensionIds(this.dataflowStructure));
+    int index = dimIds.indexOf(geometries.getDimension());
+    return geometries.getBounds(
+        codes[index].length == 0 ? null : Arrays.asList(codes[index]));
+  }
+
+  @Override
+  protected boolean canLimit() {
+    return true;
+  }
+
+  @Override
+  protected boolean canOffset() {
+    return true;
+  }
+
+  /**
+   * Queries are sorted by the reader, since paging has to be done after
+   * sorting
+   */
+  @Override
+  protected boolean canSort() {
+    return true;
+  }
+
+  @Override
+  protected QueryCapabilities buildQueryCapabilities() {
+    return new QueryCapabilities() {
+      @Override
+      public boolean supportsSorting(SortBy[] sortAttributes) {
+        return SortedFeatureReader.canSort(
+            SDMXDataflowFeatureSource.this.getSchema(), sortAttributes);
+      }
+    };
+  }
+
+  /**
+   * Counts the observations of a query without building features (see
+   * SDMXDataStore.countObservations()), unless part of its filter is
+   * evaluated on the features
+   */
+  @Override
+  protected int getCountInternal(Query query) throws IOException {
+
+    if (this.schema == null) {
+      this.buildFeatureType();
+    }
+    if (this.buildLocalFilter(query) != null) {
+      return super.getCountInternal(query);
+    }
+
+    try {
+      SDMXTimeRange timeRange = this.buildTimeRange(query);
+      String constraints = this.buildConstraints(query);
+      if (constraints == null) {
+        return 0;
+      }
+      SDMXDataQuery dataQuery = new SDMXDataQuery(
+          this.dataStore.getEndpoint(), this.dataflow, constraints,
+          timeRange.getStartPeriod(), timeRange.getEndPeriod(),
+          this.buildDetail(query));
+      boolean seriesOnly = SDMXDataQuery.DETAIL_SERIESKEYSONLY
+          .equals(dataQuery.getDetail());
+      long count = seriesOnly ? this.countSeries(dataQuery)
+          : this.dataStore.countObservations(dataQuery,
+              this.dataflowStructure,
+              timeRange.isBounded() ? timeRange : null);
+
+      // Paging is applied to the count too, since it is done by the reader
+      if (query.getStartIndex() != null) {
+        count = Math.max(0, count - query.getStartIndex().intValue());
+      }
+      if (!query.isMaxFeaturesUnlimited()) {
+        count = Math.min(count, query.getMaxFeatures());
+      }
+      return (int) Math.min(Integer.MAX_VALUE, count);
+    } catch (SdmxException e) {
+      this.dataStore.getLogger().log(Level.SEVERE, e.getMessage(), e);
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Computes aggregation visitors (see SDMXAggregator) on the series, rather
+   * than on features. Paged and sorted queries, and queries filtered on the
+   * features, are left to the features.
+   */
+  @Override
+  protected boolean handleVisitor(Query query, FeatureVisitor visitor)
+      throws IOException {
+
+    if (this.schema == null) {
+      this.buildFeatureType();
+    }
+
+    SDMXAggregator aggregator = SDMXAggregator.create(visitor, this.schema);
+    if (aggregator == null
+        || (query.getStartIndex() != null && query.getStartIndex() > 0)
+        || !query.isMaxFeaturesUnlimited()
+        || !SDMXDataflowFeatureSource.isNaturalOrder(query)
+        || this.buildLocalFilter(query) != null) {
+      return false;
+    }
+
+    // The values of a dimension come from its codelist, without querying
+    // the endpoint
+    if (visitor instanceof UniqueVisitor) {
+      Set<String> codes = this.listCodes(query,
+          SDMXAggregator.getAttribute(((UniqueVisitor) visitor).getExpression(),
+              this.schema));
+      if (codes != null) {
+        ((UniqueVisitor) visitor).setValue(new HashSet<Object>(codes));
+        return true;
+      }
+    }
+
+    try {
+      SDMXTimeRange timeRange = this.buildTimeRange(query);
+      String constraints = this.buildConstraints(query);
+      if (constraints != null) {
+        boolean seriesOnly = !aggregator.needsObservations()
+            && !timeRange.isBounded();
+        SDMXDataQuery dataQuery = new SDMXDataQuery(
+            this.dataStore.getEndpoint(), this.dataflow, constraints,
+            timeRange.getStartPeriod(), timeRange.getEndPeriod(),
+            seriesOnly ? SDMXDataQuery.DETAIL_SERIESKEYSONLY
+                : SDMXDataQuery.DETAIL_FULL);
+        SDMXSeriesIterator iter = this.dataStore.getSeries(dataQuery,
+            this.dataflowStructure);
+        try {
+          while (iter.hasNext()) {
+            aggregator.add(iter.next(),
+                timeRange.isBounded() ? timeRange : null, seriesOnly);
+          }
+        } finally {
+          iter.close();
+        }
+      }
+    } catch (SdmxException e) {
+      this.dataStore.getLogger().log(Level.SEVERE, e.getMessage(), e);
+      throw new IOException(e);
+    }
+
+    aggregator.setResult(visitor);
+    return true;
+  }
+
+  /**
+   * Lists the codes of a dimension from its codelist (retaining the codes
+   * present in the dataflow when content constraints are available), which
+   * is possible only if the query does not constrain other dimensions or
+   * TIME, nor is filtered on the features
+   *
+   * @param query
+   *          GeoTools query
+   * @param attribute
+   *          Attribute of the dimension
+   * @return The codes, or null if they cannot be listed without querying the
+   *         data
+   * @throws IOException
+   */
+  protected Set<String> listCodes(Query query, String attribute)
+      throws IOException {
+
+    Dimension dim = attribute == null ? null
+        : this.dataflowStructure.getDimension(attribute);
+    if (dim == null || SDMXDataStore.MEASURE_KEY.equals(attribute)
+        || dim.getCodeList() == null
+        || this.buildTimeRange(query).isBounded()
+        || this.buildLocalFilter(query) != null) {
+      return null;
+    }
+
+    String constraints;
+    try {
+      constraints = this.buildConstraints(query);
+    } catch (SdmxException e) {
+      throw new IOException(e);
+    }
+    if (constraints == null) {
+      return new LinkedHashSet<String>();
+    }
+
+    String[][] codes = SDMXQueryPlanner.parse(constraints);
+    List<String> dimIds = Arrays
+        .asList(SDMXDataParser.getDimensionIds(this.dataflowStructure));
+    int index = dimIds.indexOf(dim.getId());
+    for (int i = 0; i < codes.length; i++) {
+      if (i != index && codes[i].length > 0) {
+        return null;
+      }
+    }
+
+    Set<String> listed = new LinkedHashSet<String>(
+        dim.getCodeList().getCodes().keySet());
+    if (codes[index].length > 0) {
+      listed.retainAll(Arrays.asList(codes[index]));
+    }
+    this.dataStore.getContentConstraints(SDMXDataStore
+        .extractDataflowName(this.entry.getName().getLocalPart()))
+        .retainCodes(dim.getId(), listed);
+    return listed;
+  }
+
+  /**
+   * Counts the series returned by a data query
+   */
+  protected long countSeries(SDMXDataQuery dataQuery) throws IOException {
+    long count = 0;
+    SDMXSeriesIterator iter = this.dataStore.getSeries(dataQuery,
+        this.dataflowStructure);
+    try {
+      while (iter.hasNext()) {
+        iter.next();
+        count++;
+      }
+    } finally {
+      iter.close();
+    }
+    return count;
+  }
+
+  /**
+   * Chooses the details of the series to request from the attributes the
+   * query asks for, and the ones its filter evaluated on the features needs:
+   * series keys only if neither TIME nor MEASURE is requested (a feature is
+   * then returned per series), data only if no dimension is requested (the
+   * geometry does not depend on the series)
+   *
+   * @param query
+   *          GeoTools query
+   * @return One of the SDMXDataQuery.DETAIL_* constants
+   */
+  public String buildDetail(Query query) {
+
+    String[] names = query.getPropertyNames();
+    if (names == null) {
+      return SDMXDataQuery.DETAIL_FULL;
+    }
+
+    Filter localFilter = this.buildLocalFilter(query);
+    if (localFilter != null) {
+      List<String> needed = new ArrayList<String>(Arrays.asList(names));
+      needed.addAll(Arrays.asList(DataUtilities.attributeNames(localFilter)));
+      names = needed.toArray(new String[needed.size()]);
+    }
+
+    boolean observations = false;
+    boolean dimensions = false;
+    for (String name : names) {
+      if (SDMXDataStore.TIME_KEY.equals(name)
+          || SDMXDataStore.MEASURE_KEY.equals(name)) {
+        observations = true;
+      } else if (!SDMXDataStore.GEOMETRY_ATTR.equals(name)) {
+        dimensions = true;
+      }
+    }
+
+    if (!observations) {
+      return SDMXDataQuery.DETAIL_SERIESKEYSONLY;
+    }
+    return dimensions ? SDMXDataQuery.DETAIL_FULL
+        : SDMXDataQuery.DETAIL_DATAONLY;
+  }
+
   /**
    * Builds the SDMX expression to reflect the GeoTools query give as input
    * 
    * @param query
    *          GeoTools query to transform into SDMX constraints
-   * @return The SDMX expression
+   * @return The SDMX expression, or null if no code of the dimension with
+   *         geometries matches the spatial conditions of the query
    */
   public String buildConstraints(Query query) throws SdmxException {
 
@@ -162,9 +800,24 @@ public class SDMXDataflowFeatureSource extends SDMXFeatureSource {
       });
       // Builds a non-all-in query
     } else {
-      expressions = (Map<String, String>) query.getFilter().accept(
-          new SDMXDataflowFeatureSource.VisitFilter(),
+      SDMXDataflowFeatureSource.VisitFilter visitor = new SDMXDataflowFeatureSource.VisitFilter();
+      expressions = (Map<String, String>) query.getFilter().accept(visitor,
           new HashMap<String, String>());
+
+      // Spatial conditions become codes of the dimension with geometries
+      if (visitor.getSpatialCodes() != null) {
+        String dimension = this.getGeometryProvider().getDimension();
+        Set<String> codes = visitor.getSpatialCodes();
+        if (expressions.get(dimension) != null) {
+          codes.retainAll(Arrays.asList(expressions.get(dimension)
+              .split(Pattern.quote(SDMXDataStore.OR_EXP))));
+        }
+        if (codes.isEmpty()) {
+          return null;
+        }
+        expressions.put(dimension, String.join(SDMXDataStore.OR_EXP, codes));
+      }
+
       this.dataflowStructure.getDimensions().forEach(dim -> {
         constraints.add(
             expressions.get(dim.getId()) == null ? SDMXDataStore.ALLCODES_EXP
@@ -175,4 +828,128 @@ public class SDMXDataflowFeatureSource extends SDMXFeatureSource {
     return String.join(SDMXDataStore.SEPARATOR_EXP, constraints);
   }
 
+  /**
+   * Returns the part of the filter of a query that is not translated into
+   * the SDMX query, hence is evaluated on the features
+   * 
+   * @param query
+   *          GeoTools query
+   * @return The filter, or null if the SDMX query returns exactly the
+   *         features of the query
+   */
+  public Filter buildLocalFilter(Query query) {
+
+    if (Query.ALL.equals(query) || query.getFilter() == null) {
+      return null;
+    }
+    List<Filter> local = new ArrayList<Filter>();
+    this.addLocalFilters(query.getFilter(), local);
+    if (local.isEmpty()) {
+      return null;
+    }
+    return local.size() == 1 ? local.get(0) : FF.and(local);
+  }
+
+  /**
+   * Adds the conditions of a filter that are not translated into the SDMX
+   * query (the conjuncts of And are looked at one by one)
+   */
+  protected void addLocalFilters(Filter filter, List<Filter> local) {
+    if (filter instanceof And) {
+      ((And) filter).getChildren()
+          .forEach(child -> this.addLocalFilters(child, local));
+    } else if (!this.isTranslated(filter)) {
+      local.add(filter);
+    }
+  }
+
+  /**
+   * Returns true if a condition of the top-level conjunction of a filter is
+   * translated exactly into the SDMX query (see VisitFilter)
+   */
+  protected boolean isTranslated(Filter filter) {
+
+    if (filter == Filter.INCLUDE) {
+      return true;
+    }
+    if (filter instanceof Or) {
+      return this.isCodeList((Or) filter);
+    }
+    if (filter instanceof PropertyIsEqualTo) {
+      PropertyIsEqualTo equal = (PropertyIsEqualTo) filter;
+      return (this.isDimension(equal.getExpression1())
+          || this.isTime(equal.getExpression1()))
+          && equal.getExpression2() instanceof Literal;
+    }
+    if (filter instanceof PropertyIsGreaterThan
+        || filter instanceof PropertyIsGreaterThanOrEqualTo
+        || filter instanceof PropertyIsLessThan
+        || filter instanceof PropertyIsLessThanOrEqualTo) {
+      return this.isTime(
+          ((BinaryComparisonOperator) filter).getExpression1());
+    }
+    if (filter instanceof PropertyIsBetween) {
+      return this.isTime(((PropertyIsBetween) filter).getExpression());
+    }
+    if (filter instanceof After || filter instanceof Before) {
+      return this.isTime(((BinaryTemporalOperator) filter).getExpression1());
+    }
+    if (filter instanceof During) {
+      return this.isTime(((During) filter).getExpression1())
+          && ((During) filter).getExpression2().evaluate(null) instanceof Period;
+    }
+
+    // Spatial conditions select the codes of the dimension with geometries
+    // from their envelopes, hence the geometries are checked on the features
+    return false;
+  }
+
+  /**
+   * Returns true if a filter is a list of codes of a dimension (equalities
+   * on the same dimension)
+   */
+  protected boolean isCodeList(Or filter) {
+    String property = null;
+    for (Filter child : filter.getChildren()) {
+      if (!(child instanceof PropertyIsEqualTo)) {
+        return false;
+      }
+      Expression expr = ((PropertyIsEqualTo) child).getExpression1();
+      if (!this.isDimension(expr)
+          || !(((PropertyIsEqualTo) child).getExpression2() instanceof Literal)
+          || (property != null && !property.equals(expr.toString()))) {
+        return false;
+      }
+      property = expr.toString();
+    }
+    return property != null;
+  }
+
+  protected boolean isDimension(Expression expr) {
+    return expr instanceof PropertyName && this.dataflowStructure
+        .getDimension(((PropertyName) expr).getPropertyName()) != null;
+  }
+
+  protected boolean isTime(Expression expr) {
+    return expr instanceof PropertyName && SDMXDataStore.TIME_KEY
+        .equals(((PropertyName) expr).getPropertyName());
+  }
+
+  /**
+   * Builds the time range of the SDMX query from the conditions on the TIME
+   * dimension of the GeoTools query
+   * 
+   * @param query
+   *          GeoTools query
+   * @return The time range (unbound if there are no conditions on TIME)
+   */
+  public SDMXTimeRange buildTimeRange(Query query) {
+
+    SDMXDataflowFeatureSource.VisitFilter visitor = new SDMXDataflowFeatureSource.VisitFilter();
+    if (!Query.ALL.equals(query)) {
+      query.getFilter().accept(visitor, new HashMap<String, String>());
+    }
+    return visitor.getTimeRange();
+  }
+
 }
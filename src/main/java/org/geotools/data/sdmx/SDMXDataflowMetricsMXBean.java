@@ -0,0 +1,95 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+/**
+ * Metrics of the requests of a dataflow, exposed through JMX. Counts and
+ * times (in ms) are cumulative since the data store was created.
+ *
+ * @author lmorandini
+ *
+ */
+public interface SDMXDataflowMetricsMXBean {
+
+  String getDataflow();
+
+  long getRequestCount();
+
+  long getFailureCount();
+
+  /**
+   * Returns the upper bounds (ms) of the buckets of the latency histogram
+   */
+  long[] getLatencyBuckets();
+
+  /**
+   * Returns the number of requests whose latency falls in every bucket (the
+   * last bucket holds the requests slower than the last bound)
+   */
+  long[] getLatencyHistogram();
+
+  double getMeanLatency();
+
+  /**
+   * Returns the latency (ms) under which are 50% of the requests (upper bound
+   * of its histogram bucket)
+   */
+  double getLatencyP50();
+
+  double getLatencyP90();
+
+  double getLatencyP99();
+
+  long getBytesReceived();
+
+  long getSeriesCount();
+
+  long getObservationCount();
+
+  /**
+   * Returns the time spent parsing data responses (ms)
+   */
+  long getParseTime();
+
+  /**
+   * Returns the time spent waiting for data responses (ms)
+   */
+  long getNetworkTime();
+
+  /**
+   * Returns the series parsed per second of parsing
+   */
+  double getSeriesPerSecond();
+
+  /**
+   * Returns the observations parsed per second of parsing
+   */
+  double getObservationsPerSecond();
+
+  long getCacheHitCount();
+
+  long getCacheMissCount();
+
+  /**
+   * Returns the share of data requests answered from the observation cache
+   * (0 if none was looked up)
+   */
+  double getCacheHitRatio();
+
+}
@@ -19,12 +19,7 @@
 package org.geotools.data.sdmx;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.FeatureReader;
@@ -35,7 +30,6 @@ import org.opengis.feature.simple.SimpleFeatureType;
 
 import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
 import it.bancaditalia.oss.sdmx.api.Dataflow;
-import it.bancaditalia.oss.sdmx.api.Dimension;
 import it.bancaditalia.oss.sdmx.api.GenericSDMXClient;
 import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
 
@@ -47,34 +41,49 @@ import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
  */
 public class SDMXDimensionFeatureReader extends SDMXFeatureReader {
 
-  protected Iterator<Entry<String, String>> dimIter;
+  protected SDMXCodelistIndex index;
+  protected int[] positions;
+  protected int next;
+  protected int end;
 
+  /**
+   * Constructor
+   * 
+   * @param clientIn
+   *          SDMX client
+   * @param featureTypeIn
+   *          Feature type of the dimensions
+   * @param dataflowIn
+   *          SDMX Dataflow
+   * @param dfStructureIn
+   *          DSD of the dataflow
+   * @param indexIn
+   *          Index of the codes (or of the dimensions)
+   * @param positionsIn
+   *          Positions in the index of the codes to return, in the order they
+   *          are returned
+   * @param startIndex
+   *          Number of codes to skip
+   * @param maxFeatures
+   *          Maximum number of codes returned (negative for no limit)
+   * @param logger
+   *          Logger
+   * @throws IOException
+   * @throws SdmxException
+   */
   public SDMXDimensionFeatureReader(GenericSDMXClient clientIn,
       SimpleFeatureType featureTypeIn, Dataflow dataflowIn,
-      DataFlowStructure dfStructureIn, String expression, Logger logger)
+      DataFlowStructure dfStructureIn, SDMXCodelistIndex indexIn,
+      int[] positionsIn, int startIndex, int maxFeatures, Logger logger)
       throws IOException, SdmxException {
 
     super(clientIn, featureTypeIn, dataflowIn, dfStructureIn, logger);
 
-    try {
-      // If the list of dimensions has to be returned, returns aonly those
-      if (SDMXDataStore.DIMENSIONS_EXPR_ALL.equals(expression.toUpperCase())) {
-        Iterator<Dimension> iter = dfStructureIn.getDimensions().iterator();
-        Map<String, String> dimensions = new HashMap<String, String>();
-        iter.forEachRemaining(dim -> {
-          dimensions.put(dim.getId(), dim.getName());
-        });
-        this.dimIter = dimensions.entrySet().iterator();
-        // If all the codes of the fiven dimension has to be returned
-      } else {
-        this.dimIter = dfStructureIn.getDimension(expression.toUpperCase())
-            .getCodeList().getCodes().entrySet().iterator();
-
-      }
-    } catch (Exception e) {
-      logger.log(Level.SEVERE, e.getMessage(), e);
-      throw new IOException(e);
-    }
+    this.index = indexIn;
+    this.positions = positionsIn;
+    this.next = Math.min(Math.max(startIndex, 0), positionsIn.length);
+    this.end = maxFeatures < 0 ? positionsIn.length
+        : (int) Math.min(positionsIn.length, (long) this.next + maxFeatures);
   }
 
   /**
@@ -94,7 +103,7 @@ public class SDMXDimensionFeatureReader extends SDMXFeatureReader {
    */
   @Override
   public boolean hasNext() {
-    return dimIter.hasNext();
+    return this.next < this.end;
   }
 
   /**
@@ -108,19 +117,20 @@ public class SDMXDimensionFeatureReader extends SDMXFeatureReader {
       return null;
     }
 
-    Entry dim = this.dimIter.next();
+    int position = this.positions[this.next++];
+    String code = this.index.getCode(position);
     SimpleFeatureBuilder builder = new SimpleFeatureBuilder(this.featureType);
     builder.set(SDMXDataStore.GEOMETRY_ATTR, null);
-    builder.set(SDMXDataStore.CODE_KEY, dim.getKey().toString());
-    builder.set(SDMXDataStore.DESCRIPTION_KEY, dim.getValue().toString());
+    builder.set(SDMXDataStore.CODE_KEY, code);
+    builder.set(SDMXDataStore.DESCRIPTION_KEY,
+        this.index.getDescription(position));
 
-    return builder
-        .buildFeature((new FeatureIdImpl(dim.getKey().toString())).toString());
+    return builder.buildFeature((new FeatureIdImpl(code)).toString());
   }
 
   @Override
   public void close() {
-    // TODO
+    this.next = this.end;
   }
 
 }
@@ -19,22 +19,37 @@
 package org.geotools.data.sdmx;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureReader;
+import org.geotools.data.MaxFeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.QueryCapabilities;
+import org.geotools.data.sort.SortedFeatureReader;
 import org.geotools.data.store.ContentEntry;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.filter.visitor.DefaultFilterVisitor;
 
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
 import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import it.bancaditalia.oss.sdmx.api.Codelist;
 import it.bancaditalia.oss.sdmx.api.Dataflow;
 import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
 import org.geotools.filter.IllegalFilterException;
@@ -42,6 +57,11 @@ import org.geotools.filter.IllegalFilterException;
 /**
  * Source of features for SDMX Dimensions
  * 
+ * The codes of a dimension are selected with CODE = '&lt;dimension&gt;' (or
+ * CODE = 'ALL' for the dimensions), and can be searched with CODE IN (...)
+ * and DESCRIPTION LIKE (or ILIKE) patterns, which are answered by an index of
+ * the codelist.
+ * 
  * @author lmorandini
  *
  */
@@ -57,29 +77,136 @@ public class SDMXDimensionFeatureSource extends SDMXFeatureSource {
    */
   protected final class VisitFilter extends DefaultFilterVisitor {
 
+    // Dimension whose codes are selected (ALL for the dimensions)
+    protected String dimension;
+
+    // Codes the CODE attribute is compared to (null if there are none)
+    protected Set<String> codes;
+
+    // Values CODE is equal to (one of them selects the codelist)
+    protected List<String> values = new ArrayList<String>();
+
+    // Conditions on DESCRIPTION
+    protected List<PropertyIsLike> likes = new ArrayList<PropertyIsLike>();
+
+    public String getDimension() {
+      return this.dimension;
+    }
+
+    public Set<String> getCodes() {
+      return this.codes;
+    }
+
+    public List<PropertyIsLike> getLikes() {
+      return this.likes;
+    }
+
     public Object visit(PropertyIsEqualTo expr, Object data) {
       Map<String, String> map = (Map<String, String>) data;
 
-      if (SDMXDataStore.DIMENSIONS_EXPR.equalsIgnoreCase(expr.getExpression1().toString())
-          && SDMXDataStore.DIMENSIONS_EXPR_ALL
-              .equalsIgnoreCase(expr.getExpression2().toString())) {
-        map.put(SDMXDataStore.DIMENSIONS_EXPR,
-            SDMXDataStore.DIMENSIONS_EXPR_ALL);
-        return map;
-      }
-
       if (SDMXDataStore.DIMENSIONS_EXPR
-          .equalsIgnoreCase(expr.getExpression1().toString())
-          && !SDMXDataStore.DIMENSIONS_EXPR_ALL
-              .equalsIgnoreCase(expr.getExpression2().toString())) {
-        map.put(SDMXDataStore.DIMENSIONS_EXPR,
-            expr.getExpression2().toString().toUpperCase());
+          .equalsIgnoreCase(expr.getExpression1().toString())) {
+        this.values.add(expr.getExpression2().toString());
         return map;
       }
 
       throw new IllegalFilterException(
           "Illegal filter for querying an SDMX dimension or list of dimensions");
     }
+
+    public Object visit(Or expr, Object data) {
+      Set<String> values = new LinkedHashSet<String>();
+      for (Filter child : expr.getChildren()) {
+        if (!(child instanceof PropertyIsEqualTo)
+            || !SDMXDataStore.DIMENSIONS_EXPR.equalsIgnoreCase(
+                ((PropertyIsEqualTo) child).getExpression1().toString())) {
+          throw new IllegalFilterException(
+              "Only CODE IN (...) can be used in disjunctions on SDMX dimensions");
+        }
+        values.add(((PropertyIsEqualTo) child).getExpression2().toString());
+      }
+      this.addCodes(values);
+      return data;
+    }
+
+    public Object visit(PropertyIsLike expr, Object data) {
+      if (SDMXDataStore.DESCRIPTION_KEY
+          .equalsIgnoreCase(expr.getExpression().toString())) {
+        this.likes.add(expr);
+        return data;
+      }
+
+      throw new IllegalFilterException(
+          "Only DESCRIPTION can be searched in SDMX dimensions");
+    }
+
+    /**
+     * Selects the codelist among the values CODE is equal to, whatever their
+     * order in the filter: ALL if present (the other values are then
+     * dimensions), otherwise the dimension whose codelist has all the other
+     * values (or the first dimension if there is none). The other values
+     * select codes.
+     */
+    protected void selectDimension() {
+
+      int selected = -1;
+      for (int i = 0; i < this.values.size(); i++) {
+        String value = this.values.get(i);
+        if (SDMXDataStore.DIMENSIONS_EXPR_ALL.equalsIgnoreCase(value)) {
+          selected = i;
+          break;
+        }
+        if (this.isDimension(value)) {
+          if (this.hasCodes(i)) {
+            selected = i;
+            break;
+          }
+          if (selected < 0) {
+            selected = i;
+          }
+        }
+      }
+
+      if (selected >= 0) {
+        this.dimension = this.values.remove(selected).toUpperCase();
+      }
+      this.values.forEach(value -> this.addCodes(Collections.singleton(value)));
+    }
+
+    /**
+     * Returns true if the codelist of the dimension named by a value has all
+     * the other values CODE is equal to
+     */
+    protected boolean hasCodes(int dimIndex) {
+      Codelist codelist = SDMXDimensionFeatureSource.this.dataflowStructure
+          .getDimension(this.values.get(dimIndex).toUpperCase()).getCodeList();
+      if (codelist == null || codelist.getCodes() == null) {
+        return false;
+      }
+      for (int i = 0; i < this.values.size(); i++) {
+        if (i != dimIndex
+            && !codelist.getCodes().containsKey(this.values.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Intersects the codes the CODE attribute is compared to
+     */
+    protected void addCodes(Set<String> values) {
+      if (this.codes == null) {
+        this.codes = new LinkedHashSet<String>(values);
+      } else {
+        this.codes.retainAll(values);
+      }
+    }
+
+    protected boolean isDimension(String value) {
+      return SDMXDimensionFeatureSource.this.dataflowStructure
+          .getDimension(value.toUpperCase()) != null;
+    }
   }
 
   /**
@@ -119,21 +246,200 @@ public class SDMXDimensionFeatureSource extends SDMXFeatureSource {
       this.buildFeatureType();
     }
 
-    Map<String, String> expressions = (Map<String, String>) query.getFilter()
-        .accept(new SDMXDimensionFeatureSource.VisitFilter(),
-            new HashMap<String, String>());
+    SDMXDimensionFeatureSource.VisitFilter visitor = this.visitFilter(query);
+    SDMXCodelistIndex index = this.getCodelistIndex(visitor.getDimension());
+    int[] found = this.find(index, visitor, query);
+    int startIndex = query.getStartIndex() == null ? 0
+        : query.getStartIndex().intValue();
+    int maxFeatures = query.isMaxFeaturesUnlimited() ? -1
+        : query.getMaxFeatures();
+    boolean indexed = SDMXDimensionFeatureSource.isIndexedSort(query);
 
     try {
-      return new SDMXDimensionFeatureReader(this.dataStore.getSDMXClient(),
-          this.schema, this.dataflow, this.dataflowStructure,
-          expressions.get(SDMXDataStore.DIMENSIONS_EXPR),
-          this.dataStore.getLogger());
+      SDMXDimensionFeatureReader reader = new SDMXDimensionFeatureReader(
+          this.dataStore.getSDMXClient(), this.schema, this.dataflow,
+          this.dataflowStructure, index, found, indexed ? startIndex : 0,
+          indexed ? maxFeatures : -1, this.dataStore.getLogger());
+      if (indexed) {
+        return reader;
+      }
+
+      // Queries sorted by other attributes are paged after sorting
+      FeatureReader<SimpleFeatureType, SimpleFeature> sorted;
+      sorted = new SortedFeatureReader(DataUtilities.simple(reader), query);
+      for (int i = 0; i < startIndex && sorted.hasNext(); i++) {
+        sorted.next();
+      }
+      return maxFeatures < 0 ? sorted
+          : new MaxFeatureReader<SimpleFeatureType, SimpleFeature>(sorted,
+              maxFeatures);
     } catch (SdmxException e) {
       // FIXME: re-hash the exception into an IOEXception
       this.dataStore.getLogger().log(Level.SEVERE, e.getMessage(), e);
       throw new IOException(e);
     }
+  }
+
+  /**
+   * Counts the codes found by a query on the index, without building
+   * features
+   */
+  @Override
+  protected int getCountInternal(Query query) throws IOException {
+
+    if (this.schema == null) {
+      this.buildFeatureType();
+    }
+
+    SDMXDimensionFeatureSource.VisitFilter visitor = this.visitFilter(query);
+    long count = this.find(this.getCodelistIndex(visitor.getDimension()),
+        visitor, query).length;
+    if (query.getStartIndex() != null) {
+      count = Math.max(0, count - query.getStartIndex());
+    }
+    if (!query.isMaxFeaturesUnlimited()) {
+      count = Math.min(count, query.getMaxFeatures());
+    }
+    return (int) count;
+  }
+
+  /**
+   * Collects the conditions of the filter of a query
+   */
+  protected SDMXDimensionFeatureSource.VisitFilter visitFilter(Query query) {
+    SDMXDimensionFeatureSource.VisitFilter visitor = new SDMXDimensionFeatureSource.VisitFilter();
+    query.getFilter().accept(visitor, new HashMap<String, String>());
+    visitor.selectDimension();
+    return visitor;
+  }
+
+  /**
+   * Returns the index of the codelist of a dimension
+   *
+   * @param dimension
+   *          Identifier of the dimension (ALL for the dimensions)
+   * @return The index of the codes of the dimension, or of the dimensions
+   * @throws IOException
+   *           If no dimension with a codelist is selected
+   */
+  protected SDMXCodelistIndex getCodelistIndex(String dimension)
+      throws IOException {
+
+    SDMXCodelistIndex index = dimension == null ? null
+        : this.dataStore.getRegistry().getCodelistIndex(
+            SDMXDataStore
+                .extractDataflowName(this.entry.getName().getLocalPart()),
+            dimension, this.dataflowStructure);
+    if (index == null) {
+      throw new IOException(
+          "The filter has to select a dimension with a codelist (e.g. "
+              + SDMXDataStore.DIMENSIONS_EXPR + " = '"
+              + SDMXDataStore.DIMENSIONS_EXPR_ALL + "')");
+    }
+    return index;
+  }
+
+  /**
+   * Finds the codes matching the conditions of a query (and present in the
+   * dataflow, if content constraints are available), sorted as the query
+   * asks if the index can sort them
+   *
+   * @param index
+   *          Index of the codelist selected by the query
+   * @param visitor
+   *          Conditions of the filter of the query
+   * @param query
+   *          GeoTools query
+   * @return The positions of the codes in the index
+   * @throws IOException
+   */
+  protected int[] find(SDMXCodelistIndex index,
+      SDMXDimensionFeatureSource.VisitFilter visitor, Query query)
+      throws IOException {
+
+    int[] found = visitor.getCodes() == null ? index.findAll()
+        : index.findCodes(visitor.getCodes());
+    for (PropertyIsLike like : visitor.getLikes()) {
+      found = SDMXCodelistIndex.intersect(found,
+          index.findLike(like.getLiteral(), like.getWildCard(),
+              like.getSingleChar(), like.getEscape(), like.isMatchingCase()));
+    }
+
+    String dimension = visitor.getDimension();
+    if (!SDMXDataStore.DIMENSIONS_EXPR_ALL.equals(dimension)) {
+      Set<String> present = this.dataStore
+          .getContentConstraints(SDMXDataStore
+              .extractDataflowName(this.entry.getName().getLocalPart()))
+          .getCodes(dimension);
+      if (present != null) {
+        found = SDMXCodelistIndex.intersect(found, index.findCodes(present));
+      }
+    }
+
+    SortBy[] sortBy = query.getSortBy();
+    if (sortBy != null && sortBy.length > 0
+        && SDMXDimensionFeatureSource.isIndexedSort(query)) {
+      if (sortBy[0] == SortBy.REVERSE_ORDER) {
+        SDMXCodelistIndex.reverse(found);
+      } else if (sortBy[0] != SortBy.NATURAL_ORDER) {
+        found = index.sort(found,
+            SDMXDataStore.DESCRIPTION_KEY.equalsIgnoreCase(
+                sortBy[0].getPropertyName().getPropertyName()),
+            sortBy[0].getSortOrder() != SortOrder.DESCENDING);
+      }
+    }
 
+    return found;
+  }
+
+  /**
+   * Returns true if the index can sort the codes as the query asks: by
+   * codelist order, by CODE, or by DESCRIPTION alone
+   */
+  protected static boolean isIndexedSort(Query query) {
+    SortBy[] sortBy = query.getSortBy();
+    if (sortBy == null || sortBy.length == 0
+        || sortBy[0] == SortBy.NATURAL_ORDER
+        || sortBy[0] == SortBy.REVERSE_ORDER) {
+      return true;
+    }
+
+    String attribute = sortBy[0].getPropertyName() == null ? null
+        : sortBy[0].getPropertyName().getPropertyName();
+    // Codes are unique, hence further attributes do not change the order
+    return SDMXDataStore.CODE_KEY.equalsIgnoreCase(attribute)
+        || (SDMXDataStore.DESCRIPTION_KEY.equalsIgnoreCase(attribute)
+            && sortBy.length == 1);
+  }
+
+  @Override
+  protected boolean canLimit() {
+    return true;
+  }
+
+  @Override
+  protected boolean canOffset() {
+    return true;
+  }
+
+  /**
+   * Queries are sorted by the index, or by the reader for attributes the
+   * index does not sort, since paging has to be done after sorting
+   */
+  @Override
+  protected boolean canSort() {
+    return true;
+  }
+
+  @Override
+  protected QueryCapabilities buildQueryCapabilities() {
+    return new QueryCapabilities() {
+      @Override
+      public boolean supportsSorting(SortBy[] sortAttributes) {
+        return SortedFeatureReader.canSort(
+            SDMXDimensionFeatureSource.this.getSchema(), sortAttributes);
+      }
+    };
   }
 
 }
@@ -19,7 +19,6 @@
 package org.geotools.data.sdmx;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.logging.Logger;
 
@@ -30,7 +29,6 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
 import it.bancaditalia.oss.sdmx.api.Dataflow;
 import it.bancaditalia.oss.sdmx.api.GenericSDMXClient;
-import it.bancaditalia.oss.sdmx.api.PortableTimeSeries;
 import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
 
 /**
@@ -45,10 +43,9 @@ public abstract class SDMXFeatureReader
   protected SimpleFeatureType featureType;
   protected Logger LOGGER;
   protected GenericSDMXClient client;
-  protected Iterator<PortableTimeSeries> tsIter;
-  protected PortableTimeSeries ts;
-  protected Iterator<String> timeIter;
-  protected Iterator<Double> obsIter;
+  protected SDMXSeriesIterator seriesIter;
+  protected SDMXSeries series;
+  protected int obsIndex;
   protected boolean empty;
   protected int featIndex = 0;
 
@@ -94,8 +91,10 @@ public abstract class SDMXFeatureReader
   }
 
   @Override
-  public void close() {
-    // TODO
+  public void close() throws IOException {
+    if (this.seriesIter != null) {
+      this.seriesIter.close();
+    }
   }
 
 }
@@ -90,6 +90,15 @@ public abstract class SDMXFeatureSource extends ContentFeatureSource {
 
   protected SimpleFeatureTypeBuilder buildBuilder() throws IOException {
 
+    this.dataflowStructure = this.dataStore
+        .getDataFlowStructure(this.entry.getName().getLocalPart());
+
+    // Features with geometries are in the CRS of the geometries
+    SDMXGeometryProvider geometries = this.getGeometryProvider();
+    if (geometries != null && geometries.getCRS() != null) {
+      this.crs = geometries.getCRS();
+    }
+
     // Sets the information about the resource
     this.resInfo = new DefaultResourceInfo();
     try {
@@ -109,8 +118,9 @@ public abstract class SDMXFeatureSource extends ContentFeatureSource {
     this.resInfo.setTitle(this.dataflow.getName());
     this.resInfo.setName(this.dataflow.getId());
     this.resInfo.setCRS(this.crs);
-    ReferencedEnvelope geoBbox = new ReferencedEnvelope(-180, 180, -90, 90,
-        this.resInfo.getCRS());
+    ReferencedEnvelope geoBbox = geometries != null
+        ? geometries.getBounds(null)
+        : new ReferencedEnvelope(-180, 180, -90, 90, this.resInfo.getCRS());
     this.resInfo.setBounds(geoBbox);
 
     // Builds the feature type
@@ -123,10 +133,8 @@ public abstract class SDMXFeatureSource extends ContentFeatureSource {
     builder.setDescription(
         new SimpleInternationalString(this.resInfo.getDescription()));
 
-    this.dataflowStructure = this.dataStore
-        .getDataFlowStructure(this.entry.getName().getLocalPart());
-
-    builder.add("the_geom", Point.class);
+    builder.add(SDMXDataStore.GEOMETRY_ATTR,
+        geometries != null ? geometries.getBinding() : Point.class);
     builder.setDefaultGeometry(SDMXDataStore.GEOMETRY_ATTR);
 
     return builder;
@@ -155,6 +163,14 @@ public abstract class SDMXFeatureSource extends ContentFeatureSource {
     return this.entry.getName();
   }
 
+  /**
+   * Returns the geometries of the features of the source (null if they have
+   * none)
+   */
+  protected SDMXGeometryProvider getGeometryProvider() {
+    return null;
+  }
+
   // TODO: it shuold return the bounds of the query, if not null
   @Override
   protected ReferencedEnvelope getBoundsInternal(Query arg0)
@@ -164,8 +180,15 @@ public abstract class SDMXFeatureSource extends ContentFeatureSource {
 
   @Override
   protected int getCountInternal(Query query) throws IOException {
-    // FIXME: I think SDMNX does not support that
-    return 1;
+    int count = 0;
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> reader = this
+        .getReaderInternal(query)) {
+      while (reader.hasNext()) {
+        reader.next();
+        count++;
+      }
+    }
+    return count;
   }
 
   public boolean canTransact() {
@@ -0,0 +1,252 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Geometries of the codes of a dimension (e.g. the boundaries of the codes
+ * of REGION), read from a local shapefile or GeoPackage and held in memory
+ * with a spatial index. Spatial filters are turned into the list of codes
+ * whose geometries match, and features get the geometry of their code.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXGeometryProvider {
+
+  protected static final GeometryFactory GEOMETRY_FACTORY =
+      new GeometryFactory();
+
+  protected String dimension;
+  protected CoordinateReferenceSystem crs;
+  protected Class<?> binding;
+  protected Map<String, Geometry> geometries = new HashMap<String, Geometry>();
+  protected STRtree index = new STRtree();
+  protected ReferencedEnvelope bounds;
+
+  /**
+   * Constructor
+   *
+   * @param dimensionIn
+   *          Identifier of the dimension whose codes have geometries
+   * @param source
+   *          Features holding the geometries
+   * @param codeAttribute
+   *          Attribute of the features holding the codes
+   * @throws IOException
+   */
+  public SDMXGeometryProvider(String dimensionIn, SimpleFeatureSource source,
+      String codeAttribute) throws IOException {
+
+    this.dimension = dimensionIn;
+    this.crs = source.getSchema().getCoordinateReferenceSystem();
+    this.binding = source.getSchema().getGeometryDescriptor() == null
+        ? Geometry.class
+        : source.getSchema().getGeometryDescriptor().getType().getBinding();
+    this.bounds = new ReferencedEnvelope(this.crs);
+
+    if (source.getSchema().getDescriptor(codeAttribute) == null) {
+      throw new IOException("Attribute " + codeAttribute + " not found in "
+          + source.getSchema().getTypeName());
+    }
+
+    SimpleFeatureCollection features = source.getFeatures();
+    try (SimpleFeatureIterator iter = features.features()) {
+      while (iter.hasNext()) {
+        SimpleFeature feature = iter.next();
+        Object code = feature.getAttribute(codeAttribute);
+        Geometry geom = (Geometry) feature.getDefaultGeometry();
+        if (code == null || geom == null || geom.isEmpty()) {
+          continue;
+        }
+        // The parts of a code held by several features are merged
+        this.geometries.merge(code.toString().trim(), geom,
+            (geom1, geom2) -> geom1.union(geom2));
+      }
+    }
+
+    // Merged parts may be a single polygon, while the features read have
+    // multi-polygons
+    this.geometries.replaceAll((code, geom) -> geom instanceof Polygon
+        && this.binding.equals(MultiPolygon.class)
+            ? geom.getFactory()
+                .createMultiPolygon(new Polygon[] { (Polygon) geom })
+            : geom);
+
+    this.geometries.forEach((code, geom) -> {
+      this.index.insert(geom.getEnvelopeInternal(), code);
+      this.bounds.expandToInclude(geom.getEnvelopeInternal());
+      if (!this.binding.isInstance(geom)) {
+        this.binding = Geometry.class;
+      }
+    });
+    this.index.build();
+  }
+
+  /**
+   * Reads the geometries from a shapefile or a GeoPackage (the data store is
+   * disposed once the geometries are in memory)
+   *
+   * @param file
+   *          Shapefile (.shp) or GeoPackage (.gpkg)
+   * @param layer
+   *          Feature type holding the geometries (null for the first one)
+   * @param dimensionIn
+   *          Identifier of the dimension whose codes have geometries
+   * @param codeAttribute
+   *          Attribute of the features holding the codes
+   * @return The geometry provider
+   * @throws IOException
+   */
+  public static SDMXGeometryProvider load(File file, String layer,
+      String dimensionIn, String codeAttribute) throws IOException {
+
+    Map<String, Serializable> params = new HashMap<String, Serializable>();
+    if (file.getName().toLowerCase().endsWith(".gpkg")) {
+      params.put("dbtype", "geopkg");
+      params.put("database", file.getAbsolutePath());
+    } else {
+      params.put("url", file.toURI().toURL());
+    }
+
+    DataStore store = DataStoreFinder.getDataStore(params);
+    if (store == null) {
+      throw new IOException("No data store can read " + file);
+    }
+
+    try {
+      String typeName = layer != null ? layer : store.getTypeNames()[0];
+      return new SDMXGeometryProvider(dimensionIn,
+          store.getFeatureSource(typeName), codeAttribute);
+    } finally {
+      store.dispose();
+    }
+  }
+
+  /**
+   * Returns the geometry of a code (null if it has none)
+   */
+  public Geometry getGeometry(String code) {
+    return code == null ? null : this.geometries.get(code);
+  }
+
+  /**
+   * Returns the codes whose geometries intersect an envelope
+   *
+   * @param envelope
+   *          Envelope in the CRS of the geometries
+   * @return The codes, sorted
+   */
+  public List<String> getCodes(Envelope envelope) {
+    return this.getCodes(GEOMETRY_FACTORY.toGeometry(envelope));
+  }
+
+  /**
+   * Returns the codes whose geometries intersect a geometry
+   *
+   * @param geometry
+   *          Geometry in the CRS of the geometries
+   * @return The codes, sorted
+   */
+  @SuppressWarnings("unchecked")
+  public List<String> getCodes(Geometry geometry) {
+    List<String> codes = new ArrayList<String>();
+    PreparedGeometry prepared = PreparedGeometryFactory.prepare(geometry);
+    ((List<String>) this.index.query(geometry.getEnvelopeInternal()))
+        .forEach(code -> {
+          if (prepared.intersects(this.geometries.get(code))) {
+            codes.add(code);
+          }
+        });
+    Collections.sort(codes);
+    return codes;
+  }
+
+  /**
+   * Returns the extent of the geometries of some codes
+   *
+   * @param codes
+   *          Codes (null for all the codes)
+   * @return The extent, empty if no code has a geometry
+   */
+  public ReferencedEnvelope getBounds(Collection<String> codes) {
+    if (codes == null) {
+      return new ReferencedEnvelope(this.bounds);
+    }
+
+    ReferencedEnvelope env = new ReferencedEnvelope(this.crs);
+    codes.forEach(code -> {
+      Geometry geom = this.geometries.get(code);
+      if (geom != null) {
+        env.expandToInclude(geom.getEnvelopeInternal());
+      }
+    });
+    return env;
+  }
+
+  public String getDimension() {
+    return this.dimension;
+  }
+
+  public CoordinateReferenceSystem getCRS() {
+    return this.crs;
+  }
+
+  /**
+   * Returns the type of the geometries (e.g. MultiPolygon)
+   */
+  public Class<?> getBinding() {
+    return this.binding;
+  }
+
+  /**
+   * Returns the number of codes with a geometry
+   */
+  public int size() {
+    return this.geometries.size();
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+
+/**
+ * Error answer of an SDMX server (any HTTP status other than 200 and 404)
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXHttpException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int TOO_MANY_REQUESTS = 429;
+  public static final int SERVER_ERROR = 500;
+
+  protected int statusCode;
+
+  /**
+   * Constructor
+   *
+   * @param statusCodeIn
+   *          HTTP status returned by the server
+   * @param urlIn
+   *          URL of the request
+   */
+  public SDMXHttpException(int statusCodeIn, String urlIn) {
+    super("SDMX server returned HTTP " + statusCodeIn + " for " + urlIn);
+    this.statusCode = statusCodeIn;
+  }
+
+  public int getStatusCode() {
+    return this.statusCode;
+  }
+
+  /**
+   * Returns true if the status means the server is failing or overloaded
+   * (429 and 5xx), rather than the request being wrong (other 4xx)
+   */
+  public boolean isServerFailure() {
+    return SDMXHttpException.isServerFailure(this.statusCode);
+  }
+
+  /**
+   * Returns true if an HTTP status means the server is failing or overloaded
+   */
+  public static boolean isServerFailure(int statusCode) {
+    return statusCode == TOO_MANY_REQUESTS || statusCode >= SERVER_ERROR;
+  }
+
+}
@@ -0,0 +1,241 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Iterator over the series of several SDMX requests run concurrently (at most
+ * a given number at a time). Series are returned in the order of the
+ * requests: each request has its own buffer, and the buffers are drained one
+ * after the other.
+ *
+ * Requests are read and parsed by the threads of the given executor while
+ * the caller consumes the series, until their buffers are full. If the
+ * executor has no thread available, the caller reads the requests itself.
+ * Closing the iterator stops the running requests at their next series and
+ * does not start the others.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXMergedSeriesIterator implements SDMXSeriesIterator {
+
+  // Marks the end of the series of a request
+  protected static final Object END = new Object();
+
+  protected List<Callable<SDMXSeriesIterator>> sources;
+  protected List<BlockingQueue<Object>> queues;
+  protected List<Future<?>> workers = new ArrayList<Future<?>>();
+  protected AtomicInteger nextSource = new AtomicInteger();
+  protected int current = 0;
+  protected SDMXSeriesIterator direct;
+  protected SDMXSeries nextSeries;
+  protected volatile boolean closed = false;
+
+  /**
+   * Constructor
+   *
+   * @param sourcesIn
+   *          Tasks that send the requests and return their series
+   * @param executor
+   *          Executor of the threads that read the requests
+   * @param parallelism
+   *          Maximum number of requests run at the same time
+   * @param bufferSize
+   *          Maximum number of series parsed but not returned yet
+   */
+  public SDMXMergedSeriesIterator(List<Callable<SDMXSeriesIterator>> sourcesIn,
+      ExecutorService executor, int parallelism, int bufferSize) {
+
+    this.sources = sourcesIn;
+    int nWorkers = Math.max(1, Math.min(parallelism, sourcesIn.size()));
+    this.queues = new ArrayList<BlockingQueue<Object>>(sourcesIn.size());
+    sourcesIn.forEach(source -> this.queues.add(
+        new ArrayBlockingQueue<Object>(Math.max(1, bufferSize / nWorkers))));
+
+    // Each worker reads the requests not taken yet, in order, hence the
+    // request the caller waits for is always either read or done
+    synchronized (this.workers) {
+      try {
+        for (int i = 0; i < nWorkers; i++) {
+          this.workers.add(executor.submit(() -> this.work()));
+        }
+      } catch (RejectedExecutionException e) {
+        // Fewer workers, or none at all and the caller reads the requests
+      }
+    }
+  }
+
+  /**
+   * Moves the series of the requests not taken yet into their queues
+   */
+  protected void work() {
+    int index;
+    while (!this.closed
+        && (index = this.nextSource.getAndIncrement()) < this.sources.size()) {
+      if (!this.drain(this.sources.get(index), this.queues.get(index))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Moves the series of a request into its queue
+   *
+   * @return false if the iterator has been closed or the request failed
+   */
+  protected boolean drain(Callable<SDMXSeriesIterator> source,
+      BlockingQueue<Object> queue) {
+
+    SDMXSeriesIterator iter = null;
+    try {
+      iter = source.call();
+      while (!this.closed && iter.hasNext()) {
+        queue.put(iter.next());
+      }
+      if (!this.closed) {
+        queue.put(END);
+      }
+    } catch (InterruptedException e) {
+      // The iterator has been closed
+      return false;
+    } catch (Exception e) {
+      // The caller fails when it gets to the error, hence the requests after
+      // this one are not needed
+      try {
+        queue.put(e);
+      } catch (InterruptedException ie) {
+        // The iterator has been closed
+      }
+      return false;
+    } finally {
+      if (iter != null) {
+        try {
+          iter.close();
+        } catch (IOException e) {
+          // Nothing to do, the series have been read
+        }
+      }
+    }
+    return !this.closed;
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+
+    while (this.nextSeries == null && this.current < this.sources.size()
+        && !this.closed) {
+
+      // Without workers, the caller reads the requests itself
+      if (this.workers.isEmpty() || this.direct != null) {
+        this.readDirect();
+        continue;
+      }
+
+      Object element;
+      try {
+        element = this.queues.get(this.current).take();
+      } catch (InterruptedException e) {
+        this.close();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+
+      if (element == END) {
+        this.current++;
+      } else if (element instanceof Exception) {
+        this.close();
+        throw element instanceof IOException ? (IOException) element
+            : new IOException((Exception) element);
+      } else {
+        this.nextSeries = (SDMXSeries) element;
+      }
+    }
+
+    return this.nextSeries != null;
+  }
+
+  /**
+   * Reads the next series of the current request in the calling thread
+   */
+  protected void readDirect() throws IOException {
+    try {
+      if (this.direct == null) {
+        this.direct = this.sources.get(this.current).call();
+      }
+      if (this.direct.hasNext()) {
+        this.nextSeries = this.direct.next();
+      } else {
+        this.direct.close();
+        this.direct = null;
+        this.current++;
+      }
+    } catch (IOException e) {
+      this.close();
+      throw e;
+    } catch (Exception e) {
+      this.close();
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public SDMXSeries next() throws IOException, NoSuchElementException {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SDMXSeries series = this.nextSeries;
+    this.nextSeries = null;
+    return series;
+  }
+
+  /**
+   * Stops the requests still running
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    this.nextSeries = null;
+    synchronized (this.workers) {
+      this.workers.forEach(worker -> worker.cancel(true));
+    }
+    this.queues.forEach(queue -> queue.clear());
+    if (this.direct != null) {
+      try {
+        this.direct.close();
+      } catch (IOException e) {
+        // Nothing to do, the iterator is closed anyway
+      }
+      this.direct = null;
+    }
+  }
+
+}
@@ -0,0 +1,256 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geotools.data.store.ContentFeatureSource;
+import org.opengis.feature.type.Name;
+
+import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
+import it.bancaditalia.oss.sdmx.api.Dataflow;
+import it.bancaditalia.oss.sdmx.api.Dimension;
+
+/**
+ * Thread-safe registry of the metadata of an SDMX data store (dataflows, DSDs
+ * and feature sources).
+ *
+ * Lookups never block; concurrent loads of the same DSD or feature source
+ * share a single load.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXMetadataRegistry {
+
+  protected static final String INDEX_SEPARATOR = "/";
+
+  protected volatile Map<String, Dataflow> dataflows = Collections
+      .emptyMap();
+  protected ConcurrentHashMap<String, DataFlowStructure> dataflowStructures = new ConcurrentHashMap<String, DataFlowStructure>();
+  protected ConcurrentHashMap<Name, ContentFeatureSource> featureSources = new ConcurrentHashMap<Name, ContentFeatureSource>();
+  protected ConcurrentHashMap<String, SDMXCodelistIndex> codelistIndexes = new ConcurrentHashMap<String, SDMXCodelistIndex>();
+  protected ConcurrentHashMap<String, SDMXContentConstraints> contentConstraints = new ConcurrentHashMap<String, SDMXContentConstraints>();
+
+  protected SDMXSingleFlight<String, DataFlowStructure> structureLoads = new SDMXSingleFlight<String, DataFlowStructure>();
+  protected SDMXSingleFlight<Name, ContentFeatureSource> featureSourceLoads = new SDMXSingleFlight<Name, ContentFeatureSource>();
+  protected SDMXSingleFlight<String, SDMXContentConstraints> constraintLoads = new SDMXSingleFlight<String, SDMXContentConstraints>();
+
+  /**
+   * Returns the dataflows (the map must not be modified)
+   */
+  public Map<String, Dataflow> getDataflows() {
+    return this.dataflows;
+  }
+
+  /**
+   * Replaces the dataflows
+   *
+   * @param dataflowsIn
+   *          Dataflows, keyed by name
+   */
+  public void setDataflows(Map<String, Dataflow> dataflowsIn) {
+    this.dataflows = Collections
+        .unmodifiableMap(new HashMap<String, Dataflow>(dataflowsIn));
+  }
+
+  public Dataflow getDataflow(String dfName) {
+    return this.dataflows.get(dfName);
+  }
+
+  /**
+   * Returns the DSD of a dataflow if loaded, null otherwise
+   */
+  public DataFlowStructure getDataFlowStructure(String dfName) {
+    return this.dataflowStructures.get(dfName);
+  }
+
+  /**
+   * Returns the DSD of a dataflow, loading it if not loaded yet
+   *
+   * @param dfName
+   *          Name of the dataflow
+   * @param loader
+   *          Loader of the DSD
+   * @return The DSD
+   * @throws IOException
+   */
+  public DataFlowStructure getDataFlowStructure(String dfName,
+      SDMXSingleFlight.Loader<String, DataFlowStructure> loader)
+      throws IOException {
+
+    DataFlowStructure dfs = this.dataflowStructures.get(dfName);
+    if (dfs != null) {
+      return dfs;
+    }
+
+    return this.structureLoads.get(dfName, key -> {
+      // Another load may have completed in the meantime
+      DataFlowStructure loaded = this.dataflowStructures.get(key);
+      if (loaded == null) {
+        loaded = loader.load(key);
+        this.dataflowStructures.put(key, loaded);
+      }
+      return loaded;
+    });
+  }
+
+  /**
+   * Returns a copy of the DSDs loaded so far
+   */
+  public Map<String, DataFlowStructure> getDataFlowStructures() {
+    return new HashMap<String, DataFlowStructure>(this.dataflowStructures);
+  }
+
+  public void putDataFlowStructures(Map<String, DataFlowStructure> dfsIn) {
+    this.dataflowStructures.putAll(dfsIn);
+    dfsIn.keySet().forEach(dfName -> this.codelistIndexes.keySet()
+        .removeIf(key -> key.startsWith(dfName + INDEX_SEPARATOR)));
+  }
+
+  /**
+   * Removes the DSDs, codelist indexes, content constraints and feature
+   * sources of the dataflows that are not in a set
+   *
+   * @param dfNames
+   *          Names of the dataflows to keep
+   */
+  public void retainDataflows(Set<String> dfNames) {
+    this.dataflowStructures.keySet().retainAll(dfNames);
+    this.codelistIndexes.keySet().removeIf(key -> !dfNames
+        .contains(key.substring(0, key.lastIndexOf(INDEX_SEPARATOR))));
+    this.contentConstraints.keySet().retainAll(dfNames);
+    this.featureSources.keySet().removeIf(name -> !dfNames.contains(
+        SDMXDataStore.extractDataflowName(name.getLocalPart())));
+  }
+
+  public void clearDataFlowStructures() {
+    this.dataflowStructures.clear();
+    this.codelistIndexes.clear();
+  }
+
+  /**
+   * Returns the index of the codes of a dimension of a dataflow (or of its
+   * dimensions), building it the first time it is needed after the DSD is
+   * loaded
+   *
+   * @param dfName
+   *          Name of the dataflow
+   * @param dimension
+   *          Identifier of the dimension (SDMXDataStore.DIMENSIONS_EXPR_ALL
+   *          for the index of the dimensions)
+   * @param dfs
+   *          DSD of the dataflow
+   * @return The index, or null if the dimension has no codelist
+   */
+  public SDMXCodelistIndex getCodelistIndex(String dfName, String dimension,
+      DataFlowStructure dfs) {
+
+    String key = dfName + INDEX_SEPARATOR + dimension;
+    SDMXCodelistIndex index = this.codelistIndexes.get(key);
+    if (index != null) {
+      return index;
+    }
+
+    if (SDMXDataStore.DIMENSIONS_EXPR_ALL.equals(dimension)) {
+      Map<String, String> dimensions = new HashMap<String, String>();
+      dfs.getDimensions()
+          .forEach(dim -> dimensions.put(dim.getId(), dim.getName()));
+      return this.codelistIndexes.computeIfAbsent(key,
+          k -> new SDMXCodelistIndex(dimensions));
+    }
+
+    Dimension dim = dfs.getDimension(dimension);
+    if (dim == null || dim.getCodeList() == null) {
+      return null;
+    }
+    return this.codelistIndexes.computeIfAbsent(key,
+        k -> new SDMXCodelistIndex(dim.getCodeList().getCodes()));
+  }
+
+  /**
+   * Returns the content constraints of a dataflow, loading them if not loaded
+   * yet
+   *
+   * @param dfName
+   *          Name of the dataflow
+   * @param loader
+   *          Loader of the content constraints
+   * @return The content constraints
+   * @throws IOException
+   */
+  public SDMXContentConstraints getContentConstraints(String dfName,
+      SDMXSingleFlight.Loader<String, SDMXContentConstraints> loader)
+      throws IOException {
+
+    SDMXContentConstraints constraints = this.contentConstraints.get(dfName);
+    if (constraints != null) {
+      return constraints;
+    }
+
+    return this.constraintLoads.get(dfName, key -> {
+      SDMXContentConstraints loaded = this.contentConstraints.get(key);
+      if (loaded == null) {
+        loaded = loader.load(key);
+        this.contentConstraints.put(key, loaded);
+      }
+      return loaded;
+    });
+  }
+
+  public void clearContentConstraints() {
+    this.contentConstraints.clear();
+  }
+
+  /**
+   * Returns the feature source of a type name, creating it if not created
+   * yet
+   *
+   * @param name
+   *          Type name
+   * @param loader
+   *          Creator of the feature source
+   * @return The feature source
+   * @throws IOException
+   */
+  public ContentFeatureSource getFeatureSource(Name name,
+      SDMXSingleFlight.Loader<Name, ContentFeatureSource> loader)
+      throws IOException {
+
+    ContentFeatureSource featureSource = this.featureSources.get(name);
+    if (featureSource != null) {
+      return featureSource;
+    }
+
+    return this.featureSourceLoads.get(name, key -> {
+      ContentFeatureSource loaded = this.featureSources.get(key);
+      if (loaded == null) {
+        loaded = loader.load(key);
+        this.featureSources.put(key, loaded);
+      }
+      return loaded;
+    });
+  }
+
+}
@@ -0,0 +1,573 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the requests sent by a data store, kept per dataflow and in
+ * total, and forwarded to the listeners added to it.
+ *
+ * The metrics can be exposed as JMX MBeans: one for the data store (which
+ * also reports the counters of the observation cache, request coalescer,
+ * request limiter and circuit breaker), and one per dataflow requested.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXMetrics implements SDMXMetricsListener, SDMXMetricsMXBean {
+
+  public static String JMX_DOMAIN = "org.geotools.data.sdmx";
+
+  // Upper bounds (ms) of the buckets of latency histograms
+  protected static final long[] LATENCY_BUCKETS = { 1, 2, 5, 10, 20, 50, 100,
+      200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+  protected SDMXDataStore dataStore;
+  protected DataflowMetrics totals = new DataflowMetrics(null);
+  protected ConcurrentHashMap<String, DataflowMetrics> dataflows = new ConcurrentHashMap<String, DataflowMetrics>();
+  protected List<SDMXMetricsListener> listeners = new CopyOnWriteArrayList<SDMXMetricsListener>();
+
+  // Name of the MBeans (null if not registered)
+  protected String jmxName;
+  protected List<ObjectName> mbeans = new ArrayList<ObjectName>();
+
+  /**
+   * Constructor
+   *
+   * @param dataStoreIn
+   *          Data store whose requests are measured
+   */
+  public SDMXMetrics(SDMXDataStore dataStoreIn) {
+    this.dataStore = dataStoreIn;
+  }
+
+  public void addListener(SDMXMetricsListener listener) {
+    this.listeners.add(listener);
+  }
+
+  public void removeListener(SDMXMetricsListener listener) {
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * Returns the metrics of all the requests
+   */
+  public DataflowMetrics getTotals() {
+    return this.totals;
+  }
+
+  /**
+   * Returns the metrics of a dataflow (created when first requested)
+   *
+   * @param dataflow
+   *          Name of the dataflow
+   */
+  public DataflowMetrics getDataflowMetrics(String dataflow) {
+    DataflowMetrics metrics = this.dataflows.get(dataflow);
+    if (metrics == null) {
+      metrics = this.dataflows.computeIfAbsent(dataflow,
+          df -> new DataflowMetrics(df));
+      this.registerDataflow(metrics);
+    }
+    return metrics;
+  }
+
+  /**
+   * Exposes the metrics as JMX MBeans of the platform MBean server (if
+   * another data store has the same name, a number is appended to it)
+   *
+   * @param name
+   *          Name of the data store in the MBean names
+   */
+  public synchronized void register(String name) {
+
+    if (this.jmxName != null) {
+      return;
+    }
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (int i = 1; this.jmxName == null; i++) {
+      String candidate = i == 1 ? name : name + " (" + i + ")";
+      try {
+        ObjectName objectName = new ObjectName(JMX_DOMAIN
+            + ":type=SDMXDataStore,name=" + ObjectName.quote(candidate));
+        server.registerMBean(this, objectName);
+        this.mbeans.add(objectName);
+        this.jmxName = candidate;
+      } catch (InstanceAlreadyExistsException e) {
+        // Tries the next name
+      } catch (JMException e) {
+        this.dataStore.getLogger().log(Level.WARNING,
+            "Cannot register the SDMX metrics MBean of " + name, e);
+        return;
+      }
+    }
+
+    this.dataflows.values().forEach(metrics -> this.registerDataflow(metrics));
+  }
+
+  /**
+   * Registers the MBean of a dataflow, if the metrics are exposed
+   */
+  protected synchronized void registerDataflow(DataflowMetrics metrics) {
+
+    if (this.jmxName == null || metrics.objectName != null) {
+      return;
+    }
+
+    try {
+      ObjectName objectName = new ObjectName(JMX_DOMAIN
+          + ":type=SDMXDataStore,name=" + ObjectName.quote(this.jmxName)
+          + ",dataflow=" + ObjectName.quote(metrics.dataflow));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+          objectName);
+      metrics.objectName = objectName;
+      this.mbeans.add(objectName);
+    } catch (JMException e) {
+      this.dataStore.getLogger().log(Level.WARNING,
+          "Cannot register the SDMX metrics MBean of " + metrics.dataflow, e);
+    }
+  }
+
+  /**
+   * Removes the MBeans of the metrics
+   */
+  public synchronized void unregister() {
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    this.mbeans.forEach(objectName -> {
+      try {
+        server.unregisterMBean(objectName);
+      } catch (JMException e) {
+        this.dataStore.getLogger().log(Level.FINE,
+            "Cannot unregister MBean " + objectName, e);
+      }
+    });
+    this.mbeans.clear();
+    this.dataflows.values().forEach(metrics -> metrics.objectName = null);
+    this.jmxName = null;
+  }
+
+  /**
+   * Returns the name of the data store in the MBean names (null if the
+   * metrics are not exposed)
+   */
+  public synchronized String getJmxName() {
+    return this.jmxName;
+  }
+
+  @Override
+  public void requestStarted(String dataflow, String kind) {
+    this.fire(listener -> listener.requestStarted(dataflow, kind));
+  }
+
+  @Override
+  public void requestCompleted(String dataflow, String kind, long latency,
+      boolean failed) {
+    this.totals.requestCompleted(latency, failed);
+    if (dataflow != null) {
+      this.getDataflowMetrics(dataflow).requestCompleted(latency, failed);
+    }
+    this.fire(listener -> listener.requestCompleted(dataflow, kind, latency,
+        failed));
+  }
+
+  @Override
+  public void responseRead(String dataflow, String kind, long bytes,
+      long networkTime) {
+    this.totals.responseRead(bytes, networkTime);
+    if (dataflow != null) {
+      this.getDataflowMetrics(dataflow).responseRead(bytes, networkTime);
+    }
+    this.fire(
+        listener -> listener.responseRead(dataflow, kind, bytes, networkTime));
+  }
+
+  @Override
+  public void seriesParsed(String dataflow, long series, long observations,
+      long parseTime) {
+    this.totals.seriesParsed(series, observations, parseTime);
+    if (dataflow != null) {
+      this.getDataflowMetrics(dataflow).seriesParsed(series, observations,
+          parseTime);
+    }
+    this.fire(listener -> listener.seriesParsed(dataflow, series,
+        observations, parseTime));
+  }
+
+  @Override
+  public void cacheLookup(String dataflow, boolean hit) {
+    this.totals.cacheLookup(hit);
+    if (dataflow != null) {
+      this.getDataflowMetrics(dataflow).cacheLookup(hit);
+    }
+    this.fire(listener -> listener.cacheLookup(dataflow, hit));
+  }
+
+  /**
+   * Event sent to a listener
+   */
+  @FunctionalInterface
+  protected interface Event {
+    void send(SDMXMetricsListener listener);
+  }
+
+  /**
+   * Sends an event to the listeners (a failing listener does not stop the
+   * request, nor the other listeners)
+   */
+  protected void fire(Event event) {
+    for (SDMXMetricsListener listener : this.listeners) {
+      try {
+        event.send(listener);
+      } catch (RuntimeException e) {
+        this.dataStore.getLogger().log(Level.WARNING,
+            "SDMX metrics listener " + listener + " failed", e);
+      }
+    }
+  }
+
+  @Override
+  public String getEndpoint() {
+    return this.dataStore.getEndpoint();
+  }
+
+  @Override
+  public String[] getDataflows() {
+    return this.dataflows.keySet().toArray(new String[0]);
+  }
+
+  @Override
+  public long getRequestCount() {
+    return this.totals.getRequestCount();
+  }
+
+  @Override
+  public long getFailureCount() {
+    return this.totals.getFailureCount();
+  }
+
+  @Override
+  public int getInFlightCount() {
+    return this.dataStore.getRequestLimiter().getInFlightCount();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return this.totals.getBytesReceived();
+  }
+
+  @Override
+  public long getSeriesCount() {
+    return this.totals.getSeriesCount();
+  }
+
+  @Override
+  public long getObservationCount() {
+    return this.totals.getObservationCount();
+  }
+
+  @Override
+  public long getParseTime() {
+    return this.totals.getParseTime();
+  }
+
+  @Override
+  public long getNetworkTime() {
+    return this.totals.getNetworkTime();
+  }
+
+  @Override
+  public double getSeriesPerSecond() {
+    return this.totals.getSeriesPerSecond();
+  }
+
+  @Override
+  public double getObservationsPerSecond() {
+    return this.totals.getObservationsPerSecond();
+  }
+
+  @Override
+  public long getCacheHitCount() {
+    return this.totals.getCacheHitCount();
+  }
+
+  @Override
+  public long getCacheMissCount() {
+    return this.totals.getCacheMissCount();
+  }
+
+  @Override
+  public double getCacheHitRatio() {
+    return this.totals.getCacheHitRatio();
+  }
+
+  @Override
+  public long getCacheEvictionCount() {
+    SDMXObservationCache cache = this.dataStore.getObservationCache();
+    return cache == null ? 0 : cache.getEvictionCount();
+  }
+
+  @Override
+  public long getCacheSize() {
+    SDMXObservationCache cache = this.dataStore.getObservationCache();
+    return cache == null ? 0 : cache.getSize();
+  }
+
+  @Override
+  public long getCoalescedCount() {
+    return this.dataStore.getRequestCoalescer().getCoalescedCount();
+  }
+
+  @Override
+  public int getConcurrencyLimit() {
+    return this.dataStore.getRequestLimiter().getLimit();
+  }
+
+  @Override
+  public long getRejectionCount() {
+    return this.dataStore.getRequestLimiter().getRejectionCount();
+  }
+
+  @Override
+  public String getCircuitState() {
+    return this.dataStore.getCircuitBreaker().getState().name();
+  }
+
+  @Override
+  public long getCircuitOpenCount() {
+    return this.dataStore.getCircuitBreaker().getOpenCount();
+  }
+
+  @Override
+  public long getCircuitRefusalCount() {
+    return this.dataStore.getCircuitBreaker().getRefusalCount();
+  }
+
+  @Override
+  public long getStaleResponseCount() {
+    return this.dataStore.getStaleResponseCount();
+  }
+
+  /**
+   * Metrics of the requests of a dataflow (or of all the requests)
+   */
+  public static class DataflowMetrics implements SDMXDataflowMetricsMXBean {
+
+    protected String dataflow;
+    protected ObjectName objectName;
+
+    protected AtomicLong requests = new AtomicLong();
+    protected AtomicLong failures = new AtomicLong();
+    protected AtomicLongArray latencies = new AtomicLongArray(
+        LATENCY_BUCKETS.length + 1);
+    protected AtomicLong totalLatency = new AtomicLong();
+    protected AtomicLong maxLatency = new AtomicLong();
+    protected AtomicLong bytes = new AtomicLong();
+    protected AtomicLong series = new AtomicLong();
+    protected AtomicLong observations = new AtomicLong();
+    protected AtomicLong parseTime = new AtomicLong();
+    protected AtomicLong networkTime = new AtomicLong();
+    protected AtomicLong cacheHits = new AtomicLong();
+    protected AtomicLong cacheMisses = new AtomicLong();
+
+    protected DataflowMetrics(String dataflowIn) {
+      this.dataflow = dataflowIn;
+    }
+
+    protected void requestCompleted(long latency, boolean failed) {
+      this.requests.incrementAndGet();
+      if (failed) {
+        this.failures.incrementAndGet();
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(latency);
+      int bucket = 0;
+      while (bucket < LATENCY_BUCKETS.length
+          && millis > LATENCY_BUCKETS[bucket]) {
+        bucket++;
+      }
+      this.latencies.incrementAndGet(bucket);
+      this.totalLatency.addAndGet(latency);
+      this.maxLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    protected void responseRead(long bytesIn, long networkTimeIn) {
+      this.bytes.addAndGet(bytesIn);
+      this.networkTime.addAndGet(networkTimeIn);
+    }
+
+    protected void seriesParsed(long seriesIn, long observationsIn,
+        long parseTimeIn) {
+      this.series.addAndGet(seriesIn);
+      this.observations.addAndGet(observationsIn);
+      this.parseTime.addAndGet(parseTimeIn);
+    }
+
+    protected void cacheLookup(boolean hit) {
+      (hit ? this.cacheHits : this.cacheMisses).incrementAndGet();
+    }
+
+    @Override
+    public String getDataflow() {
+      return this.dataflow;
+    }
+
+    @Override
+    public long getRequestCount() {
+      return this.requests.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+      return this.failures.get();
+    }
+
+    @Override
+    public long[] getLatencyBuckets() {
+      return LATENCY_BUCKETS.clone();
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+      long[] counts = new long[this.latencies.length()];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = this.latencies.get(i);
+      }
+      return counts;
+    }
+
+    @Override
+    public double getMeanLatency() {
+      long n = this.requests.get();
+      return n == 0 ? 0 : this.totalLatency.get() / 1e6 / n;
+    }
+
+    /**
+     * Returns the upper bound (ms) of the histogram bucket that holds a
+     * percentile of the latencies (the highest latency for the last bucket)
+     *
+     * @param percentile
+     *          Percentile (between 0 and 100)
+     */
+    public double getLatencyPercentile(double percentile) {
+      long[] counts = this.getLatencyHistogram();
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      if (total == 0) {
+        return 0;
+      }
+
+      long rank = (long) Math.ceil(percentile / 100 * total);
+      long seen = 0;
+      for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return LATENCY_BUCKETS[i];
+        }
+      }
+      return this.maxLatency.get() / 1e6;
+    }
+
+    @Override
+    public double getLatencyP50() {
+      return this.getLatencyPercentile(50);
+    }
+
+    @Override
+    public double getLatencyP90() {
+      return this.getLatencyPercentile(90);
+    }
+
+    @Override
+    public double getLatencyP99() {
+      return this.getLatencyPercentile(99);
+    }
+
+    @Override
+    public long getBytesReceived() {
+      return this.bytes.get();
+    }
+
+    @Override
+    public long getSeriesCount() {
+      return this.series.get();
+    }
+
+    @Override
+    public long getObservationCount() {
+      return this.observations.get();
+    }
+
+    @Override
+    public long getParseTime() {
+      return TimeUnit.NANOSECONDS.toMillis(this.parseTime.get());
+    }
+
+    @Override
+    public long getNetworkTime() {
+      return TimeUnit.NANOSECONDS.toMillis(this.networkTime.get());
+    }
+
+    @Override
+    public double getSeriesPerSecond() {
+      long time = this.parseTime.get();
+      return time == 0 ? 0 : this.series.get() / (time / 1e9);
+    }
+
+    @Override
+    public double getObservationsPerSecond() {
+      long time = this.parseTime.get();
+      return time == 0 ? 0 : this.observations.get() / (time / 1e9);
+    }
+
+    @Override
+    public long getCacheHitCount() {
+      return this.cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+      return this.cacheMisses.get();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+      long hits = this.cacheHits.get();
+      long lookups = hits + this.cacheMisses.get();
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+/**
+ * Receives the events of the requests sent by a data store, to bridge them to
+ * a metrics or tracing system. Times are in nanoseconds.
+ *
+ * Events are sent by the threads that send the requests and read the
+ * responses, hence listeners have to be thread-safe and return quickly.
+ *
+ * @author lmorandini
+ *
+ */
+public interface SDMXMetricsListener {
+
+  // Kinds of requests
+  public static String DATAFLOWS = "dataflows";
+  public static String STRUCTURE = "structure";
+  public static String CONSTRAINT = "constraint";
+  public static String DATA = "data";
+
+  /**
+   * A request is about to be sent to the SDMX server (once allowed by the
+   * request limiter and the circuit breaker)
+   *
+   * @param dataflow
+   *          Name of the dataflow (null for requests of the whole catalog)
+   * @param kind
+   *          Kind of request
+   */
+  default void requestStarted(String dataflow, String kind) {
+  }
+
+  /**
+   * The SDMX server answered a request, or the request failed
+   *
+   * @param dataflow
+   *          Name of the dataflow (null for requests of the whole catalog)
+   * @param kind
+   *          Kind of request
+   * @param latency
+   *          Time from the request to the answer (for messages streamed to
+   *          the data store, to the start of the response body)
+   * @param failed
+   *          True if the request failed
+   */
+  default void requestCompleted(String dataflow, String kind, long latency,
+      boolean failed) {
+  }
+
+  /**
+   * The body of a response has been read and closed
+   *
+   * @param dataflow
+   *          Name of the dataflow
+   * @param kind
+   *          Kind of request
+   * @param bytes
+   *          Bytes of the body (after decompression)
+   * @param networkTime
+   *          Time spent waiting for and decompressing the body
+   */
+  default void responseRead(String dataflow, String kind, long bytes,
+      long networkTime) {
+  }
+
+  /**
+   * The series of a data response have been parsed
+   *
+   * @param dataflow
+   *          Name of the dataflow
+   * @param series
+   *          Number of series parsed
+   * @param observations
+   *          Number of observations parsed
+   * @param parseTime
+   *          Time spent parsing (excluding the time spent reading the body)
+   */
+  default void seriesParsed(String dataflow, long series, long observations,
+      long parseTime) {
+  }
+
+  /**
+   * A data request has been looked up in the observation cache
+   *
+   * @param dataflow
+   *          Name of the dataflow
+   * @param hit
+   *          True if the request was answered from the cache
+   */
+  default void cacheLookup(String dataflow, boolean hit) {
+  }
+
+}
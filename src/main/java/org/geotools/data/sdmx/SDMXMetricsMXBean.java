@@ -0,0 +1,104 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+/**
+ * Metrics of a data store, exposed through JMX: the totals of its dataflows,
+ * and the counters of its observation cache, request coalescer, request
+ * limiter and circuit breaker. Counts and times (in ms) are cumulative since
+ * the data store was created.
+ *
+ * @author lmorandini
+ *
+ */
+public interface SDMXMetricsMXBean {
+
+  String getEndpoint();
+
+  /**
+   * Returns the names of the dataflows requested so far
+   */
+  String[] getDataflows();
+
+  long getRequestCount();
+
+  long getFailureCount();
+
+  /**
+   * Returns the number of requests waiting for the server to answer
+   */
+  int getInFlightCount();
+
+  long getBytesReceived();
+
+  long getSeriesCount();
+
+  long getObservationCount();
+
+  long getParseTime();
+
+  long getNetworkTime();
+
+  double getSeriesPerSecond();
+
+  double getObservationsPerSecond();
+
+  long getCacheHitCount();
+
+  long getCacheMissCount();
+
+  double getCacheHitRatio();
+
+  long getCacheEvictionCount();
+
+  /**
+   * Returns the size (bytes) of the observation cache (0 if there is none)
+   */
+  long getCacheSize();
+
+  /**
+   * Returns the number of queries that joined an identical running request
+   */
+  long getCoalescedCount();
+
+  /**
+   * Returns the number of requests allowed to run at the same time
+   */
+  int getConcurrencyLimit();
+
+  /**
+   * Returns the number of requests that timed out waiting for their turn
+   */
+  long getRejectionCount();
+
+  /**
+   * Returns the state of the circuit breaker (CLOSED, OPEN or HALF_OPEN)
+   */
+  String getCircuitState();
+
+  long getCircuitOpenCount();
+
+  long getCircuitRefusalCount();
+
+  /**
+   * Returns the number of queries served from expired cached series
+   */
+  long getStaleResponseCount();
+
+}
@@ -0,0 +1,250 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the series returned by SDMX data queries, bounded by the estimated
+ * size in bytes of the cached series (the least recently used entries are
+ * evicted first) and by a time-to-live
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXObservationCache {
+
+  /**
+   * Cached result of a query
+   */
+  protected static class Entry {
+    protected List<SDMXSeries> series;
+    protected long bytes;
+    protected long created;
+
+    protected Entry(List<SDMXSeries> seriesIn, long bytesIn) {
+      this.series = seriesIn;
+      this.bytes = bytesIn;
+      this.created = System.currentTimeMillis();
+    }
+  }
+
+  protected long maxBytes;
+  protected long ttl;
+  protected long bytes = 0;
+  protected LinkedHashMap<SDMXDataQuery, Entry> entries = new LinkedHashMap<SDMXDataQuery, Entry>(
+      16, 0.75f, true);
+
+  protected AtomicLong hits = new AtomicLong();
+  protected AtomicLong misses = new AtomicLong();
+  protected AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Constructor
+   *
+   * @param maxBytesIn
+   *          Maximum estimated size of the cached series
+   * @param ttlIn
+   *          Time-to-live of the entries in milliseconds
+   */
+  public SDMXObservationCache(long maxBytesIn, long ttlIn) {
+    this.maxBytes = maxBytesIn;
+    this.ttl = ttlIn;
+  }
+
+  /**
+   * Returns the cached series of a query
+   *
+   * @param query
+   *          Data query
+   * @return The series, or null if the query is not cached or has expired
+   */
+  public synchronized List<SDMXSeries> get(SDMXDataQuery query) {
+    Entry entry = this.entries.get(query);
+    if (entry == null || this.isExpired(entry)) {
+      this.misses.incrementAndGet();
+      return null;
+    }
+    this.hits.incrementAndGet();
+    return entry.series;
+  }
+
+  /**
+   * Returns the cached series of a query even if they have expired (expired
+   * entries are kept until evicted, so that they can be served when the SDMX
+   * server is not available)
+   *
+   * @param query
+   *          Data query
+   * @return The series, or null if the query is not cached
+   */
+  public synchronized List<SDMXSeries> getStale(SDMXDataQuery query) {
+    Entry entry = this.entries.get(query);
+    return entry == null ? null : entry.series;
+  }
+
+  /**
+   * Returns the age in milliseconds of the cached series of a query (-1 if
+   * the query is not cached)
+   */
+  public synchronized long getAge(SDMXDataQuery query) {
+    Entry entry = this.entries.get(query);
+    return entry == null ? -1 : System.currentTimeMillis() - entry.created;
+  }
+
+  /**
+   * Caches the series of a query, evicting the least recently used entries if
+   * the cache grows beyond its maximum size
+   *
+   * @param query
+   *          Data query
+   * @param series
+   *          Complete list of series returned by the query
+   */
+  public synchronized void put(SDMXDataQuery query, List<SDMXSeries> series) {
+
+    long entryBytes = SDMXObservationCache.estimateSize(series);
+    if (entryBytes > this.maxBytes) {
+      return;
+    }
+
+    Entry previous = this.entries.put(query, new Entry(series, entryBytes));
+    if (previous != null) {
+      this.bytes -= previous.bytes;
+    }
+    this.bytes += entryBytes;
+
+    Iterator<Map.Entry<SDMXDataQuery, Entry>> iter = this.entries.entrySet()
+        .iterator();
+    while (this.bytes > this.maxBytes && iter.hasNext()) {
+      Map.Entry<SDMXDataQuery, Entry> eldest = iter.next();
+      if (eldest.getKey().equals(query)) {
+        continue;
+      }
+      this.bytes -= eldest.getValue().bytes;
+      iter.remove();
+      this.evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Removes all entries
+   */
+  public synchronized void clear() {
+    this.entries.clear();
+    this.bytes = 0;
+  }
+
+  /**
+   * Wraps the series returned by a query so that they are cached once
+   * completely read (series are not cached if the iterator is closed before
+   * the end, or if they are too large for the cache)
+   *
+   * @param query
+   *          Data query
+   * @param seriesIn
+   *          Series returned by the query
+   * @return The wrapped series
+   */
+  public SDMXSeriesIterator record(SDMXDataQuery query,
+      SDMXSeriesIterator seriesIn) {
+
+    return new SDMXSeriesIterator() {
+
+      List<SDMXSeries> recorded = new ArrayList<SDMXSeries>();
+      long recordedBytes = 0;
+
+      @Override
+      public boolean hasNext() throws IOException {
+        boolean hasNext = seriesIn.hasNext();
+        if (!hasNext && this.recorded != null) {
+          SDMXObservationCache.this.put(query, this.recorded);
+          this.recorded = null;
+        }
+        return hasNext;
+      }
+
+      @Override
+      public SDMXSeries next() throws IOException, NoSuchElementException {
+        SDMXSeries series = seriesIn.next();
+        if (this.recorded != null) {
+          this.recordedBytes += series.estimateSize();
+          if (this.recordedBytes > SDMXObservationCache.this.maxBytes) {
+            this.recorded = null;
+          } else {
+            this.recorded.add(series);
+          }
+        }
+        return series;
+      }
+
+      @Override
+      public void close() throws IOException {
+        this.recorded = null;
+        seriesIn.close();
+      }
+    };
+  }
+
+  protected boolean isExpired(Entry entry) {
+    return System.currentTimeMillis() - entry.created > this.ttl;
+  }
+
+  /**
+   * Returns the estimated size in bytes of a list of series
+   */
+  public static long estimateSize(List<SDMXSeries> series) {
+    long size = 16;
+    for (SDMXSeries s : series) {
+      size += s.estimateSize();
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return this.hits.get();
+  }
+
+  public long getMissCount() {
+    return this.misses.get();
+  }
+
+  public long getEvictionCount() {
+    return this.evictions.get();
+  }
+
+  /**
+   * Returns the estimated size in bytes of the cached series
+   */
+  public synchronized long getSize() {
+    return this.bytes;
+  }
+
+  public long getMaxSize() {
+    return this.maxBytes;
+  }
+
+}
@@ -0,0 +1,222 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
+import it.bancaditalia.oss.sdmx.api.Dimension;
+
+/**
+ * Splits SDMX constraints that are too large for a single request (either
+ * because the URL would be too long, or because too many series would be
+ * returned) into smaller constraints that select the same series. The
+ * dimension with the most codes is halved until every constraint fits.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXQueryPlanner {
+
+  protected static final Pattern SEPARATOR_PATTERN = Pattern
+      .compile(Pattern.quote(SDMXDataStore.SEPARATOR_EXP));
+  protected static final Pattern OR_PATTERN = Pattern
+      .compile(Pattern.quote(SDMXDataStore.OR_EXP));
+
+  protected int maxConstraintLength;
+  protected long maxSeries;
+  protected int parallelism;
+
+  /**
+   * Constructor
+   *
+   * @param maxConstraintLengthIn
+   *          Maximum length of the constraints of a request (0 for no limit)
+   * @param maxSeriesIn
+   *          Maximum estimated number of series of a request (0 for no limit)
+   * @param parallelismIn
+   *          Maximum number of requests of a query sent at the same time
+   */
+  public SDMXQueryPlanner(int maxConstraintLengthIn, long maxSeriesIn,
+      int parallelismIn) {
+    this.maxConstraintLength = maxConstraintLengthIn;
+    this.maxSeries = maxSeriesIn;
+    this.parallelism = Math.max(1, parallelismIn);
+  }
+
+  /**
+   * Splits a query into queries that fit the limits of the planner
+   *
+   * @param query
+   *          Data query
+   * @param dfStructure
+   *          DSD of the queried dataflow
+   * @return The queries to send (the given one if it does not need splitting)
+   */
+  public List<SDMXDataQuery> plan(SDMXDataQuery query,
+      DataFlowStructure dfStructure) {
+
+    List<String> constraints = this.split(query.getConstraints(),
+        SDMXQueryPlanner.getCodelistSizes(dfStructure));
+    if (constraints.size() == 1) {
+      return Arrays.asList(query);
+    }
+
+    List<SDMXDataQuery> queries = new ArrayList<SDMXDataQuery>(
+        constraints.size());
+    constraints.forEach(c -> queries.add(new SDMXDataQuery(query.getEndpoint(),
+        query.getDataflow(), c, query.getStartPeriod(), query.getEndPeriod(),
+        query.getDetail(), query.getFirstNObservations())));
+    return queries;
+  }
+
+  /**
+   * Splits SDMX constraints into constraints that fit the limits of the
+   * planner
+   *
+   * @param constraints
+   *          SDMX constraints (codes separated by OR_EXP, dimensions separated
+   *          by SEPARATOR_EXP)
+   * @param codelistSizes
+   *          Number of codes of each dimension, used to estimate the number of
+   *          series of unconstrained dimensions (0 if not known)
+   * @return The split constraints, in the same order as the codes
+   */
+  public List<String> split(String constraints, int[] codelistSizes) {
+
+    List<String> result = new ArrayList<String>();
+    Deque<String[][]> pending = new ArrayDeque<String[][]>();
+    pending.push(SDMXQueryPlanner.parse(constraints));
+
+    while (!pending.isEmpty()) {
+      String[][] codes = pending.pop();
+
+      int largest = SDMXQueryPlanner.largestDimension(codes);
+      if (largest < 0 || this.fits(codes, codelistSizes)) {
+        result.add(SDMXQueryPlanner.format(codes));
+        continue;
+      }
+
+      // Halves the dimension with the most codes (the second half is pushed
+      // first, so that the order of codes is kept)
+      String[] dimCodes = codes[largest];
+      int half = dimCodes.length / 2;
+      String[][] first = codes.clone();
+      String[][] second = codes.clone();
+      first[largest] = Arrays.copyOfRange(dimCodes, 0, half);
+      second[largest] = Arrays.copyOfRange(dimCodes, half, dimCodes.length);
+      pending.push(second);
+      pending.push(first);
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks whether constraints fit the limits of the planner
+   */
+  protected boolean fits(String[][] codes, int[] codelistSizes) {
+
+    if (this.maxConstraintLength > 0
+        && SDMXQueryPlanner.format(codes).length() > this.maxConstraintLength) {
+      return false;
+    }
+
+    return this.maxSeries <= 0
+        || SDMXQueryPlanner.estimateSeries(codes, codelistSizes) <= this.maxSeries;
+  }
+
+  /**
+   * Estimates the number of series selected by constraints as the product of
+   * the number of codes of every dimension
+   */
+  protected static long estimateSeries(String[][] codes, int[] codelistSizes) {
+    long n = 1;
+    for (int i = 0; i < codes.length; i++) {
+      int dimSize = codes[i].length;
+      if (dimSize == 0 && codelistSizes != null && i < codelistSizes.length) {
+        dimSize = codelistSizes[i];
+      }
+      n *= Math.max(1, dimSize);
+    }
+    return n;
+  }
+
+  /**
+   * Returns the index of the dimension with the most codes, or -1 if no
+   * dimension has more than one code
+   */
+  protected static int largestDimension(String[][] codes) {
+    int largest = -1;
+    for (int i = 0; i < codes.length; i++) {
+      if (codes[i].length > 1
+          && (largest < 0 || codes[i].length > codes[largest].length)) {
+        largest = i;
+      }
+    }
+    return largest;
+  }
+
+  protected static String[][] parse(String constraints) {
+    String[] dims = SEPARATOR_PATTERN.split(constraints, -1);
+    String[][] codes = new String[dims.length][];
+    for (int i = 0; i < dims.length; i++) {
+      codes[i] = dims[i].isEmpty() ? new String[0]
+          : OR_PATTERN.split(dims[i]);
+    }
+    return codes;
+  }
+
+  protected static String format(String[][] codes) {
+    StringBuilder constraints = new StringBuilder();
+    for (int i = 0; i < codes.length; i++) {
+      if (i > 0) {
+        constraints.append(SDMXDataStore.SEPARATOR_EXP);
+      }
+      constraints.append(String.join(SDMXDataStore.OR_EXP, codes[i]));
+    }
+    return constraints.toString();
+  }
+
+  /**
+   * Returns the number of codes of each dimension of a DSD (0 if the
+   * dimension has no codelist)
+   */
+  public static int[] getCodelistSizes(DataFlowStructure dfStructure) {
+    List<Dimension> dims = dfStructure.getDimensions();
+    int[] sizes = new int[dims.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      Dimension dim = dims.get(i);
+      sizes[i] = dim.getCodeList() == null
+          || dim.getCodeList().getCodes() == null ? 0
+              : dim.getCodeList().getCodes().size();
+    }
+    return sizes;
+  }
+
+  public int getParallelism() {
+    return this.parallelism;
+  }
+
+}
@@ -0,0 +1,477 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical data queries sent at the same time: the first query
+ * sends the request, the others join it, and every query gets its own
+ * iterator over the series parsed from the single response.
+ *
+ * Parsed series are kept until all the iterators of the request have read
+ * them. Queries join a request only while its first series is kept (and
+ * fewer than a given number are), since they start from it. The iterators
+ * ahead of the others by that number of series wait for them; an iterator
+ * that does not catch up in time is detached, and sends its own request.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXRequestCoalescer {
+
+  // Maximum time (ms) iterators wait for the ones behind
+  public static long DEFAULT_MAX_WAIT = 1000;
+
+  /**
+   * Sends a request and returns its series
+   */
+  @FunctionalInterface
+  public interface Source {
+    SDMXSeriesIterator open() throws IOException;
+  }
+
+  protected ConcurrentHashMap<SDMXDataQuery, Request> inFlight = new ConcurrentHashMap<SDMXDataQuery, Request>();
+  protected int maxShared;
+  protected long maxWait;
+  protected AtomicLong requests = new AtomicLong();
+  protected AtomicLong coalesced = new AtomicLong();
+  protected AtomicLong detached = new AtomicLong();
+
+  /**
+   * Constructor
+   *
+   * @param maxSharedIn
+   *          Maximum number of series an iterator can be ahead of the others
+   */
+  public SDMXRequestCoalescer(int maxSharedIn) {
+    this(maxSharedIn, DEFAULT_MAX_WAIT);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxSharedIn
+   *          Maximum number of series an iterator can be ahead of the others
+   * @param maxWaitIn
+   *          Maximum time (ms) iterators wait for the ones behind before
+   *          detaching them
+   */
+  public SDMXRequestCoalescer(int maxSharedIn, long maxWaitIn) {
+    this.maxShared = Math.max(1, maxSharedIn);
+    this.maxWait = Math.max(0, maxWaitIn);
+  }
+
+  /**
+   * Returns the series of a query, joining the request of an identical query
+   * if one is in progress
+   *
+   * @param query
+   *          Data query
+   * @param source
+   *          Sends the request if no identical query is in progress (called
+   *          when the series are first read)
+   * @return The series returned by the query
+   */
+  public SDMXSeriesIterator get(SDMXDataQuery query, Source source) {
+
+    while (true) {
+      Request request = this.inFlight.get(query);
+      if (request == null) {
+        Request created = new Request(query, source);
+        request = this.inFlight.putIfAbsent(query, created);
+        if (request == null) {
+          this.requests.incrementAndGet();
+          return created.join();
+        }
+      }
+
+      SDMXSeriesIterator reader = request.join();
+      if (reader != null) {
+        this.coalesced.incrementAndGet();
+        return reader;
+      }
+      this.inFlight.remove(query, request);
+    }
+  }
+
+  /**
+   * Returns the number of requests sent
+   */
+  public long getRequestCount() {
+    return this.requests.get();
+  }
+
+  /**
+   * Returns the number of queries served by the request of another query
+   */
+  public long getCoalescedCount() {
+    return this.coalesced.get();
+  }
+
+  /**
+   * Returns the number of iterators detached from a request because they
+   * fell too far behind
+   */
+  public long getDetachedCount() {
+    return this.detached.get();
+  }
+
+  /**
+   * Returns the number of requests accepting queries
+   */
+  public int getInFlightCount() {
+    return this.inFlight.size();
+  }
+
+  /**
+   * Request shared by identical queries
+   */
+  protected class Request {
+
+    protected SDMXDataQuery query;
+    protected Source source;
+    protected SDMXSeriesIterator series;
+
+    // Series parsed and not read by all readers yet; buffer.get(0) is the
+    // series at position base
+    protected List<SDMXSeries> buffer = new ArrayList<SDMXSeries>();
+    protected int base = 0;
+
+    protected List<Reader> readers = new ArrayList<Reader>();
+    protected int waiting = 0;
+    protected boolean filling = false;
+    protected boolean joinable = true;
+    protected boolean finished = false;
+    protected IOException failure;
+
+    protected Request(SDMXDataQuery queryIn, Source sourceIn) {
+      this.query = queryIn;
+      this.source = sourceIn;
+    }
+
+    /**
+     * Returns a new reader of the series (null if the request no longer
+     * accepts queries)
+     */
+    protected synchronized Reader join() {
+      if (!this.joinable) {
+        return null;
+      }
+      Reader reader = new Reader(this);
+      this.readers.add(reader);
+      return reader;
+    }
+
+    /**
+     * Returns true if there is a series at a position, parsing it if needed.
+     * The response is opened and parsed outside the lock of the request, so
+     * that the other readers can read the series already parsed meanwhile
+     */
+    protected boolean has(int position) throws IOException {
+
+      SDMXSeriesIterator iterator;
+      synchronized (this) {
+        long deadline = -1;
+        while (true) {
+          if (position - this.base < this.buffer.size()) {
+            return true;
+          }
+          if (this.failure != null) {
+            throw new IOException(this.failure.getMessage(), this.failure);
+          }
+          if (this.finished) {
+            return false;
+          }
+
+          // Another reader is parsing the next series
+          if (this.filling) {
+            this.await(0);
+            continue;
+          }
+
+          if (this.base + this.buffer.size()
+              - this.minPosition() < SDMXRequestCoalescer.this.maxShared) {
+            break;
+          }
+
+          // The readers too far behind are waited for, and detached if they
+          // do not catch up in time
+          long now = System.currentTimeMillis();
+          if (deadline < 0) {
+            deadline = now + SDMXRequestCoalescer.this.maxWait;
+          }
+          if (now >= deadline) {
+            this.detachSlowest();
+            continue;
+          }
+          this.await(deadline - now);
+        }
+        this.filling = true;
+        iterator = this.series;
+      }
+
+      SDMXSeries next;
+      try {
+        if (iterator == null) {
+          iterator = this.source.open();
+        }
+        next = iterator.hasNext() ? iterator.next() : null;
+      } catch (IOException | RuntimeException | Error e) {
+        synchronized (this) {
+          if (this.filled(iterator)) {
+            this.failure = e instanceof IOException ? (IOException) e
+                : new IOException(e);
+            this.finish();
+          }
+        }
+        throw e;
+      }
+
+      synchronized (this) {
+        if (!this.filled(iterator)) {
+          return false;
+        }
+        if (next == null) {
+          this.finish();
+          return false;
+        }
+        this.buffer.add(next);
+        if (this.joinable
+            && this.buffer.size() >= SDMXRequestCoalescer.this.maxShared) {
+          this.leave();
+        }
+        return true;
+      }
+    }
+
+    /**
+     * Waits for a change of the request (ms, 0 for no timeout)
+     */
+    protected void await(long timeout) throws IOException {
+      this.waiting++;
+      try {
+        this.wait(timeout);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } finally {
+        this.waiting--;
+      }
+    }
+
+    /**
+     * Ends the parsing of a series, waking up the readers waiting for it
+     *
+     * @return false if the request was closed meanwhile
+     */
+    protected boolean filled(SDMXSeriesIterator iterator) {
+      this.filling = false;
+      this.series = iterator;
+      if (this.waiting > 0) {
+        this.notifyAll();
+      }
+      if (this.finished) {
+        this.closeSeries();
+        return false;
+      }
+      return true;
+    }
+
+    protected synchronized SDMXSeries get(int position) {
+      return this.buffer.get(position - this.base);
+    }
+
+    /**
+     * Returns the position of the slowest reader
+     */
+    protected int minPosition() {
+      int min = this.base + this.buffer.size();
+      for (Reader reader : this.readers) {
+        min = Math.min(min, reader.position);
+      }
+      return min;
+    }
+
+    /**
+     * Discards the series read by all readers (once at least half of the
+     * buffer can be discarded, to avoid shifting it at every series), and
+     * wakes up the readers waiting for the slowest ones
+     */
+    protected void trim() {
+      int read = this.minPosition() - this.base;
+      if (read > 0 && read * 2 >= this.buffer.size()) {
+        this.buffer.subList(0, read).clear();
+        this.base += read;
+
+        // Queries joining later could not start from the first series
+        if (this.joinable) {
+          this.leave();
+        }
+      }
+      if (this.waiting > 0) {
+        this.notifyAll();
+      }
+    }
+
+    /**
+     * Detaches the slowest readers, which then send their own requests
+     */
+    protected void detachSlowest() {
+      int min = this.minPosition();
+      this.readers.removeIf(reader -> {
+        if (reader.position == min) {
+          reader.detached = true;
+          SDMXRequestCoalescer.this.detached.incrementAndGet();
+          return true;
+        }
+        return false;
+      });
+      this.trim();
+    }
+
+    /**
+     * Stops accepting queries
+     */
+    protected void leave() {
+      this.joinable = false;
+      SDMXRequestCoalescer.this.inFlight.remove(this.query, this);
+    }
+
+    /**
+     * Stops accepting queries and closes the response (once the series being
+     * parsed, if any, is)
+     */
+    protected void finish() {
+      this.finished = true;
+      this.leave();
+      if (!this.filling) {
+        this.closeSeries();
+      }
+    }
+
+    protected void closeSeries() {
+      if (this.series != null) {
+        try {
+          this.series.close();
+        } catch (IOException e) {
+          // Nothing to do, the series have been read already
+        }
+      }
+    }
+
+    /**
+     * Removes a reader, closing the response if there are no more readers
+     */
+    protected synchronized void close(Reader reader) {
+      this.readers.remove(reader);
+      if (this.readers.isEmpty()) {
+        this.buffer.clear();
+        if (!this.finished) {
+          this.finish();
+        }
+      } else {
+        this.trim();
+      }
+    }
+  }
+
+  /**
+   * Iterator of a query over the series of a shared request (or over its
+   * own response, once detached from the request)
+   */
+  protected static class Reader implements SDMXSeriesIterator {
+
+    protected Request request;
+    protected int position = 0;
+    protected boolean closed = false;
+    protected volatile boolean detached = false;
+    protected SDMXSeriesIterator own;
+
+    protected Reader(Request requestIn) {
+      this.request = requestIn;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      if (this.closed) {
+        return false;
+      }
+      if (!this.detached) {
+        return this.request.has(this.position);
+      }
+      return this.ownHasNext();
+    }
+
+    @Override
+    public SDMXSeries next() throws IOException, NoSuchElementException {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      synchronized (this.request) {
+        if (!this.detached) {
+          SDMXSeries series = this.request.get(this.position++);
+          this.request.trim();
+          return series;
+        }
+      }
+      if (!this.ownHasNext()) {
+        throw new NoSuchElementException();
+      }
+      this.position++;
+      return this.own.next();
+    }
+
+    /**
+     * Returns true if the own response of a detached reader has more series,
+     * sending the request (and skipping the series already read) if needed
+     */
+    protected boolean ownHasNext() throws IOException {
+      if (this.own == null) {
+        this.own = this.request.source.open();
+        for (int i = 0; i < this.position && this.own.hasNext(); i++) {
+          this.own.next();
+        }
+      }
+      return this.own.hasNext();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!this.closed) {
+        this.closed = true;
+        synchronized (this.request) {
+          if (!this.detached) {
+            this.request.close(this);
+          }
+        }
+        if (this.own != null) {
+          this.own.close();
+        }
+      }
+    }
+  }
+
+}
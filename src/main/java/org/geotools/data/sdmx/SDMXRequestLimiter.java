@@ -0,0 +1,264 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the requests sent to an SDMX server, shared by all the requests of a
+ * data store.
+ *
+ * The number of requests running at the same time adapts to the server
+ * (additive increase, multiplicative decrease): it grows by one every time as
+ * many requests as the limit succeed, and it is halved when a request fails
+ * (including the HTTP 429 and 503 answers of throttling servers). Latency is
+ * not taken into account, since it depends on the size of the query more
+ * than on the load of the server. Requests are also started at most at a
+ * given rate (token bucket), and wait for their turn at most a given time.
+ *
+ * A request holds its slot until the server answers: the body of the
+ * response is read without it, the connections being limited by the
+ * transport.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXRequestLimiter {
+
+  // Factor applied to the limit when the server is overloaded
+  protected static final double BACKOFF = 0.5;
+
+  protected int minLimit = 1;
+  protected int maxLimit;
+  protected double rate;
+  protected double burst;
+  protected long queueTimeout;
+
+  protected ReentrantLock lock = new ReentrantLock();
+  protected Condition available = this.lock.newCondition();
+  protected double limit;
+  protected int inFlight = 0;
+  protected double tokens;
+  protected long refilled;
+  protected long decreased;
+
+  protected AtomicLong requests = new AtomicLong();
+  protected AtomicLong failures = new AtomicLong();
+  protected AtomicLong rejections = new AtomicLong();
+
+  /**
+   * Constructor
+   *
+   * @param maxLimitIn
+   *          Maximum number of requests running at the same time
+   * @param rateIn
+   *          Maximum number of requests started per second (0 for no limit)
+   * @param queueTimeoutIn
+   *          Maximum time a request waits for its turn (ms, 0 for no limit)
+   */
+  public SDMXRequestLimiter(int maxLimitIn, double rateIn,
+      long queueTimeoutIn) {
+    this.maxLimit = Math.max(this.minLimit, maxLimitIn);
+    this.limit = this.maxLimit;
+    this.rate = Math.max(0, rateIn);
+    this.burst = Math.max(1, this.rate);
+    this.tokens = this.burst;
+    this.queueTimeout = queueTimeoutIn;
+    this.refilled = System.nanoTime();
+    this.decreased = this.refilled;
+  }
+
+  /**
+   * Waits until a request can be sent
+   *
+   * @return The permit of the request, to be closed when the server has
+   *         answered
+   * @throws IOException
+   *           if the request cannot be sent within the queue timeout
+   */
+  public Permit acquire() throws IOException {
+
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(this.queueTimeout);
+    this.lock.lock();
+    try {
+      while (true) {
+        long now = System.nanoTime();
+        this.refill(now);
+        boolean free = this.inFlight < (int) this.limit;
+        if (free && (this.rate == 0 || this.tokens >= 1)) {
+          this.inFlight++;
+          this.tokens -= this.rate == 0 ? 0 : 1;
+          this.requests.incrementAndGet();
+          return new Permit(now);
+        }
+
+        long wait = this.queueTimeout == 0 ? Long.MAX_VALUE : deadline - now;
+        if (wait <= 0) {
+          this.rejections.incrementAndGet();
+          throw new IOException("No SDMX request slot available within "
+              + this.queueTimeout + " ms (" + this.inFlight
+              + " requests running, limit " + (int) this.limit + ")");
+        }
+        if (free) {
+          wait = Math.min(wait,
+              (long) ((1 - this.tokens) / this.rate * 1e9) + 1);
+        }
+        this.available.awaitNanos(wait);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Adds the tokens accrued since the last refill
+   */
+  protected void refill(long now) {
+    if (this.rate > 0) {
+      this.tokens = Math.min(this.burst,
+          this.tokens + (now - this.refilled) / 1e9 * this.rate);
+    }
+    this.refilled = now;
+  }
+
+  /**
+   * Halves the limit, unless it has been halved after the request started
+   * (requests started before are deemed to have hit the same overload)
+   */
+  protected void decrease(Permit permit) {
+    if (permit.started - this.decreased >= 0) {
+      this.limit = Math.max(this.minLimit, this.limit * BACKOFF);
+      this.decreased = System.nanoTime();
+    }
+  }
+
+  public int getLimit() {
+    this.lock.lock();
+    try {
+      return (int) this.limit;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of requests running
+   */
+  public int getInFlightCount() {
+    this.lock.lock();
+    try {
+      return this.inFlight;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public long getRequestCount() {
+    return this.requests.get();
+  }
+
+  public long getFailureCount() {
+    return this.failures.get();
+  }
+
+  /**
+   * Returns the number of requests that timed out waiting for their turn
+   */
+  public long getRejectionCount() {
+    return this.rejections.get();
+  }
+
+  /**
+   * Permit of a running request, which tells the limiter how the request went
+   */
+  public class Permit {
+
+    protected long started;
+    protected boolean reported = false;
+    protected boolean closed = false;
+
+    protected Permit(long startedIn) {
+      this.started = startedIn;
+    }
+
+    /**
+     * Reports that the server answered (the limit grows)
+     */
+    public void succeeded() {
+      SDMXRequestLimiter limiter = SDMXRequestLimiter.this;
+      limiter.lock.lock();
+      try {
+        if (this.reported) {
+          return;
+        }
+        this.reported = true;
+        limiter.limit = Math.min(limiter.maxLimit,
+            limiter.limit + 1 / limiter.limit);
+      } finally {
+        limiter.lock.unlock();
+      }
+    }
+
+    /**
+     * Reports that the request failed, or that the server refused it (the
+     * limit shrinks)
+     */
+    public void failed() {
+      SDMXRequestLimiter limiter = SDMXRequestLimiter.this;
+      limiter.lock.lock();
+      try {
+        if (this.reported) {
+          return;
+        }
+        this.reported = true;
+        limiter.failures.incrementAndGet();
+        limiter.decrease(this);
+      } finally {
+        limiter.lock.unlock();
+      }
+    }
+
+    /**
+     * Releases the slot of the request
+     */
+    public void close() {
+      SDMXRequestLimiter limiter = SDMXRequestLimiter.this;
+      limiter.lock.lock();
+      try {
+        if (!this.closed) {
+          this.closed = true;
+          limiter.inFlight--;
+          limiter.available.signalAll();
+        }
+      } finally {
+        limiter.lock.unlock();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Time series parsed from an SDMX data message: the values of its key (in the
+ * order of the DSD dimensions), its attributes and its observations
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXSeries {
+
+  protected static final int INITIAL_CAPACITY = 16;
+
+  // Dimensions and attributes that hold the frequency of a series
+  protected static final String[] FREQUENCY_IDS = { "FREQ", "FREQUENCY" };
+  protected static final String TIMEFORMAT_ATTR = "TIME_FORMAT";
+  protected static final Map<String, String> TIMEFORMAT_FREQUENCIES = new HashMap<String, String>();
+
+  static {
+    TIMEFORMAT_FREQUENCIES.put("P1Y", "A");
+    TIMEFORMAT_FREQUENCIES.put("P6M", "S");
+    TIMEFORMAT_FREQUENCIES.put("P4M", "T");
+    TIMEFORMAT_FREQUENCIES.put("P3M", "Q");
+    TIMEFORMAT_FREQUENCIES.put("P1M", "M");
+    TIMEFORMAT_FREQUENCIES.put("P7D", "W");
+    TIMEFORMAT_FREQUENCIES.put("P1D", "D");
+  }
+
+  protected String[] dimensionIds;
+  protected String[] keyValues;
+  protected Map<String, String> attributes;
+  protected String[] timeSlots;
+  protected double[] observations;
+  protected int size;
+
+  /**
+   * Constructor
+   *
+   * @param dimensionIdsIn
+   *          Identifiers of the DSD dimensions (shared by all series)
+   * @param keyValuesIn
+   *          Values of the series key, in the same order as the dimensions
+   * @param attributesIn
+   *          Series attributes
+   */
+  public SDMXSeries(String[] dimensionIdsIn, String[] keyValuesIn,
+      Map<String, String> attributesIn) {
+    this.dimensionIds = dimensionIdsIn;
+    this.keyValues = keyValuesIn;
+    this.attributes = attributesIn == null
+        ? Collections.<String, String> emptyMap() : attributesIn;
+    this.timeSlots = new String[INITIAL_CAPACITY];
+    this.observations = new double[INITIAL_CAPACITY];
+    this.size = 0;
+  }
+
+  /**
+   * Adds an observation to the series
+   *
+   * @param timeSlot
+   *          Time period of the observation
+   * @param value
+   *          Value of the observation (NaN if missing)
+   */
+  public void addObservation(String timeSlot, double value) {
+    if (this.size == this.timeSlots.length) {
+      // A trimmed series may have no capacity left at all
+      int capacity = Math.max(INITIAL_CAPACITY, this.size * 2);
+      this.timeSlots = Arrays.copyOf(this.timeSlots, capacity);
+      this.observations = Arrays.copyOf(this.observations, capacity);
+    }
+    this.timeSlots[this.size] = timeSlot;
+    this.observations[this.size] = value;
+    this.size++;
+  }
+
+  /**
+   * Releases the unused capacity of the observation arrays
+   */
+  public void trim() {
+    if (this.size < this.timeSlots.length) {
+      this.timeSlots = Arrays.copyOf(this.timeSlots, this.size);
+      this.observations = Arrays.copyOf(this.observations, this.size);
+    }
+  }
+
+  public String[] getDimensionIds() {
+    return this.dimensionIds;
+  }
+
+  public String[] getKeyValues() {
+    return this.keyValues;
+  }
+
+  public String getKeyValue(int index) {
+    return this.keyValues[index];
+  }
+
+  /**
+   * Returns the value of a dimension in the series key
+   *
+   * @param dimensionId
+   *          Identifier of the dimension
+   * @return The value, or null if the dimension is not in the key
+   */
+  public String getKeyValue(String dimensionId) {
+    for (int i = 0; i < this.dimensionIds.length; i++) {
+      if (this.dimensionIds[i].equals(dimensionId)) {
+        return this.keyValues[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the series key in the SDMX notation (values separated by dots)
+   */
+  public String getKey() {
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < this.keyValues.length; i++) {
+      if (i > 0) {
+        key.append(SDMXDataStore.SEPARATOR_EXP);
+      }
+      if (this.keyValues[i] != null) {
+        key.append(this.keyValues[i]);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns the SDMX frequency code of the series (A, S, T, Q, M, W, D), read
+   * from either its key or its attributes
+   *
+   * @return The frequency code, or null if not known
+   */
+  public String getFrequency() {
+
+    for (String id : FREQUENCY_IDS) {
+      String freq = this.getKeyValue(id);
+      if (freq == null) {
+        freq = this.attributes.get(id);
+      }
+      if (freq != null) {
+        return freq;
+      }
+    }
+
+    // SDMX 2.0 DotStat series have the frequency as a duration
+    String format = this.attributes.get(TIMEFORMAT_ATTR);
+    return format == null ? null : TIMEFORMAT_FREQUENCIES.get(format);
+  }
+
+  public Map<String, String> getAttributes() {
+    return this.attributes;
+  }
+
+  /**
+   * Returns the number of observations
+   */
+  public int size() {
+    return this.size;
+  }
+
+  public String getTimeSlot(int index) {
+    return this.timeSlots[index];
+  }
+
+  /**
+   * Returns the value of an observation (NaN if missing)
+   */
+  public double getObservation(int index) {
+    return this.observations[index];
+  }
+
+  /**
+   * Returns the estimated size in bytes of the series (used to bound caches)
+   */
+  public long estimateSize() {
+    long bytes = 64 + 8L * this.keyValues.length + 12L * this.size;
+    for (String value : this.keyValues) {
+      bytes += SDMXSeries.estimateSize(value);
+    }
+    for (Map.Entry<String, String> attr : this.attributes.entrySet()) {
+      bytes += 32 + SDMXSeries.estimateSize(attr.getKey())
+          + SDMXSeries.estimateSize(attr.getValue());
+    }
+    for (int i = 0; i < this.size; i++) {
+      bytes += SDMXSeries.estimateSize(this.timeSlots[i]);
+    }
+    return bytes;
+  }
+
+  protected static long estimateSize(String s) {
+    return s == null ? 0 : 40 + 2L * s.length();
+  }
+
+  /**
+   * Returns the value of an observation, or null if missing
+   */
+  public Double getObservationValue(int index) {
+    double value = this.observations[index];
+    return Double.isNaN(value) ? null : Double.valueOf(value);
+  }
+
+}
@@ -0,0 +1,413 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.IllegalAttributeException;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.identity.FeatureId;
+import org.opengis.geometry.BoundingBox;
+
+/**
+ * Feature that is a view over an observation of a series: attributes are
+ * read from the series when requested, hence all the features of a series
+ * share its dimension values.
+ *
+ * Attribute values are resolved through a mapping (shared by all the features
+ * of a reader) from attribute positions to sources: the time period, the
+ * observation value, a value of the series key, the geometry of the series
+ * (see SDMXGeometryProvider), or nothing. Features of
+ * series without observations (see SERIES_ONLY) have no time and value.
+ *
+ * The methods that are not on the hot path of encoding features (and all the
+ * setters) work on a copy of the feature, created on first use.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXSeriesFeature implements SimpleFeature {
+
+  // Sources of attribute values (non-negative sources are positions in the
+  // series key)
+  public static final int SOURCE_NONE = -1;
+  public static final int SOURCE_TIME = -2;
+  public static final int SOURCE_MEASURE = -3;
+  public static final int SOURCE_GEOMETRY = -4;
+
+  // Observation index of the features that stand for a whole series
+  public static final int SERIES_ONLY = -1;
+
+  protected final SimpleFeatureType featureType;
+  protected final SDMXSeries series;
+  protected final int obsIndex;
+  protected final int[] sources;
+  protected final String fidPrefix;
+  protected final Object geometry;
+
+  protected Map<Object, Object> userData;
+  protected SimpleFeature copy;
+
+  /**
+   * Constructor
+   *
+   * @param featureTypeIn
+   *          Feature type
+   * @param seriesIn
+   *          Series the observation belongs to
+   * @param obsIndexIn
+   *          Index of the observation in the series (SERIES_ONLY for a
+   *          feature that stands for the series)
+   * @param sourcesIn
+   *          Sources of the attribute values (see mapAttributes())
+   * @param fidPrefixIn
+   *          Prefix of the feature identifier (the key of the series)
+   */
+  public SDMXSeriesFeature(SimpleFeatureType featureTypeIn,
+      SDMXSeries seriesIn, int obsIndexIn, int[] sourcesIn,
+      String fidPrefixIn) {
+    this(featureTypeIn, seriesIn, obsIndexIn, sourcesIn, fidPrefixIn, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param featureTypeIn
+   *          Feature type
+   * @param seriesIn
+   *          Series the observation belongs to
+   * @param obsIndexIn
+   *          Index of the observation in the series (SERIES_ONLY for a
+   *          feature that stands for the series)
+   * @param sourcesIn
+   *          Sources of the attribute values (see mapAttributes())
+   * @param fidPrefixIn
+   *          Prefix of the feature identifier (the key of the series)
+   * @param geometryIn
+   *          Geometry of the series (can be null)
+   */
+  public SDMXSeriesFeature(SimpleFeatureType featureTypeIn,
+      SDMXSeries seriesIn, int obsIndexIn, int[] sourcesIn,
+      String fidPrefixIn, Object geometryIn) {
+    this.featureType = featureTypeIn;
+    this.series = seriesIn;
+    this.obsIndex = obsIndexIn;
+    this.sources = sourcesIn;
+    this.fidPrefix = fidPrefixIn;
+    this.geometry = geometryIn;
+  }
+
+  /**
+   * Maps the attributes of a feature type to the sources of their values
+   *
+   * @param featureType
+   *          Feature type
+   * @param dimensionIds
+   *          Identifiers of the dimensions of the series key
+   * @return The source of every attribute
+   */
+  public static int[] mapAttributes(SimpleFeatureType featureType,
+      String[] dimensionIds) {
+
+    int[] sources = new int[featureType.getAttributeCount()];
+    Arrays.fill(sources, SOURCE_NONE);
+    for (int i = 0; i < dimensionIds.length; i++) {
+      int index = featureType.indexOf(dimensionIds[i]);
+      if (index >= 0
+          && !SDMXDataStore.MEASURE_KEY.equalsIgnoreCase(dimensionIds[i])) {
+        sources[index] = i;
+      }
+    }
+
+    int timeIndex = featureType.indexOf(SDMXDataStore.TIME_KEY);
+    if (timeIndex >= 0) {
+      sources[timeIndex] = SOURCE_TIME;
+    }
+    int measureIndex = featureType.indexOf(SDMXDataStore.MEASURE_KEY);
+    if (measureIndex >= 0) {
+      sources[measureIndex] = SOURCE_MEASURE;
+    }
+    int geometryIndex = featureType.indexOf(SDMXDataStore.GEOMETRY_ATTR);
+    if (geometryIndex >= 0) {
+      sources[geometryIndex] = SOURCE_GEOMETRY;
+    }
+
+    return sources;
+  }
+
+  /**
+   * Returns the feature the methods that are not resolved on the series
+   * delegate to, creating it if needed
+   */
+  protected SimpleFeature getCopy() {
+    if (this.copy == null) {
+      Object[] values = new Object[this.sources.length];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = this.getAttribute(i);
+      }
+      this.copy = new SimpleFeatureImpl(values, this.featureType,
+          new FeatureIdImpl(this.getID()), false);
+      if (this.userData != null) {
+        this.copy.getUserData().putAll(this.userData);
+        this.userData = null;
+      }
+    }
+    return this.copy;
+  }
+
+  @Override
+  public String getID() {
+    if (this.copy != null) {
+      return this.copy.getID();
+    }
+    return this.obsIndex == SERIES_ONLY ? this.series.getKey()
+        : this.fidPrefix + this.series.getTimeSlot(this.obsIndex);
+  }
+
+  @Override
+  public FeatureId getIdentifier() {
+    return this.copy != null ? this.copy.getIdentifier()
+        : new FeatureIdImpl(this.getID());
+  }
+
+  @Override
+  public SimpleFeatureType getType() {
+    return this.featureType;
+  }
+
+  @Override
+  public SimpleFeatureType getFeatureType() {
+    return this.featureType;
+  }
+
+  @Override
+  public int getAttributeCount() {
+    return this.sources.length;
+  }
+
+  @Override
+  public Object getAttribute(int index) throws IndexOutOfBoundsException {
+
+    if (this.copy != null) {
+      return this.copy.getAttribute(index);
+    }
+
+    int source = this.sources[index];
+    switch (source) {
+    case SOURCE_NONE:
+      return null;
+    case SOURCE_TIME:
+      return this.obsIndex == SERIES_ONLY ? null
+          : this.series.getTimeSlot(this.obsIndex);
+    case SOURCE_MEASURE:
+      return this.obsIndex == SERIES_ONLY ? null
+          : this.series.getObservationValue(this.obsIndex);
+    case SOURCE_GEOMETRY:
+      return this.geometry;
+    default:
+      return this.series.getKeyValue(source);
+    }
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    int index = this.featureType.indexOf(name);
+    return index < 0 ? null : this.getAttribute(index);
+  }
+
+  @Override
+  public Object getAttribute(Name name) {
+    int index = this.featureType.indexOf(name);
+    return index < 0 ? null : this.getAttribute(index);
+  }
+
+  @Override
+  public List<Object> getAttributes() {
+    List<Object> values = new ArrayList<Object>(this.sources.length);
+    for (int i = 0; i < this.sources.length; i++) {
+      values.add(this.getAttribute(i));
+    }
+    return values;
+  }
+
+  @Override
+  public Object getDefaultGeometry() {
+    if (this.featureType.getGeometryDescriptor() == null) {
+      return null;
+    }
+    return this.getAttribute(
+        this.featureType.getGeometryDescriptor().getName());
+  }
+
+  @Override
+  public Map<Object, Object> getUserData() {
+    if (this.copy != null) {
+      return this.copy.getUserData();
+    }
+    if (this.userData == null) {
+      this.userData = new HashMap<Object, Object>();
+    }
+    return this.userData;
+  }
+
+  @Override
+  public void setAttribute(int index, Object value)
+      throws IndexOutOfBoundsException {
+    this.getCopy().setAttribute(index, value);
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    this.getCopy().setAttribute(name, value);
+  }
+
+  @Override
+  public void setAttribute(Name name, Object value) {
+    this.getCopy().setAttribute(name, value);
+  }
+
+  @Override
+  public void setAttributes(List<Object> values) {
+    this.getCopy().setAttributes(values);
+  }
+
+  @Override
+  public void setAttributes(Object[] values) {
+    this.getCopy().setAttributes(values);
+  }
+
+  @Override
+  public void setDefaultGeometry(Object geometry) {
+    this.getCopy().setDefaultGeometry(geometry);
+  }
+
+  @Override
+  public BoundingBox getBounds() {
+    return this.getCopy().getBounds();
+  }
+
+  @Override
+  public GeometryAttribute getDefaultGeometryProperty() {
+    return this.getCopy().getDefaultGeometryProperty();
+  }
+
+  @Override
+  public void setDefaultGeometryProperty(GeometryAttribute geometryAttribute) {
+    this.getCopy().setDefaultGeometryProperty(geometryAttribute);
+  }
+
+  @Override
+  public void setValue(Collection<Property> values) {
+    this.getCopy().setValue(values);
+  }
+
+  @Override
+  public Collection<? extends Property> getValue() {
+    return this.getCopy().getValue();
+  }
+
+  @Override
+  public Collection<Property> getProperties(Name name) {
+    return this.getCopy().getProperties(name);
+  }
+
+  @Override
+  public Property getProperty(Name name) {
+    return this.getCopy().getProperty(name);
+  }
+
+  @Override
+  public Collection<Property> getProperties(String name) {
+    return this.getCopy().getProperties(name);
+  }
+
+  @Override
+  public Collection<Property> getProperties() {
+    return this.getCopy().getProperties();
+  }
+
+  @Override
+  public Property getProperty(String name) {
+    return this.getCopy().getProperty(name);
+  }
+
+  @Override
+  public void validate() throws IllegalAttributeException {
+    this.getCopy().validate();
+  }
+
+  @Override
+  public AttributeDescriptor getDescriptor() {
+    return this.getCopy().getDescriptor();
+  }
+
+  @Override
+  public Name getName() {
+    return this.getCopy().getName();
+  }
+
+  @Override
+  public boolean isNillable() {
+    return this.getCopy().isNillable();
+  }
+
+  @Override
+  public void setValue(Object value) {
+    this.getCopy().setValue(value);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.getID().hashCode() * this.featureType.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof SimpleFeature)) {
+      return false;
+    }
+    SimpleFeature other = (SimpleFeature) obj;
+    return Objects.equals(this.getID(), other.getID())
+        && this.featureType.equals(other.getFeatureType())
+        && this.getAttributes().equals(other.getAttributes());
+  }
+
+  @Override
+  public String toString() {
+    return "SDMXSeriesFeature:" + this.featureType.getTypeName() + "="
+        + this.getID() + this.getAttributes();
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the time series returned by an SDMX data query
+ *
+ * @author lmorandini
+ *
+ */
+public interface SDMXSeriesIterator extends Closeable {
+
+  /**
+   * Returns true if there is another series
+   *
+   * @throws IOException
+   */
+  boolean hasNext() throws IOException;
+
+  /**
+   * Returns the next series
+   *
+   * @throws IOException
+   * @throws NoSuchElementException
+   *           if there are no more series
+   */
+  SDMXSeries next() throws IOException, NoSuchElementException;
+
+  /**
+   * Returns an iterator without series
+   */
+  static SDMXSeriesIterator empty() {
+    return new SDMXSeriesIterator() {
+
+      @Override
+      public boolean hasNext() {
+        return false;
+      }
+
+      @Override
+      public SDMXSeries next() {
+        throw new NoSuchElementException();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  /**
+   * Returns an iterator over already parsed series
+   *
+   * @param series
+   *          Series to iterate over
+   */
+  static SDMXSeriesIterator of(List<SDMXSeries> series) {
+    Iterator<SDMXSeries> iter = series.iterator();
+    return new SDMXSeriesIterator() {
+
+      @Override
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+
+      @Override
+      public SDMXSeries next() {
+        return iter.next();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Executes at most one load per key at any time: threads asking for a key
+ * that is already being loaded wait for that load instead of starting another
+ * one
+ *
+ * @author lmorandini
+ *
+ * @param <K>
+ *          Type of the keys
+ * @param <V>
+ *          Type of the loaded values
+ */
+public class SDMXSingleFlight<K, V> {
+
+  /**
+   * Loads the value of a key
+   */
+  @FunctionalInterface
+  public interface Loader<K, V> {
+    V load(K key) throws IOException;
+  }
+
+  protected ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+  /**
+   * Returns the value of a key, either loading it or waiting for the load
+   * already in progress
+   *
+   * @param key
+   *          Key to load
+   * @param loader
+   *          Loader used if no load of the key is in progress
+   * @return The loaded value
+   * @throws IOException
+   */
+  public V get(K key, Loader<K, V> loader) throws IOException {
+
+    CompletableFuture<V> future = new CompletableFuture<V>();
+    CompletableFuture<V> existing = this.inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      return SDMXSingleFlight.await(existing);
+    }
+
+    try {
+      V value = loader.load(key);
+      future.complete(value);
+      return value;
+    } catch (Throwable e) {
+      // Errors complete the load as well, or its waiters would never return
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      this.inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * Returns the number of loads in progress
+   */
+  public int getInFlightCount() {
+    return this.inFlight.size();
+  }
+
+  /**
+   * Waits for a future, re-packaging its failure as an IOException
+   */
+  protected static <V> V await(CompletableFuture<V> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+}
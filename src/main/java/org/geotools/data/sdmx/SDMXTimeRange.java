@@ -0,0 +1,284 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time range of a query on the TIME dimension. Bounds are sent to the SDMX
+ * server as startPeriod/endPeriod (which are inclusive and have the precision
+ * of the period given), hence observations are also checked locally against
+ * the exact bounds.
+ *
+ * Periods are expressed in the SDMX time format (2011, 2011-Q1, 2011-S2,
+ * 2011-M03, 2011-W05, 2011-03, 2011-03-15, ...).
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXTimeRange {
+
+  protected static final Pattern YEAR_PATTERN = Pattern.compile("(\\d{4})");
+  protected static final Pattern SUBYEAR_PATTERN = Pattern
+      .compile("(\\d{4})-?([ASTQMW])(\\d{1,2})");
+  protected static final Pattern MONTH_PATTERN = Pattern
+      .compile("(\\d{4})-(\\d{2})");
+  protected static final Pattern DATE_PATTERN = Pattern
+      .compile("(\\d{4}-\\d{2}-\\d{2}).*");
+
+  // Periods sent to the SDMX server
+  protected String startPeriod;
+  protected String endPeriod;
+
+  // First and last day an observation period may start at (null if unbound
+  // or not parsable)
+  protected LocalDate lowerDate;
+  protected LocalDate upperDate;
+
+  /**
+   * Restricts the range to the periods starting from a given one
+   *
+   * @param period
+   *          Lower bound
+   * @param inclusive
+   *          True if the bound is part of the range
+   */
+  public void setStart(String period, boolean inclusive) {
+
+    LocalDate[] dates = SDMXTimeRange.parsePeriod(period);
+    LocalDate lower = dates == null ? null
+        : (inclusive ? dates[0] : dates[1].plusDays(1));
+
+    // The range is intersected with the bound already set
+    if (this.startPeriod == null || (lower != null
+        && (this.lowerDate == null || lower.isAfter(this.lowerDate)))) {
+      this.startPeriod = period;
+      this.lowerDate = lower;
+    }
+  }
+
+  /**
+   * Restricts the range to the periods up to a given one
+   *
+   * @param period
+   *          Upper bound
+   * @param inclusive
+   *          True if the bound is part of the range
+   */
+  public void setEnd(String period, boolean inclusive) {
+
+    LocalDate[] dates = SDMXTimeRange.parsePeriod(period);
+    LocalDate upper = dates == null ? null
+        : (inclusive ? dates[1] : dates[0].minusDays(1));
+
+    if (this.endPeriod == null || (upper != null
+        && (this.upperDate == null || upper.isBefore(this.upperDate)))) {
+      this.endPeriod = period;
+      this.upperDate = upper;
+    }
+  }
+
+  /**
+   * Returns the startPeriod parameter of the SDMX query (null if unbound)
+   */
+  public String getStartPeriod() {
+    return this.startPeriod;
+  }
+
+  /**
+   * Returns the endPeriod parameter of the SDMX query (null if unbound)
+   */
+  public String getEndPeriod() {
+    return this.endPeriod;
+  }
+
+  /**
+   * Returns true if either end of the range is bound
+   */
+  public boolean isBounded() {
+    return this.startPeriod != null || this.endPeriod != null;
+  }
+
+  /**
+   * Checks whether an observation period is within the range (periods that
+   * cannot be parsed are left to the SDMX server to check)
+   *
+   * @param period
+   *          Time period of the observation
+   * @return True if the period is in the range
+   */
+  public boolean contains(String period) {
+
+    if (this.lowerDate == null && this.upperDate == null) {
+      return true;
+    }
+
+    LocalDate[] dates = SDMXTimeRange.parsePeriod(period);
+    if (dates == null) {
+      return true;
+    }
+
+    return (this.lowerDate == null || !dates[0].isBefore(this.lowerDate))
+        && (this.upperDate == null || !dates[0].isAfter(this.upperDate));
+  }
+
+  /**
+   * Counts the periods of a given frequency that start within the range (an
+   * unbound end counts up to the current day)
+   *
+   * @param frequency
+   *          SDMX frequency code (A, S, T, Q, M, W, D)
+   * @return The number of periods, or -1 if the range has no start or the
+   *         frequency is not known
+   */
+  public long countPeriods(String frequency) {
+
+    if (this.lowerDate == null || frequency == null) {
+      return -1;
+    }
+    LocalDate upper = this.upperDate == null ? LocalDate.now()
+        : this.upperDate;
+    if (upper.isBefore(this.lowerDate)) {
+      return 0;
+    }
+
+    switch (frequency) {
+    case "A":
+      return SDMXTimeRange.countMonthPeriods(this.lowerDate, upper, 12);
+    case "S":
+      return SDMXTimeRange.countMonthPeriods(this.lowerDate, upper, 6);
+    case "T":
+      return SDMXTimeRange.countMonthPeriods(this.lowerDate, upper, 4);
+    case "Q":
+      return SDMXTimeRange.countMonthPeriods(this.lowerDate, upper, 3);
+    case "M":
+      return SDMXTimeRange.countMonthPeriods(this.lowerDate, upper, 1);
+    case "W":
+      LocalDate monday = this.lowerDate.getDayOfWeek() == DayOfWeek.MONDAY
+          ? this.lowerDate
+          : this.lowerDate.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+      return monday.isAfter(upper) ? 0
+          : ChronoUnit.WEEKS.between(monday, upper) + 1;
+    case "D":
+      return ChronoUnit.DAYS.between(this.lowerDate, upper) + 1;
+    default:
+      return -1;
+    }
+  }
+
+  /**
+   * Counts the periods of a given number of months (a divisor of 12) that
+   * start between two days
+   */
+  protected static long countMonthPeriods(LocalDate lower, LocalDate upper,
+      int months) {
+
+    long first = lower.getYear() * 12L + lower.getMonthValue() - 1
+        + (lower.getDayOfMonth() > 1 ? 1 : 0);
+    long last = upper.getYear() * 12L + upper.getMonthValue() - 1;
+    first = (first + months - 1) / months * months;
+    last = last / months * months;
+    return last < first ? 0 : (last - first) / months + 1;
+  }
+
+  /**
+   * Returns the first and last day of an SDMX time period
+   *
+   * @param period
+   *          SDMX time period
+   * @return An array with the first and last day, or null if the period
+   *         cannot be parsed
+   */
+  public static LocalDate[] parsePeriod(String period) {
+
+    if (period == null) {
+      return null;
+    }
+
+    String p = period.trim();
+    try {
+      Matcher m = YEAR_PATTERN.matcher(p);
+      if (m.matches()) {
+        int year = Integer.parseInt(m.group(1));
+        return new LocalDate[] { LocalDate.of(year, 1, 1),
+            LocalDate.of(year, 12, 31) };
+      }
+
+      m = SUBYEAR_PATTERN.matcher(p);
+      if (m.matches()) {
+        int year = Integer.parseInt(m.group(1));
+        int n = Integer.parseInt(m.group(3));
+        switch (m.group(2).charAt(0)) {
+        case 'W':
+          LocalDate monday = LocalDate.of(year, 1, 4)
+              .with(IsoFields.WEEK_OF_WEEK_BASED_YEAR, n)
+              .with(DayOfWeek.MONDAY);
+          return new LocalDate[] { monday, monday.plusDays(6) };
+        case 'A':
+          return SDMXTimeRange.months(year, 1, 12);
+        case 'S':
+          return SDMXTimeRange.months(year, 6 * (n - 1) + 1, 6);
+        case 'T':
+          return SDMXTimeRange.months(year, 4 * (n - 1) + 1, 4);
+        case 'Q':
+          return SDMXTimeRange.months(year, 3 * (n - 1) + 1, 3);
+        default:
+          return SDMXTimeRange.months(year, n, 1);
+        }
+      }
+
+      m = MONTH_PATTERN.matcher(p);
+      if (m.matches()) {
+        return SDMXTimeRange.months(Integer.parseInt(m.group(1)),
+            Integer.parseInt(m.group(2)), 1);
+      }
+
+      m = DATE_PATTERN.matcher(p);
+      if (m.matches()) {
+        LocalDate day = LocalDate.parse(m.group(1));
+        return new LocalDate[] { day, day };
+      }
+    } catch (DateTimeException | NumberFormatException e) {
+      // Not a valid period
+    }
+
+    return null;
+  }
+
+  protected static LocalDate[] months(int year, int firstMonth, int nMonths) {
+    YearMonth first = YearMonth.of(year, firstMonth);
+    return new LocalDate[] { first.atDay(1),
+        first.plusMonths(nMonths - 1).atEndOfMonth() };
+  }
+
+  @Override
+  public String toString() {
+    return "[" + (this.startPeriod == null ? "" : this.startPeriod) + ", "
+        + (this.endPeriod == null ? "" : this.endPeriod) + "]";
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * HTTP transport used to stream SDMX messages from the server
+ *
+ * @author lmorandini
+ *
+ */
+public interface SDMXTransport {
+
+  /**
+   * Executes a GET request
+   *
+   * @param url
+   *          URL of the request
+   * @return The body of the response (to be closed by the caller), or null if
+   *         the server reports that there are no results
+   * @throws SDMXHttpException
+   *           if the server answers with an error status
+   * @throws IOException
+   */
+  InputStream open(String url) throws IOException;
+
+  /**
+   * Releases the resources held by the transport
+   */
+  void dispose();
+
+}
@@ -0,0 +1,303 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.sdmx;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Transport based on the JDK HttpURLConnection.
+ *
+ * Connections are persistent: the JDK keeps the connections of responses
+ * that are read to the end (or closed with little data left) in its
+ * keep-alive cache, hence error responses are read rather than disconnected.
+ * Responses are requested gzip-compressed, and the number of connections
+ * open at the same time is bounded.
+ *
+ * The keep-alive cache holds at most "http.maxConnections" idle connections
+ * per server (5 by default). That system property is JVM-wide and read by the
+ * JDK when it first caches a connection, hence it is raised to the maximum
+ * number of connections of the transport only if it is not set, or set to a
+ * lower value, before then.
+ *
+ * A response that is not closed keeps its connection until it is garbage
+ * collected, when the connection is freed and a warning logged.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXURLConnectionTransport implements SDMXTransport {
+
+  public static int DEFAULT_CONNECT_TIMEOUT = 30000;
+  public static int DEFAULT_READ_TIMEOUT = 120000;
+  public static int DEFAULT_MAX_CONNECTIONS = 10;
+
+  protected static final Logger LOGGER = Logging
+      .getLogger(SDMXURLConnectionTransport.class);
+
+  protected static final String KEEP_ALIVE_PROPERTY = "http.maxConnections";
+  protected static final String GZIP_ENCODING = "gzip";
+  protected static final int DRAIN_BUFFER_SIZE = 8192;
+
+  protected URL endpoint;
+  protected String user;
+  protected String password;
+  protected int connectTimeout;
+  protected int readTimeout;
+  protected int maxConnections;
+
+  // Connections available (a permit is held until the response is closed)
+  protected Semaphore connections;
+
+  /**
+   * Constructor
+   *
+   * @param userIn
+   *          Username of the endpoint (null if not needed)
+   * @param passwordIn
+   *          Password of the endpoint
+   */
+  public SDMXURLConnectionTransport(String userIn, String passwordIn) {
+    this(null, userIn, passwordIn, DEFAULT_CONNECT_TIMEOUT,
+        DEFAULT_READ_TIMEOUT, DEFAULT_MAX_CONNECTIONS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param endpointIn
+   *          Endpoint the credentials are sent to (null to send them to any
+   *          host)
+   * @param userIn
+   *          Username of the endpoint (null if not needed)
+   * @param passwordIn
+   *          Password of the endpoint
+   * @param connectTimeoutIn
+   *          Timeout to connect, and to wait for a free connection (ms, 0 for
+   *          no timeout)
+   * @param readTimeoutIn
+   *          Timeout to read data from a connection (ms, 0 for no timeout)
+   * @param maxConnectionsIn
+   *          Maximum number of connections open at the same time
+   */
+  public SDMXURLConnectionTransport(URL endpointIn, String userIn,
+      String passwordIn, int connectTimeoutIn, int readTimeoutIn,
+      int maxConnectionsIn) {
+    this.endpoint = endpointIn;
+    this.user = userIn;
+    this.password = passwordIn;
+    this.connectTimeout = connectTimeoutIn;
+    this.readTimeout = readTimeoutIn;
+    this.maxConnections = Math.max(1, maxConnectionsIn);
+    this.connections = new Semaphore(this.maxConnections, true);
+    SDMXURLConnectionTransport.setKeepAliveConnections(this.maxConnections);
+  }
+
+  /**
+   * Raises the number of idle connections per server kept alive by the JDK to
+   * a given number, unless the "http.maxConnections" system property is
+   * already set to a higher value
+   */
+  protected static synchronized void setKeepAliveConnections(
+      int connections) {
+    String value = System.getProperty(KEEP_ALIVE_PROPERTY);
+    try {
+      if (value != null && Integer.parseInt(value.trim()) >= connections) {
+        return;
+      }
+    } catch (NumberFormatException e) {
+      // The JDK ignores the value as well
+    }
+    System.setProperty(KEEP_ALIVE_PROPERTY, Integer.toString(connections));
+  }
+
+  @Override
+  public InputStream open(String url) throws IOException {
+
+    this.acquire(url);
+    boolean opened = false;
+    try {
+      URL target = new URL(url);
+      HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+      conn.setConnectTimeout(this.connectTimeout);
+      conn.setReadTimeout(this.readTimeout);
+      conn.setUseCaches(false);
+      conn.setRequestProperty("Accept-Encoding", GZIP_ENCODING);
+      if (this.user != null && !this.user.isEmpty()
+          && this.isEndpoint(target)) {
+        conn.setRequestProperty("Authorization",
+            SDMXURLConnectionTransport.basicAuthorization(this.user,
+                this.password));
+      }
+
+      int responseCode = conn.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+        SDMXURLConnectionTransport.drain(conn.getErrorStream());
+        return null;
+      }
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        SDMXURLConnectionTransport.drain(conn.getErrorStream());
+        throw new SDMXHttpException(responseCode, url);
+      }
+
+      InputStream in = new PooledInputStream(conn.getInputStream());
+      opened = true;
+      if (GZIP_ENCODING.equalsIgnoreCase(conn.getContentEncoding())) {
+        try {
+          return new GZIPInputStream(in);
+        } catch (IOException e) {
+          in.close();
+          throw e;
+        }
+      }
+      return in;
+    } finally {
+      if (!opened) {
+        this.connections.release();
+      }
+    }
+  }
+
+  /**
+   * Waits for a free connection
+   */
+  protected void acquire(String url) throws IOException {
+    try {
+      if (this.connectTimeout <= 0) {
+        this.connections.acquire();
+      } else if (!this.connections.tryAcquire(this.connectTimeout,
+          TimeUnit.MILLISECONDS)) {
+        throw new IOException("No free connection to the SDMX server within "
+            + this.connectTimeout + " ms for " + url);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Returns true if a URL is on the host of the endpoint, or if there is no
+   * endpoint
+   */
+  protected boolean isEndpoint(URL url) {
+    if (this.endpoint == null) {
+      return true;
+    }
+    String host = this.endpoint.getHost();
+    return host != null && host.equalsIgnoreCase(url.getHost())
+        && this.endpoint.getPort() == url.getPort();
+  }
+
+  /**
+   * Reads a stream to the end and closes it, so that its connection can be
+   * reused
+   */
+  protected static void drain(InputStream in) {
+    if (in == null) {
+      return;
+    }
+    byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+    try {
+      while (in.read(buffer) >= 0) {
+        // Discards the body
+      }
+    } catch (IOException e) {
+      // The connection is not reused
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+    }
+  }
+
+  /**
+   * Body of a response, which frees its connection when closed
+   */
+  protected class PooledInputStream extends FilterInputStream {
+
+    protected AtomicBoolean closed = new AtomicBoolean(false);
+
+    protected PooledInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.closed.compareAndSet(false, true)) {
+        try {
+          super.close();
+        } finally {
+          SDMXURLConnectionTransport.this.connections.release();
+        }
+      }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+      if (!this.closed.get()) {
+        LOGGER.log(Level.WARNING,
+            "An SDMX response was not closed, its connection is freed");
+        this.close();
+      }
+      super.finalize();
+    }
+  }
+
+  public int getMaxConnections() {
+    return this.maxConnections;
+  }
+
+  /**
+   * Returns the number of connections in use
+   */
+  public int getActiveConnections() {
+    return this.maxConnections - this.connections.availablePermits();
+  }
+
+  @Override
+  public void dispose() {
+    // Idle connections are closed by the JDK keep-alive cache
+  }
+
+  /**
+   * Returns the value of the Authorization header for basic authentication
+   */
+  public static String basicAuthorization(String user, String password) {
+    return "Basic " + Base64.getEncoder()
+        .encodeToString((user + ":" + (password == null ? "" : password))
+            .getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -1,7 +1,5 @@
 package org.geotools.data.sdmx;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,8 +38,12 @@ public class Helper {
    */
   public static InputStream readXMLAsStream(String fileName)
       throws FileNotFoundException {
-    return new FileInputStream(new File(
-        Helper.class.getResource(fileName).getFile()));
+    // Read as a resource, since the test jar is used by the benchmarks
+    InputStream in = Helper.class.getResourceAsStream(fileName);
+    if (in == null) {
+      throw new FileNotFoundException(fileName);
+    }
+    return in;
   }
 
   /**
@@ -0,0 +1,188 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.Aggregate;
+import org.geotools.feature.visitor.AverageVisitor;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.GroupByVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.StandardDeviationVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+
+import com.vividsolutions.jts.geom.Point;
+
+public class SDMXAggregatorTest {
+
+  private static final FilterFactory2 FF = CommonFactoryFinder
+      .getFilterFactory2();
+
+  private SimpleFeatureType featureType;
+  private SDMXSeries[] series;
+
+  @Before
+  public void setUp() {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName(Helper.T04);
+    builder.add(SDMXDataStore.GEOMETRY_ATTR, Point.class);
+    builder.setDefaultGeometry(SDMXDataStore.GEOMETRY_ATTR);
+    builder.add(SDMXDataStore.TIME_KEY, String.class);
+    builder.add(SDMXDataStore.MEASURE_KEY, Double.class);
+    builder.add("AGE", String.class);
+    builder.add("REGION", String.class);
+    this.featureType = builder.buildFeatureType();
+
+    String[] dims = new String[] { "MEASURE", "AGE", "REGION" };
+    this.series = new SDMXSeries[] {
+        new SDMXSeries(dims, new String[] { "1", "TOT", "1" }, null),
+        new SDMXSeries(dims, new String[] { "2", "TOT", "2" }, null) };
+    this.series[0].addObservation("2001", 1.0);
+    this.series[0].addObservation("2006", Double.NaN);
+    this.series[0].addObservation("2011", 3.0);
+    this.series[1].addObservation("2001", 10.0);
+    this.series[1].addObservation("2006", 20.0);
+  }
+
+  /**
+   * Aggregates the series with the aggregator of a visitor
+   */
+  private void aggregate(FeatureVisitor visitor, SDMXTimeRange range) {
+    SDMXAggregator aggregator = SDMXAggregator.create(visitor,
+        this.featureType);
+    assertNotNull(aggregator);
+    for (SDMXSeries s : this.series) {
+      aggregator.add(s, range, false);
+    }
+    aggregator.setResult(visitor);
+  }
+
+  @Test
+  public void totals() throws Exception {
+
+    CountVisitor count = new CountVisitor();
+    this.aggregate(count, null);
+    assertEquals(5, count.getResult().toInt());
+
+    SumVisitor sum = new SumVisitor(SDMXDataStore.MEASURE_KEY,
+        this.featureType);
+    this.aggregate(sum, null);
+    assertEquals(34.0, sum.getResult().toDouble(), 0.0);
+
+    AverageVisitor avg = new AverageVisitor(SDMXDataStore.MEASURE_KEY,
+        this.featureType);
+    this.aggregate(avg, null);
+    assertEquals(8.5, avg.getResult().toDouble(), 0.0);
+
+    MinVisitor min = new MinVisitor(SDMXDataStore.MEASURE_KEY,
+        this.featureType);
+    this.aggregate(min, null);
+    assertEquals(1.0, min.getResult().toDouble(), 0.0);
+
+    MaxVisitor max = new MaxVisitor(SDMXDataStore.MEASURE_KEY,
+        this.featureType);
+    this.aggregate(max, null);
+    assertEquals(20.0, max.getResult().toDouble(), 0.0);
+
+    // Observations outside the time range are skipped
+    SDMXTimeRange range = new SDMXTimeRange();
+    range.setStart("2006", true);
+    sum = new SumVisitor(SDMXDataStore.MEASURE_KEY, this.featureType);
+    this.aggregate(sum, range);
+    assertEquals(23.0, sum.getResult().toDouble(), 0.0);
+  }
+
+  @Test
+  public void unique() throws Exception {
+
+    UniqueVisitor unique = new UniqueVisitor("REGION", this.featureType);
+    this.aggregate(unique, null);
+    assertEquals(new HashSet<Object>(Arrays.asList("1", "2")),
+        unique.getUnique());
+
+    unique = new UniqueVisitor(SDMXDataStore.TIME_KEY, this.featureType);
+    this.aggregate(unique, null);
+    assertEquals(new HashSet<Object>(Arrays.asList("2001", "2006", "2011")),
+        unique.getUnique());
+
+    // Only series keys are needed for dimensions
+    unique = new UniqueVisitor("REGION", this.featureType);
+    SDMXAggregator aggregator = SDMXAggregator.create(unique,
+        this.featureType);
+    assertFalse(aggregator.needsObservations());
+    aggregator.add(this.series[1], null, true);
+    aggregator.setResult(unique);
+    assertEquals(new HashSet<Object>(Arrays.asList("2")), unique.getUnique());
+  }
+
+  @Test
+  public void groupBy() throws Exception {
+
+    List<Expression> groupBy = Arrays
+        .asList((Expression) FF.property(SDMXDataStore.TIME_KEY));
+    GroupByVisitor visitor = new GroupByVisitor(Aggregate.SUM,
+        FF.property(SDMXDataStore.MEASURE_KEY), groupBy, null);
+    this.aggregate(visitor, null);
+
+    Map<List<Object>, Object> result = visitor.getResult().toMap();
+    assertEquals(3, result.size());
+    assertEquals(11.0, result.get(Arrays.asList("2001")));
+    assertEquals(20.0, result.get(Arrays.asList("2006")));
+    assertEquals(3.0, result.get(Arrays.asList("2011")));
+
+    groupBy = Arrays.asList((Expression) FF.property("REGION"));
+    visitor = new GroupByVisitor(Aggregate.COUNT,
+        FF.property(SDMXDataStore.MEASURE_KEY), groupBy, null);
+    this.aggregate(visitor, null);
+    result = visitor.getResult().toMap();
+    assertEquals(3, result.get(Arrays.asList("1")));
+    assertEquals(2, result.get(Arrays.asList("2")));
+  }
+
+  @Test
+  public void unsupported() throws Exception {
+
+    assertNull(SDMXAggregator.create(
+        new SumVisitor("REGION", this.featureType), this.featureType));
+    assertNull(SDMXAggregator.create(
+        new StandardDeviationVisitor(FF.property(SDMXDataStore.MEASURE_KEY)),
+        this.featureType));
+    assertNull(SDMXAggregator.create(
+        new GroupByVisitor(Aggregate.SUM,
+            FF.property(SDMXDataStore.MEASURE_KEY),
+            Arrays.asList((Expression) FF.property("POPULATION")), null),
+        this.featureType));
+  }
+
+}
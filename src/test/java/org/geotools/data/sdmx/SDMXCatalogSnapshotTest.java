@@ -0,0 +1,323 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.geotools.util.logging.Logging;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
+import it.bancaditalia.oss.sdmx.api.Dataflow;
+import it.bancaditalia.oss.sdmx.api.Dimension;
+
+public class SDMXCatalogSnapshotTest {
+
+  private static final Logger LOGGER = Logging
+      .getLogger(SDMXCatalogSnapshotTest.class);
+
+  private File directory;
+  private SDMXTestServer server;
+  private SDMXDataStore dataStore;
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = Files.createTempDirectory("sdmx-catalog").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    if (this.dataStore != null) {
+      this.dataStore.dispose();
+    }
+    if (this.server != null) {
+      this.server.close();
+    }
+    SDMXSyntheticData.delete(this.directory);
+  }
+
+  private SDMXCatalogSnapshot snapshot(String endpoint, long ttl) {
+    return new SDMXCatalogSnapshot(this.directory, Helper.PROVIDER, endpoint,
+        ttl, LOGGER);
+  }
+
+  private void save(SDMXCatalogSnapshot snapshot) {
+    snapshot.save(
+        Collections.singletonMap(SDMXSyntheticData.T04_ID,
+            SDMXSyntheticData.dataflow()),
+        Collections.singletonMap(SDMXSyntheticData.T04_ID,
+            SDMXSyntheticData.structure(10)));
+  }
+
+  private void write(File file, int magic, int version) throws Exception {
+    try (DataOutputStream out = new DataOutputStream(
+        new GZIPOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(magic);
+      out.writeInt(version);
+      out.writeLong(System.currentTimeMillis());
+      SDMXCatalogSnapshot.writeString(out, Helper.URL);
+      out.writeInt(0);
+      out.writeInt(0);
+    }
+  }
+
+  private List<String> typeNames() throws Exception {
+    String[] names = this.dataStore.getTypeNames();
+    Arrays.sort(names);
+    return Arrays.asList(names);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+
+    this.save(this.snapshot(Helper.URL, 60000));
+    SDMXCatalogSnapshot snapshot = this.snapshot(Helper.URL, 60000);
+    assertTrue(snapshot.load());
+    assertFalse(snapshot.isExpired());
+
+    Dataflow df = snapshot.getDataflows().get(SDMXSyntheticData.T04_ID);
+    assertEquals(SDMXSyntheticData.T04_ID, df.getId());
+    assertEquals("ABS", df.getAgency());
+    assertEquals("Census 2011 T04 (synthetic)", df.getName());
+    assertEquals(SDMXSyntheticData.T04_ID, df.getDsdIdentifier().getId());
+    assertNull(df.getDescription());
+
+    DataFlowStructure dfs = snapshot.getDataflowStructures()
+        .get(SDMXSyntheticData.T04_ID);
+    assertEquals("TIME", dfs.getTimeDimension());
+    assertEquals("OBS_VALUE", dfs.getMeasure());
+    List<Dimension> dims = dfs.getDimensions();
+    assertEquals(SDMXDataParserTest.T04_DIMENSIONS.length, dims.size());
+    for (int i = 0; i < dims.size(); i++) {
+      assertEquals(SDMXDataParserTest.T04_DIMENSIONS[i], dims.get(i).getId());
+      assertEquals(i + 1, dims.get(i).getPosition());
+    }
+
+    // Codes keep their order
+    Dimension region = dims.get(5);
+    assertEquals(10, region.getCodeList().getCodes().size());
+    assertEquals("0",
+        region.getCodeList().getCodes().keySet().iterator().next());
+    assertEquals("Region 3 - South 3",
+        region.getCodeList().getCodes().get("3"));
+  }
+
+  @Test
+  public void longStrings() throws Exception {
+
+    // Descriptions longer than 64 KB in UTF-8
+    StringBuilder description = new StringBuilder();
+    while (description.length() < 70000) {
+      description.append("Poblaci\u00f3n \u00e9 ");
+    }
+    Dataflow df = SDMXSyntheticData.dataflow();
+    df.setDescription(description.toString());
+
+    SDMXCatalogSnapshot snapshot = this.snapshot(Helper.URL, 60000);
+    snapshot.save(Collections.singletonMap(SDMXSyntheticData.T04_ID, df),
+        Collections.singletonMap(SDMXSyntheticData.T04_ID,
+            SDMXSyntheticData.structure(10)));
+    assertTrue(snapshot.load());
+    assertEquals(description.toString(), snapshot.getDataflows()
+        .get(SDMXSyntheticData.T04_ID).getDescription());
+  }
+
+  @Test
+  public void invalidSnapshots() throws Exception {
+
+    SDMXCatalogSnapshot snapshot = this.snapshot(Helper.URL, 60000);
+    assertFalse(snapshot.load());
+
+    this.write(snapshot.getFile(), 0x12345678,
+        SDMXCatalogSnapshot.FORMAT_VERSION);
+    assertFalse(snapshot.load());
+
+    this.write(snapshot.getFile(), SDMXCatalogSnapshot.MAGIC,
+        SDMXCatalogSnapshot.FORMAT_VERSION + 1);
+    assertFalse(snapshot.load());
+
+    this.write(snapshot.getFile(), SDMXCatalogSnapshot.MAGIC,
+        SDMXCatalogSnapshot.FORMAT_VERSION);
+    assertTrue(snapshot.load());
+
+    // A snapshot of another endpoint in the file of this one is ignored
+    SDMXCatalogSnapshot other = this.snapshot("http://localhost/sdmx", 60000);
+    this.save(other);
+    Files.copy(other.getFile().toPath(), snapshot.getFile().toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    assertFalse(snapshot.load());
+
+    // A truncated snapshot is ignored
+    Files.write(snapshot.getFile().toPath(), new byte[] { 0x1f, (byte) 0x8b });
+    assertFalse(snapshot.load());
+  }
+
+  @Test
+  public void offlineStart() throws Exception {
+
+    // The endpoint of a server that is not running any more
+    this.server = new SDMXTestServer();
+    String endpoint = this.server.getEndpoint();
+    this.server.close();
+    this.server = null;
+
+    this.dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, endpoint, null, null);
+    this.save(this.snapshot(endpoint, 60000));
+    this.dataStore.setCatalogSnapshot(this.snapshot(endpoint, 60000));
+
+    assertEquals(Arrays.asList(Helper.T04, Helper.T04_DIMENSIONS),
+        this.typeNames());
+    assertNotNull(
+        this.dataStore.getFeatureSource(Helper.T04).getSchema().getDescriptor(
+            SDMXDataParserTest.T04_DIMENSIONS[5]));
+    assertEquals(0, this.dataStore.getMetrics().getRequestCount());
+  }
+
+  @Test
+  public void expiredSnapshot() throws Exception {
+
+    this.server = new SDMXTestServer();
+    this.dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, this.server.getEndpoint(), null, null);
+    this.save(this.snapshot(this.server.getEndpoint(), 60000));
+    SDMXCatalogSnapshot snapshot = this.snapshot(this.server.getEndpoint(), 0);
+    this.dataStore.setCatalogSnapshot(snapshot);
+    Thread.sleep(5);
+
+    // The snapshot is used at once, and refreshed in the background
+    assertEquals(Arrays.asList(Helper.T04, Helper.T04_DIMENSIONS),
+        this.typeNames());
+    long deadline = System.currentTimeMillis() + 10000;
+    while (this.typeNames().size() < 4
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(Arrays.asList(Helper.T04, Helper.T04_DIMENSIONS,
+        Helper.SEIFA_LGA, Helper.SEIFA_LGA_DIMENSIONS), this.typeNames());
+    assertEquals(1, this.server.getRequestCount(SDMXTestServer.DATAFLOWS));
+    assertEquals(1, this.server.getRequestCount(SDMXTestServer.STRUCTURE));
+
+    // The refreshed catalog is saved
+    SDMXCatalogSnapshot saved = this.snapshot(this.server.getEndpoint(), 0);
+    while (!(saved.load() && saved.getDataflows().size() == 2)
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(2, saved.getDataflows().size());
+    assertTrue(saved.getDataflowStructures()
+        .containsKey(SDMXSyntheticData.T04_ID));
+  }
+
+  @Test
+  public void removedDataflows() throws Exception {
+
+    this.server = new SDMXTestServer();
+    this.server.setLatency(300, 300);
+    this.dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, this.server.getEndpoint(), null, null);
+
+    // The snapshot has a dataflow the server no longer has
+    String removed = SDMXSyntheticData.T04_ID + "_9";
+    Map<String, Dataflow> dataflows = new HashMap<String, Dataflow>();
+    Map<String, DataFlowStructure> structures = new HashMap<String, DataFlowStructure>();
+    dataflows.put(SDMXSyntheticData.T04_ID, SDMXSyntheticData.dataflow());
+    dataflows.put(removed, SDMXSyntheticData.dataflow());
+    structures.put(SDMXSyntheticData.T04_ID,
+        SDMXSyntheticData.structure(10));
+    structures.put(removed, SDMXSyntheticData.structure(10));
+    this.snapshot(this.server.getEndpoint(), 60000).save(dataflows,
+        structures);
+    this.dataStore
+        .setCatalogSnapshot(this.snapshot(this.server.getEndpoint(), 0));
+    Thread.sleep(5);
+
+    String removedName = SDMXDataStore.composeDataflowTypeName(removed);
+    assertTrue(this.typeNames().contains(removedName));
+    assertNotNull(this.dataStore.getFeatureSource(removedName));
+
+    // Once refreshed, its type names, DSD and feature sources are gone
+    long deadline = System.currentTimeMillis() + 10000;
+    while (this.typeNames().contains(removedName)
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(Arrays.asList(Helper.T04, Helper.T04_DIMENSIONS,
+        Helper.SEIFA_LGA, Helper.SEIFA_LGA_DIMENSIONS), this.typeNames());
+    assertNull(this.dataStore.registry.getDataFlowStructure(removed));
+    assertNotNull(
+        this.dataStore.registry.getDataFlowStructure(SDMXSyntheticData.T04_ID));
+
+    // And from the saved catalog
+    SDMXCatalogSnapshot saved = this.snapshot(this.server.getEndpoint(), 0);
+    while (!(saved.load() && !saved.getDataflows().containsKey(removed))
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertFalse(saved.getDataflows().containsKey(removed));
+    assertFalse(saved.getDataflowStructures().containsKey(removed));
+  }
+
+  @Test
+  public void failedRefresh() throws Exception {
+
+    this.server = new SDMXTestServer();
+    String endpoint = this.server.getEndpoint();
+    this.server.close();
+    this.server = null;
+
+    this.dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, endpoint, null, null);
+    this.save(this.snapshot(endpoint, 60000));
+    SDMXCatalogSnapshot snapshot = this.snapshot(endpoint, 0);
+    long saved = snapshot.getFile().lastModified();
+    this.dataStore.setCatalogSnapshot(snapshot);
+    Thread.sleep(5);
+
+    assertEquals(Arrays.asList(Helper.T04, Helper.T04_DIMENSIONS),
+        this.typeNames());
+    long deadline = System.currentTimeMillis() + 10000;
+    while (this.dataStore.getMetrics().getFailureCount() == 0
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(1, this.dataStore.getMetrics().getFailureCount());
+
+    // The previous catalog is kept, in memory and on disk
+    assertEquals(Arrays.asList(Helper.T04, Helper.T04_DIMENSIONS),
+        this.typeNames());
+    assertNotNull(this.dataStore.getFeatureSource(Helper.T04).getSchema());
+    assertEquals(saved, snapshot.getFile().lastModified());
+    assertTrue(this.snapshot(endpoint, 60000).load());
+  }
+
+}
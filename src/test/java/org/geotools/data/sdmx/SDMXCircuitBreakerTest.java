@@ -0,0 +1,101 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SDMXCircuitBreakerTest {
+
+  @Test
+  public void openAndClose() throws Exception {
+
+    SDMXCircuitBreaker breaker = new SDMXCircuitBreaker(3, 100);
+
+    // Successes reset the count of consecutive failures
+    for (int i = 0; i < 2; i++) {
+      assertTrue(breaker.allowRequest());
+      breaker.failed();
+    }
+    assertTrue(breaker.allowRequest());
+    breaker.succeeded();
+    for (int i = 0; i < 2; i++) {
+      assertTrue(breaker.allowRequest());
+      breaker.failed();
+    }
+    assertEquals(SDMXCircuitBreaker.State.CLOSED, breaker.getState());
+
+    assertTrue(breaker.allowRequest());
+    breaker.failed();
+    assertEquals(SDMXCircuitBreaker.State.OPEN, breaker.getState());
+    assertTrue(breaker.isOpen());
+    assertFalse(breaker.allowRequest());
+    assertEquals(1, breaker.getOpenCount());
+    assertEquals(1, breaker.getRefusalCount());
+
+    // A single trial request is let through once the circuit has been open
+    // long enough, and a failed trial opens it again
+    Thread.sleep(150);
+    assertFalse(breaker.isOpen());
+    assertTrue(breaker.allowRequest());
+    assertEquals(SDMXCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest());
+    breaker.failed();
+    assertTrue(breaker.isOpen());
+    assertEquals(2, breaker.getOpenCount());
+
+    // A successful trial closes it
+    Thread.sleep(150);
+    assertTrue(breaker.allowRequest());
+    breaker.succeeded();
+    assertEquals(SDMXCircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void releasedTrial() throws Exception {
+
+    SDMXCircuitBreaker breaker = new SDMXCircuitBreaker(1, 100);
+    assertTrue(breaker.allowRequest());
+    breaker.failed();
+    assertTrue(breaker.isOpen());
+
+    // A trial that does not tell whether the endpoint works lets another
+    // trial through, and leaves the circuit half-open
+    Thread.sleep(150);
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.allowRequest());
+    breaker.released();
+    assertEquals(SDMXCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertTrue(breaker.allowRequest());
+    breaker.succeeded();
+    assertEquals(SDMXCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void neverOpen() throws Exception {
+
+    SDMXCircuitBreaker breaker = new SDMXCircuitBreaker(0, 100);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(breaker.allowRequest());
+      breaker.failed();
+    }
+    assertEquals(SDMXCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+}
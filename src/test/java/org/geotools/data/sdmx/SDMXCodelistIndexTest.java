@@ -0,0 +1,114 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SDMXCodelistIndexTest {
+
+  private SDMXCodelistIndex index;
+
+  @Before
+  public void setUp() {
+    Map<String, String> codes = new LinkedHashMap<String, String>();
+    codes.put("1", "New South Wales");
+    codes.put("115", "Sydney - Baulkham Hills and Hawkesbury");
+    codes.put("116", "Sydney - Blacktown");
+    codes.put("11703", "Sydney Inner City");
+    codes.put("121", "Sydney - North Sydney and Hornsby");
+    codes.put("2", "Victoria");
+    this.index = new SDMXCodelistIndex(codes);
+  }
+
+  private String[] codes(int[] positions) {
+    return Arrays.stream(positions).mapToObj(this.index::getCode)
+        .toArray(String[]::new);
+  }
+
+  @Test
+  public void search() throws Exception {
+
+    assertEquals(6, this.index.size());
+    assertArrayEquals(new String[] { "115", "116", "11703", "121" },
+        this.codes(this.index.findPrefix("sydney", false)));
+    assertArrayEquals(new String[] {},
+        this.codes(this.index.findPrefix("sydney", true)));
+    assertArrayEquals(new String[] { "121" },
+        this.codes(this.index.findSubstring("NORTH", false)));
+    assertArrayEquals(new String[] { "2", "116" },
+        this.codes(this.index.sort(
+            this.index.findCodes(Arrays.asList("116", "2", "99")), false,
+            false)));
+
+    // LIKE patterns
+    assertArrayEquals(new String[] { "115", "116", "11703", "121" },
+        this.codes(this.index.findLike("Syd*", "*", ".", "!", true)));
+    assertArrayEquals(new String[] { "121" },
+        this.codes(this.index.findLike("*north*", "*", ".", "!", false)));
+    assertArrayEquals(new String[] { "116" }, this.codes(
+        this.index.findLike("Sydney - .lack*", "*", ".", "!", true)));
+    assertArrayEquals(new String[] { "115", "121" },
+        this.codes(this.index.findLike("*and*", "*", ".", "!", true)));
+    assertArrayEquals(new String[] { "121" },
+        this.codes(this.index.findLike("*and Ho*", "*", ".", "!", true)));
+    assertEquals(6, this.index.findLike("*", "*", ".", "!", true).length);
+  }
+
+  @Test
+  public void sort() throws Exception {
+
+    int[] found = this.index.findPrefix("sydney", false);
+    assertArrayEquals(new String[] { "115", "116", "121", "11703" },
+        this.codes(this.index.sort(found.clone(), true, true)));
+    assertArrayEquals(new String[] { "121", "11703", "116", "115" },
+        this.codes(this.index.sort(found.clone(), false, false)));
+    assertArrayEquals(new String[] { "116", "121" },
+        this.codes(SDMXCodelistIndex.intersect(found,
+            this.index.findCodes(Arrays.asList("2", "121", "116")))));
+  }
+
+  @Test
+  public void sortMixedCase() throws Exception {
+
+    Map<String, String> codes = new LinkedHashMap<String, String>();
+    codes.put("A", "apple");
+    codes.put("B", "Banana");
+    codes.put("C", "cherry");
+    codes.put("D", "banana split");
+    this.index = new SDMXCodelistIndex(codes);
+
+    // Descriptions are sorted as features are, case-sensitive
+    assertArrayEquals(new String[] { "B", "A", "D", "C" },
+        this.codes(this.index.sort(this.index.findAll(), true, true)));
+
+    // Prefix searches are case-insensitive unless asked otherwise
+    assertArrayEquals(new String[] { "B", "D" },
+        this.codes(this.index.findPrefix("BAN", false)));
+    assertArrayEquals(new String[] { "D" },
+        this.codes(this.index.findPrefix("ban", true)));
+    assertArrayEquals(new String[] { "A" },
+        this.codes(this.index.findLike("a*", "*", ".", "!", false)));
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SDMXContentConstraintsTest {
+
+  @Test
+  public void parse() throws Exception {
+
+    SDMXContentConstraints constraints = SDMXContentConstraints.parse(
+        Helper.readXMLAsStream("test-data/availableconstraint-t04.xml"));
+    assertFalse(constraints.isEmpty());
+    assertEquals(new HashSet<String>(Arrays.asList("AUS", "STE")),
+        constraints.getCodes("REGIONTYPE"));
+    assertEquals(new HashSet<String>(Arrays.asList("0", "1")),
+        constraints.getCodes("STATE"));
+    assertNull(constraints.getCodes("REGION"));
+
+    List<String> codes = new ArrayList<String>(
+        Arrays.asList("AUS", "STE", "SA4", "SA3", "SA2"));
+    constraints.retainCodes("REGIONTYPE", codes);
+    assertEquals(Arrays.asList("AUS", "STE"), codes);
+
+    // Dimensions that are not constrained keep all their codes
+    codes = new ArrayList<String>(Arrays.asList("1", "2"));
+    constraints.retainCodes("REGION", codes);
+    assertEquals(Arrays.asList("1", "2"), codes);
+
+    assertTrue(SDMXContentConstraints.NONE.isEmpty());
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SDMXDataParserTest {
+
+  public static String[] T04_DIMENSIONS = { "MEASURE", "MSTP", "AGE", "STATE",
+      "REGIONTYPE", "REGION", "FREQUENCY" };
+
+  @Test
+  public void compactData() throws Exception {
+
+    SDMXDataParser parser = new SDMXDataParser(
+        Helper.readXMLAsStream("test-data/query-t04-321.xml"), T04_DIMENSIONS,
+        "TIME");
+
+    assertTrue(parser.hasNext());
+    SDMXSeries series = parser.next();
+    assertEquals("1.TOT.TOT.1.STE.1.A", series.getKey());
+    assertEquals("STE", series.getKeyValue("REGIONTYPE"));
+    assertEquals("P1Y", series.getAttributes().get("TIME_FORMAT"));
+    assertEquals(3, series.size());
+    assertEquals("2001", series.getTimeSlot(0));
+    assertEquals(2468518.0, series.getObservation(0), 0.0);
+
+    assertEquals("2", parser.next().getKeyValue(0));
+    assertEquals("3", parser.next().getKeyValue(0));
+    assertFalse(parser.hasNext());
+    parser.close();
+  }
+
+  @Test
+  public void genericData() throws Exception {
+
+    String xml = "<mes:GenericData xmlns:mes=\"m\" xmlns:gen=\"g\">"
+        + "<mes:DataSet><gen:Series><gen:SeriesKey>"
+        + "<gen:Value id=\"MEASURE\" value=\"1\"/>"
+        + "<gen:Value id=\"REGION\" value=\"2\"/></gen:SeriesKey>"
+        + "<gen:Attributes><gen:Value id=\"UNIT\" value=\"PERS\"/>"
+        + "</gen:Attributes>"
+        + "<gen:Obs><gen:ObsDimension value=\"2001\"/>"
+        + "<gen:ObsValue value=\"3.5\"/></gen:Obs>"
+        + "<gen:Obs><gen:Time>2006</gen:Time><gen:ObsValue value=\"NaN\"/>"
+        + "</gen:Obs></gen:Series></mes:DataSet></mes:GenericData>";
+
+    SDMXDataParser parser = new SDMXDataParser(
+        new ByteArrayInputStream(xml.getBytes()), T04_DIMENSIONS,
+        "TIME_PERIOD");
+
+    SDMXSeries series = parser.next();
+    assertEquals("1.....2.", series.getKey());
+    assertEquals("PERS", series.getAttributes().get("UNIT"));
+    assertEquals(2, series.size());
+    assertEquals("2001", series.getTimeSlot(0));
+    assertEquals(Double.valueOf(3.5), series.getObservationValue(0));
+    assertEquals("2006", series.getTimeSlot(1));
+    assertNull(series.getObservationValue(1));
+    assertFalse(parser.hasNext());
+  }
+
+  @Test
+  public void dataOnly() throws Exception {
+
+    SDMXDataParser parser = new SDMXDataParser(
+        Helper.readXMLAsStream("test-data/query-t04-321.xml"), T04_DIMENSIONS,
+        "TIME");
+    parser.setDetail(SDMXDataQuery.DETAIL_DATAONLY);
+
+    SDMXSeries series = parser.next();
+    assertEquals("1.TOT.TOT.1.STE.1.A", series.getKey());
+    assertTrue(series.getAttributes().isEmpty());
+    assertEquals(3, series.size());
+    assertEquals(2468518.0, series.getObservation(0), 0.0);
+    parser.close();
+
+    String xml = "<mes:GenericData xmlns:mes=\"m\" xmlns:gen=\"g\">"
+        + "<mes:DataSet><gen:Series><gen:SeriesKey>"
+        + "<gen:Value id=\"MEASURE\" value=\"1\"/></gen:SeriesKey>"
+        + "<gen:Attributes><gen:Value id=\"UNIT\" value=\"PERS\"/>"
+        + "</gen:Attributes>"
+        + "<gen:Obs><gen:ObsDimension value=\"2001\"/>"
+        + "<gen:ObsValue value=\"3.5\"/></gen:Obs>"
+        + "</gen:Series></mes:DataSet></mes:GenericData>";
+
+    parser = new SDMXDataParser(new ByteArrayInputStream(xml.getBytes()),
+        T04_DIMENSIONS, "TIME_PERIOD");
+    parser.setDetail(SDMXDataQuery.DETAIL_DATAONLY);
+    series = parser.next();
+    assertEquals("1......", series.getKey());
+    assertTrue(series.getAttributes().isEmpty());
+    assertEquals(Double.valueOf(3.5), series.getObservationValue(0));
+    assertFalse(parser.hasNext());
+  }
+
+  @Test
+  public void errorMessages() throws Exception {
+
+    String xml = "<mes:Error xmlns:mes=\"m\" xmlns:com=\"c\">"
+        + "<mes:ErrorMessage code=\"CODE\"><com:Text>Message</com:Text>"
+        + "</mes:ErrorMessage></mes:Error>";
+
+    // No results is not an error
+    assertFalse(new SDMXDataParser(
+        new ByteArrayInputStream(xml.replace("CODE", "100").getBytes()),
+        T04_DIMENSIONS, null).hasNext());
+
+    try {
+      new SDMXDataParser(
+          new ByteArrayInputStream(xml.replace("CODE", "500").getBytes()),
+          T04_DIMENSIONS, null).hasNext();
+      fail("Error message not reported");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("Message"));
+    }
+  }
+
+}
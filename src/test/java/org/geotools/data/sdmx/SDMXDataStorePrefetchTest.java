@@ -0,0 +1,158 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SDMXDataStorePrefetchTest {
+
+  private SDMXTestServer server;
+  private SDMXDataStore dataStore;
+
+  @Before
+  public void setUp() throws Exception {
+    this.server = new SDMXTestServer();
+    this.server.setDataflowCopies(10);
+    this.server.setLatency(20, 40);
+  }
+
+  @After
+  public void tearDown() {
+    if (this.dataStore != null) {
+      this.dataStore.dispose();
+    }
+    this.server.close();
+  }
+
+  private SDMXDataStore createDataStore(String prefetch, int nThreads)
+      throws Exception {
+    Map<String, Serializable> params = new HashMap<String, Serializable>();
+    params.put(SDMXDataStoreFactory.NAME_PARAM.key, "ABS");
+    params.put(SDMXDataStoreFactory.NAMESPACE_PARAM.key, Helper.NAMESPACE);
+    params.put(SDMXDataStoreFactory.PROVIDER_PARAM.key, Helper.PROVIDER);
+    params.put(SDMXDataStoreFactory.URL_PARAM.key, this.server.getEndpoint());
+    params.put(SDMXDataStoreFactory.PREFETCH_PARAM.key, prefetch);
+    params.put(SDMXDataStoreFactory.PREFETCH_THREADS_PARAM.key, nThreads);
+    this.dataStore = (SDMXDataStore) (new SDMXDataStoreFactory())
+        .createDataStore(params);
+    return this.dataStore;
+  }
+
+  private String copy(int i) {
+    return SDMXSyntheticData.T04_ID + "_" + i;
+  }
+
+  @Test
+  public void all() throws Exception {
+
+    this.createDataStore(SDMXDataStore.PREFETCH_ALL, 3);
+    assertEquals(12 * 2, this.dataStore.getTypeNames().length);
+
+    // All the DSDs are fetched when type names are created, no more than
+    // PrefetchThreads at the same time
+    assertEquals(12, this.server.getRequestCount(SDMXTestServer.STRUCTURE));
+    assertTrue(this.server.getMaxConcurrentRequests() > 1);
+    assertTrue(this.server.getMaxConcurrentRequests() <= 3);
+    assertNotNull(
+        this.dataStore.registry.getDataFlowStructure("ABS_SEIFA_LGA"));
+    for (int i = 1; i <= 10; i++) {
+      assertNotNull(this.dataStore.registry.getDataFlowStructure(this.copy(i)));
+    }
+
+    // Feature sources do not request them again
+    assertNotNull(this.dataStore
+        .getFeatureSource(this.copy(7) + "__SDMX").getSchema());
+    assertEquals(12, this.server.getRequestCount(SDMXTestServer.STRUCTURE));
+  }
+
+  @Test
+  public void subset() throws Exception {
+
+    this.createDataStore(this.copy(2) + ", " + this.copy(5), 4);
+    assertEquals(12 * 2, this.dataStore.getTypeNames().length);
+
+    assertEquals(2, this.server.getRequestCount(SDMXTestServer.STRUCTURE));
+    assertNotNull(this.dataStore.registry.getDataFlowStructure(this.copy(2)));
+    assertNotNull(this.dataStore.registry.getDataFlowStructure(this.copy(5)));
+    assertNull(this.dataStore.registry.getDataFlowStructure(this.copy(3)));
+    assertNull(this.dataStore.registry
+        .getDataFlowStructure(SDMXSyntheticData.T04_ID));
+  }
+
+  @Test
+  public void failure() throws Exception {
+
+    List<LogRecord> warnings = new CopyOnWriteArrayList<LogRecord>();
+    Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        if (record.getLevel().intValue() >= Level.WARNING.intValue()
+            && record.getMessage() != null
+            && record.getMessage().startsWith("Cannot prefetch")) {
+          warnings.add(record);
+        }
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    this.server.setFailedStructures("ABS_SEIFA_LGA", this.copy(4));
+    this.createDataStore(SDMXDataStore.PREFETCH_ALL, 2);
+    this.dataStore.getLogger().addHandler(handler);
+
+    try {
+      assertEquals(12 * 2, this.dataStore.getTypeNames().length);
+
+      // The failures are logged, and the other DSDs fetched all the same
+      assertEquals(2, warnings.size());
+      assertTrue(warnings.stream()
+          .anyMatch(r -> r.getMessage().endsWith("ABS_SEIFA_LGA")));
+      assertTrue(warnings.stream()
+          .anyMatch(r -> r.getMessage().endsWith(this.copy(4))));
+      assertNull(
+          this.dataStore.registry.getDataFlowStructure("ABS_SEIFA_LGA"));
+      assertNull(this.dataStore.registry.getDataFlowStructure(this.copy(4)));
+      assertNotNull(this.dataStore.registry
+          .getDataFlowStructure(SDMXSyntheticData.T04_ID));
+      for (int i = 1; i <= 10; i++) {
+        assertEquals(i != 4,
+            this.dataStore.registry.getDataFlowStructure(this.copy(i)) != null);
+      }
+    } finally {
+      this.dataStore.getLogger().removeHandler(handler);
+    }
+  }
+
+}
@@ -19,10 +19,21 @@ package org.geotools.data.sdmx;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.geotools.data.sdmx.SDMXDataStore;
+import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.NameImpl;
 import org.junit.After;
 import org.junit.Before;
@@ -130,13 +141,9 @@ public class SDMXDataStoreTest {
     PowerMockito.when(this.urlMock.openConnection())
         .thenReturn(this.clientMock);
     when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
         .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
     when(clientMock.getInputStream())
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
-        .thenReturn(
-            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"))
         .thenReturn(
             Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
         .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"));
@@ -153,4 +160,62 @@ public class SDMXDataStoreTest {
         .getSchema().getAttributeCount());
   }
 
+  @Test
+  public void testConcurrentFeatureSources() throws Exception {
+
+    int nThreads = 16;
+    int nIterations = 50;
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    // Only the dataflows and one DSD are available: a second fetch of the DSD
+    // would read an empty response and fail
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(new ByteArrayInputStream("".getBytes()));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    Set<SimpleFeatureSource> sources = Collections
+        .synchronizedSet(Collections.newSetFromMap(
+            new IdentityHashMap<SimpleFeatureSource, Boolean>()));
+    List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+    for (int i = 0; i < nThreads; i++) {
+      final String typeName = i % 2 == 0 ? Helper.T04 : Helper.T04_DIMENSIONS;
+      results.add(executor.submit(() -> {
+        start.await();
+        int nAttrs = 0;
+        for (int j = 0; j < nIterations; j++) {
+          SimpleFeatureSource source = this.dataStore
+              .getFeatureSource(typeName);
+          sources.add(source);
+          nAttrs = source.getSchema().getAttributeCount();
+        }
+        return nAttrs;
+      }));
+    }
+
+    start.countDown();
+    for (int i = 0; i < nThreads; i++) {
+      assertEquals(i % 2 == 0 ? 9 : 3,
+          results.get(i).get(60, TimeUnit.SECONDS).intValue());
+    }
+    executor.shutdown();
+
+    // One feature source per type name, sharing one DSD
+    assertEquals(2, sources.size());
+    assertEquals(1,
+        this.dataStore.getRegistry().getDataFlowStructures().size());
+  }
+
 }
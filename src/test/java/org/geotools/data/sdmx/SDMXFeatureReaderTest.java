@@ -20,33 +20,66 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.HttpStatus;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.sdmx.SDMXFeatureReader;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.util.logging.Logging;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
 import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
 import it.bancaditalia.oss.sdmx.client.RestSdmxClient;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ RestSdmxClient.class, HttpURLConnection.class, URL.class })
+@PrepareForTest({ RestSdmxClient.class, SDMXURLConnectionTransport.class,
+    HttpURLConnection.class, URL.class })
 public class SDMXFeatureReaderTest {
 
   private static final Logger LOGGER = Logging
       .getLogger("org.geotools.data.arcgisrest");
 
+  private static final String MERCATOR_WKT = "PROJCS[\"WGS 84 / Mercator\", "
+      + "GEOGCS[\"WGS 84\", DATUM[\"WGS_1984\", "
+      + "SPHEROID[\"WGS 84\", 6378137, 298.257223563]], "
+      + "PRIMEM[\"Greenwich\", 0], UNIT[\"degree\", 0.0174532925199433]], "
+      + "PROJECTION[\"Mercator_1SP\"], PARAMETER[\"central_meridian\", 0], "
+      + "PARAMETER[\"scale_factor\", 1], PARAMETER[\"false_easting\", 0], "
+      + "PARAMETER[\"false_northing\", 0], UNIT[\"metre\", 1]]";
+
   private SDMXDataStore dataStore;
   private URL urlMock;
   private HttpURLConnection clientMock;
@@ -66,13 +99,11 @@ public class SDMXFeatureReaderTest {
     PowerMockito.when(this.urlMock.openConnection())
         .thenReturn(this.clientMock);
     when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK);
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
     when(clientMock.getInputStream())
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
         .thenReturn(
             Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"))
         .thenReturn(Helper.readXMLAsStream("test-data/query-t04.xml"));
 
     this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
@@ -98,6 +129,30 @@ public class SDMXFeatureReaderTest {
         + "AGE='TOT' and " + "STATE='1'");
     assertEquals("1+2+3.TOT.TOT.1...",
         this.dfSource.buildConstraints(new Query("", filter)));
+
+    filter = ECQL.toFilter("MEASURE='3' and TIME >= '2011' and TIME < '2016'");
+    assertEquals("3......",
+        this.dfSource.buildConstraints(new Query("", filter)));
+    SDMXTimeRange range = this.dfSource
+        .buildTimeRange(new Query("", filter));
+    assertEquals("2011", range.getStartPeriod());
+    assertEquals("2016", range.getEndPeriod());
+    assertTrue(range.contains("2015"));
+    assertFalse(range.contains("2016"));
+
+    filter = ECQL.toFilter("MEASURE='3' and TIME BETWEEN '2006' and '2011'");
+    range = this.dfSource.buildTimeRange(new Query("", filter));
+    assertEquals("2006", range.getStartPeriod());
+    assertEquals("2011", range.getEndPeriod());
+
+    filter = ECQL.toFilter(
+        "TIME DURING 2011-01-01T00:00:00Z/2015-12-31T00:00:00Z");
+    range = this.dfSource.buildTimeRange(new Query("", filter));
+    assertEquals("2011-01-01", range.getStartPeriod());
+    assertEquals("2015-12-31", range.getEndPeriod());
+    assertTrue(range.contains("2011"));
+
+    assertFalse(this.dfSource.buildTimeRange(Query.ALL).isBounded());
   }
 
   @Test
@@ -110,17 +165,11 @@ public class SDMXFeatureReaderTest {
     PowerMockito.when(this.urlMock.openConnection())
         .thenReturn(this.clientMock);
     when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_NOT_FOUND);
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_NOT_FOUND);
     when(clientMock.getInputStream())
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
         .thenReturn(
             Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"))
-        .thenReturn(
-            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"))
         .thenReturn(new ByteArrayInputStream("".getBytes()));
 
     this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
@@ -145,13 +194,11 @@ public class SDMXFeatureReaderTest {
     PowerMockito.when(this.urlMock.openConnection())
         .thenReturn(this.clientMock);
     when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK);
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
     when(clientMock.getInputStream())
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
         .thenReturn(
             Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"))
         .thenReturn(Helper.readXMLAsStream("test-data/query-t04-1.xml"));
 
     this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
@@ -208,13 +255,11 @@ public class SDMXFeatureReaderTest {
     PowerMockito.when(this.urlMock.openConnection())
         .thenReturn(this.clientMock);
     when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK);
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
     when(clientMock.getInputStream())
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
         .thenReturn(
             Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"))
         .thenReturn(Helper.readXMLAsStream("test-data/query-t04-2.xml"));
 
     this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
@@ -262,13 +307,11 @@ public class SDMXFeatureReaderTest {
     PowerMockito.when(this.urlMock.openConnection())
         .thenReturn(this.clientMock);
     when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK);
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
     when(clientMock.getInputStream())
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
         .thenReturn(
             Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"))
         .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
 
     this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
@@ -318,7 +361,424 @@ public class SDMXFeatureReaderTest {
   }
   
   @Test
-  public void readFeaturesAllDimensions() throws Exception {
+  public void countFeatures() throws Exception {
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+    String cql = "MEASURE in ('3','2', '1') and MSTP='TOT' and "
+        + "AGE='TOT' and " + "STATE='1' and " + "REGIONTYPE='STE' and "
+        + "REGION in ('1','2','3','4') and " + "FREQUENCY='A'";
+
+    // Without a time range observations are counted, and cached for the
+    // features request
+    Query query = new Query(Helper.T04, ECQL.toFilter(cql));
+    assertEquals(9, this.dfSource.getCount(query));
+    assertEquals(0, this.dataStore.getObservationCache().getHitCount());
+    assertEquals(1, this.dataStore.getObservationCache().getMissCount());
+
+    this.reader = (SDMXFeatureReader) this.dfSource.getReader(query);
+    int nObs = 0;
+    while (this.reader.hasNext()) {
+      this.reader.next();
+      nObs++;
+    }
+    this.reader.close();
+    assertEquals(9, nObs);
+    assertEquals(1, this.dataStore.getObservationCache().getHitCount());
+    assertEquals(1, this.dataStore.getObservationCache().getMissCount());
+
+    // With a time range the series keys are requested (the server returns
+    // the observations anyway, hence they are counted)
+    query = new Query(Helper.T04,
+        ECQL.toFilter(cql + " and TIME >= '2006' and TIME <= '2011'"));
+    assertEquals(6, this.dfSource.getCount(query));
+  }
+
+  @Test
+  public void pageFeatures() throws Exception {
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+    Query query = new Query(Helper.T04,
+        ECQL.toFilter("MEASURE in ('3','2', '1') and MSTP='TOT' and "
+            + "AGE='TOT' and " + "STATE='1' and " + "REGIONTYPE='STE' and "
+            + "REGION in ('1','2','3','4') and " + "FREQUENCY='A'"));
+    query.setStartIndex(2);
+    query.setMaxFeatures(3);
+
+    // The page spans the end of the first series and the start of the second
+    this.reader = (SDMXFeatureReader) this.dfSource.getReader(query);
+    SimpleFeature feat = (SimpleFeature) this.reader.next();
+    assertEquals("2011", feat.getAttribute(SDMXDataStore.TIME_KEY));
+    assertEquals(2739087.0, feat.getAttribute(SDMXDataStore.MEASURE_KEY));
+    feat = (SimpleFeature) this.reader.next();
+    assertEquals("2001", feat.getAttribute(SDMXDataStore.TIME_KEY));
+    assertEquals(2583729.0, feat.getAttribute(SDMXDataStore.MEASURE_KEY));
+    feat = (SimpleFeature) this.reader.next();
+    assertEquals("2006", feat.getAttribute(SDMXDataStore.TIME_KEY));
+    assertEquals(2708269.0, feat.getAttribute(SDMXDataStore.MEASURE_KEY));
+    assertFalse(this.reader.hasNext());
+    this.reader.close();
+
+    // Partial reads are not cached
+    assertEquals(0, this.dataStore.getObservationCache().getSize());
+    assertEquals(3, this.dfSource.getCount(query));
+  }
+
+  @Test
+  public void localTimeConditions() throws Exception {
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+    this.dfSource.buildFeatureType();
+    String cql = "MEASURE in ('3','2', '1') and MSTP='TOT' and "
+        + "AGE='TOT' and " + "STATE='1' and " + "REGIONTYPE='STE' and "
+        + "REGION in ('1','2','3','4') and " + "FREQUENCY='A'";
+    String constraints = "3+2+1.TOT.TOT.1.STE.1+2+3+4.A";
+
+    // Conditions under NOT do not narrow the request, and are evaluated on
+    // the features
+    Query query = new Query(Helper.T04,
+        ECQL.toFilter(cql + " and NOT (TIME >= '2010')"));
+    assertEquals(constraints, this.dfSource.buildConstraints(query));
+    assertFalse(this.dfSource.buildTimeRange(query).isBounded());
+    assertNotNull(this.dfSource.buildLocalFilter(query));
+    assertEquals(Arrays.asList("2001", "2006", "2001", "2006", "2001", "2006"),
+        this.readTimes(query));
+    assertEquals(6, this.dfSource.getCount(query));
+
+    // Pages are taken from the features matching the local conditions
+    query.setStartIndex(1);
+    query.setMaxFeatures(2);
+    assertEquals(Arrays.asList("2006", "2001"), this.readTimes(query));
+    assertEquals(2, this.dfSource.getCount(query));
+
+    // Neither do conditions under OR, whatever their kind
+    query = new Query(Helper.T04,
+        ECQL.toFilter(cql + " and (TIME < '2005' or TIME > '2010')"));
+    assertEquals(constraints, this.dfSource.buildConstraints(query));
+    assertFalse(this.dfSource.buildTimeRange(query).isBounded());
+    assertEquals(Arrays.asList("2001", "2011", "2001", "2011", "2001", "2011"),
+        this.readTimes(query));
+
+    query = new Query(Helper.T04,
+        ECQL.toFilter(cql + " and (TIME = '2006' or REGION = '9')"));
+    assertEquals(constraints, this.dfSource.buildConstraints(query));
+    assertFalse(this.dfSource.buildTimeRange(query).isBounded());
+    assertEquals(Arrays.asList("2006", "2006", "2006"),
+        this.readTimes(query));
+
+    // Conditions of the top-level conjunction are translated exactly
+    query = new Query(Helper.T04,
+        ECQL.toFilter(cql + " and TIME >= '2010'"));
+    assertTrue(this.dfSource.buildTimeRange(query).isBounded());
+    assertNull(this.dfSource.buildLocalFilter(query));
+  }
+
+  /**
+   * Returns the TIME of the features of a query
+   */
+  private List<String> readTimes(Query query) throws Exception {
+    List<String> times = new ArrayList<String>();
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> features = this.dfSource
+        .getReader(query)) {
+      while (features.hasNext()) {
+        times.add(
+            (String) features.next().getAttribute(SDMXDataStore.TIME_KEY));
+      }
+    }
+    return times;
+  }
+
+  @Test
+  public void spatialFeatures() throws Exception {
+
+    SDMXGeometryProvider geometries = SDMXGeometryProviderTest.loadRegions();
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dataStore.setGeometryProvider(geometries);
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+    assertEquals(115.0, this.dfSource.getBounds().getMinX(), 0.0);
+
+    // The BBOX selects regions 1 and 2, the filter 1 to 3
+    String cql = "MEASURE in ('3','2', '1') and MSTP='TOT' and "
+        + "AGE='TOT' and " + "STATE='1' and " + "REGIONTYPE='STE' and "
+        + "REGION in ('1','2','3') and " + "FREQUENCY='A'";
+    Query query = new Query(Helper.T04, ECQL.toFilter(cql + " and BBOX("
+        + SDMXDataStore.GEOMETRY_ATTR + ", 139, -30, 141, -29)"));
+    assertEquals("3+2+1.TOT.TOT.1.STE.1+2.A",
+        this.dfSource.buildConstraints(query));
+    ReferencedEnvelope bounds = this.dfSource.getBounds(query);
+    assertEquals(130.0, bounds.getMinX(), 0.0);
+    assertEquals(150.0, bounds.getMaxX(), 0.0);
+
+    // No region matches both the filter and the BBOX
+    assertNull(this.dfSource.buildConstraints(new Query(Helper.T04,
+        ECQL.toFilter(cql + " and BBOX(" + SDMXDataStore.GEOMETRY_ATTR
+            + ", 116, -30, 117, -29)"))));
+
+    // Intersects selects the same regions, whatever the order of its operands
+    // and the CRS of its geometry
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    CoordinateReferenceSystem mercator = CRS.parseWKT(MERCATOR_WKT);
+    Geometry area = JTS.transform(
+        new WKTReader().read(
+            "POLYGON((139 -30, 141 -30, 141 -29, 139 -29, 139 -30))"),
+        CRS.findMathTransform(DefaultGeographicCRS.WGS84, mercator, true));
+    area.setUserData(mercator);
+    assertEquals("3+2+1.TOT.TOT.1.STE.1+2.A",
+        this.dfSource.buildConstraints(new Query(Helper.T04,
+            ff.and(ECQL.toFilter(cql), ff.intersects(ff.literal(area),
+                ff.property(SDMXDataStore.GEOMETRY_ATTR))))));
+    assertEquals("3+2+1.TOT.TOT.1.STE.1+2.A",
+        this.dfSource.buildConstraints(new Query(Helper.T04,
+            ff.and(ECQL.toFilter(cql),
+                ff.intersects(ff.property(SDMXDataStore.GEOMETRY_ATTR),
+                    ff.literal(area))))));
+
+    // Features carry the geometry of their region, which is checked against
+    // the spatial conditions (reprojected if needed)
+    int nFeatures = 0;
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> features = this.dfSource
+        .getReader(query)) {
+      while (features.hasNext()) {
+        SimpleFeature feat = features.next();
+        assertEquals(geometries.getGeometry("1"), feat.getDefaultGeometry());
+        nFeatures++;
+      }
+    }
+    assertEquals(9, nFeatures);
+    assertEquals(9,
+        this.dfSource.getCount(new Query(Helper.T04,
+            ff.and(ECQL.toFilter(cql), ff.intersects(ff.literal(area),
+                ff.property(SDMXDataStore.GEOMETRY_ATTR))))));
+
+    // Spatial conditions under NOT or OR do not narrow the request, and are
+    // evaluated on the features
+    query = new Query(Helper.T04, ECQL.toFilter(cql + " and NOT BBOX("
+        + SDMXDataStore.GEOMETRY_ATTR + ", 139, -30, 141, -29)"));
+    assertEquals("3+2+1.TOT.TOT.1.STE.1+2+3.A",
+        this.dfSource.buildConstraints(query));
+    assertEquals(0, this.dfSource.getCount(query));
+
+    query = new Query(Helper.T04,
+        ECQL.toFilter(cql + " and (BBOX(" + SDMXDataStore.GEOMETRY_ATTR
+            + ", 116, -30, 117, -29) or REGION = '1')"));
+    assertEquals("3+2+1.TOT.TOT.1.STE.1+2+3.A",
+        this.dfSource.buildConstraints(query));
+    assertEquals(9, this.dfSource.getCount(query));
+  }
+
+  @Test
+  public void spatialGeometryCheck() throws Exception {
+
+    // Region 1 is the lower-left half of its envelope
+    SimpleFeatureType type = DataUtilities.createType("regions",
+        "the_geom:Polygon,CODE:String");
+    ListFeatureCollection regions = new ListFeatureCollection(type);
+    regions.add(SimpleFeatureBuilder.build(type, new Object[] {
+        new WKTReader().read(
+            "POLYGON((140 -38, 150 -38, 140 -28, 140 -38))"),
+        "1" }, null));
+    SDMXGeometryProvider geometries = new SDMXGeometryProvider("REGION",
+        DataUtilities.source(regions), "CODE");
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dataStore.setGeometryProvider(geometries);
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+    this.dfSource.buildFeatureType();
+    String cql = "MEASURE in ('3','2', '1') and MSTP='TOT' and "
+        + "AGE='TOT' and " + "STATE='1' and " + "REGIONTYPE='STE' and "
+        + "REGION in ('1','2','3') and " + "FREQUENCY='A'";
+
+    // The BBOX is in the envelope of region 1, but not in its geometry
+    Query query = new Query(Helper.T04, ECQL.toFilter(cql + " and BBOX("
+        + SDMXDataStore.GEOMETRY_ATTR + ", 148, -30, 149, -29)"));
+    assertEquals("3+2+1.TOT.TOT.1.STE.1.A",
+        this.dfSource.buildConstraints(query));
+    assertEquals(0, this.dfSource.getCount(query));
+
+    query = new Query(Helper.T04, ECQL.toFilter(cql + " and BBOX("
+        + SDMXDataStore.GEOMETRY_ATTR + ", 141, -37, 142, -36)"));
+    assertEquals("3+2+1.TOT.TOT.1.STE.1.A",
+        this.dfSource.buildConstraints(query));
+    assertEquals(9, this.dfSource.getCount(query));
+  }
+
+  @Test
+  public void aggregateFeatures() throws Exception {
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+    Query query = new Query(Helper.T04,
+        ECQL.toFilter("MEASURE in ('3','2', '1') and MSTP='TOT' and "
+            + "AGE='TOT' and " + "STATE='1' and " + "REGIONTYPE='STE' and "
+            + "REGION in ('1','2','3','4') and " + "FREQUENCY='A'"));
+
+    SumVisitor sum = new SumVisitor(SDMXDataStore.MEASURE_KEY,
+        this.dfSource.getSchema());
+    this.dfSource.getFeatures(query).accepts(sum, null);
+    assertEquals(31914158.0, sum.getResult().toDouble(), 0.0);
+
+    // The second visitor is computed on the cached series
+    UniqueVisitor unique = new UniqueVisitor(SDMXDataStore.TIME_KEY,
+        this.dfSource.getSchema());
+    this.dfSource.getFeatures(query).accepts(unique, null);
+    assertEquals(3, unique.getUnique().size());
+    assertEquals(1, this.dataStore.getObservationCache().getHitCount());
+  }
+
+  @Test
+  public void uniqueCodes() throws Exception {
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/availableconstraint-t04.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+
+    // The codes come from the codelist, no data is requested
+    UniqueVisitor unique = new UniqueVisitor("REGIONTYPE",
+        this.dfSource.getSchema());
+    this.dfSource.getFeatures(Query.ALL).accepts(unique, null);
+    assertEquals(
+        new HashSet<Object>(Arrays.asList("AUS", "STE", "SA4", "SA3", "SA2")),
+        unique.getUnique());
+
+    unique = new UniqueVisitor("REGIONTYPE", this.dfSource.getSchema());
+    this.dfSource
+        .getFeatures(new Query(Helper.T04,
+            ECQL.toFilter("REGIONTYPE in ('STE','SA4','XX')")))
+        .accepts(unique, null);
+    assertEquals(new HashSet<Object>(Arrays.asList("STE", "SA4")),
+        unique.getUnique());
+
+    // Content constraints retain the codes present in the dataflow
+    this.dataStore.setContentConstraints(true);
+    unique = new UniqueVisitor("REGIONTYPE", this.dfSource.getSchema());
+    this.dfSource.getFeatures(Query.ALL).accepts(unique, null);
+    assertEquals(new HashSet<Object>(Arrays.asList("AUS", "STE")),
+        unique.getUnique());
+
+    unique = new UniqueVisitor("STATE", this.dfSource.getSchema());
+    this.dfSource.getFeatures(Query.ALL).accepts(unique, null);
+    assertEquals(new HashSet<Object>(Arrays.asList("0", "1")),
+        unique.getUnique());
+    assertEquals(0, this.dataStore.getObservationCache().getSize());
+  }
+
+  @Test
+  public void projectFeatures() throws Exception {
 
     this.urlMock = PowerMockito.mock(URL.class);
     this.clientMock = PowerMockito.mock(HttpURLConnection.class);
@@ -333,7 +793,66 @@ public class SDMXFeatureReaderTest {
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
         .thenReturn(
             Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"));
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"))
+        .thenReturn(Helper.readXMLAsStream("test-data/query-t04-321.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dfSource = (SDMXDataflowFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04);
+    Query query = new Query(Helper.T04,
+        ECQL.toFilter("MEASURE in ('3','2', '1') and MSTP='TOT' and "
+            + "AGE='TOT' and " + "STATE='1' and " + "REGIONTYPE='STE' and "
+            + "REGION in ('1','2','3','4') and " + "FREQUENCY='A'"));
+
+    assertEquals(SDMXDataQuery.DETAIL_FULL, this.dfSource.buildDetail(query));
+
+    // Dimensions only: a feature per series
+    query.setPropertyNames(new String[] { "REGION", "AGE" });
+    assertEquals(SDMXDataQuery.DETAIL_SERIESKEYSONLY,
+        this.dfSource.buildDetail(query));
+    FeatureReader<SimpleFeatureType, SimpleFeature> features = this.dfSource
+        .getReader(query);
+    int nFeatures = 0;
+    while (features.hasNext()) {
+      SimpleFeature feat = features.next();
+      assertEquals("1", feat.getAttribute("REGION"));
+      assertEquals("TOT", feat.getAttribute("AGE"));
+      nFeatures++;
+    }
+    features.close();
+    assertEquals(3, nFeatures);
+    assertEquals(3, this.dfSource.getCount(query));
+
+    // Observations only: a feature per observation
+    query.setPropertyNames(
+        new String[] { SDMXDataStore.TIME_KEY, SDMXDataStore.MEASURE_KEY });
+    assertEquals(SDMXDataQuery.DETAIL_DATAONLY,
+        this.dfSource.buildDetail(query));
+    features = this.dfSource.getReader(query);
+    nFeatures = 0;
+    while (features.hasNext()) {
+      assertNotNull(features.next().getAttribute(SDMXDataStore.MEASURE_KEY));
+      nFeatures++;
+    }
+    features.close();
+    assertEquals(9, nFeatures);
+  }
+
+  @Test
+  public void readFeaturesAllDimensions() throws Exception {
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"));
 
     this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
     this.fType = this.dataStore.getFeatureSource(Helper.T04_DIMENSIONS).getSchema();
@@ -382,13 +901,11 @@ public class SDMXFeatureReaderTest {
     PowerMockito.when(this.urlMock.openConnection())
         .thenReturn(this.clientMock);
     when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK)
-        .thenReturn(HttpStatus.SC_OK);
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
     when(clientMock.getInputStream())
         .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
         .thenReturn(
-            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"))
-        .thenReturn(Helper.readXMLAsStream("test-data/abs-seifa-lga.xml"));
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"));
 
     this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
     this.fType = this.dataStore.getFeatureSource(Helper.T04_DIMENSIONS).getSchema();
@@ -428,4 +945,105 @@ public class SDMXFeatureReaderTest {
     assertEquals(17, nObs);
   }
 
+  @Test
+  public void searchDimensionCodes() throws Exception {
+
+    this.urlMock = PowerMockito.mock(URL.class);
+    this.clientMock = PowerMockito.mock(HttpURLConnection.class);
+
+    PowerMockito.whenNew(URL.class).withAnyArguments().thenReturn(this.urlMock);
+    PowerMockito.when(this.urlMock.openConnection())
+        .thenReturn(this.clientMock);
+    when(clientMock.getResponseCode()).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK);
+    when(clientMock.getInputStream())
+        .thenReturn(Helper.readXMLAsStream("test-data/abs.xml"))
+        .thenReturn(
+            Helper.readXMLAsStream("test-data/abs-census2011-t04-abs.xml"));
+
+    this.dataStore = (SDMXDataStore) Helper.createDefaultSDMXTestDataStore();
+    this.dimSource = (SDMXDimensionFeatureSource) this.dataStore
+        .getFeatureSource(Helper.T04_DIMENSIONS);
+
+    // Case-insensitive prefix and substring searches of descriptions
+    Query query = new Query(Helper.T04_DIMENSIONS,
+        ECQL.toFilter("CODE = 'REGION' and DESCRIPTION ILIKE 'sydney%'"));
+    assertEquals(17, this.dimSource.getCount(query));
+    query.setFilter(
+        ECQL.toFilter("CODE = 'REGION' and DESCRIPTION ILIKE '%sydney%'"));
+    assertEquals(19, this.dimSource.getCount(query));
+
+    // Sorted and paged by the index
+    query.setFilter(
+        ECQL.toFilter("CODE = 'REGION' and DESCRIPTION LIKE 'Sydney%'"));
+    query.setSortBy(new SortBy[] { CommonFactoryFinder.getFilterFactory2()
+        .sort(SDMXDataStore.DESCRIPTION_KEY, SortOrder.ASCENDING) });
+    query.setStartIndex(1);
+    query.setMaxFeatures(2);
+    assertEquals(2, this.dimSource.getCount(query));
+    this.reader = (SDMXFeatureReader) this.dimSource.getReader(query);
+    assertEquals("116", this.reader.next().getAttribute(SDMXDataStore.CODE_KEY));
+    assertEquals("Sydney - City and Inner South",
+        this.reader.next().getAttribute(SDMXDataStore.DESCRIPTION_KEY));
+    assertFalse(this.reader.hasNext());
+
+    // Codes selected by value
+    query = new Query(Helper.T04_DIMENSIONS, ECQL.toFilter(
+        "CODE = 'REGION' and CODE IN ('117', '1', 'XX')"));
+    query.setSortBy(new SortBy[] { CommonFactoryFinder.getFilterFactory2()
+        .sort(SDMXDataStore.CODE_KEY, SortOrder.ASCENDING) });
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> codes = this.dimSource
+        .getReader(query)) {
+      assertEquals("1", codes.next().getID());
+      assertEquals("117", codes.next().getID());
+      assertFalse(codes.hasNext());
+    }
+
+    // The codelist is selected whatever the order of the conditions
+    query.setFilter(ECQL.toFilter(
+        "CODE IN ('117', '1', 'XX') and CODE = 'REGION'"));
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> codes = this.dimSource
+        .getReader(query)) {
+      assertEquals("1", codes.next().getID());
+      assertEquals("117", codes.next().getID());
+      assertFalse(codes.hasNext());
+    }
+    query.setFilter(ECQL.toFilter("CODE = 'REGION' and CODE = 'ALL'"));
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> codes = this.dimSource
+        .getReader(query)) {
+      assertEquals("REGION", codes.next().getID());
+      assertFalse(codes.hasNext());
+    }
+  }
+
+  @Test
+  public void sortingCapabilities() throws Exception {
+
+    File directory = Files.createTempDirectory("sdmx-catalog").toFile();
+    try {
+      this.dataStore = SDMXSyntheticData.createOfflineDataStore(directory,
+          SDMXSyntheticData.structure(10));
+
+      // Capabilities are asked before the schemas are built
+      assertTrue(this.dataStore.getFeatureSource(Helper.T04)
+          .getQueryCapabilities()
+          .supportsSorting(new SortBy[] { CommonFactoryFinder
+              .getFilterFactory2()
+              .sort(SDMXDataStore.TIME_KEY, SortOrder.ASCENDING) }));
+      assertTrue(this.dataStore.getFeatureSource(Helper.T04_DIMENSIONS)
+          .getQueryCapabilities()
+          .supportsSorting(new SortBy[] { CommonFactoryFinder
+              .getFilterFactory2()
+              .sort(SDMXDataStore.DESCRIPTION_KEY, SortOrder.ASCENDING) }));
+      assertFalse(this.dataStore.getFeatureSource(Helper.T04)
+          .getQueryCapabilities()
+          .supportsSorting(new SortBy[] { CommonFactoryFinder
+              .getFilterFactory2().sort("NOT_AN_ATTRIBUTE",
+                  SortOrder.ASCENDING) }));
+    } finally {
+      this.dataStore.dispose();
+      SDMXSyntheticData.delete(directory);
+    }
+  }
+
 }
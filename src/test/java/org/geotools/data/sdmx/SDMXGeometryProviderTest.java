@@ -0,0 +1,114 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class SDMXGeometryProviderTest {
+
+  public static SDMXGeometryProvider loadRegions() throws Exception {
+    return SDMXGeometryProvider.load(
+        new File(SDMXGeometryProviderTest.class
+            .getResource("test-data/regions/regions.shp").getFile()),
+        null, "REGION", "CODE");
+  }
+
+  @Test
+  public void load() throws Exception {
+
+    SDMXGeometryProvider geometries = loadRegions();
+    assertEquals("REGION", geometries.getDimension());
+    assertEquals(4, geometries.size());
+    assertNotNull(geometries.getCRS());
+    assertEquals(new Envelope(140, 150, -38, -28),
+        geometries.getGeometry("1").getEnvelopeInternal());
+    assertNull(geometries.getGeometry("5"));
+    assertNull(geometries.getGeometry(null));
+
+    ReferencedEnvelope bounds = geometries.getBounds(null);
+    assertEquals(115.0, bounds.getMinX(), 0.0);
+    assertEquals(155.0, bounds.getMaxX(), 0.0);
+    assertEquals(-38.0, bounds.getMinY(), 0.0);
+    assertEquals(-15.0, bounds.getMaxY(), 0.0);
+
+    bounds = geometries.getBounds(Arrays.asList("1", "2", "5"));
+    assertEquals(130.0, bounds.getMinX(), 0.0);
+    assertEquals(150.0, bounds.getMaxX(), 0.0);
+  }
+
+  @Test
+  public void codes() throws Exception {
+
+    SDMXGeometryProvider geometries = loadRegions();
+    assertEquals(Arrays.asList("1"),
+        geometries.getCodes(new Envelope(141, 142, -30, -29)));
+    assertEquals(Arrays.asList("1", "2"),
+        geometries.getCodes(new Envelope(139, 141, -30, -29)));
+    assertEquals(Arrays.asList("1", "2", "3", "4"),
+        geometries.getCodes(new Envelope(100, 160, -40, -10)));
+    assertTrue(geometries.getCodes(new Envelope(0, 1, 0, 1)).isEmpty());
+  }
+
+  @Test
+  public void repeatedCodes() throws Exception {
+
+    SimpleFeatureType type = DataUtilities.createType("regions",
+        "the_geom:MultiPolygon,CODE:String");
+    WKTReader wkt = new WKTReader();
+    String[][] rows = { { "1", "MULTIPOLYGON(((0 0, 1 0, 1 1, 0 1, 0 0)))" },
+        { "2", "MULTIPOLYGON(((0 5, 1 5, 1 6, 0 6, 0 5)))" },
+        { "1", "MULTIPOLYGON(((5 5, 6 5, 6 6, 5 6, 5 5)))" },
+        { "3", "MULTIPOLYGON(((2 0, 3 0, 3 1, 2 1, 2 0)))" },
+        { "3", "MULTIPOLYGON(((3 0, 4 0, 4 1, 3 1, 3 0)))" } };
+    ListFeatureCollection features = new ListFeatureCollection(type);
+    for (String[] row : rows) {
+      features.add(SimpleFeatureBuilder.build(type,
+          new Object[] { wkt.read(row[1]), row[0] }, null));
+    }
+
+    // Every code is returned once, with all its parts
+    SDMXGeometryProvider geometries = new SDMXGeometryProvider("REGION",
+        DataUtilities.source(features), "CODE");
+    assertEquals(3, geometries.size());
+    assertEquals(Arrays.asList("1", "2", "3"),
+        geometries.getCodes(new Envelope(-1, 10, -1, 10)));
+    assertEquals(Arrays.asList("1"),
+        geometries.getCodes(new Envelope(5.2, 5.8, 5.2, 5.8)));
+    assertEquals(new Envelope(0, 6, 0, 6),
+        geometries.getGeometry("1").getEnvelopeInternal());
+
+    // Adjacent parts merge into a single polygon, still a multi-polygon
+    assertEquals(MultiPolygon.class, geometries.getBinding());
+    assertTrue(geometries.getGeometry("3") instanceof MultiPolygon);
+    assertEquals(1, geometries.getGeometry("3").getNumGeometries());
+  }
+
+}
@@ -0,0 +1,238 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Drives concurrent queries against a data store and reports their
+ * throughput and latency.
+ *
+ * It can be run against the stand-in server with:
+ * java org.geotools.data.sdmx.SDMXLoadHarness [threads] [queries per thread]
+ * [series] [min latency ms] [max latency ms] [error rate]
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXLoadHarness {
+
+  protected static final Logger LOGGER = Logging
+      .getLogger(SDMXLoadHarness.class);
+
+  protected SDMXDataStore dataStore;
+  protected String typeName;
+  protected List<Filter> filters;
+
+  /**
+   * Constructor
+   *
+   * @param dataStoreIn
+   *          Data store to query
+   * @param typeNameIn
+   *          Feature type to query
+   * @param filtersIn
+   *          Filters of the queries (used in turn)
+   */
+  public SDMXLoadHarness(SDMXDataStore dataStoreIn, String typeNameIn,
+      List<Filter> filtersIn) {
+    this.dataStore = dataStoreIn;
+    this.typeName = typeNameIn;
+    this.filters = filtersIn;
+  }
+
+  /**
+   * Returns filters of the T04 dataflow on a measure and a region each
+   *
+   * @param nRegions
+   *          Number of regions
+   */
+  public static List<Filter> t04Filters(int nRegions) throws Exception {
+    List<Filter> filters = new ArrayList<Filter>();
+    for (int i = 0; i < nRegions; i++) {
+      for (int m = 1; m <= 3; m++) {
+        filters.add(ECQL.toFilter("MEASURE='" + m + "' and MSTP='TOT'"
+            + " and AGE='TOT' and REGIONTYPE='STE' and REGION='" + i + "'"));
+      }
+    }
+    return filters;
+  }
+
+  /**
+   * Runs the queries, all threads starting at the same time
+   *
+   * @param nThreads
+   *          Number of threads sending queries
+   * @param nQueries
+   *          Number of queries sent by every thread (one after the other)
+   * @return The outcome of the queries
+   * @throws InterruptedException
+   */
+  public Result run(int nThreads, int nQueries) throws InterruptedException {
+
+    long[] latencies = new long[nThreads * nQueries];
+    AtomicInteger next = new AtomicInteger();
+    AtomicLong failures = new AtomicLong();
+    AtomicLong features = new AtomicLong();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+
+    for (int t = 0; t < nThreads; t++) {
+      executor.submit(() -> {
+        start.await();
+        for (int q = 0; q < nQueries; q++) {
+          int i = next.getAndIncrement();
+          Query query = new Query(this.typeName,
+              this.filters.get(i % this.filters.size()));
+          long begin = System.nanoTime();
+          try (FeatureReader<SimpleFeatureType, SimpleFeature> reader = this.dataStore
+              .getFeatureSource(this.typeName).getReader(query)) {
+            while (reader.hasNext()) {
+              reader.next();
+              features.incrementAndGet();
+            }
+          } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Query " + query + " failed", e);
+            failures.incrementAndGet();
+          }
+          latencies[i] = System.nanoTime() - begin;
+        }
+        return null;
+      });
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.HOURS);
+    long elapsed = System.nanoTime() - begin;
+
+    Arrays.sort(latencies);
+    return new Result(latencies, elapsed, failures.get(), features.get());
+  }
+
+  /**
+   * Outcome of a run
+   */
+  public static class Result {
+
+    protected long[] latencies;
+    protected long elapsed;
+    protected long failures;
+    protected long features;
+
+    protected Result(long[] latenciesIn, long elapsedIn, long failuresIn,
+        long featuresIn) {
+      this.latencies = latenciesIn;
+      this.elapsed = elapsedIn;
+      this.failures = failuresIn;
+      this.features = featuresIn;
+    }
+
+    public int getQueryCount() {
+      return this.latencies.length;
+    }
+
+    public long getFailureCount() {
+      return this.failures;
+    }
+
+    public long getFeatureCount() {
+      return this.features;
+    }
+
+    /**
+     * Returns the number of queries completed per second
+     */
+    public double getThroughput() {
+      return this.latencies.length / (this.elapsed / 1e9);
+    }
+
+    /**
+     * Returns a percentile of the query latencies (ms)
+     *
+     * @param percentile
+     *          Percentile (between 0 and 100)
+     */
+    public double getLatency(double percentile) {
+      if (this.latencies.length == 0) {
+        return 0;
+      }
+      int i = (int) Math.ceil(percentile / 100 * this.latencies.length) - 1;
+      return this.latencies[Math.max(0,
+          Math.min(i, this.latencies.length - 1))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d queries (%d failed, %d features) at %.1f queries/s,"
+              + " latency p50 %.1f ms, p99 %.1f ms",
+          this.getQueryCount(), this.failures, this.features,
+          this.getThroughput(), this.getLatency(50), this.getLatency(99));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    int nThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int nQueries = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    int nSeries = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    long minLatency = args.length > 3 ? Long.parseLong(args[3]) : 20;
+    long maxLatency = args.length > 4 ? Long.parseLong(args[4]) : 200;
+    double errorRate = args.length > 5 ? Double.parseDouble(args[5]) : 0.01;
+
+    try (SDMXTestServer server = new SDMXTestServer()) {
+      server.setSeries(nSeries);
+      server.setLatency(minLatency, maxLatency);
+      server.setErrorRate(errorRate, 503);
+
+      SDMXDataStore dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+          Helper.PROVIDER, server.getEndpoint(), null, null);
+      try {
+        SDMXLoadHarness harness = new SDMXLoadHarness(dataStore, Helper.T04,
+            SDMXLoadHarness.t04Filters(100));
+        System.out.println(harness.run(nThreads, nQueries));
+        System.out.println(server.getRequestCount(SDMXTestServer.DATA)
+            + " data requests (" + server.getErrorCount() + " failed), "
+            + server.getBytesSent() + " bytes sent, at most "
+            + server.getMaxConcurrentRequests() + " requests at a time");
+      } finally {
+        dataStore.dispose();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SDMXLoadTest {
+
+  private SDMXTestServer server;
+  private SDMXDataStore dataStore;
+
+  @Before
+  public void setUp() throws Exception {
+    this.server = new SDMXTestServer();
+    this.dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, this.server.getEndpoint(), null, null);
+  }
+
+  @After
+  public void tearDown() {
+    this.dataStore.dispose();
+    this.server.close();
+  }
+
+  @Test
+  public void concurrentQueries() throws Exception {
+
+    this.server.setSeries(300);
+    this.server.setLatency(5, 20);
+
+    SDMXLoadHarness harness = new SDMXLoadHarness(this.dataStore, Helper.T04,
+        SDMXLoadHarness.t04Filters(10));
+    SDMXLoadHarness.Result result = harness.run(8, 10);
+
+    assertEquals(80, result.getQueryCount());
+    assertEquals(0, result.getFailureCount());
+    assertTrue(result.getFeatureCount() > 0);
+    assertTrue(result.getThroughput() > 0);
+    assertTrue(result.getLatency(99) >= result.getLatency(50));
+
+    // The catalog and the DSD are requested once, whatever the number of
+    // queries
+    assertEquals(1, this.server.getRequestCount(SDMXTestServer.DATAFLOWS));
+    assertEquals(1, this.server.getRequestCount(SDMXTestServer.STRUCTURE));
+    assertTrue(this.server.getRequestCount(SDMXTestServer.DATA) > 0);
+    assertTrue(this.server.getRequestCount(SDMXTestServer.DATA) <= 80);
+    assertTrue(this.server.getMaxConcurrentRequests() <= 8);
+
+    // Every request sent is measured
+    SDMXMetrics.DataflowMetrics metrics = this.dataStore.getMetrics()
+        .getDataflowMetrics(SDMXSyntheticData.T04_ID);
+    assertEquals(this.server.getRequestCount(SDMXTestServer.DATA)
+        + this.server.getRequestCount(SDMXTestServer.STRUCTURE),
+        metrics.getRequestCount());
+    assertEquals(0, metrics.getFailureCount());
+    assertEquals(300 * this.server.getRequestCount(SDMXTestServer.DATA),
+        metrics.getSeriesCount());
+    assertTrue(metrics.getBytesReceived() > 0);
+    assertEquals(0, this.dataStore.getMetrics().getInFlightCount());
+  }
+
+  @Test
+  public void failedRequests() throws Exception {
+
+    this.server.setErrorRate(1, 503);
+    this.dataStore.setCircuitBreaker(new SDMXCircuitBreaker(3, 60000));
+
+    SDMXLoadHarness harness = new SDMXLoadHarness(this.dataStore, Helper.T04,
+        SDMXLoadHarness.t04Filters(10));
+    SDMXLoadHarness.Result result = harness.run(4, 5);
+
+    assertEquals(20, result.getQueryCount());
+    assertEquals(20, result.getFailureCount());
+
+    // Once the circuit is open, queries fail without reaching the server
+    assertTrue(this.dataStore.getCircuitBreaker().isOpen());
+    assertTrue(this.server.getErrorCount() < 20);
+  }
+
+  @Test
+  public void clientErrors() throws Exception {
+
+    this.server.setErrorRate(1, 400);
+    int limit = this.dataStore.getRequestLimiter().getLimit();
+
+    SDMXLoadHarness harness = new SDMXLoadHarness(this.dataStore, Helper.T04,
+        SDMXLoadHarness.t04Filters(10));
+    SDMXLoadHarness.Result result = harness.run(4, 5);
+
+    // Wrong requests fail, but do not slow down the others
+    assertEquals(20, result.getFailureCount());
+    assertEquals(limit, this.dataStore.getRequestLimiter().getLimit());
+    assertEquals(0, this.dataStore.getRequestLimiter().getFailureCount());
+    assertEquals(0, this.dataStore.getRequestLimiter().getInFlightCount());
+  }
+
+  @Test
+  public void clientErrorsCircuit() throws Exception {
+
+    this.server.setErrorRate(1, 400);
+    this.dataStore.setCircuitBreaker(new SDMXCircuitBreaker(3, 60000));
+
+    SDMXLoadHarness harness = new SDMXLoadHarness(this.dataStore, Helper.T04,
+        SDMXLoadHarness.t04Filters(10));
+    SDMXLoadHarness.Result result = harness.run(4, 5);
+
+    // Wrong requests keep reaching the server past the failure threshold,
+    // and the endpoint is still deemed available
+    assertEquals(20, result.getFailureCount());
+    assertTrue(this.server.getErrorCount() > 3);
+    assertEquals(SDMXCircuitBreaker.State.CLOSED,
+        this.dataStore.getCircuitBreaker().getState());
+    assertEquals(0, this.dataStore.getCircuitBreaker().getOpenCount());
+  }
+
+  @Test
+  public void serverErrors() throws Exception {
+
+    this.server.setErrorRate(1, 503);
+    this.dataStore.setCircuitBreaker(new SDMXCircuitBreaker(0, 60000));
+    int limit = this.dataStore.getRequestLimiter().getLimit();
+
+    SDMXLoadHarness harness = new SDMXLoadHarness(this.dataStore, Helper.T04,
+        SDMXLoadHarness.t04Filters(10));
+    harness.run(4, 5);
+
+    assertTrue(this.dataStore.getRequestLimiter().getFailureCount() > 0);
+    assertTrue(this.dataStore.getRequestLimiter().getLimit() < limit);
+  }
+
+  @Test
+  public void dataflowCopies() throws Exception {
+
+    this.server.setDataflowCopies(5);
+    assertTrue(this.dataStore.getTypeNames().length >= 7 * 2);
+    assertNotNull(this.dataStore
+        .getFeatureSource(SDMXSyntheticData.T04_ID + "_3__SDMX").getSchema());
+  }
+
+}
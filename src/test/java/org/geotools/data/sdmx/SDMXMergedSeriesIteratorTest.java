@@ -0,0 +1,164 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SDMXMergedSeriesIteratorTest {
+
+  private ExecutorService executor;
+  private List<Thread> threads;
+
+  @Before
+  public void setUp() {
+    this.threads = new CopyOnWriteArrayList<Thread>();
+    this.executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable);
+      this.threads.add(thread);
+      return thread;
+    });
+  }
+
+  @After
+  public void tearDown() {
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Waits until the worker threads are all blocked (on a full buffer)
+   */
+  private void awaitBlocked() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (this.threads.isEmpty() || !this.threads.stream()
+        .allMatch(thread -> thread.getState() == Thread.State.WAITING)) {
+      assertTrue("The workers wait on a full buffer",
+          System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void mergedSeries() throws Exception {
+
+    List<Callable<SDMXSeriesIterator>> sources = new ArrayList<Callable<SDMXSeriesIterator>>();
+    for (int i = 0; i < 10; i++) {
+      List<SDMXSeries> series = new ArrayList<SDMXSeries>();
+      for (int j = 0; j < 20; j++) {
+        series.add(new SDMXSeries(new String[] { "REGION" },
+            new String[] { i + "-" + j }, null));
+      }
+      sources.add(() -> SDMXSeriesIterator.of(series));
+    }
+
+    // Series are returned in the order of the requests
+    SDMXMergedSeriesIterator iter = new SDMXMergedSeriesIterator(sources,
+        this.executor, 3, 4);
+    List<String> keys = new ArrayList<String>();
+    while (iter.hasNext()) {
+      keys.add(iter.next().getKey());
+    }
+    iter.close();
+    assertEquals(200, keys.size());
+    for (int i = 0; i < 200; i++) {
+      assertEquals((i / 20) + "-" + (i % 20), keys.get(i));
+    }
+
+    // Without threads available, the caller reads the requests
+    this.executor.shutdown();
+    iter = new SDMXMergedSeriesIterator(sources, this.executor, 3, 4);
+    keys.clear();
+    while (iter.hasNext()) {
+      keys.add(iter.next().getKey());
+    }
+    iter.close();
+    assertEquals(200, keys.size());
+    assertEquals("9-19", keys.get(199));
+  }
+
+  @Test
+  public void prefetchedSeries() throws Exception {
+
+    AtomicInteger parsed = new AtomicInteger();
+    CountDownLatch closed = new CountDownLatch(1);
+    List<Callable<SDMXSeriesIterator>> sources = new ArrayList<Callable<SDMXSeriesIterator>>();
+    sources.add(() -> new SDMXSeriesIterator() {
+
+      @Override
+      public boolean hasNext() {
+        return parsed.get() < 100;
+      }
+
+      @Override
+      public SDMXSeries next() {
+        return new SDMXSeries(new String[] { "REGION" },
+            new String[] { String.valueOf(parsed.getAndIncrement()) }, null);
+      }
+
+      @Override
+      public void close() {
+        closed.countDown();
+      }
+    });
+
+    // Series are parsed ahead until the buffer is full: the worker then waits
+    // to put the series after the 4 buffered ones
+    SDMXMergedSeriesIterator iter = new SDMXMergedSeriesIterator(sources,
+        this.executor, 1, 4);
+    assertEquals("0", iter.next().getKey());
+    assertEquals("1", iter.next().getKey());
+    this.awaitBlocked();
+    assertEquals(7, parsed.get());
+
+    // Closing the iterator stops the request
+    iter.close();
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    assertFalse(iter.hasNext());
+    assertEquals(7, parsed.get());
+  }
+
+  @Test(expected = IOException.class)
+  public void mergedSeriesError() throws Exception {
+
+    List<Callable<SDMXSeriesIterator>> sources = new ArrayList<Callable<SDMXSeriesIterator>>();
+    sources.add(() -> SDMXSeriesIterator.empty());
+    sources.add(() -> {
+      throw new IOException("SDMX server returned HTTP 500");
+    });
+
+    SDMXMergedSeriesIterator iter = new SDMXMergedSeriesIterator(sources,
+        this.executor, 2, 4);
+    while (iter.hasNext()) {
+      iter.next();
+    }
+  }
+
+}
@@ -0,0 +1,180 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SDMXMetricsTest {
+
+  private static final String T04 = "ABS_CENSUS2011_T04";
+
+  private SDMXDataStore dataStore;
+  private SDMXMetrics metrics;
+
+  @Before
+  public void setUp() throws Exception {
+    this.dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, Helper.URL, null, null);
+    this.metrics = this.dataStore.getMetrics();
+  }
+
+  @After
+  public void tearDown() {
+    this.dataStore.dispose();
+  }
+
+  @Test
+  public void dataflowMetrics() throws Exception {
+
+    for (int i = 0; i < 98; i++) {
+      this.metrics.requestCompleted(T04, SDMXMetricsListener.DATA,
+          TimeUnit.MILLISECONDS.toNanos(3), false);
+    }
+    this.metrics.requestCompleted(T04, SDMXMetricsListener.DATA,
+        TimeUnit.MILLISECONDS.toNanos(1500), true);
+    this.metrics.requestCompleted(T04, SDMXMetricsListener.DATA,
+        TimeUnit.MILLISECONDS.toNanos(90000), false);
+    this.metrics.requestCompleted(null, SDMXMetricsListener.DATAFLOWS,
+        TimeUnit.MILLISECONDS.toNanos(3), false);
+    this.metrics.responseRead(T04, SDMXMetricsListener.DATA, 1000,
+        TimeUnit.MILLISECONDS.toNanos(200));
+    this.metrics.seriesParsed(T04, 10, 30, TimeUnit.MILLISECONDS.toNanos(500));
+    this.metrics.cacheLookup(T04, true);
+    this.metrics.cacheLookup(T04, false);
+    this.metrics.cacheLookup(T04, false);
+    this.metrics.cacheLookup(T04, false);
+
+    SDMXMetrics.DataflowMetrics t04 = this.metrics.getDataflowMetrics(T04);
+    assertEquals(T04, t04.getDataflow());
+    assertEquals(100, t04.getRequestCount());
+    assertEquals(1, t04.getFailureCount());
+    assertEquals(5, t04.getLatencyP50(), 0);
+    assertEquals(2000, t04.getLatencyP99(), 0);
+    assertEquals(90000, t04.getLatencyPercentile(100), 0);
+    assertEquals((98 * 3 + 1500 + 90000) / 100.0, t04.getMeanLatency(), 0.01);
+    long[] histogram = t04.getLatencyHistogram();
+    assertEquals(t04.getLatencyBuckets().length + 1, histogram.length);
+    assertEquals(98, histogram[2]);
+    assertEquals(1, histogram[histogram.length - 1]);
+
+    assertEquals(1000, t04.getBytesReceived());
+    assertEquals(200, t04.getNetworkTime());
+    assertEquals(500, t04.getParseTime());
+    assertEquals(20, t04.getSeriesPerSecond(), 0.01);
+    assertEquals(60, t04.getObservationsPerSecond(), 0.01);
+    assertEquals(0.25, t04.getCacheHitRatio(), 0);
+
+    // Requests of the whole catalog count in the totals only
+    assertEquals(101, this.metrics.getRequestCount());
+    assertEquals(1, this.metrics.getFailureCount());
+    assertArrayEquals(new String[] { T04 }, this.metrics.getDataflows());
+    assertEquals(0.25, this.metrics.getCacheHitRatio(), 0);
+
+    // The counters of the other components are reported too
+    assertEquals("CLOSED", this.metrics.getCircuitState());
+    assertEquals(SDMXURLConnectionTransport.DEFAULT_MAX_CONNECTIONS,
+        this.metrics.getConcurrencyLimit());
+    assertEquals(0, this.metrics.getCacheSize());
+  }
+
+  @Test
+  public void listeners() throws Exception {
+
+    List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    this.metrics.addListener(new SDMXMetricsListener() {
+      @Override
+      public void requestStarted(String dataflow, String kind) {
+        throw new IllegalStateException("Listener failure");
+      }
+    });
+    SDMXMetricsListener listener = new SDMXMetricsListener() {
+      @Override
+      public void requestStarted(String dataflow, String kind) {
+        events.add("started " + dataflow + " " + kind);
+      }
+
+      @Override
+      public void requestCompleted(String dataflow, String kind, long latency,
+          boolean failed) {
+        events.add("completed " + dataflow + " " + kind + " " + failed);
+      }
+    };
+    this.metrics.addListener(listener);
+
+    // A failing listener does not stop the others
+    this.metrics.requestStarted(T04, SDMXMetricsListener.STRUCTURE);
+    this.metrics.requestCompleted(T04, SDMXMetricsListener.STRUCTURE, 1000,
+        true);
+    this.metrics.seriesParsed(T04, 1, 3, 1000);
+    assertEquals(2, events.size());
+    assertEquals("started " + T04 + " structure", events.get(0));
+    assertEquals("completed " + T04 + " structure true", events.get(1));
+
+    this.metrics.removeListener(listener);
+    this.metrics.requestStarted(T04, SDMXMetricsListener.DATA);
+    assertEquals(2, events.size());
+  }
+
+  @Test
+  public void jmx() throws Exception {
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    this.metrics.register("metrics-test");
+    ObjectName storeName = new ObjectName(
+        "org.geotools.data.sdmx:type=SDMXDataStore,name=\"metrics-test\"");
+    ObjectName dfName = new ObjectName(
+        "org.geotools.data.sdmx:type=SDMXDataStore,name=\"metrics-test\","
+            + "dataflow=\"" + T04 + "\"");
+    assertTrue(server.isRegistered(storeName));
+    assertFalse(server.isRegistered(dfName));
+
+    // Dataflows are registered when first requested
+    this.metrics.requestCompleted(T04, SDMXMetricsListener.DATA, 1000, false);
+    assertTrue(server.isRegistered(dfName));
+    assertEquals(1L, server.getAttribute(storeName, "RequestCount"));
+    assertEquals(1L, server.getAttribute(dfName, "RequestCount"));
+    assertEquals("CLOSED", server.getAttribute(storeName, "CircuitState"));
+
+    // Data stores with the same name get different MBeans
+    SDMXDataStore other = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, Helper.URL, null, null);
+    try {
+      other.getMetrics().register("metrics-test");
+      assertEquals("metrics-test (2)", other.getMetrics().getJmxName());
+    } finally {
+      other.dispose();
+    }
+
+    this.metrics.unregister();
+    assertFalse(server.isRegistered(storeName));
+    assertFalse(server.isRegistered(dfName));
+  }
+
+}
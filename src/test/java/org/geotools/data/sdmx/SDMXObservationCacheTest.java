@@ -0,0 +1,119 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import it.bancaditalia.oss.sdmx.api.Dataflow;
+
+public class SDMXObservationCacheTest {
+
+  private Dataflow dataflow;
+
+  @Before
+  public void setUp() {
+    this.dataflow = new Dataflow();
+    this.dataflow.setId("ABS_CENSUS2011_T04");
+  }
+
+  private SDMXDataQuery query(String constraints) {
+    return new SDMXDataQuery("http://stat.data.abs.gov.au/restsdmx/sdmx.ashx",
+        this.dataflow, constraints, null, null);
+  }
+
+  private List<SDMXSeries> series(String region, int nObs) {
+    SDMXSeries series = new SDMXSeries(SDMXDataParserTest.T04_DIMENSIONS,
+        new String[] { "1", "TOT", "TOT", "1", "STE", region, "A" }, null);
+    for (int i = 0; i < nObs; i++) {
+      series.addObservation(String.valueOf(2000 + i), i);
+    }
+    return Arrays.asList(series);
+  }
+
+  @Test
+  public void hitsAndMisses() throws Exception {
+
+    SDMXObservationCache cache = new SDMXObservationCache(1024 * 1024, 60000);
+    assertNull(cache.get(this.query("1....1.")));
+    cache.put(this.query("1....1."), this.series("1", 10));
+
+    assertEquals(10, cache.get(this.query("1....1.")).get(0).size());
+    assertNull(cache.get(this.query("1....2.")));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void leastRecentlyUsedEviction() throws Exception {
+
+    long entrySize = SDMXObservationCache.estimateSize(this.series("1", 100));
+    SDMXObservationCache cache = new SDMXObservationCache(2 * entrySize + 1,
+        60000);
+
+    cache.put(this.query("1"), this.series("1", 100));
+    cache.put(this.query("2"), this.series("2", 100));
+    assertNotNull(cache.get(this.query("1")));
+    cache.put(this.query("3"), this.series("3", 100));
+
+    assertNotNull(cache.get(this.query("1")));
+    assertNull(cache.get(this.query("2")));
+    assertNotNull(cache.get(this.query("3")));
+    assertEquals(1, cache.getEvictionCount());
+    assertTrue(cache.getSize() <= cache.getMaxSize());
+  }
+
+  @Test
+  public void expiration() throws Exception {
+
+    SDMXObservationCache cache = new SDMXObservationCache(1024 * 1024, -1);
+    cache.put(this.query("1"), this.series("1", 10));
+    assertNull(cache.get(this.query("1")));
+
+    // Expired entries can still be served when the server is not available
+    assertEquals(10, cache.getStale(this.query("1")).get(0).size());
+    assertTrue(cache.getAge(this.query("1")) >= 0);
+    assertNull(cache.getStale(this.query("2")));
+    assertEquals(-1, cache.getAge(this.query("2")));
+  }
+
+  @Test
+  public void recordOnlyCompleteReads() throws Exception {
+
+    SDMXObservationCache cache = new SDMXObservationCache(1024 * 1024, 60000);
+
+    SDMXSeriesIterator iter = cache.record(this.query("1"),
+        SDMXSeriesIterator.of(this.series("1", 10)));
+    iter.next();
+    iter.close();
+    assertNull(cache.get(this.query("1")));
+
+    iter = cache.record(this.query("1"),
+        SDMXSeriesIterator.of(this.series("1", 10)));
+    while (iter.hasNext()) {
+      iter.next();
+    }
+    iter.close();
+    assertEquals(1, cache.get(this.query("1")).size());
+  }
+
+}
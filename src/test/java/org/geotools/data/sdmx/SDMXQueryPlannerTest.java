@@ -0,0 +1,77 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SDMXQueryPlannerTest {
+
+  private static String regions(int from, int to) {
+    List<String> codes = new ArrayList<String>();
+    for (int i = from; i < to; i++) {
+      codes.add(String.valueOf(10000 + i));
+    }
+    return String.join(SDMXDataStore.OR_EXP, codes);
+  }
+
+  @Test
+  public void noSplit() throws Exception {
+
+    SDMXQueryPlanner planner = new SDMXQueryPlanner(1000, 0, 4);
+    assertEquals(Arrays.asList("1+2+3.TOT.TOT.1.STE.1+2+3+4.A"),
+        planner.split("1+2+3.TOT.TOT.1.STE.1+2+3+4.A", null));
+    assertEquals(Arrays.asList("......"), planner.split("......", null));
+  }
+
+  @Test
+  public void splitByLength() throws Exception {
+
+    // 500 LGA codes of 5 digits are about 3000 characters
+    SDMXQueryPlanner planner = new SDMXQueryPlanner(1000, 0, 4);
+    List<String> constraints = planner
+        .split("1.TOT.TOT.1.LGA." + regions(0, 500) + ".A", null);
+
+    assertEquals(4, constraints.size());
+    assertEquals("1.TOT.TOT.1.LGA." + regions(0, 125) + ".A",
+        constraints.get(0));
+    assertEquals("1.TOT.TOT.1.LGA." + regions(375, 500) + ".A",
+        constraints.get(3));
+    constraints.forEach(c -> assertTrue(c.length() <= 1000));
+  }
+
+  @Test
+  public void splitBySeries() throws Exception {
+
+    SDMXQueryPlanner planner = new SDMXQueryPlanner(0, 4, 4);
+
+    // The empty dimension counts as many series as its codelist has codes
+    List<String> constraints = planner.split("1+2+3+4.TOT..1",
+        new int[] { 10, 1, 2, 1 });
+    assertEquals(Arrays.asList("1+2.TOT..1", "3+4.TOT..1"), constraints);
+
+    // Single codes cannot be split further
+    constraints = planner.split("1.TOT..1", new int[] { 10, 1, 20, 1 });
+    assertEquals(Arrays.asList("1.TOT..1"), constraints);
+  }
+
+}
@@ -0,0 +1,358 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import it.bancaditalia.oss.sdmx.api.Dataflow;
+
+public class SDMXRequestCoalescerTest {
+
+  private Dataflow dataflow;
+  private AtomicInteger opened;
+  private AtomicInteger closed;
+
+  @Before
+  public void setUp() {
+    this.dataflow = new Dataflow();
+    this.dataflow.setId("ABS_CENSUS2011_T04");
+    this.opened = new AtomicInteger();
+    this.closed = new AtomicInteger();
+  }
+
+  private SDMXDataQuery query(String constraints) {
+    return new SDMXDataQuery("http://stat.data.abs.gov.au/restsdmx/sdmx.ashx",
+        this.dataflow, constraints, null, null);
+  }
+
+  /**
+   * Returns a source of series for regions 0 to nSeries-1, counting how many
+   * times it is opened and closed
+   */
+  private SDMXRequestCoalescer.Source source(int nSeries) {
+    return () -> {
+      this.opened.incrementAndGet();
+      List<SDMXSeries> series = new ArrayList<SDMXSeries>();
+      for (int i = 0; i < nSeries; i++) {
+        series.add(new SDMXSeries(SDMXDataParserTest.T04_DIMENSIONS,
+            new String[] { "1", "TOT", "TOT", "1", "STE", String.valueOf(i),
+                "A" },
+            null));
+      }
+      SDMXSeriesIterator iter = SDMXSeriesIterator.of(series);
+      return new SDMXSeriesIterator() {
+
+        @Override
+        public boolean hasNext() throws IOException {
+          return iter.hasNext();
+        }
+
+        @Override
+        public SDMXSeries next() throws IOException {
+          return iter.next();
+        }
+
+        @Override
+        public void close() {
+          SDMXRequestCoalescerTest.this.closed.incrementAndGet();
+        }
+      };
+    };
+  }
+
+  private List<String> regions(SDMXSeriesIterator iter) throws IOException {
+    List<String> regions = new ArrayList<String>();
+    try {
+      while (iter.hasNext()) {
+        regions.add(iter.next().getKeyValue("REGION"));
+      }
+    } finally {
+      iter.close();
+    }
+    return regions;
+  }
+
+  @Test
+  public void concurrentReaders() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(1000);
+    List<SDMXSeriesIterator> readers = new ArrayList<SDMXSeriesIterator>();
+    for (int i = 0; i < 8; i++) {
+      readers.add(coalescer.get(this.query("1....1."), this.source(100)));
+    }
+    assertEquals(1, coalescer.getInFlightCount());
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+    readers.forEach(r -> results.add(executor.submit(() -> this.regions(r))));
+    for (Future<List<String>> result : results) {
+      List<String> regions = result.get();
+      assertEquals(100, regions.size());
+      assertEquals("0", regions.get(0));
+      assertEquals("99", regions.get(99));
+    }
+    executor.shutdown();
+
+    assertEquals(1, this.opened.get());
+    assertEquals(1, this.closed.get());
+    assertEquals(1, coalescer.getRequestCount());
+    assertEquals(7, coalescer.getCoalescedCount());
+    assertEquals(0, coalescer.getInFlightCount());
+
+    // Finished requests are not joined, different queries are not coalesced
+    this.regions(coalescer.get(this.query("1....1."), this.source(1)));
+    this.regions(coalescer.get(this.query("1....2."), this.source(1)));
+    assertEquals(3, this.opened.get());
+    assertEquals(3, coalescer.getRequestCount());
+  }
+
+  @Test
+  public void lateReaders() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(3);
+    SDMXSeriesIterator first = coalescer.get(this.query("1"), this.source(5));
+    SDMXSeriesIterator second = coalescer.get(this.query("1"),
+        this.source(5));
+    assertEquals("0", first.next().getKeyValue("REGION"));
+
+    // A reader joining while the first series is kept starts from it
+    SDMXSeriesIterator third = coalescer.get(this.query("1"), this.source(5));
+    assertEquals("0", third.next().getKeyValue("REGION"));
+    assertEquals(1, this.opened.get());
+    assertEquals(2, coalescer.getCoalescedCount());
+
+    // Once all readers have moved past it, requests no longer accept readers
+    assertEquals("0", second.next().getKeyValue("REGION"));
+    assertEquals(0, coalescer.getInFlightCount());
+    SDMXSeriesIterator fourth = coalescer.get(this.query("1"),
+        this.source(5));
+    assertEquals(5, this.regions(fourth).size());
+    assertEquals(2, this.opened.get());
+
+    second.close();
+    third.close();
+    assertEquals(Arrays.asList("1", "2", "3", "4"), this.regions(first));
+    assertEquals(2, this.closed.get());
+    assertEquals(0, coalescer.getDetachedCount());
+  }
+
+  @Test
+  public void trimmedSeries() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(1000);
+    SDMXSeriesIterator first = coalescer.get(this.query("1"),
+        this.source(100));
+    SDMXSeriesIterator second = coalescer.get(this.query("1"),
+        this.source(100));
+    SDMXRequestCoalescer.Request request = ((SDMXRequestCoalescer.Reader) first).request;
+
+    // Series are discarded once read by the slowest reader
+    for (int i = 0; i < 100; i++) {
+      assertEquals(String.valueOf(i), first.next().getKeyValue("REGION"));
+      assertEquals(String.valueOf(i), second.next().getKeyValue("REGION"));
+      assertTrue(request.buffer.size() <= 2);
+    }
+    assertFalse(first.hasNext());
+    first.close();
+    second.close();
+    assertEquals(1, this.opened.get());
+    assertEquals(1, this.closed.get());
+  }
+
+  @Test
+  public void slowReaders() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(3, 60000);
+    SDMXSeriesIterator first = coalescer.get(this.query("1"),
+        this.source(20));
+    SDMXSeriesIterator second = coalescer.get(this.query("1"),
+        this.source(20));
+    SDMXRequestCoalescer.Request request = ((SDMXRequestCoalescer.Reader) first).request;
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<List<String>> fast = executor.submit(() -> this.regions(first));
+
+      // The fast reader waits for the slow one instead of parsing ahead
+      long deadline = System.currentTimeMillis() + 10000;
+      while (true) {
+        synchronized (request) {
+          if (request.waiting > 0) {
+            assertEquals(3, request.buffer.size());
+            break;
+          }
+        }
+        assertTrue("The fast reader waits for the slow one",
+            System.currentTimeMillis() < deadline);
+        Thread.sleep(1);
+      }
+      assertFalse(fast.isDone());
+
+      assertEquals(20, this.regions(second).size());
+      assertEquals(20, fast.get().size());
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, this.opened.get());
+    assertEquals(0, coalescer.getDetachedCount());
+  }
+
+  @Test
+  public void parsingReaders() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(1000);
+    CountDownLatch parsing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SDMXRequestCoalescer.Source blocking = () -> {
+      SDMXSeriesIterator iter = this.source(5).open();
+      return new SDMXSeriesIterator() {
+        private int parsed = 0;
+
+        @Override
+        public boolean hasNext() throws IOException {
+          if (this.parsed == 2) {
+            parsing.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }
+          return iter.hasNext();
+        }
+
+        @Override
+        public SDMXSeries next() throws IOException {
+          this.parsed++;
+          return iter.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+          iter.close();
+        }
+      };
+    };
+    SDMXSeriesIterator first = coalescer.get(this.query("1"), blocking);
+    SDMXSeriesIterator second = coalescer.get(this.query("1"), blocking);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<List<String>> parser = executor.submit(() -> this.regions(first));
+      assertTrue(parsing.await(10, TimeUnit.SECONDS));
+
+      // While a reader parses the next series, the others read the series
+      // already parsed
+      assertEquals("0", second.next().getKeyValue("REGION"));
+      assertEquals("1", second.next().getKeyValue("REGION"));
+      assertFalse(parser.isDone());
+
+      release.countDown();
+      assertEquals(5, parser.get(10, TimeUnit.SECONDS).size());
+      assertEquals(Arrays.asList("2", "3", "4"), this.regions(second));
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+    assertEquals(1, this.opened.get());
+    assertEquals(1, this.closed.get());
+  }
+
+  @Test
+  public void detachedReaders() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(3, 0);
+    SDMXSeriesIterator first = coalescer.get(this.query("1"), this.source(5));
+    SDMXSeriesIterator second = coalescer.get(this.query("1"),
+        this.source(5));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(String.valueOf(i), first.next().getKeyValue("REGION"));
+    }
+    assertEquals(1, this.opened.get());
+
+    // A reader too far behind is detached, and sends its own request
+    assertEquals("3", first.next().getKeyValue("REGION"));
+    assertEquals(1, coalescer.getDetachedCount());
+    assertEquals(Arrays.asList("4"), this.regions(first));
+    assertEquals(1, this.closed.get());
+    assertEquals(Arrays.asList("0", "1", "2", "3", "4"),
+        this.regions(second));
+    assertEquals(2, this.opened.get());
+    assertEquals(2, this.closed.get());
+  }
+
+  @Test
+  public void closedReaders() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(1000);
+    SDMXSeriesIterator first = coalescer.get(this.query("1"), this.source(5));
+    SDMXSeriesIterator second = coalescer.get(this.query("1"),
+        this.source(5));
+    first.next();
+    first.close();
+    assertFalse(first.hasNext());
+    assertEquals(0, this.closed.get());
+
+    // The response is closed when all readers are
+    second.next();
+    second.close();
+    assertEquals(1, this.closed.get());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  @Test
+  public void failures() throws Exception {
+
+    SDMXRequestCoalescer coalescer = new SDMXRequestCoalescer(1000);
+    SDMXRequestCoalescer.Source failing = () -> {
+      this.opened.incrementAndGet();
+      throw new IOException("Server unavailable");
+    };
+    SDMXSeriesIterator first = coalescer.get(this.query("1"), failing);
+    SDMXSeriesIterator second = coalescer.get(this.query("1"), failing);
+
+    try {
+      first.hasNext();
+      fail("The failure of the request is returned to all readers");
+    } catch (IOException e) {
+      assertEquals("Server unavailable", e.getMessage());
+    }
+    try {
+      second.hasNext();
+      fail("The failure of the request is returned to all readers");
+    } catch (IOException e) {
+      assertEquals("Server unavailable", e.getMessage());
+    }
+    assertEquals(1, this.opened.get());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+}
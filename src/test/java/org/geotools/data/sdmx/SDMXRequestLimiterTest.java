@@ -0,0 +1,159 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SDMXRequestLimiterTest {
+
+  @Test
+  public void adaptiveLimit() throws Exception {
+
+    SDMXRequestLimiter limiter = new SDMXRequestLimiter(8, 0, 1000);
+    assertEquals(8, limiter.getLimit());
+
+    // Failures halve the limit once per overload
+    List<SDMXRequestLimiter.Permit> permits = new ArrayList<SDMXRequestLimiter.Permit>();
+    for (int i = 0; i < 4; i++) {
+      permits.add(limiter.acquire());
+    }
+    assertEquals(4, limiter.getInFlightCount());
+    permits.forEach(permit -> {
+      permit.failed();
+      permit.close();
+    });
+    assertEquals(4, limiter.getLimit());
+    assertEquals(4, limiter.getFailureCount());
+    assertEquals(0, limiter.getInFlightCount());
+
+    SDMXRequestLimiter.Permit permit = limiter.acquire();
+    permit.failed();
+    permit.close();
+    assertEquals(2, limiter.getLimit());
+
+    // Successes grow the limit by one every limit requests
+    for (int i = 0; i < 2; i++) {
+      permit = limiter.acquire();
+      permit.succeeded();
+      permit.close();
+    }
+    assertEquals(2, limiter.getLimit());
+    permit = limiter.acquire();
+    permit.succeeded();
+    permit.close();
+    assertEquals(3, limiter.getLimit());
+
+    // The limit never exceeds the maximum
+    for (int i = 0; i < 100; i++) {
+      permit = limiter.acquire();
+      permit.succeeded();
+      permit.close();
+    }
+    assertEquals(8, limiter.getLimit());
+  }
+
+  @Test
+  public void slowRequests() throws Exception {
+
+    SDMXRequestLimiter limiter = new SDMXRequestLimiter(8, 0, 1000);
+    SDMXRequestLimiter.Permit permit = limiter.acquire();
+    permit.failed();
+    permit.close();
+    assertEquals(4, limiter.getLimit());
+
+    permit = limiter.acquire();
+    permit.succeeded();
+    permit.close();
+
+    // Slow answers (e.g. to large queries) do not shrink the limit
+    for (int i = 0; i < 4; i++) {
+      permit = limiter.acquire();
+      Thread.sleep(50);
+      permit.succeeded();
+      permit.close();
+    }
+    assertEquals(5, limiter.getLimit());
+    assertEquals(1, limiter.getFailureCount());
+  }
+
+  @Test
+  public void releasedSlots() throws Exception {
+
+    // Slots are released when the server answers, failures included
+    SDMXRequestLimiter limiter = new SDMXRequestLimiter(1, 0, 100);
+    SDMXRequestLimiter.Permit permit = limiter.acquire();
+    permit.succeeded();
+    permit.close();
+    permit.close();
+    assertEquals(0, limiter.getInFlightCount());
+
+    permit = limiter.acquire();
+    permit.failed();
+    permit.close();
+    assertEquals(0, limiter.getInFlightCount());
+    limiter.acquire().close();
+    assertEquals(3, limiter.getRequestCount());
+  }
+
+  @Test
+  public void queueTimeout() throws Exception {
+
+    SDMXRequestLimiter limiter = new SDMXRequestLimiter(1, 0, 100);
+    SDMXRequestLimiter.Permit permit = limiter.acquire();
+    long start = System.currentTimeMillis();
+    try {
+      limiter.acquire();
+      fail("Requests beyond the limit wait at most the queue timeout");
+    } catch (IOException e) {
+      assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+    assertEquals(1, limiter.getRejectionCount());
+
+    // Waiting requests are sent as soon as a slot is free
+    new Thread(() -> {
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        // Nothing to do
+      }
+      permit.close();
+    }).start();
+    limiter.acquire().close();
+    assertEquals(2, limiter.getRequestCount());
+  }
+
+  @Test
+  public void requestRate() throws Exception {
+
+    // A second of requests can be sent at once, the others at the rate
+    SDMXRequestLimiter limiter = new SDMXRequestLimiter(100, 20, 5000);
+    long start = System.nanoTime();
+    for (int i = 0; i < 30; i++) {
+      limiter.acquire().close();
+    }
+    long elapsed = (System.nanoTime() - start) / 1000000;
+    assertTrue(elapsed >= 400);
+    assertTrue(elapsed < 2000);
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Point;
+
+public class SDMXSeriesFeatureTest {
+
+  private SimpleFeatureType featureType;
+  private SDMXSeries series;
+  private int[] sources;
+
+  @Before
+  public void setUp() {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName(Helper.T04);
+    builder.add(SDMXDataStore.GEOMETRY_ATTR, Point.class);
+    builder.setDefaultGeometry(SDMXDataStore.GEOMETRY_ATTR);
+    builder.add(SDMXDataStore.TIME_KEY, String.class);
+    builder.add(SDMXDataStore.MEASURE_KEY, Double.class);
+    builder.add("AGE", String.class);
+    builder.add("REGION", String.class);
+    this.featureType = builder.buildFeatureType();
+
+    this.series = new SDMXSeries(
+        new String[] { "MEASURE", "AGE", "REGION" },
+        new String[] { "1", "TOT", "3" }, null);
+    this.series.addObservation("2001", 10.0);
+    this.series.addObservation("2006", Double.NaN);
+
+    this.sources = SDMXSeriesFeature.mapAttributes(this.featureType,
+        this.series.getDimensionIds());
+  }
+
+  @Test
+  public void attributes() throws Exception {
+
+    assertArrayEquals(
+        new int[] { SDMXSeriesFeature.SOURCE_GEOMETRY,
+            SDMXSeriesFeature.SOURCE_TIME, SDMXSeriesFeature.SOURCE_MEASURE,
+            1, 2 },
+        this.sources);
+
+    SimpleFeature feat = new SDMXSeriesFeature(this.featureType, this.series,
+        0, this.sources, "1.TOT.3.");
+    assertEquals("1.TOT.3.2001", feat.getID());
+    assertNull(feat.getDefaultGeometry());
+    assertEquals("2001", feat.getAttribute(SDMXDataStore.TIME_KEY));
+    assertEquals(10.0, feat.getAttribute(SDMXDataStore.MEASURE_KEY));
+    assertEquals("TOT", feat.getAttribute("AGE"));
+    assertEquals("3", feat.getAttribute(4));
+    assertNull(feat.getAttribute("UNKNOWN"));
+    assertEquals(Arrays.asList(null, "2001", 10.0, "TOT", "3"),
+        feat.getAttributes());
+
+    SimpleFeature missing = new SDMXSeriesFeature(this.featureType,
+        this.series, 1, this.sources, "1.TOT.3.");
+    assertNull(missing.getAttribute(SDMXDataStore.MEASURE_KEY));
+
+    // Views are equal to the same feature built as usual
+    SimpleFeature built = SimpleFeatureBuilder.build(this.featureType,
+        feat.getAttributes(), feat.getID());
+    assertEquals(feat, built);
+    assertEquals(built.hashCode(), feat.hashCode());
+  }
+
+  @Test
+  public void copyOnWrite() throws Exception {
+
+    SimpleFeature feat = new SDMXSeriesFeature(this.featureType, this.series,
+        0, this.sources, "1.TOT.3.");
+    SimpleFeature other = new SDMXSeriesFeature(this.featureType, this.series,
+        0, this.sources, "1.TOT.3.");
+    feat.getUserData().put("key", "value");
+
+    feat.setAttribute("AGE", "A15");
+    assertEquals("A15", feat.getAttribute("AGE"));
+    assertEquals("value", feat.getUserData().get("key"));
+    assertEquals("1.TOT.3.2001", feat.getIdentifier().getID());
+
+    // The series is not modified
+    assertEquals("TOT", other.getAttribute("AGE"));
+    assertEquals("TOT", this.series.getKeyValue("AGE"));
+  }
+
+  @Test
+  public void trimmedSeries() throws Exception {
+
+    SDMXSeries empty = new SDMXSeries(this.series.getDimensionIds(),
+        this.series.getKeyValues(), null);
+    empty.trim();
+    for (int i = 0; i < 20; i++) {
+      empty.addObservation(String.valueOf(2000 + i), i);
+    }
+    assertEquals(20, empty.size());
+    assertEquals("2019", empty.getTimeSlot(19));
+
+    this.series.trim();
+    this.series.addObservation("2011", 30.0);
+    assertEquals(3, this.series.size());
+    assertEquals(30.0, this.series.getObservation(2), 0);
+    assertEquals(10.0, this.series.getObservation(0), 0);
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SDMXSingleFlightTest {
+
+  /**
+   * Starts a thread that gets a key, and waits until it is blocked
+   */
+  private static Thread waiter(SDMXSingleFlight<String, String> flight,
+      AtomicReference<Object> result) throws Exception {
+    Thread thread = new Thread(() -> {
+      try {
+        result.set(flight.get("k", k -> "other"));
+      } catch (Throwable e) {
+        result.set(e);
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (thread.getState() != Thread.State.WAITING) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+    return thread;
+  }
+
+  @Test
+  public void sharedLoad() throws Exception {
+
+    SDMXSingleFlight<String, String> flight = new SDMXSingleFlight<String, String>();
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Object> first = new AtomicReference<Object>();
+    AtomicReference<Object> second = new AtomicReference<Object>();
+
+    Thread loader = new Thread(() -> {
+      try {
+        first.set(flight.get("k", k -> {
+          loads.incrementAndGet();
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          return "v";
+        }));
+      } catch (Throwable e) {
+        first.set(e);
+      }
+    });
+    loader.start();
+    started.await();
+    Thread thread = SDMXSingleFlightTest.waiter(flight, second);
+
+    // The waiting thread gets the value of the load in progress
+    release.countDown();
+    loader.join(10000);
+    thread.join(10000);
+    assertEquals("v", first.get());
+    assertEquals("v", second.get());
+    assertEquals(1, loads.get());
+    assertEquals(0, flight.getInFlightCount());
+  }
+
+  @Test
+  public void failedLoad() throws Exception {
+
+    SDMXSingleFlight<String, String> flight = new SDMXSingleFlight<String, String>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Object> first = new AtomicReference<Object>();
+    AtomicReference<Object> second = new AtomicReference<Object>();
+
+    Thread loader = new Thread(() -> {
+      try {
+        first.set(flight.get("k", k -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          throw new AssertionError("Load failed");
+        }));
+      } catch (Throwable e) {
+        first.set(e);
+      }
+    });
+    loader.start();
+    started.await();
+    Thread thread = SDMXSingleFlightTest.waiter(flight, second);
+
+    // An error in the load is passed on to the waiting thread, which does
+    // not hang
+    release.countDown();
+    loader.join(10000);
+    thread.join(10000);
+    assertFalse(thread.isAlive());
+    assertTrue(first.get() instanceof AssertionError);
+    assertTrue(second.get() instanceof IOException);
+    assertTrue(((IOException) second.get())
+        .getCause() instanceof AssertionError);
+    assertEquals(0, flight.getInFlightCount());
+  }
+
+}
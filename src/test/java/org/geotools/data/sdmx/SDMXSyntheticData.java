@@ -0,0 +1,245 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.geotools.util.logging.Logging;
+
+import it.bancaditalia.oss.sdmx.api.Codelist;
+import it.bancaditalia.oss.sdmx.api.DSDIdentifier;
+import it.bancaditalia.oss.sdmx.api.DataFlowStructure;
+import it.bancaditalia.oss.sdmx.api.Dataflow;
+import it.bancaditalia.oss.sdmx.api.Dimension;
+
+/**
+ * Synthetic SDMX content of any size, modelled on the ABS_CENSUS2011_T04
+ * fixtures, used by benchmarks and load tests
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXSyntheticData {
+
+  public static String T04_ID = "ABS_CENSUS2011_T04";
+
+  protected static final Logger LOGGER = Logging
+      .getLogger(SDMXSyntheticData.class);
+
+  protected static final Pattern SERIES_PATTERN = Pattern
+      .compile("<ABS:Series .*?</ABS:Series>", Pattern.DOTALL);
+  protected static final Pattern REGION_PATTERN = Pattern
+      .compile(" REGION=\"[^\"]*\"");
+  protected static final Pattern MEASURE_PATTERN = Pattern
+      .compile(" MEASURE=\"[^\"]*\"");
+
+  /**
+   * Returns a compact data message with the series of query-t04-321.xml
+   * repeated over as many regions as needed
+   *
+   * @param nSeries
+   *          Number of series of the message
+   * @return The SDMX-ML data message
+   * @throws IOException
+   */
+  public static byte[] dataMessage(int nSeries) throws IOException {
+
+    String template = new String(
+        SDMXSyntheticData.read("test-data/query-t04-321.xml"),
+        StandardCharsets.UTF_8);
+    Matcher matcher = SERIES_PATTERN.matcher(template);
+    if (!matcher.find()) {
+      throw new IOException("No series in the data template");
+    }
+    int start = matcher.start();
+    String series = matcher.group();
+    int end = matcher.end();
+    while (matcher.find()) {
+      end = matcher.end();
+    }
+
+    StringBuilder message = new StringBuilder(
+        start + nSeries * (series.length() + 8) + template.length() - end);
+    message.append(template, 0, start);
+    for (int i = 0; i < nSeries; i++) {
+      String s = REGION_PATTERN.matcher(series)
+          .replaceFirst(" REGION=\"" + (i / 3) + "\"");
+      message.append(MEASURE_PATTERN.matcher(s)
+          .replaceFirst(" MEASURE=\"" + (i % 3 + 1) + "\""));
+      message.append("\n    ");
+    }
+    message.append(template, end, template.length());
+    return message.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the dataflow of the synthetic DSD
+   */
+  public static Dataflow dataflow() {
+    Dataflow df = new Dataflow();
+    df.setId(T04_ID);
+    df.setAgency("ABS");
+    df.setVersion("1.0");
+    df.setName("Census 2011 T04 (synthetic)");
+    df.setDsdIdentifier(new DSDIdentifier(T04_ID, "ABS", "1.0"));
+    return df;
+  }
+
+  /**
+   * Returns a DSD with the dimensions of ABS_CENSUS2011_T04, whose REGION
+   * codelist has the given number of codes
+   *
+   * @param nRegions
+   *          Number of codes of the REGION dimension
+   * @return The DSD
+   */
+  public static DataFlowStructure structure(int nRegions) {
+
+    DataFlowStructure dfs = new DataFlowStructure();
+    dfs.setId(T04_ID);
+    dfs.setAgency("ABS");
+    dfs.setVersion("1.0");
+    dfs.setName("Census 2011 T04 (synthetic)");
+    dfs.setTimeDimension("TIME");
+    dfs.setMeasure("OBS_VALUE");
+
+    String[] ids = SDMXDataParserTest.T04_DIMENSIONS;
+    for (int i = 0; i < ids.length; i++) {
+      Map<String, String> codes = new LinkedHashMap<String, String>();
+      switch (ids[i]) {
+      case "MEASURE":
+        codes.put("1", "Persons");
+        codes.put("2", "Males");
+        codes.put("3", "Females");
+        break;
+      case "REGION":
+        for (int j = 0; j < nRegions; j++) {
+          codes.put(String.valueOf(j), "Region " + j + " - "
+              + (j % 2 == 0 ? "North" : "South") + " " + (j % 97));
+        }
+        break;
+      case "REGIONTYPE":
+        codes.put("AUS", "Australia");
+        codes.put("STE", "States and Territories");
+        codes.put("SA4", "Statistical Area Level 4");
+        break;
+      case "FREQUENCY":
+        codes.put("A", "Annual");
+        break;
+      default:
+        codes.put("TOT", "Total");
+        for (int j = 0; j < 10; j++) {
+          codes.put(String.valueOf(j), ids[i] + " " + j);
+        }
+      }
+
+      Codelist codelist = new Codelist("CL_" + ids[i], "ABS", "1.0");
+      codelist.setCodes(codes);
+      Dimension dim = new Dimension();
+      dim.setId(ids[i]);
+      dim.setName(ids[i]);
+      dim.setPosition(i + 1);
+      dim.setCodeList(codelist);
+      dfs.setDimension(dim);
+    }
+    return dfs;
+  }
+
+  /**
+   * Creates a data store that reads its catalog (the synthetic dataflow and
+   * DSD) from a snapshot, hence without requests to the SDMX server
+   *
+   * @param directory
+   *          Directory where the catalog snapshot is written
+   * @param dfs
+   *          DSD of the synthetic dataflow
+   * @return The data store
+   * @throws Exception
+   */
+  public static SDMXDataStore createOfflineDataStore(File directory,
+      DataFlowStructure dfs) throws Exception {
+
+    SDMXDataStore dataStore = new SDMXDataStore("ABS", Helper.NAMESPACE,
+        Helper.PROVIDER, Helper.URL, null, null);
+    SDMXCatalogSnapshot snapshot = new SDMXCatalogSnapshot(directory,
+        Helper.PROVIDER, Helper.URL, Long.MAX_VALUE, LOGGER);
+    snapshot.save(Collections.singletonMap(T04_ID, SDMXSyntheticData.dataflow()),
+        Collections.singletonMap(T04_ID, dfs));
+    dataStore.setCatalogSnapshot(snapshot);
+    return dataStore;
+  }
+
+  /**
+   * Returns a transport that answers every request with the same message
+   *
+   * @param message
+   *          Body of the responses
+   */
+  public static SDMXTransport transport(byte[] message) {
+    return new SDMXTransport() {
+
+      @Override
+      public InputStream open(String url) {
+        return new ByteArrayInputStream(message);
+      }
+
+      @Override
+      public void dispose() {
+      }
+    };
+  }
+
+  /**
+   * Reads a test resource
+   */
+  public static byte[] read(String fileName) throws IOException {
+    try (InputStream in = Helper.readXMLAsStream(fileName)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Deletes a directory (such as the one of a catalog snapshot) and its files
+   */
+  public static void delete(File directory) {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+}
@@ -0,0 +1,353 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server that stands in for an SDMX endpoint (the ABS one,
+ * SDMX 2.0 ReST) in end-to-end and load tests.
+ *
+ * Dataflows and DSDs come from the test-data files, data messages are
+ * synthetic and of any size (see SDMXSyntheticData). Every response can be
+ * delayed, and data responses can fail at a given rate.
+ *
+ * @author lmorandini
+ *
+ */
+public class SDMXTestServer implements Closeable {
+
+  public static String PATH = "/restsdmx/sdmx.ashx";
+
+  // Kinds of requests
+  public static String DATAFLOWS = "dataflows";
+  public static String STRUCTURE = "structure";
+  public static String CONSTRAINT = "constraint";
+  public static String DATA = "data";
+
+  protected static final Pattern STRUCTURE_PATTERN = Pattern
+      .compile("/GetDataStructure/([^/?]+)", Pattern.CASE_INSENSITIVE);
+  protected static final Pattern KEYFAMILY_PATTERN = Pattern
+      .compile("<KeyFamily id=\"" + SDMXSyntheticData.T04_ID + "\"[^>]*>.*?</KeyFamily>",
+          Pattern.DOTALL);
+
+  protected HttpServer server;
+  protected ExecutorService executor;
+
+  protected byte[] dataflows;
+  protected byte[] t04Structure;
+  protected byte[] seifaStructure;
+  protected byte[] constraint;
+  protected volatile byte[] data;
+
+  protected volatile long minLatency = 0;
+  protected volatile long maxLatency = 0;
+  protected volatile double errorRate = 0;
+  protected volatile int errorStatus = 503;
+
+  protected Set<String> failedStructures = ConcurrentHashMap.newKeySet();
+
+  protected AtomicLong bytes = new AtomicLong();
+  protected AtomicLong errors = new AtomicLong();
+  protected AtomicInteger running = new AtomicInteger();
+  protected AtomicInteger maxRunning = new AtomicInteger();
+  protected ConcurrentHashMap<String, AtomicLong> requests = new ConcurrentHashMap<String, AtomicLong>();
+
+  /**
+   * Constructor (the server listens on a free port of the loopback interface)
+   *
+   * @throws IOException
+   */
+  public SDMXTestServer() throws IOException {
+
+    this.dataflows = SDMXSyntheticData.read("test-data/abs.xml");
+    this.t04Structure = SDMXSyntheticData
+        .read("test-data/abs-census2011-t04-abs.xml");
+    this.seifaStructure = SDMXSyntheticData.read("test-data/abs-seifa-lga.xml");
+    this.constraint = SDMXSyntheticData
+        .read("test-data/availableconstraint-t04.xml");
+    this.data = SDMXSyntheticData.read("test-data/query-t04-321.xml");
+
+    this.executor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "sdmx-test-server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+    this.server.createContext(PATH, exchange -> this.handle(exchange));
+    this.server.setExecutor(this.executor);
+    this.server.start();
+  }
+
+  /**
+   * Returns the URL of the SDMX API
+   */
+  public String getEndpoint() {
+    return "http://" + this.server.getAddress().getHostString() + ":"
+        + this.server.getAddress().getPort() + PATH;
+  }
+
+  /**
+   * Sets the number of series of data responses
+   *
+   * @param nSeries
+   *          Number of series (three observations each)
+   * @throws IOException
+   */
+  public void setSeries(int nSeries) throws IOException {
+    this.data = SDMXSyntheticData.dataMessage(nSeries);
+  }
+
+  /**
+   * Adds copies of the ABS_CENSUS2011_T04 dataflow (named
+   * ABS_CENSUS2011_T04_1, ABS_CENSUS2011_T04_2, ...), sharing its DSD
+   *
+   * @param nCopies
+   *          Number of copies
+   * @throws IOException
+   */
+  public void setDataflowCopies(int nCopies) throws IOException {
+
+    String message = new String(SDMXSyntheticData.read("test-data/abs.xml"),
+        StandardCharsets.UTF_8);
+    Matcher matcher = KEYFAMILY_PATTERN.matcher(message);
+    if (!matcher.find()) {
+      throw new IOException("No T04 dataflow in the dataflows message");
+    }
+
+    StringBuilder copies = new StringBuilder(matcher.group());
+    for (int i = 1; i <= nCopies; i++) {
+      copies.append("\n    ").append(matcher.group().replaceFirst(
+          SDMXSyntheticData.T04_ID, SDMXSyntheticData.T04_ID + "_" + i));
+    }
+    this.dataflows = (message.substring(0, matcher.start()) + copies
+        + message.substring(matcher.end())).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Sets the time responses are delayed by (a random time between the
+   * minimum and the maximum)
+   *
+   * @param minLatencyIn
+   *          Minimum delay (ms)
+   * @param maxLatencyIn
+   *          Maximum delay (ms)
+   */
+  public void setLatency(long minLatencyIn, long maxLatencyIn) {
+    this.minLatency = minLatencyIn;
+    this.maxLatency = Math.max(minLatencyIn, maxLatencyIn);
+  }
+
+  /**
+   * Sets the share of data requests that fail
+   *
+   * @param errorRateIn
+   *          Share of failed requests (between 0 and 1)
+   * @param errorStatusIn
+   *          HTTP status of the failed requests
+   */
+  public void setErrorRate(double errorRateIn, int errorStatusIn) {
+    this.errorRate = errorRateIn;
+    this.errorStatus = errorStatusIn;
+  }
+
+  /**
+   * Sets the DSDs whose requests fail (with the HTTP status of failed
+   * requests)
+   *
+   * @param ids
+   *          Identifiers of the DSDs
+   */
+  public void setFailedStructures(String... ids) {
+    this.failedStructures.clear();
+    this.failedStructures.addAll(Arrays.asList(ids));
+  }
+
+  /**
+   * Returns the number of requests of a kind (DATAFLOWS, STRUCTURE,
+   * CONSTRAINT or DATA) received
+   */
+  public long getRequestCount(String kind) {
+    AtomicLong count = this.requests.get(kind);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Returns the number of failures injected
+   */
+  public long getErrorCount() {
+    return this.errors.get();
+  }
+
+  /**
+   * Returns the number of bytes sent (compressed if the client asked so)
+   */
+  public long getBytesSent() {
+    return this.bytes.get();
+  }
+
+  /**
+   * Returns the highest number of requests served at the same time
+   */
+  public int getMaxConcurrentRequests() {
+    return this.maxRunning.get();
+  }
+
+  /**
+   * Answers a request
+   */
+  protected void handle(HttpExchange exchange) throws IOException {
+
+    int nRunning = this.running.incrementAndGet();
+    this.maxRunning.accumulateAndGet(nRunning, Math::max);
+    try {
+      String path = exchange.getRequestURI().getPath();
+      String kind;
+      byte[] body;
+      boolean failed = false;
+      Matcher matcher = STRUCTURE_PATTERN.matcher(path);
+      if (matcher.find()) {
+        String id = matcher.group(1);
+        if ("ALL".equalsIgnoreCase(id)) {
+          kind = DATAFLOWS;
+          body = this.dataflows;
+        } else {
+          kind = STRUCTURE;
+          body = this.getStructure(id);
+          failed = this.failedStructures.contains(id);
+        }
+      } else if (path.contains("/availableconstraint/")) {
+        kind = CONSTRAINT;
+        body = this.constraint;
+      } else if (path.contains("/GetData/")) {
+        kind = DATA;
+        body = this.data;
+      } else {
+        kind = "other";
+        body = null;
+      }
+      this.requests.computeIfAbsent(kind, k -> new AtomicLong())
+          .incrementAndGet();
+
+      this.delay();
+
+      if (failed || (DATA.equals(kind) && this.errorRate > 0
+          && ThreadLocalRandom.current().nextDouble() < this.errorRate)) {
+        this.errors.incrementAndGet();
+        this.send(exchange, this.errorStatus,
+            "Injected failure".getBytes(StandardCharsets.UTF_8), false);
+      } else if (body == null) {
+        this.send(exchange, 404,
+            "No results found".getBytes(StandardCharsets.UTF_8), false);
+      } else {
+        String encoding = exchange.getRequestHeaders()
+            .getFirst("Accept-Encoding");
+        this.send(exchange, 200, body,
+            encoding != null && encoding.contains("gzip"));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.running.decrementAndGet();
+      exchange.close();
+    }
+  }
+
+  /**
+   * Returns the DSD of a dataflow (null if unknown)
+   */
+  protected byte[] getStructure(String id) {
+    if (id.equals(SDMXSyntheticData.T04_ID)) {
+      return this.t04Structure;
+    }
+    if (id.startsWith(SDMXSyntheticData.T04_ID + "_")) {
+      return new String(this.t04Structure, StandardCharsets.UTF_8)
+          .replace("<KeyFamily id=\"" + SDMXSyntheticData.T04_ID + "\"",
+              "<KeyFamily id=\"" + id + "\"")
+          .getBytes(StandardCharsets.UTF_8);
+    }
+    if (id.equals("ABS_SEIFA_LGA")) {
+      return this.seifaStructure;
+    }
+    return null;
+  }
+
+  /**
+   * Waits for the latency of a response
+   */
+  protected void delay() throws InterruptedException {
+    long latency = this.minLatency;
+    if (this.maxLatency > this.minLatency) {
+      latency += ThreadLocalRandom.current()
+          .nextLong(this.maxLatency - this.minLatency + 1);
+    }
+    if (latency > 0) {
+      Thread.sleep(latency);
+    }
+  }
+
+  /**
+   * Sends a response
+   */
+  protected void send(HttpExchange exchange, int status, byte[] body,
+      boolean gzip) throws IOException {
+
+    if (gzip) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+        out.write(body);
+      }
+      body = compressed.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.getResponseHeaders().set("Content-Type",
+        status == 200 ? "application/xml" : "text/plain");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+    this.bytes.addAndGet(body.length);
+  }
+
+  @Override
+  public void close() {
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SDMXTimeRangeTest {
+
+  @Test
+  public void periods() throws Exception {
+
+    LocalDate[] dates = SDMXTimeRange.parsePeriod("2011");
+    assertEquals(LocalDate.of(2011, 1, 1), dates[0]);
+    assertEquals(LocalDate.of(2011, 12, 31), dates[1]);
+
+    dates = SDMXTimeRange.parsePeriod("2011-Q2");
+    assertEquals(LocalDate.of(2011, 4, 1), dates[0]);
+    assertEquals(LocalDate.of(2011, 6, 30), dates[1]);
+
+    dates = SDMXTimeRange.parsePeriod("2012-S2");
+    assertEquals(LocalDate.of(2012, 7, 1), dates[0]);
+    assertEquals(LocalDate.of(2012, 12, 31), dates[1]);
+
+    dates = SDMXTimeRange.parsePeriod("2012-02");
+    assertEquals(LocalDate.of(2012, 2, 29), dates[1]);
+    assertEquals(LocalDate.of(2012, 2, 1),
+        SDMXTimeRange.parsePeriod("2012-M02")[0]);
+
+    dates = SDMXTimeRange.parsePeriod("2015-W01");
+    assertEquals(LocalDate.of(2014, 12, 29), dates[0]);
+    assertEquals(LocalDate.of(2015, 1, 4), dates[1]);
+
+    dates = SDMXTimeRange.parsePeriod("2011-03-15T10:00:00");
+    assertEquals(LocalDate.of(2011, 3, 15), dates[0]);
+    assertEquals(LocalDate.of(2011, 3, 15), dates[1]);
+
+    assertNull(SDMXTimeRange.parsePeriod("last year"));
+  }
+
+  @Test
+  public void bounds() throws Exception {
+
+    SDMXTimeRange range = new SDMXTimeRange();
+    assertFalse(range.isBounded());
+    assertTrue(range.contains("1900"));
+
+    range.setStart("2011", false);
+    assertEquals("2011", range.getStartPeriod());
+    assertFalse(range.contains("2011"));
+    assertFalse(range.contains("2011-Q4"));
+    assertTrue(range.contains("2012-01"));
+
+    // The narrowest bounds are kept
+    range.setStart("2010", true);
+    assertEquals("2011", range.getStartPeriod());
+    range.setEnd("2016", true);
+    range.setEnd("2015-06", true);
+    assertEquals("2015-06", range.getEndPeriod());
+    assertTrue(range.contains("2015-Q2"));
+    assertFalse(range.contains("2015-Q3"));
+
+    // Periods that cannot be parsed are left to the server
+    assertTrue(range.contains("unknown"));
+  }
+
+  @Test
+  public void countPeriods() throws Exception {
+
+    SDMXTimeRange range = new SDMXTimeRange();
+    assertEquals(-1, range.countPeriods("A"));
+
+    range.setStart("2011", true);
+    range.setEnd("2015", true);
+    assertEquals(5, range.countPeriods("A"));
+    assertEquals(10, range.countPeriods("S"));
+    assertEquals(20, range.countPeriods("Q"));
+    assertEquals(60, range.countPeriods("M"));
+    assertEquals(1826, range.countPeriods("D"));
+    assertEquals(-1, range.countPeriods("X"));
+
+    range = new SDMXTimeRange();
+    range.setStart("2011-02", true);
+    range.setEnd("2011-Q4", false);
+    assertEquals(0, range.countPeriods("A"));
+    assertEquals(2, range.countPeriods("Q"));
+    assertEquals(8, range.countPeriods("M"));
+  }
+
+  @Test
+  public void estimateObservations() throws Exception {
+
+    SDMXSeries annual = new SDMXSeries(new String[] { "REGION", "FREQUENCY" },
+        new String[] { "1", "A" }, null);
+    SDMXSeries quarterly = new SDMXSeries(new String[] { "REGION" },
+        new String[] { "2" }, Collections.singletonMap("TIME_FORMAT", "P3M"));
+    assertEquals("A", annual.getFrequency());
+    assertEquals("Q", quarterly.getFrequency());
+
+    SDMXTimeRange range = new SDMXTimeRange();
+    range.setStart("2011", true);
+    range.setEnd("2015", true);
+    assertEquals(25, SDMXDataStore.estimateObservations(
+        SDMXSeriesIterator.of(Arrays.asList(annual, quarterly)), range));
+
+    // Series with unknown frequency cannot be estimated
+    SDMXSeries unknown = new SDMXSeries(new String[] { "REGION" },
+        new String[] { "3" }, null);
+    assertEquals(-1, SDMXDataStore.estimateObservations(
+        SDMXSeriesIterator.of(Arrays.asList(annual, unknown)), range));
+  }
+
+}
@@ -0,0 +1,218 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sdmx;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class SDMXURLConnectionTransportTest {
+
+  private static final String BODY = "<message:GenericData/>";
+
+  private HttpServer server;
+  private String endpoint;
+  private List<String> authorizations = new CopyOnWriteArrayList<String>();
+  private List<String> clients = new CopyOnWriteArrayList<String>();
+
+  @Before
+  public void setUp() throws Exception {
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    this.server.createContext("/data", exchange -> {
+      String auth = exchange.getRequestHeaders().getFirst("Authorization");
+      this.authorizations.add(auth == null ? "" : auth);
+      this.clients.add(exchange.getRemoteAddress().toString());
+      byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+      if ("gzip".equals(
+          exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(zipped)) {
+          out.write(body);
+        }
+        body = zipped.toByteArray();
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    this.server.createContext("/missing", exchange -> {
+      byte[] body = "No results".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(404, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    this.server.createContext("/wrong", exchange -> {
+      byte[] body = "Syntax error".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(400, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    this.server.start();
+    this.endpoint = "http://localhost:" + this.server.getAddress().getPort();
+  }
+
+  @After
+  public void tearDown() {
+    this.server.stop(0);
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      byte[] buffer = new byte[1024];
+      int n;
+      while ((n = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void open() throws Exception {
+
+    SDMXURLConnectionTransport transport = new SDMXURLConnectionTransport(
+        new URL(this.endpoint), "user", "secret", 5000, 5000, 2);
+
+    // Compressed responses are decompressed
+    assertEquals(BODY, read(transport.open(this.endpoint + "/data/1")));
+    assertEquals(BODY, read(transport.open(this.endpoint + "/data/2")));
+    assertEquals(
+        SDMXURLConnectionTransport.basicAuthorization("user", "secret"),
+        this.authorizations.get(0));
+
+    // The connection is kept alive between requests
+    assertEquals(this.clients.get(0), this.clients.get(1));
+
+    assertNull(transport.open(this.endpoint + "/missing"));
+    assertEquals(0, transport.getActiveConnections());
+  }
+
+  @Test
+  public void maxConnections() throws Exception {
+
+    SDMXURLConnectionTransport transport = new SDMXURLConnectionTransport(
+        new URL(this.endpoint), null, null, 200, 5000, 1);
+
+    InputStream in = transport.open(this.endpoint + "/data/1");
+    assertEquals(1, transport.getActiveConnections());
+    try {
+      transport.open(this.endpoint + "/data/2");
+      fail("The connection should not be available");
+    } catch (IOException e) {
+      // Expected, the only connection is in use
+    }
+
+    read(in);
+    assertEquals(0, transport.getActiveConnections());
+    assertEquals(BODY, read(transport.open(this.endpoint + "/data/2")));
+  }
+
+  @Test
+  public void keepAliveConnections() throws Exception {
+
+    String value = System.getProperty("http.maxConnections");
+    try {
+      System.clearProperty("http.maxConnections");
+      new SDMXURLConnectionTransport(new URL(this.endpoint), null, null, 5000,
+          5000, 12);
+      assertEquals("12", System.getProperty("http.maxConnections"));
+
+      // A higher value is kept
+      new SDMXURLConnectionTransport(new URL(this.endpoint), null, null, 5000,
+          5000, 8);
+      assertEquals("12", System.getProperty("http.maxConnections"));
+    } finally {
+      if (value == null) {
+        System.clearProperty("http.maxConnections");
+      } else {
+        System.setProperty("http.maxConnections", value);
+      }
+    }
+  }
+
+  @Test
+  public void unclosedResponse() throws Exception {
+
+    SDMXURLConnectionTransport transport = new SDMXURLConnectionTransport(
+        new URL(this.endpoint), null, null, 5000, 5000, 1);
+    transport.open(this.endpoint + "/data/1");
+    assertEquals(1, transport.getActiveConnections());
+
+    // The connection of a response that is not closed is freed once the
+    // response is garbage collected
+    long deadline = System.currentTimeMillis() + 10000;
+    while (transport.getActiveConnections() > 0
+        && System.currentTimeMillis() < deadline) {
+      System.gc();
+      System.runFinalization();
+      Thread.sleep(10);
+    }
+    assertEquals(0, transport.getActiveConnections());
+  }
+
+  @Test
+  public void errorStatus() throws Exception {
+
+    SDMXURLConnectionTransport transport = new SDMXURLConnectionTransport(
+        new URL(this.endpoint), null, null, 5000, 5000, 1);
+
+    try {
+      transport.open(this.endpoint + "/wrong");
+      fail("The request should fail");
+    } catch (SDMXHttpException e) {
+      assertEquals(400, e.getStatusCode());
+      assertFalse(e.isServerFailure());
+    }
+
+    // The connection is freed
+    assertEquals(0, transport.getActiveConnections());
+    assertEquals(BODY, read(transport.open(this.endpoint + "/data/1")));
+  }
+
+  @Test
+  public void credentials() throws Exception {
+
+    // Credentials are sent to the endpoint only
+    SDMXURLConnectionTransport transport = new SDMXURLConnectionTransport(
+        new URL("http://example.org/sdmx"), "user", "secret", 5000, 5000, 2);
+    assertEquals(BODY, read(transport.open(this.endpoint + "/data/1")));
+    assertEquals("", this.authorizations.get(0));
+  }
+
+}